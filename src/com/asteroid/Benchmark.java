@@ -0,0 +1,1521 @@
+package com.asteroid;
+
+import java.awt.*;
+import java.awt.geom.Area;
+import java.awt.geom.Path2D;
+import java.awt.geom.PathIterator;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import javax.imageio.ImageIO;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.zip.CRC32;
+import java.util.zip.CheckedOutputStream;
+
+import com.asteroid.net.GameClient;
+import com.asteroid.net.GameServer;
+import com.asteroid.objects.*;
+
+/**
+ * Micro benchmarks for the hot parts of the game world. Runs headless.
+ *
+ * Usage: Benchmark collision [pairs]
+ *        Benchmark sweep [trials]
+ *        Benchmark fastmath [angles]
+ *        Benchmark particles [count]
+ *        Benchmark render [rocks]
+ *        Benchmark handoff [rocks]
+ *        Benchmark export [frames]
+ *        Benchmark sounds
+ *        Benchmark parallel [rocks] [particles]
+ *        Benchmark seed [ticks]
+ *        Benchmark replay [file]
+ *        Benchmark snapshot [rocks]
+ *        Benchmark rollback [delay]
+ *        Benchmark server [players]
+ *        Benchmark spectators [max]
+ */
+public class Benchmark implements Constants {
+
+  // pixels the collision test may be off from the exact answer
+  private static final double COLLISION_TOLERANCE = 0.05;
+
+  public static void main(String[] args) throws IOException {
+    String mode = args.length > 0 ? args[0] : "collision";
+
+    switch (mode) {
+      case "collision":
+        collision(args.length > 1 ? Integer.parseInt(args[1]) : 200000);
+        break;
+      case "particles":
+        particles(args.length > 1 ? Integer.parseInt(args[1]) : 100000);
+        break;
+      case "render":
+        render(args.length > 1 ? Integer.parseInt(args[1]) : 200);
+        break;
+      case "handoff":
+        handoff(args.length > 1 ? Integer.parseInt(args[1]) : 200);
+        break;
+      case "export":
+        export(args.length > 1 ? Integer.parseInt(args[1]) : 300);
+        break;
+      case "sounds":
+        sounds();
+        break;
+      case "parallel":
+        parallel(args.length > 1 ? Integer.parseInt(args[1]) : 20000,
+            args.length > 2 ? Integer.parseInt(args[2]) : 200000);
+        break;
+      case "sweep":
+        sweep(args.length > 1 ? Integer.parseInt(args[1]) : 20000);
+        break;
+      case "fastmath":
+        fastmath(args.length > 1 ? Integer.parseInt(args[1]) : 1000000);
+        break;
+      case "seed":
+        seed(args.length > 1 ? Integer.parseInt(args[1]) : 20000);
+        break;
+      case "replay":
+        replay(args.length > 1 ? args[1] : null);
+        break;
+      case "snapshot":
+        snapshot(args.length > 1 ? Integer.parseInt(args[1]) : 200);
+        break;
+      case "rollback":
+        rollback(args.length > 1 ? Integer.parseInt(args[1]) : 6);
+        break;
+      case "server":
+        server(args.length > 1 ? Integer.parseInt(args[1]) : MAX_PLAYERS);
+        break;
+      case "spectators":
+        spectators(args.length > 1 ? Integer.parseInt(args[1]) : 1000);
+        break;
+      default:
+        System.out.println("unknown benchmark: " + mode);
+    }
+  }
+
+  /**
+   * Compare the circle and separating axis narrow phase with the old vertex
+   * containment test on java.awt.Polygon, for random asteroid and ship pairs
+   * placed close to each other. Then check it against the exact answer, the
+   * intersection of the same outlines as java.awt.geom.Area, with table and
+   * with exact trig. A miss or false hit counts against it when the shapes
+   * overlap or stand apart by more than COLLISION_TOLERANCE pixels.
+   */
+  private static void collision(int pairs) {
+    Random random = new Random(1);
+    SpriteStore rocks = new SpriteStore(pairs, MAX_ROCK_SIDES);
+    Ship[] ships = new Ship[64];
+    Polygon[] rockSprites = new Polygon[pairs];
+    int[] xs = new int[MAX_ROCK_SIDES];
+    int[] ys = new int[MAX_ROCK_SIDES];
+    boolean[] legacy = new boolean[pairs];
+    boolean[] current = new boolean[pairs];
+    int i, j, s, n, hits, same, onlyLegacy, onlyCurrent;
+    double r, theta, error, worst;
+    long start, legacyNanos, currentNanos;
+    boolean exact = FastMath.isExact();
+    double[] overlap = new double[pairs];
+    double[][] shipOutlines = new double[ships.length][];
+    int misses, falseHits, beyond;
+
+    // Random asteroids near the center of the screen, about as close to the
+    // ship as the pairs that share a grid cell.
+    for (i = 0; i < pairs; i++) {
+      rocks.acquire();
+      s = MIN_ROCK_SIDES + random.nextInt(MAX_ROCK_SIDES - MIN_ROCK_SIDES);
+      for (j = 0; j < s; j++) {
+        theta = 2 * Math.PI / s * j;
+        r = MIN_ROCK_SIZE + random.nextInt(MAX_ROCK_SIZE - MIN_ROCK_SIZE);
+        rocks.addVertex(i, -Math.round(r * Math.sin(theta)), Math.round(r * Math.cos(theta)));
+      }
+      rocks.setPosition(i, random.nextDouble() * 160 - 80, random.nextDouble() * 160 - 80);
+      rocks.setRotation(i, random.nextDouble() * 2 * Math.PI, 0);
+      rocks.render(i);
+      n = rocks.renderInterpolated(i, 1.0, xs, ys);
+      rockSprites[i] = new Polygon(xs, ys, n);
+
+    }
+
+    // A handful of ships at random angles, shared between the pairs.
+    for (i = 0; i < ships.length; i++) {
+      ships[i] = new Ship();
+      ships[i].setAngle(random.nextDouble() * 2 * Math.PI);
+      ships[i].render();
+    }
+
+    for (int round = 0; round < 5; round++) {
+      start = System.nanoTime();
+      for (i = 0; i < pairs; i++) legacy[i] = containsVertex(rockSprites[i], ships[i % ships.length].getSprite());
+      legacyNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (i = 0; i < pairs; i++) current[i] = rocks.isColliding(i, ships[i % ships.length]);
+      currentNanos = System.nanoTime() - start;
+
+      if (round < 4) continue;
+
+      hits = same = onlyLegacy = onlyCurrent = 0;
+      for (i = 0; i < pairs; i++) {
+        if (current[i]) hits++;
+        if (legacy[i] == current[i]) same++;
+        else if (legacy[i]) onlyLegacy++;
+        else onlyCurrent++;
+      }
+
+      System.out.println("pairs:             " + pairs);
+      System.out.println("hits:              " + hits);
+      System.out.println("agreement:         " + 100.0 * same / pairs + " %");
+      System.out.println("  only polygon:    " + onlyLegacy);
+      System.out.println("  only SAT:        " + onlyCurrent);
+      System.out.println("polygon ns/test:   " + legacyNanos / pairs);
+      System.out.println("SAT ns/test:       " + currentNanos / pairs);
+      System.out.println("speedup:           " + (double) legacyNanos / currentNanos);
+    }
+
+    for (i = 0; i < ships.length; i++) shipOutlines[i] = outline(ships[i]);
+    for (i = 0; i < pairs; i++) overlap[i] = overlap(outline(rocks, i), shipOutlines[i % ships.length]);
+
+    System.out.println("trig    misses  false hits  worst px  within");
+    for (boolean exactTrig : new boolean[] {false, true}) {
+      FastMath.setExact(exactTrig);
+      misses = falseHits = beyond = 0;
+      worst = 0;
+      for (i = 0; i < pairs; i++) {
+        if (rocks.isColliding(i, ships[i % ships.length]) == overlap[i] > 0) continue;
+
+        if (overlap[i] > 0) misses++;
+        else falseHits++;
+        error = Math.abs(overlap[i]);
+        worst = Math.max(worst, error);
+        if (error > COLLISION_TOLERANCE) beyond++;
+      }
+      System.out.printf("%-6s  %6d  %10d  %8.3f  %s%n", exactTrig ? "exact" : "table", misses, falseHits, worst,
+          beyond == 0 ? "yes" : "NO");
+    }
+    FastMath.setExact(exact);
+  }
+
+  /**
+   * Returns the outline of an asteroid of a store in world space, placed
+   * with exact trig, x and y interleaved.
+   */
+  private static double[] outline(SpriteStore rocks, int id) {
+    int n = rocks.getVertexCount(id);
+    double[] points = new double[2 * n];
+
+    for (int k = 0; k < n; k++)
+      place(points, k, rocks.getShapeX(id, k), rocks.getShapeY(id, k), rocks.getX(id), rocks.getY(id),
+          rocks.getAngle(id));
+    return points;
+  }
+
+  /**
+   * Returns the outline of a sprite in world space, placed with exact trig,
+   * x and y interleaved.
+   */
+  private static double[] outline(AsteroidSprite sprite) {
+    Polygon shape = sprite.getShape();
+    double[] points = new double[2 * shape.npoints];
+
+    for (int k = 0; k < shape.npoints; k++)
+      place(points, k, shape.xpoints[k], shape.ypoints[k], sprite.getX(), sprite.getY(), sprite.getAngle());
+    return points;
+  }
+
+  /**
+   * Turn and move a model space vertex the way the collision shapes do.
+   */
+  private static void place(double[] points, int k, double vx, double vy, double x, double y, double angle) {
+    points[2 * k] = vx * Math.cos(angle) + vy * Math.sin(angle) + x;
+    points[2 * k + 1] = vy * Math.cos(angle) - vx * Math.sin(angle) + y;
+  }
+
+  /**
+   * Intersect two outlines as areas and measure how far they are from only
+   * touching: the deepest point of their intersection, or the gap between
+   * them if they do not intersect.
+   *
+   * @return depth in pixels if they overlap, minus the gap if they do not.
+   */
+  private static double overlap(double[] a, double[] b) {
+    Area area = new Area(path(a));
+    PathIterator segments;
+    double[] point = new double[6];
+    double depth = 0, gap = Double.MAX_VALUE;
+    int k;
+
+    area.intersect(new Area(path(b)));
+    if (area.isEmpty()) {
+      // Polygons apart are closest at a vertex of one of them.
+      for (k = 0; k < a.length; k += 2) gap = Math.min(gap, distance(a[k], a[k + 1], b));
+      for (k = 0; k < b.length; k += 2) gap = Math.min(gap, distance(b[k], b[k + 1], a));
+      return -gap;
+    }
+
+    // Every corner of the intersection lies on one outline, and as deep in
+    // the other as it reaches.
+    for (segments = area.getPathIterator(null); !segments.isDone(); segments.next())
+      if (segments.currentSegment(point) != PathIterator.SEG_CLOSE)
+        depth = Math.max(depth, Math.max(distance(point[0], point[1], a), distance(point[0], point[1], b)));
+    return Math.max(depth, Double.MIN_VALUE);
+  }
+
+  private static Path2D path(double[] points) {
+    Path2D.Double path = new Path2D.Double();
+
+    path.moveTo(points[0], points[1]);
+    for (int k = 2; k < points.length; k += 2) path.lineTo(points[k], points[k + 1]);
+    path.closePath();
+    return path;
+  }
+
+  /**
+   * Returns the distance of a point from the nearest edge of an outline.
+   */
+  private static double distance(double px, double py, double[] points) {
+    double best = Double.MAX_VALUE, ax, ay, bx, by, t;
+    int n = points.length;
+
+    for (int k = 0; k < n; k += 2) {
+      ax = points[k];
+      ay = points[k + 1];
+      bx = points[(k + 2) % n] - ax;
+      by = points[(k + 3) % n] - ay;
+      t = bx == 0 && by == 0 ? 0 : Math.max(0, Math.min(1, ((px - ax) * bx + (py - ay) * by) / (bx * bx + by * by)));
+      best = Math.min(best, Math.hypot(px - ax - t * bx, py - ay - t * by));
+    }
+    return best;
+  }
+
+  /**
+   * Shoot one bullet at one small asteroid per trial and run every trial at
+   * several tick rates, scaling the motion per tick so the paths stay the
+   * same. Hits found by the swept test should not depend on the rate, while
+   * the test at the end position misses more bullets the coarser the ticks.
+   */
+  private static void sweep(int trials) {
+    int[] rates = { 1, 2, 5, 10, 25 };
+    Random random = new Random(2);
+    SpriteStore rocks = new SpriteStore(trials, MAX_ROCK_SIDES);
+    double[][] setup = new double[trials][];
+    boolean[] reference = new boolean[trials];
+    boolean[] atEnd = new boolean[trials];
+    boolean[] swept = new boolean[trials];
+    int i, j, s, endHits, endSame, sweptHits, sweptSame;
+    double r, theta, aim, speed;
+
+    for (i = 0; i < trials; i++) {
+      rocks.acquire();
+      s = MIN_ROCK_SIDES + random.nextInt(MAX_ROCK_SIDES - MIN_ROCK_SIDES);
+      for (j = 0; j < s; j++) {
+        theta = 2 * Math.PI / s * j;
+        r = MIN_ROCK_SIZE / 2 + random.nextInt(MAX_ROCK_SIZE / 2 - MIN_ROCK_SIZE / 2);
+        rocks.addVertex(i, -Math.round(r * Math.sin(theta)), Math.round(r * Math.cos(theta)));
+      }
+
+      // An asteroid drifting from the origin, and a bullet fired at it from
+      // some distance with a little aiming error.
+      theta = random.nextDouble() * 2 * Math.PI;
+      speed = MIN_ROCK_SPEED + random.nextDouble() * (MAX_ROCK_SPEED - MIN_ROCK_SPEED);
+      r = 60 + random.nextDouble() * 60;
+      aim = random.nextDouble() * 2 * Math.PI;
+      setup[i] = new double[] {
+          speed * Math.cos(theta), speed * Math.sin(theta),
+          random.nextDouble() * 2 * Math.PI, (random.nextDouble() * 2 - 1) * MAX_ROCK_SPIN,
+          r * Math.cos(aim), r * Math.sin(aim),
+          Math.PI / 2 - aim + (random.nextDouble() - 0.5) * 0.6
+      };
+    }
+
+    shoot(rocks, setup, 1, true, reference);
+
+    System.out.println("rate    end hits  same     swept hits  same");
+    for (int k : rates) {
+      shoot(rocks, setup, k, false, atEnd);
+      shoot(rocks, setup, k, true, swept);
+
+      endHits = endSame = sweptHits = sweptSame = 0;
+      for (i = 0; i < trials; i++) {
+        if (atEnd[i]) endHits++;
+        if (atEnd[i] == reference[i]) endSame++;
+        if (swept[i]) sweptHits++;
+        if (swept[i] == reference[i]) sweptSame++;
+      }
+
+      System.out.printf("%3d Hz  %8d  %5.1f%%  %10d  %5.1f%%%n", FPS / k,
+          endHits, 100.0 * endSame / trials, sweptHits, 100.0 * sweptSame / trials);
+    }
+  }
+
+  /**
+   * Sweep FastMath over evenly spaced angles of two turns either side of
+   * zero, at a coarse, the default and a fine table, and check that sin and
+   * cos stay within getMaxError() of java.lang.Math. atan2 is swept around
+   * circles of very different radii and checked against ATAN2_MAX_ERROR.
+   */
+  private static void fastmath(int angles) {
+    int[] resolutions = {8, FastMath.DEFAULT_BITS, 16};
+    double[] radii = {1e-3, 1, 1e3};
+    boolean exact = FastMath.isExact();
+    int bits = FastMath.getResolution();
+    double angle, x, y, sinError, cosError, atanError = 0;
+    int i;
+
+    FastMath.setExact(false);
+    System.out.println("angles:            " + angles);
+    System.out.println("bits  sin error  cos error  max error  within");
+    for (int b : resolutions) {
+      FastMath.setResolution(b);
+      sinError = cosError = 0;
+      for (i = 0; i <= angles; i++) {
+        angle = -4 * Math.PI + 8 * Math.PI * i / angles;
+        sinError = Math.max(sinError, Math.abs(FastMath.sin(angle) - Math.sin(angle)));
+        cosError = Math.max(cosError, Math.abs(FastMath.cos(angle) - Math.cos(angle)));
+      }
+      System.out.printf("%4d  %9.2e  %9.2e  %9.2e  %s%n", b, sinError, cosError, FastMath.getMaxError(),
+          sinError <= FastMath.getMaxError() && cosError <= FastMath.getMaxError() ? "yes" : "NO");
+    }
+    FastMath.setResolution(bits);
+
+    for (double r : radii)
+      for (i = 0; i <= angles; i++) {
+        angle = -Math.PI + 2 * Math.PI * i / angles;
+        x = r * Math.cos(angle);
+        y = r * Math.sin(angle);
+        atanError = Math.max(atanError, Math.abs(FastMath.atan2(y, x) - Math.atan2(y, x)));
+      }
+    System.out.printf("atan2 error:       %.2e of %.2e  %s%n", atanError, FastMath.ATAN2_MAX_ERROR,
+        atanError <= FastMath.ATAN2_MAX_ERROR ? "yes" : "NO");
+    FastMath.setExact(exact);
+  }
+
+  /**
+   * Run every trial of the sweep benchmark for one second of game time at
+   * 1/rate of the normal tick rate.
+   */
+  private static void shoot(SpriteStore rocks, double[][] setup, int rate, boolean swept, boolean[] hits) {
+    Bullet bullet = new Ship().getBullet(0);
+    int steps = (FPS + rate - 1) / rate;
+    double[] t;
+    boolean hit;
+
+    for (int i = 0; i < setup.length; i++) {
+      t = setup[i];
+      rocks.setPosition(i, 0, 0);
+      rocks.setDelta(i, t[0] * rate, t[1] * rate);
+      rocks.setRotation(i, t[2], t[3] * rate);
+      bullet.setX(t[4]);
+      bullet.setY(t[5]);
+      bullet.setDeltaX(2 * MAX_ROCK_SPEED * -Math.sin(t[6]) * rate);
+      bullet.setDeltaY(2 * MAX_ROCK_SPEED * Math.cos(t[6]) * rate);
+
+      hit = false;
+      for (int j = 0; j < steps && !hit; j++) {
+        bullet.advance();
+        rocks.advance(i);
+        hit = swept ? rocks.isSweptColliding(i, bullet) : rocks.isColliding(i, bullet);
+      }
+      hits[i] = hit;
+    }
+  }
+
+  /**
+   * Keep a given number of debris particles alive, replacing each one as it
+   * dies, and time updating, transforming and drawing them into an off
+   * screen image the size of the game window, one frame per tick.
+   */
+  private static void particles(int live) {
+    int frames = 300;
+    Random random = new Random(3);
+    ParticleSystem debris = new ParticleSystem(MAX_SCRAP, Math.max(MAX_SCRAP, live));
+    BufferedImage image = new BufferedImage(1200, 800, BufferedImage.TYPE_INT_RGB);
+    Graphics graphics = image.getGraphics();
+    LineRasterizer pixels = new LineRasterizer(image);
+    int[] levelStart = new int[SCRAP_LEVELS + 1];
+    int[] colors = new int[SCRAP_LEVELS];
+    long start, updateNanos, renderNanos, drawNanos;
+    int c, n;
+
+    for (c = 0; c < SCRAP_LEVELS; c++) colors[c] = 0x010101 * (255 * (c + 1) / SCRAP_LEVELS);
+
+    for (int round = 0; round < 3; round++) {
+      updateNanos = renderNanos = drawNanos = 0;
+
+      for (int frame = 0; frame < frames; frame++) {
+        start = System.nanoTime();
+        while (debris.getCount() < live)
+          debris.emit(random.nextDouble() * 1200 - 600, random.nextDouble() * 800 - 400,
+              random.nextDouble() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED,
+              random.nextDouble() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED,
+              random.nextDouble() * 2 * Math.PI, 4 * (random.nextDouble() * 2 * MAX_ROCK_SPIN - MAX_ROCK_SPIN),
+              random.nextInt(9) - 4, random.nextInt(9) - 4, 1 + random.nextInt(SCRAP_COUNT));
+        debris.update();
+        updateNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        n = debris.render(0.5, SCRAP_COUNT, levelStart);
+        renderNanos += System.nanoTime() - start;
+
+        start = System.nanoTime();
+        graphics.setColor(Color.black);
+        graphics.fillRect(0, 0, 1200, 800);
+        for (c = 0; c < SCRAP_LEVELS; c++)
+          pixels.drawLines(colors[c], debris.getX0(), debris.getY0(), debris.getX1(), debris.getY1(),
+              levelStart[c], levelStart[c + 1]);
+        drawNanos += System.nanoTime() - start;
+
+        if (n != debris.getCount()) throw new IllegalStateException("render lost particles");
+      }
+
+      if (round < 2) continue;
+
+      System.out.println("particles:         " + live);
+      System.out.println("update ms/frame:   " + updateNanos / frames / 1e6);
+      System.out.println("render ms/frame:   " + renderNanos / frames / 1e6);
+      System.out.println("draw ms/frame:     " + drawNanos / frames / 1e6);
+      System.out.println("frames/sec:        " + Math.round(frames * 1e9 / (updateNanos + renderNanos + drawNanos)));
+    }
+    graphics.dispose();
+  }
+
+  /**
+   * Draw frames of a 1200x800 world without a window, each way the Screen
+   * can: into an off screen image that is then copied to the screen, here
+   * another image; straight into the screen with debris through drawLine(),
+   * as into the back buffer of a BufferStrategy; and redrawing and copying
+   * only the tiles that changed; and into the off screen image again with
+   * the stars drifting in parallax layers; and at half the size, stretched
+   * over the screen as with -Dasteroid.renderScale=0.5. Reports frame times,
+   * the part of the screen copied and the bytes allocated per frame, and
+   * checks that the dirty tile frames come out the same as whole ones, at
+   * full and at half size, where every sprite is scaled. Only the
+   * software pipeline exists headless; the game shows the frame times of
+   * the pipeline it runs on with 'F' and prints them on exit.
+   */
+  private static void render(int rocks) {
+    int frames = 500, width = 1200, height = 800;
+    String[] modes = {"off screen image", "direct", "dirty rectangles", "parallax", "half scale"};
+    Random random = new Random(4);
+    GameWorld world = new GameWorld(4);
+    InputState input = new InputState();
+    Snapshot snapshot = new Snapshot();
+    Renderer renderer, reference, half, halfReference;
+    RenderFrame captured = new RenderFrame();
+    BufferedImage screen = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    BufferedImage offImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    BufferedImage halfImage = new BufferedImage(width / 2, height / 2, BufferedImage.TYPE_INT_RGB);
+    BufferedImage halfScreen = new BufferedImage(width / 2, height / 2, BufferedImage.TYPE_INT_RGB);
+    Graphics screenGraphics = screen.getGraphics(), offGraphics = offImage.getGraphics();
+    Graphics halfGraphics = halfImage.getGraphics(), halfScreenGraphics = halfScreen.getGraphics();
+    LineRasterizer offPixels = new LineRasterizer(offImage), screenPixels = new LineRasterizer(screen);
+    LineRasterizer halfPixels = new LineRasterizer(halfImage), halfScreenPixels = new LineRasterizer(halfScreen);
+    FrameStats[] stats = new FrameStats[modes.length];
+    long[] copied = new long[modes.length];
+    long[] allocated = new long[modes.length];
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+        ? (com.sun.management.ThreadMXBean) threads : null;
+    DirtyTiles tiles;
+    long start, bytes = 0;
+    int mode, wrong = 0, halfWrong = 0;
+
+    world.setStormSize(rocks);
+    for (int t = 0; t < 10 * FPS || !world.isPlaying(); t++) {
+      pilot(random, world.isPlaying(), input);
+      world.step(input);
+      input.clearRequests();
+    }
+    snapshot.capture(world);
+    renderer = new Renderer(1);
+
+    // Twice each, the first round warms up.
+    for (int round = 0; round < 2 * modes.length; round++) {
+      mode = round % modes.length;
+      snapshot.restore(world);
+      stats[mode] = new FrameStats(modes[mode]);
+      copied[mode] = 0;
+      allocated[mode] = 0;
+      renderer.invalidate();
+      renderer.getStarfield().setParallax(mode == 3);
+      random = new Random(6);
+
+      for (int frame = 0; frame < frames; frame++) {
+        pilot(random, world.isPlaying(), input);
+        world.step(input);
+        input.clearRequests();
+        captured.capture(world, 0.5, input);
+
+        if (allocation != null) bytes = allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+        start = System.nanoTime();
+        if (mode == 0 || mode == 3) {
+          renderer.render(offGraphics, offPixels, width, height, captured);
+          screenGraphics.drawImage(offImage, 0, 0, null);
+          copied[mode] += width * height;
+        }
+        else if (mode == 1) renderer.render(screenGraphics, null, width, height, captured);
+        else if (mode == 4) {
+          renderer.render(halfGraphics, halfPixels, width / 2, height / 2, captured);
+          screenGraphics.drawImage(halfImage, 0, 0, width, height, null);
+          copied[mode] += width * height;
+        }
+        else {
+          tiles = renderer.renderDirty(offGraphics, offPixels, width, height, captured);
+          tiles.forEachRun((x, y, w, h) -> screenGraphics.drawImage(offImage, x, y, x + w, y + h, x, y, x + w, y + h, null));
+          copied[mode] += tiles.getArea();
+        }
+        stats[mode].add(System.nanoTime() - start);
+        if (allocation != null) allocated[mode] += allocation.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+      }
+    }
+
+    // Dirty tile frames against whole frames drawn alike, at both sizes.
+    snapshot.restore(world);
+    renderer = new Renderer(2);
+    reference = new Renderer(2);
+    half = new Renderer(2);
+    halfReference = new Renderer(2);
+    random = new Random(6);
+    for (int frame = 0; frame < frames; frame++) {
+      pilot(random, world.isPlaying(), input);
+      world.step(input);
+      input.clearRequests();
+      captured.capture(world, 0.5, input);
+
+      renderer.renderDirty(offGraphics, offPixels, width, height, captured);
+      reference.render(screenGraphics, screenPixels, width, height, captured);
+      if (!Arrays.equals(((DataBufferInt) offImage.getRaster().getDataBuffer()).getData(),
+          ((DataBufferInt) screen.getRaster().getDataBuffer()).getData()))
+        wrong++;
+
+      half.renderDirty(halfGraphics, halfPixels, width / 2, height / 2, captured);
+      halfReference.render(halfScreenGraphics, halfScreenPixels, width / 2, height / 2, captured);
+      if (!Arrays.equals(((DataBufferInt) halfImage.getRaster().getDataBuffer()).getData(),
+          ((DataBufferInt) halfScreen.getRaster().getDataBuffer()).getData()))
+        halfWrong++;
+    }
+
+    System.out.println("rocks:             " + world.getAsteroids().getActiveCount());
+    System.out.println("debris:            " + world.getExplosions().getCount());
+    System.out.println("path                ms/frame  p99 ms  copied  bytes/frame");
+    for (mode = 0; mode < modes.length; mode++)
+      System.out.printf("%-18s  %8.2f  %6.2f  %s  %11s%n", modes[mode], stats[mode].getMeanMillis(),
+          stats[mode].getPercentileMillis(),
+          mode == 1 ? "     -" : String.format("%5.1f%%", 100.0 * copied[mode] / ((long) frames * width * height)),
+          allocation == null ? "unknown" : allocated[mode] / frames);
+    System.out.println("dirty frames wrong: " + wrong + " of " + frames + ", at half size " + halfWrong);
+    screenGraphics.dispose();
+    offGraphics.dispose();
+    halfGraphics.dispose();
+    halfScreenGraphics.dispose();
+  }
+
+  /**
+   * Export the frames of a scripted game through an Exporter, as raw RGB
+   * into a checksum and as PNG files into a temporary directory, encoded on
+   * one thread and on more. Reports frames per second, how much faster than
+   * real time that is and the bytes written per frame, and the checksum of
+   * everything written, which must not depend on the threads. The PNG files
+   * are read back and must hold the same pixels as the raw frames.
+   */
+  private static void export(int frames) throws IOException {
+    int cores = Runtime.getRuntime().availableProcessors();
+    int[] threads = {1, Math.max(2, cores)};
+    GameWorld world = new GameWorld(4);
+    InputState input = new InputState();
+    Snapshot snapshot = new Snapshot();
+    Random random;
+    Exporter exporter;
+    CheckedOutputStream raw;
+    CRC32 crc = new CRC32(), decoded = new CRC32();
+    BufferedImage image;
+    byte[] row = new byte[3 * WORLD_WIDTH];
+    long rawChecksum = 0;
+    boolean same = true;
+    File directory;
+    File[] files;
+    long start, elapsed, bytes;
+
+    world.setStormSize(20);
+    world.initGame();
+    snapshot.capture(world);
+
+    System.out.println("cores:             " + cores);
+    System.out.println("format  threads  frames/sec  x real time  bytes/frame  checksum");
+    // The first round warms up and is not shown.
+    for (int round = 0; round < 5; round++) {
+      snapshot.restore(world);
+      random = new Random(6);
+      raw = new CheckedOutputStream(OutputStream.nullOutputStream(), new CRC32());
+      directory = round < 3 ? null : Files.createTempDirectory("asteroid-export").toFile();
+      exporter = directory == null ? new Exporter(WORLD_WIDTH, WORLD_HEIGHT, threads[round % 2], raw)
+          : new Exporter(WORLD_WIDTH, WORLD_HEIGHT, threads[round % 2], directory);
+
+      start = System.nanoTime();
+      for (int frame = 0; frame < frames; frame++) {
+        pilot(random, world.isPlaying(), input);
+        world.step(input);
+        exporter.export(world, input);
+        input.clearRequests();
+      }
+      exporter.finish();
+      elapsed = System.nanoTime() - start;
+
+      // PNG files are checked in the order they are numbered in.
+      bytes = (long) frames * 3 * WORLD_WIDTH * WORLD_HEIGHT;
+      crc.reset();
+      if (directory != null) {
+        files = directory.listFiles();
+        Arrays.sort(files);
+        bytes = 0;
+        decoded.reset();
+        for (File file : files) {
+          crc.update(Files.readAllBytes(file.toPath()));
+          bytes += file.length();
+          image = ImageIO.read(file);
+          for (int y = 0; y < image.getHeight(); y++) {
+            for (int x = 0; x < image.getWidth(); x++) {
+              row[3 * x] = (byte) (image.getRGB(x, y) >> 16);
+              row[3 * x + 1] = (byte) (image.getRGB(x, y) >> 8);
+              row[3 * x + 2] = (byte) image.getRGB(x, y);
+            }
+            decoded.update(row);
+          }
+          file.delete();
+        }
+        directory.delete();
+      }
+      else rawChecksum = raw.getChecksum().getValue();
+      if (round == 0) continue;
+
+      System.out.printf("%-6s  %7d  %10d  %11.1f  %11d  %08x%n", directory == null ? "rgb" : "png", threads[round % 2],
+          Math.round(frames * 1e9 / elapsed), frames * 1e9 / elapsed / FPS, bytes / frames,
+          directory == null ? raw.getChecksum().getValue() : crc.getValue());
+      if (directory != null) same &= decoded.getValue() == rawChecksum;
+    }
+    System.out.println("png same as rgb:   " + (same ? "yes" : "no"));
+  }
+
+  /**
+   * Load the sound clips the way the game does, in the background and
+   * several at once, and report how long each took, how long until all were
+   * done against the sum of their times, which is what loading them one
+   * after another would take, and how many can be played. The game does not
+   * wait for any of it, its first frame and the time the sounds are done
+   * after launch are printed when it runs.
+   */
+  private static void sounds() {
+    CountDownLatch done = new CountDownLatch(Sound.getClipTotal());
+    long start = System.nanoTime(), elapsed, sum = 0;
+    int playable = 0;
+
+    Sound.loadSounds(effect -> done.countDown());
+    try {
+      done.await();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+    elapsed = System.nanoTime() - start;
+
+    for (SoundEffect effect : SoundEffect.values()) {
+      System.out.printf("%-18s %6.1f ms%s%n", effect.name().toLowerCase() + ":", Sound.getLoadNanos(effect) / 1e6,
+          Sound.getClip(effect) == null ? ", failed" : "");
+      sum += Sound.getLoadNanos(effect);
+      if (Sound.getClip(effect) != null) playable++;
+    }
+    System.out.printf("all loaded:        %6.1f ms, %.1f ms one after another%n", elapsed / 1e6, sum / 1e6);
+    System.out.println("playable:          " + playable + " of " + Sound.getClipTotal());
+  }
+
+  /**
+   * Step a world on this thread and hand every tick to a second thread
+   * through a FrameExchange, the way the game loop hands frames to paint(),
+   * while the second thread draws the latest frame it can get as fast as it
+   * can. Each frame is checked against a checksum taken when it was
+   * captured, so a frame changed while drawn would show, and the frames
+   * drawn must never go back in time. Reports what publishing and taking
+   * cost, neither of which may ever wait on the other thread; the longest
+   * times are those of the thread being switched out, on a single core.
+   */
+  private static void handoff(int rocks) {
+    int ticks = 20 * FPS, width = 1200, height = 800;
+    Random random = new Random(4);
+    GameWorld world = new GameWorld(4);
+    InputState input = new InputState();
+    FrameExchange exchange = new FrameExchange();
+    long[] sums = new long[ticks];
+    long[] results = new long[5];   // drawn, wrong, backwards, longest take, longest draw
+    long base, start, nanos, capture = 0, publish = 0, longest = 0;
+    Thread drawer;
+    RenderFrame frame;
+    AtomicBoolean done = new AtomicBoolean();
+
+    world.setStormSize(rocks);
+    for (int t = 0; t < 10 * FPS || !world.isPlaying(); t++) {
+      pilot(random, world.isPlaying(), input);
+      world.step(input);
+      input.clearRequests();
+    }
+    base = world.getTick();
+    exchange.getBack().capture(world, 0.5, input);
+    sums[0] = checksum(exchange.getBack());
+    exchange.publish();
+
+    drawer = new Thread(() -> {
+      BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      Graphics graphics = image.getGraphics();
+      LineRasterizer pixels = new LineRasterizer(image);
+      Renderer renderer = new Renderer(1);
+      RenderFrame taken;
+      long last = -1, time;
+      boolean finished;
+
+      do {
+        finished = done.get();
+        time = System.nanoTime();
+        taken = exchange.take();
+        results[3] = Math.max(results[3], System.nanoTime() - time);
+        if (taken.getTick() == last) {
+          Thread.yield();
+          continue;
+        }
+
+        time = System.nanoTime();
+        renderer.render(graphics, pixels, width, height, taken);
+        results[4] = Math.max(results[4], System.nanoTime() - time);
+        if (checksum(taken) != sums[(int) (taken.getTick() - base)]) results[1]++;
+        if (taken.getTick() < last) results[2]++;
+        last = taken.getTick();
+        results[0]++;
+      } while (!finished);
+      graphics.dispose();
+    });
+    drawer.start();
+
+    for (int t = 1; t < ticks; t++) {
+      pilot(random, world.isPlaying(), input);
+      world.step(input);
+      input.clearRequests();
+
+      start = System.nanoTime();
+      frame = exchange.getBack();
+      frame.capture(world, 0.5, input);
+      capture += System.nanoTime() - start;
+      sums[t] = checksum(frame);
+
+      start = System.nanoTime();
+      exchange.publish();
+      nanos = System.nanoTime() - start;
+      publish += nanos;
+      longest = Math.max(longest, nanos);
+      Thread.yield();
+    }
+
+    done.set(true);
+    try {
+      drawer.join();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
+
+    System.out.println("rocks:             " + world.getAsteroids().getActiveCount());
+    System.out.println("debris:            " + world.getExplosions().getCount());
+    System.out.println("ticks published:   " + exchange.getPublished());
+    System.out.println("frames drawn:      " + results[0]);
+    System.out.printf("capture us/tick:   %.1f%n", capture / 1e3 / (ticks - 1));
+    System.out.printf("publish ns/tick:   %.0f%n", (double) publish / (ticks - 1));
+    System.out.printf("longest publish:   %.1f us%n", longest / 1e3);
+    System.out.printf("longest take:      %.1f us%n", results[3] / 1e3);
+    System.out.printf("longest draw:      %.2f ms%n", results[4] / 1e6);
+    System.out.println("frames wrong:      " + results[1]);
+    System.out.println("went back:         " + results[2]);
+  }
+
+  /**
+   * Sum up what a frame shows.
+   */
+  private static long checksum(RenderFrame frame) {
+    long sum = frame.getTick() * 31 + frame.getScore();
+    Polygon p;
+
+    for (int i = 0; i < frame.getPolygonCount(); i++) {
+      p = frame.getPolygon(i);
+      sum = sum * 31 + frame.getKind(i);
+      for (int k = 0; k < p.npoints; k++) sum = (sum * 31 + p.xpoints[k]) * 31 + p.ypoints[k];
+    }
+    for (int i = 0; i < frame.getDebrisCount(); i++)
+      sum = ((sum * 31 + frame.getX0()[i]) * 31 + frame.getY0()[i]) * 31 + frame.getX1()[i] + frame.getY1()[i];
+
+    return sum;
+  }
+
+  /**
+   * Time the update stage, moving and transforming asteroids and moving
+   * debris, with one thread and with pools of 2, 4, ... threads up to the
+   * number of cores. Every run starts from the same state and must end in
+   * exactly the same state as the single threaded run.
+   */
+  private static void parallel(int rocks, int particles) {
+    int ticks = 200;
+    int cores = Runtime.getRuntime().availableProcessors();
+    int threshold = Parallel.getThreshold();
+    ForkJoinPool defaultPool = Parallel.getPool();
+    long reference = 0, checksum, elapsed, sequential = 0;
+
+    System.out.println("cores:             " + cores);
+    System.out.println("rocks:             " + rocks);
+    System.out.println("particles:         " + particles);
+    System.out.println("threads  ms/tick  speedup  identical");
+
+    for (int threads = 1; threads <= Math.max(2, cores); threads *= 2) {
+      ForkJoinPool pool = new ForkJoinPool(threads);
+      SpriteStore store = new SpriteStore(rocks, MAX_ROCK_SIDES);
+      ParticleSystem debris = new ParticleSystem(particles, particles);
+
+      fill(store, debris, rocks, particles);
+      Parallel.setPool(pool);
+      Parallel.setThreshold(threads == 1 ? 0 : threshold);
+
+      elapsed = 0;
+      for (int round = 0; round < 2; round++) {
+        long start = System.nanoTime();
+        for (int t = 0; t < ticks; t++) {
+          store.advanceAll();
+          store.renderAll();
+          debris.update();
+        }
+        elapsed = System.nanoTime() - start;
+      }
+
+      checksum = checksum(store, debris);
+      if (threads == 1) {
+        reference = checksum;
+        sequential = elapsed;
+      }
+
+      System.out.printf("%7d  %7.3f  %7.2f  %s%n", threads, elapsed / 1e6 / ticks,
+          (double) sequential / elapsed, checksum == reference ? "yes" : "NO");
+      pool.shutdown();
+    }
+
+    Parallel.setPool(defaultPool);
+    Parallel.setThreshold(threshold);
+  }
+
+  /**
+   * Fill a store with random asteroids and a particle system with random
+   * debris, the same every time.
+   */
+  private static void fill(SpriteStore store, ParticleSystem debris, int rocks, int particles) {
+    Random random = new Random(4);
+    int i, j, s, id;
+    double r, theta;
+
+    for (i = 0; i < rocks; i++) {
+      id = store.acquire();
+      s = MIN_ROCK_SIDES + random.nextInt(MAX_ROCK_SIDES - MIN_ROCK_SIDES);
+      for (j = 0; j < s; j++) {
+        theta = 2 * Math.PI / s * j;
+        r = MIN_ROCK_SIZE + random.nextInt(MAX_ROCK_SIZE - MIN_ROCK_SIZE);
+        store.addVertex(id, -Math.round(r * Math.sin(theta)), Math.round(r * Math.cos(theta)));
+      }
+      store.setPosition(id, random.nextDouble() * 1200 - 600, random.nextDouble() * 800 - 400);
+      store.setRotation(id, 0, random.nextDouble() * 2 * MAX_ROCK_SPIN - MAX_ROCK_SPIN);
+      store.setDelta(id, random.nextDouble() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED,
+          random.nextDouble() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED);
+    }
+
+    for (i = 0; i < particles; i++)
+      debris.emit(random.nextDouble() * 1200 - 600, random.nextDouble() * 800 - 400,
+          random.nextDouble() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED,
+          random.nextDouble() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED,
+          random.nextDouble() * 2 * Math.PI, 4 * (random.nextDouble() * 2 * MAX_ROCK_SPIN - MAX_ROCK_SPIN),
+          random.nextInt(9) - 4, random.nextInt(9) - 4, 1 + random.nextInt(8 * SCRAP_COUNT));
+  }
+
+  /**
+   * Hash every bit of state the update stage writes.
+   */
+  private static long checksum(SpriteStore store, ParticleSystem debris) {
+    long h = 17;
+    int id;
+
+    for (int k = 0; k < store.getActiveCount(); k++) {
+      id = store.getActive(k);
+      h = h * 31 + Double.doubleToLongBits(store.getX(id));
+      h = h * 31 + Double.doubleToLongBits(store.getY(id));
+      h = h * 31 + Double.doubleToLongBits(store.getAngle(id));
+      h = h * 31 + store.getMinX(id) + 7L * store.getMinY(id) + 13L * store.getMaxX(id) + 19L * store.getMaxY(id);
+    }
+
+    for (int i = 0; i < debris.getCount(); i++) {
+      h = h * 31 + Float.floatToIntBits(debris.getX(i));
+      h = h * 31 + Float.floatToIntBits(debris.getY(i));
+      h = h * 31 + debris.getLife(i);
+    }
+
+    return h;
+  }
+
+  /**
+   * Play the same seeds with the same input several times and check that
+   * every run ends in the same state, including a run with the detail
+   * setting off and one with parallel loops forced on.
+   */
+  private static void seed(int ticks) {
+    long[] seeds = {1, 42, 0x5EEDL};
+    int threshold = Parallel.getThreshold();
+    long reference, hash;
+    boolean same;
+
+    System.out.println("ticks:             " + ticks);
+    System.out.println("seed    state             detail  parallel  other seed");
+
+    for (int k = 0; k < seeds.length; k++) {
+      reference = play(seeds[k], ticks, true);
+      same = play(seeds[k], ticks, true) == reference;
+
+      hash = play(seeds[k], ticks, false);
+      System.out.printf("%-6d  %016x  %-6s  ", seeds[k], reference, hash == reference ? "yes" : "NO");
+
+      Parallel.setThreshold(1);
+      hash = play(seeds[k], ticks, true);
+      Parallel.setThreshold(threshold);
+      System.out.printf("%-8s  %s%n", same && hash == reference ? "yes" : "NO",
+          play(seeds[(k + 1) % seeds.length], ticks, true) != reference ? "differs" : "SAME");
+    }
+  }
+
+  /**
+   * Run a seeded world with scripted input and hash the game state it ends
+   * in.
+   */
+  private static long play(long seed, int ticks, boolean detail) {
+    GameWorld world = new GameWorld(seed);
+    InputState input = new InputState();
+    Ship ship = world.getShip();
+    SpriteStore rocks = world.getAsteroids();
+    long h = 17;
+
+    world.setDetail(detail);
+    world.initGame();
+    for (int t = 0; t < ticks; t++) {
+      input.setLeft(t % 200 < 120);
+      input.setUp(t % 90 < 30);
+      input.setFire(t % 7 == 0);
+      input.setHyperspace(t % 1500 == 0);
+      world.step(input);
+      input.clearRequests();
+      if (!world.isPlaying()) world.initGame();
+    }
+
+    h = h * 31 + world.getScore();
+    h = h * 31 + world.getShipsLeft();
+    h = h * 31 + Double.doubleToLongBits(ship.getX());
+    h = h * 31 + Double.doubleToLongBits(ship.getY());
+    h = h * 31 + Double.doubleToLongBits(world.getUFO().getX());
+    // Debris is left out, the detail setting changes how much there is.
+    return h * 31 + checksum(rocks, new ParticleSystem(1, 1));
+  }
+
+  /**
+   * Record an hour of scripted play, check that playing it back ends in the
+   * recorded state, and time playback and seeking. Given a replay file, that
+   * file is played and timed instead.
+   */
+  private static void replay(String file) throws IOException {
+    int hour = 3600 * FPS;
+    Random random = new Random(9);
+    GameWorld world = new GameWorld(9);
+    InputState input = new InputState();
+    ReplayPlayer player;
+    Replay replay;
+    ByteBuffer recorded = null;
+    long start, elapsed, target, worst;
+    int minutes, seeks;
+
+    if (file == null) {
+      replay = new Replay();
+      start = System.nanoTime();
+      for (int t = 0; t < hour; t++) {
+        pilot(random, world.isPlaying(), input);
+        replay.record(world, input);
+        world.step(input);
+        input.clearRequests();
+      }
+      elapsed = System.nanoTime() - start;
+      recorded = state(world);
+      System.out.printf("recorded:          %d ticks in %.0f ms%n", hour, elapsed / 1e6);
+    } else
+      replay = Replay.load(new File(file));
+
+    minutes = (int) (replay.getLength() / (60 * FPS));
+    System.out.println("length:            " + replay.getLength() + " ticks, " + minutes + " min");
+    System.out.println("keyframes:         " + replay.getKeyframeCount() + ", "
+        + replay.getKeyframeBytes() / 1024 + " KB");
+    System.out.println("total size:        " + replay.getEncodedSize() / 1024 + " KB");
+
+    player = new ReplayPlayer(replay, new GameWorld());
+    start = System.nanoTime();
+    while (player.step()) ;
+    elapsed = System.nanoTime() - start;
+    System.out.printf("playback:          %.0f ms, %d ticks/sec%n", elapsed / 1e6,
+        Math.round(replay.getLength() * 1e9 / elapsed));
+    if (recorded != null)
+      System.out.println("same end state:    " + (state(player.getWorld()).equals(recorded) ? "yes" : "NO"));
+
+    // Seek to the start of every minute, in random order, then to random ticks.
+    for (int round = 0; round < 2; round++) {
+      worst = 0;
+      elapsed = 0;
+      seeks = round == 0 ? minutes : 200;
+      for (int k = 0; k < seeks; k++) {
+        target = round == 0 ? (long) random.nextInt(minutes) * 60 * FPS
+            : (long) (random.nextDouble() * replay.getLength());
+        start = System.nanoTime();
+        player.seek(target);
+        start = System.nanoTime() - start;
+        elapsed += start;
+        worst = Math.max(worst, start);
+      }
+      System.out.printf("seek %-13s %.2f ms avg, %.2f ms max%n", round == 0 ? "to minute:" : "anywhere:",
+          elapsed / 1e6 / Math.max(1, seeks), worst / 1e6);
+    }
+  }
+
+  /**
+   * Time capturing and restoring a snapshot of a busy mid-game world and
+   * count what they allocate, and check that the state is as large as the
+   * world says and that a snapshot saved to a file loads and restores to the
+   * same state. Then run an A/B comparison, detail on against detail off,
+   * where every run starts from that same snapshot.
+   */
+  private static void snapshot(int rocks) throws IOException {
+    int rounds = 20000, ticks = 500;
+    Random random = new Random(5);
+    GameWorld world = new GameWorld(5);
+    InputState input = new InputState();
+    Snapshot snapshot = new Snapshot();
+    ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+    com.sun.management.ThreadMXBean allocation = threads instanceof com.sun.management.ThreadMXBean
+        ? (com.sun.management.ThreadMXBean) threads : null;
+    long start, captureNanos = 0, restoreNanos = 0, bytes = 0;
+    long[] hashes = new long[4];
+    double[] millis = new double[4];
+    Snapshot loaded = new Snapshot();
+    GameWorld copy = new GameWorld(5);
+    String saved;
+    Path file;
+
+    // Play until the storm is under way and debris is flying.
+    world.setStormSize(rocks);
+    for (int t = 0; t < 30 * FPS || !world.isPlaying(); t++) {
+      pilot(random, world.isPlaying(), input);
+      world.step(input);
+      input.clearRequests();
+    }
+
+    for (int round = 0; round < 2; round++) {
+      if (allocation != null) bytes = allocation.getThreadAllocatedBytes(Thread.currentThread().getId());
+
+      start = System.nanoTime();
+      for (int i = 0; i < rounds; i++) snapshot.capture(world);
+      captureNanos = System.nanoTime() - start;
+
+      start = System.nanoTime();
+      for (int i = 0; i < rounds; i++) snapshot.restore(world);
+      restoreNanos = System.nanoTime() - start;
+
+      if (allocation != null) bytes = allocation.getThreadAllocatedBytes(Thread.currentThread().getId()) - bytes;
+    }
+
+    System.out.println("rocks:             " + world.getAsteroids().getActiveCount());
+    System.out.println("debris:            " + world.getExplosions().getCount());
+    System.out.println("snapshot size:     " + snapshot.getSize() + " bytes");
+    System.out.printf("capture:           %.2f us%n", captureNanos / 1e3 / rounds);
+    System.out.printf("restore:           %.2f us%n", restoreNanos / 1e3 / rounds);
+    System.out.println("allocated:         " + (allocation == null ? "unknown"
+        : bytes / (2 * rounds) + " bytes per call"));
+    System.out.println("state size:        " + state(world).limit() + " bytes written, "
+        + world.getStateSize() + " counted");
+
+    // Save to a file, load it into another snapshot and restore that into
+    // another world, which must end up in the same state.
+    file = Files.createTempFile("asteroid", ".snapshot");
+    try {
+      snapshot.save(file);
+      loaded.load(file);
+      loaded.restore(copy);
+      saved = state(copy).equals(state(world)) ? "yes" : "NO, restored state differs";
+    } catch (IOException e) {
+      saved = "NO, " + e.getMessage();
+    } finally {
+      Files.deleteIfExists(file);
+    }
+    System.out.println("save and load:     " + saved);
+
+    // A and B twice each, every run from the snapshot.
+    for (int run = 0; run < 4; run++) {
+      snapshot.restore(world);
+      world.setDetail(run % 2 == 0);
+      input.setBits(0);
+      random = new Random(6);
+      start = System.nanoTime();
+      for (int t = 0; t < ticks; t++) {
+        pilot(random, world.isPlaying(), input);
+        world.step(input);
+        input.clearRequests();
+      }
+      millis[run] = (System.nanoTime() - start) / 1e6 / ticks;
+      hashes[run] = state(world).hashCode();
+    }
+    world.setDetail(true);
+
+    System.out.println("scenario  ms/tick  repeatable");
+    System.out.printf("detail    %7.3f  %s%n", Math.min(millis[0], millis[2]), hashes[0] == hashes[2] ? "yes" : "NO");
+    System.out.printf("no detail %7.3f  %s%n", Math.min(millis[1], millis[3]), hashes[1] == hashes[3] ? "yes" : "NO");
+  }
+
+  /**
+   * Play worlds of 100, 1000 and 10000 asteroids and debris twice from the
+   * same state: once stepped directly, and once through a Rollback that gets
+   * each tick's controls the given number of ticks late. Until they arrive
+   * it guesses the keys held last, and rewinds whenever the guess was wrong.
+   * Reports how many ticks are stepped again per millisecond and checks
+   * that both worlds end in the same state.
+   */
+  private static void rollback(int delay) {
+    int[] sizes = {100, 1000, 10000};
+    int ticks = 10 * FPS, held = InputState.LEFT | InputState.RIGHT | InputState.UP | InputState.DOWN;
+    int[] history = new int[ticks];
+    GameWorld world, direct;
+    Rollback rollback;
+    Random random;
+    InputState input = new InputState();
+    Snapshot snapshot = new Snapshot();
+    long base, start, nanos, resimulated, rewinds;
+    int n, t, size, entities;
+    double perMilli;
+
+    System.out.println("ticks:             " + ticks);
+    System.out.println("late by:           " + delay + " ticks");
+    System.out.println("entities  rewinds  ticks/ms  us/tick  ticks/frame  same");
+
+    // The first run, of the smallest world, warms up the compiler.
+    for (int run = 0; run <= sizes.length; run++) {
+      size = sizes[Math.max(0, run - 1)];
+      world = new GameWorld(7);
+      world.setStormSize(size);
+      random = new Random(5);
+      input.setBits(0);
+      for (t = 0; t < 10 * FPS || !world.isPlaying(); t++) {
+        pilot(random, world.isPlaying(), input);
+        world.step(input);
+        input.clearRequests();
+      }
+      // The storm is at most ROCK_POOL_LIMIT asteroids, debris that lasts
+      // the run makes up the rest.
+      while (world.getAsteroids().getActiveCount() + world.getExplosions().getCount() < size)
+        world.getExplosions().emit(random.nextDouble() * 1200, random.nextDouble() * 800,
+            random.nextDouble() * 2 - 1, random.nextDouble() * 2 - 1, random.nextDouble() * 2 * Math.PI,
+            random.nextDouble() * 0.2 - 0.1, random.nextInt(9) - 4, random.nextInt(9) - 4, 2 * ticks);
+
+      direct = new GameWorld(7);
+      snapshot.capture(world);
+      snapshot.restore(direct);
+      rollback = new Rollback(world, delay + 1);
+      base = world.getTick();
+      nanos = resimulated = rewinds = 0;
+      entities = world.getAsteroids().getActiveCount() + world.getExplosions().getCount();
+
+      for (t = 0; t < ticks; t++) {
+        // No new game, it would clear the debris.
+        pilot(random, true, input);
+        history[t] = input.getBits();
+        direct.step(input);
+        input.clearRequests();
+
+        start = System.nanoTime();
+        if (t >= delay) rollback.correct(base + t - delay, 0, history[t - delay]);
+        n = rollback.resimulate();
+        nanos += System.nanoTime() - start;
+        resimulated += n;
+        if (n > 0) rewinds++;
+
+        world.getPlayer(0).getInput().setBits(t >= delay ? history[t - delay] & held : 0);
+        rollback.step();
+      }
+      for (t = Math.max(0, ticks - delay); t < ticks; t++) rollback.correct(base + t, 0, history[t]);
+      rollback.resimulate();
+
+      if (run == 0) continue;
+
+      perMilli = resimulated * 1e6 / nanos;
+      System.out.printf("%-8d  %7d  %8.1f  %7.1f  %11d  %s%n", entities, rewinds, perMilli, 1e3 / perMilli,
+          (int) (perMilli * DELAY), state(world).equals(state(direct)) ? "yes" : "NO");
+    }
+  }
+
+  /**
+   * Serve an arena on loopback to 1, 2, 4 and so on up to the given number
+   * of scripted clients, all driven from this thread. Reports the ticks per
+   * second the server could run and the bytes each client receives per
+   * second of play, and checks that every client ends up holding the frame
+   * the server sent last.
+   */
+  private static void server(int players) throws IOException {
+    int warmup = 10 * FPS, ticks = 60 * FPS;
+    InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    GameClient[] clients;
+    InputState[] inputs;
+    Random[] randoms;
+    long start, serverNanos, bytes, full;
+    int n, t, i, f, tries;
+    boolean same;
+
+    System.out.println("ticks:             " + ticks);
+    System.out.println("players  ticks/sec  ms/tick  bytes/client/sec  bytes/frame  full  in sync");
+
+    for (n = 1; n <= players; n *= 2) {
+      clients = new GameClient[n];
+      inputs = new InputState[n];
+      randoms = new Random[n];
+      serverNanos = 0;
+      bytes = 0;
+      full = 0;
+
+      try (GameServer server = new GameServer(new GameWorld(3), loopback)) {
+        for (i = 0; i < n; i++) {
+          clients[i] = new GameClient(new InetSocketAddress(loopback.getAddress(), server.getPort()));
+          inputs[i] = new InputState();
+          randoms[i] = new Random(100 + i);
+        }
+
+        // Each client answers every frame with its controls for the next
+        // tick, as a client playing in real time would.
+        for (t = 0; t < warmup + ticks; t++) {
+          if (t == warmup) {
+            serverNanos = 0;
+            bytes = server.getBytesSent();
+            full = server.getFullFrames();
+          }
+
+          start = System.nanoTime();
+          server.tick();
+          serverNanos += System.nanoTime() - start;
+
+          for (i = 0; i < n; i++)
+            for (f = clients[i].receive(); f > 0; f--) {
+              pilot(randoms[i], clients[i].getFrame().isPlaying(), inputs[i]);
+              clients[i].send(inputs[i].getBits());
+              inputs[i].clearRequests();
+            }
+        }
+        bytes = server.getBytesSent() - bytes;
+        full = server.getFullFrames() - full;
+
+        same = true;
+        for (i = 0; i < n; i++) {
+          for (tries = 0; tries < 1000 && clients[i].getFrame().getTick() != server.getFrame().getTick(); tries++)
+            clients[i].receive();
+          same &= clients[i].getFrame().matches(server.getFrame());
+          clients[i].close();
+        }
+      }
+
+      System.out.printf("%-7d  %9d  %7.3f  %16d  %11d  %4d  %s%n", n, Math.round(ticks * 1e9 / serverNanos),
+          serverNanos / 1e6 / ticks, bytes * FPS / ((long) n * ticks), bytes / ((long) n * ticks),
+          full, same ? "yes" : "NO");
+    }
+  }
+
+  /**
+   * Serve an arena of 4 scripted players on loopback to a growing number of
+   * spectators, all driven from this thread. One spectator in 10 reads only
+   * every four seconds and one in 50 never reads, both with a small receive
+   * buffer. Reports the server time per tick and what each spectator adds
+   * to it, the bytes sent per client and second, and how often slow clients
+   * were dropped to a keyframe or disconnected. Checks that every spectator
+   * that reads stays connected and ends up holding the frame the server sent
+   * last; a reader that was cut off counts as lost and out of sync.
+   */
+  private static void spectators(int max) throws IOException {
+    int[] counts = {0, 100, 250, 500, 1000, 2000};
+    int players = 4, warmup = 5 * FPS, ticks = 20 * FPS, settle = FPS;
+    InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+    InetSocketAddress address;
+    GameClient[] clients, spectators;
+    boolean[] lost;
+    InputState[] inputs;
+    Random[] randoms;
+    long start, serverNanos, bytes, keyframes, drops, stalls;
+    double base = 0, micros;
+    int n, t, i, f, tries, losses;
+    boolean same;
+
+    System.out.println("ticks:             " + ticks);
+    System.out.println("players:           " + players);
+    System.out.println("spectators  us/tick  us/spectator  bytes/client/sec  keyframes  drops  stalls  lost  in sync");
+
+    for (int count : counts) {
+      if (count > max) break;
+
+      n = count;
+      clients = new GameClient[players];
+      spectators = new GameClient[n];
+      lost = new boolean[n];
+      inputs = new InputState[players];
+      randoms = new Random[players];
+      serverNanos = bytes = keyframes = drops = stalls = 0;
+
+      try (GameServer server = new GameServer(new GameWorld(3), loopback, loopback)) {
+        for (i = 0; i < players; i++) {
+          clients[i] = new GameClient(new InetSocketAddress(loopback.getAddress(), server.getPort()));
+          inputs[i] = new InputState();
+          randoms[i] = new Random(100 + i);
+        }
+        address = new InetSocketAddress(loopback.getAddress(), server.getSpectatorPort());
+        // A slow spectator's buffer holds a few hundred small frames, any
+        // less and the kernel prunes them and backs off for whole seconds.
+        for (i = 0; i < n; i++) {
+          spectators[i] = new GameClient(address, slow(i) || stalled(i) ? 16384 : 0);
+          // Accept them before the backlog fills.
+          if (i % 100 == 99) server.tick();
+        }
+
+        for (t = 0; t < warmup + ticks + settle; t++) {
+          if (t == warmup) {
+            serverNanos = 0;
+            bytes = server.getBytesSent();
+            keyframes = server.getFullFrames();
+            drops = server.getDrops();
+            stalls = server.getStalls();
+          }
+          if (t == warmup + ticks) {
+            bytes = server.getBytesSent() - bytes;
+            keyframes = server.getFullFrames() - keyframes;
+            drops = server.getDrops() - drops;
+            stalls = server.getStalls() - stalls;
+          }
+
+          start = System.nanoTime();
+          server.tick();
+          if (t < warmup + ticks) serverNanos += System.nanoTime() - start;
+
+          for (i = 0; i < players; i++)
+            for (f = clients[i].receive(); f > 0; f--) {
+              pilot(randoms[i], clients[i].getFrame().isPlaying(), inputs[i]);
+              clients[i].send(inputs[i].getBits());
+              inputs[i].clearRequests();
+            }
+
+          // Slow spectators catch up while the run settles.
+          for (i = 0; i < n; i++)
+            if (!lost[i] && !stalled(i) && (!slow(i) || t % (4 * FPS) == 0 || t >= warmup + ticks))
+              lost[i] = !receive(spectators[i]);
+        }
+
+        same = true;
+        losses = 0;
+        for (i = 0; i < n; i++) {
+          if (stalled(i)) continue;
+          for (tries = 0; tries < 1000 && !lost[i] && spectators[i].getFrame().getTick() != server.getFrame().getTick();
+              tries++)
+            lost[i] = !receive(spectators[i]);
+          if (lost[i]) losses++;
+          same &= !lost[i] && spectators[i].isSpectator() && spectators[i].getFrame().matches(server.getFrame());
+        }
+        for (i = 0; i < players; i++) clients[i].close();
+        for (i = 0; i < n; i++) spectators[i].close();
+      }
+
+      micros = serverNanos / 1e3 / ticks;
+      if (n == 0) base = micros;
+      System.out.printf("%-10d  %7.1f  %12s  %16d  %9d  %5d  %6d  %4d  %s%n", n, micros,
+          n == 0 ? "-" : String.format("%.2f", (micros - base) / n), bytes * FPS / ((long) (players + n) * ticks),
+          keyframes, drops, stalls, losses, same ? "yes" : "NO");
+    }
+  }
+
+  /**
+   * Read what a spectator was sent.
+   *
+   * @return false if the server closed the connection.
+   */
+  private static boolean receive(GameClient spectator) {
+    try {
+      spectator.receive();
+      return true;
+    } catch (IOException e) {
+      return false;
+    }
+  }
+
+  private static boolean slow(int spectator) {
+    return spectator % 10 == 5;
+  }
+
+  private static boolean stalled(int spectator) {
+    return spectator % 50 == 7;
+  }
+
+  /**
+   * Scripted pilot that changes keys every few tenths of a second like a
+   * player would, shoots often and starts a new game when one ends.
+   */
+  private static void pilot(Random random, boolean playing, InputState input) {
+    int keys;
+
+    if (random.nextInt(15) == 0) {
+      keys = random.nextInt(12);
+      input.setLeft(keys % 3 == 1);
+      input.setRight(keys % 3 == 2);
+      input.setUp(keys / 3 == 1 || keys / 3 == 2);
+      input.setDown(keys / 3 == 3);
+    }
+    input.setFire(random.nextInt(10) == 0);
+    input.setHyperspace(random.nextInt(2000) == 0);
+    input.setStart(!playing);
+  }
+
+  /**
+   * Returns the state of a world, for comparing two worlds.
+   */
+  private static ByteBuffer state(GameWorld world) {
+    ByteBuffer buffer = ByteBuffer.allocate(world.getStateSize());
+
+    world.writeState(buffer);
+    buffer.flip();
+    return buffer;
+  }
+
+  /**
+   * The collision test used before the separating axis test: any vertex of
+   * one sprite inside the other.
+   */
+  private static boolean containsVertex(Polygon a, Polygon b) {
+    int i;
+
+    for (i = 0; i < b.npoints; i++)
+      if (a.contains(b.xpoints[i], b.ypoints[i])) return true;
+
+    for (i = 0; i < a.npoints; i++)
+      if (b.contains(a.xpoints[i], a.ypoints[i])) return true;
+
+    return false;
+  }
+}
\ No newline at end of file
@@ -14,17 +14,27 @@ public interface Constants {
   String FONT_NAME = "Helvetica";
   int FONT_SIZE = 14;
 
+  int WORLD_WIDTH  = 1200;     // Size of the world, in the pixels of a
+  int WORLD_HEIGHT = 800;      // frame drawn at full scale.
+
   int DELAY = 20;                     // Milliseconds between a screen and
   int FPS = Math.round(1000 / DELAY); // the resulting frame rate.
+  int MAX_CATCH_UP = 5;               // Most ticks run before a frame is drawn.
 
   int MAX_SHOTS =  8;          // Maximum number of sprites
   int MAX_ROCKS =  8;          // for photons, asteroids and
   int MAX_SCRAP = 40;          // explosions.
 
+  int ROCK_POOL_LIMIT  = 1024;     // Most asteroids and explosion debris
+  int SCRAP_POOL_LIMIT = 1 << 17;  // particles that may be alive at once.
+  int SCRAP_LEVELS     = 32;       // Number of gray levels debris fades through.
+
   int SCRAP_COUNT  = 2 * FPS;  // Timer counter starting values
   int HYPER_COUNT  = 3 * FPS;  // calculated using number of
   int MISSILE_COUNT = 4 * FPS; // seconds currentX frames per second.
   int STORM_PAUSE  = 2 * FPS;
+  int REPLAY_SEEK  = 10 * FPS; // Ticks the arrow keys skip in a replay.
+  int RECOVERY_SAVE = 10 * FPS; // Ticks between crash recovery saves.
 
   int    MIN_ROCK_SIDES =   6; // Ranges for asteroid shape, size
   int    MAX_ROCK_SIDES =  16; // speed and rotation.
@@ -36,6 +46,7 @@ public interface Constants {
 
   int MAX_SHIPS = 3;    // Starting number of ships for each game.
   int UFO_PASSES = 3;   // Number of passes for flying saucer per appearance.
+  int MAX_PLAYERS = 64; // Most players sharing one arena.
 
   // Ship's rotation and acceleration rates and maximum speed.
   double SHIP_ANGLE_STEP = Math.PI / FPS;
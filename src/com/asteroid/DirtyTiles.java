@@ -0,0 +1,173 @@
+package com.asteroid;
+
+import java.util.Arrays;
+
+/**
+ * Marks the parts of a frame that changed, on a grid of TILE by TILE pixel
+ * tiles. Marking a box costs a few tile writes however large the box, and
+ * the marked tiles come back as runs along each row of tiles, which are
+ * what gets cleared, redrawn and copied to the screen.
+ */
+public class DirtyTiles {
+
+  public static final int TILE = 32;   // tile size in pixels
+
+  private int width, height;           // size of the frame
+  private int columns, rows;
+  private boolean[] tiles = new boolean[0];
+  private int marked;                  // number of marked tiles
+
+  /**
+   * Size the grid for a frame, with no tile marked.
+   *
+   * @param width frame width in pixels.
+   * @param height frame height in pixels.
+   */
+  public void reset(int width, int height) {
+    this.width = width;
+    this.height = height;
+    columns = (width + TILE - 1) / TILE;
+    rows = (height + TILE - 1) / TILE;
+    if (tiles.length < columns * rows) tiles = new boolean[columns * rows];
+    clear();
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Unmark every tile.
+   */
+  public void clear() {
+    Arrays.fill(tiles, 0, columns * rows, false);
+    marked = 0;
+  }
+
+  /**
+   * Mark every tile.
+   */
+  public void markAll() {
+    Arrays.fill(tiles, 0, columns * rows, true);
+    marked = columns * rows;
+  }
+
+  /**
+   * Mark the tiles a box of pixels touches. Parts outside the frame are
+   * ignored.
+   *
+   * @param x0 smallest x-coordinate.
+   * @param y0 smallest y-coordinate.
+   * @param x1 largest x-coordinate, inclusive.
+   * @param y1 largest y-coordinate, inclusive.
+   */
+  public void mark(int x0, int y0, int x1, int y1) {
+    int column0, column1, row0, row1, i;
+
+    if (x1 < 0 || y1 < 0 || x0 >= width || y0 >= height) return;
+
+    column0 = Math.max(0, x0) / TILE;
+    column1 = Math.min(width - 1, x1) / TILE;
+    row0 = Math.max(0, y0) / TILE;
+    row1 = Math.min(height - 1, y1) / TILE;
+
+    for (int row = row0; row <= row1; row++)
+      for (int column = column0; column <= column1; column++) {
+        i = row * columns + column;
+        if (!tiles[i]) {
+          tiles[i] = true;
+          marked++;
+        }
+      }
+  }
+
+  /**
+   * Mark the tiles marked in another grid of the same size.
+   *
+   * @param other tiles to add.
+   */
+  public void add(DirtyTiles other) {
+    for (int i = 0; i < columns * rows; i++)
+      if (other.tiles[i] && !tiles[i]) {
+        tiles[i] = true;
+        marked++;
+      }
+  }
+
+  /**
+   * Returns whether the tile holding a pixel is marked.
+   *
+   * @param x x-coordinate of the pixel, inside the frame.
+   * @param y y-coordinate of the pixel, inside the frame.
+   * @return true if marked.
+   */
+  public boolean isMarked(int x, int y) {
+    return tiles[(y / TILE) * columns + x / TILE];
+  }
+
+  /**
+   * Returns the part of the frame that is marked.
+   *
+   * @return fraction of the tiles, from 0 to 1.
+   */
+  public double getCoverage() {
+    return columns * rows == 0 ? 0 : (double) marked / (columns * rows);
+  }
+
+  /**
+   * Returns the number of pixels in marked tiles, counting the tiles cut off
+   * at the right and bottom edges at full size.
+   *
+   * @return marked pixels.
+   */
+  public long getArea() {
+    return (long) marked * TILE * TILE;
+  }
+
+  /**
+   * Hand every run of marked tiles along a row to a visitor, as a box of
+   * pixels clipped to the frame.
+   *
+   * @param visitor receives the boxes.
+   */
+  public void forEachRun(RunVisitor visitor) {
+    int column, start;
+
+    if (marked == 0) return;
+
+    for (int row = 0; row < rows; row++) {
+      column = 0;
+      while (column < columns) {
+        if (!tiles[row * columns + column]) {
+          column++;
+          continue;
+        }
+        start = column;
+        while (column < columns && tiles[row * columns + column]) column++;
+
+        visitor.run(start * TILE, row * TILE, Math.min(width, column * TILE) - start * TILE,
+            Math.min(height, (row + 1) * TILE) - row * TILE);
+      }
+    }
+  }
+
+  /**
+   * Receives runs of marked tiles.
+   */
+  public interface RunVisitor {
+
+    /**
+     * Handle a box of marked pixels.
+     *
+     * @param x left edge.
+     * @param y top edge.
+     * @param width width in pixels.
+     * @param height height in pixels.
+     */
+    void run(int x, int y, int width, int height);
+  }
+}
\ No newline at end of file
@@ -0,0 +1,286 @@
+package com.asteroid;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.zip.CRC32;
+import java.util.zip.Deflater;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Draws frames of a game world into images without a window and writes
+ * them out, as numbered PNG files for visual baselines or as raw RGB to a
+ * stream, to pipe into a video encoder. One frame is written per tick.
+ *
+ * Frames are drawn on the calling thread, with the same Renderer the screen
+ * uses, and encoded on worker threads while the next ones are drawn. Each
+ * frame has its own image, of which there are a few per worker, and the
+ * encoded frames are written in order by the calling thread. The renderer
+ * is seeded, so the same world gives the same frames.
+ *
+ * Usage: Exporter replay-file directory|- [width] [threads]
+ *
+ * With "-" the frames go to standard output as width x height rgb24 at FPS
+ * frames per second, for example into
+ * ffmpeg -f rawvideo -pix_fmt rgb24 -s 1200x800 -r 50 -i - highlight.mp4
+ */
+public class Exporter implements Constants {
+
+  private static final byte[] PNG_SIGNATURE = {(byte) 0x89, 'P', 'N', 'G', '\r', '\n', 0x1a, '\n'};
+
+  private final int width, height;
+  private final File directory;       // where PNG files go, or null
+  private final OutputStream stream;  // where raw frames go, or null
+  private final Renderer renderer = new Renderer(1);
+  private final RenderFrame frame = new RenderFrame();
+
+  // one image per frame in flight, reused once its frame is written
+  private final BufferedImage[] images;
+  private final Graphics[] graphics;
+  private final LineRasterizer[] pixels;
+  private final ExecutorService encoders;
+  private final ArrayDeque<Future<byte[]>> pending = new ArrayDeque<>();
+  private long drawn;                 // frames drawn
+  private long written;               // frames written
+
+  /**
+   * Create an exporter writing frame-000000.png and so on.
+   *
+   * @param width width of the frames.
+   * @param height height of the frames.
+   * @param threads number of threads encoding.
+   * @param directory directory to write to, which must exist.
+   */
+  public Exporter(int width, int height, int threads, File directory) {
+    this(width, height, threads, directory, null);
+  }
+
+  /**
+   * Create an exporter writing raw frames, three bytes of red, green and
+   * blue per pixel, row by row.
+   *
+   * @param width width of the frames.
+   * @param height height of the frames.
+   * @param threads number of threads encoding.
+   * @param stream stream to write to, it is flushed but not closed.
+   */
+  public Exporter(int width, int height, int threads, OutputStream stream) {
+    this(width, height, threads, null, stream);
+  }
+
+  private Exporter(int width, int height, int threads, File directory, OutputStream stream) {
+    this.width = width;
+    this.height = height;
+    this.directory = directory;
+    this.stream = stream;
+
+    images = new BufferedImage[2 * threads];
+    graphics = new Graphics[images.length];
+    pixels = new LineRasterizer[images.length];
+    for (int i = 0; i < images.length; i++) {
+      images[i] = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+      graphics[i] = images[i].getGraphics();
+      pixels[i] = new LineRasterizer(images[i]);
+    }
+    encoders = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "Exporter");
+      thread.setDaemon(true);
+      return thread;
+    });
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the number of frames written so far, frames still encoding are
+   * not counted.
+   *
+   * @return frames written.
+   */
+  public long getWritten() {
+    return written;
+  }
+
+  /**
+   * Draw a frame of a world and queue it for encoding. Waits for the oldest
+   * frame when every image is in flight.
+   *
+   * @param world world to draw.
+   * @param controls controls of player 0, for the thruster flames.
+   * @throws IOException if a frame could not be encoded or written.
+   */
+  public void export(GameWorld world, InputState controls) throws IOException {
+    int i = (int) (drawn % images.length);
+    BufferedImage image = images[i];
+
+    if (pending.size() == images.length) writeOldest();
+
+    frame.capture(world, 1.0, controls);
+    frame.captureScreen(false, true, true, null, null);
+    renderer.render(graphics[i], pixels[i], width, height, frame);
+
+    pending.add(encoders.submit(() -> directory != null ? png(image) : rgb(image, false)));
+    drawn++;
+  }
+
+  /**
+   * Write the frames still in flight and stop the workers. The exporter
+   * cannot be used afterwards.
+   *
+   * @throws IOException if a frame could not be encoded or written.
+   */
+  public void finish() throws IOException {
+    try {
+      while (!pending.isEmpty()) writeOldest();
+      if (stream != null) stream.flush();
+    } finally {
+      encoders.shutdownNow();
+      for (Graphics g : graphics) g.dispose();
+    }
+  }
+
+  /**
+   * Wait for the oldest frame in flight to be encoded and write it.
+   */
+  private void writeOldest() throws IOException {
+    byte[] bytes;
+
+    try {
+      bytes = pending.remove().get();
+    } catch (ExecutionException e) {
+      throw new IOException("Cannot encode frame " + written, e.getCause());
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted writing frame " + written);
+    }
+
+    if (directory != null) Files.write(new File(directory, String.format("frame-%06d.png", written)).toPath(), bytes);
+    else stream.write(bytes);
+    written++;
+  }
+
+  /**
+   * Encode an image as PNG. The rows are stored unfiltered and deflated for
+   * speed, frames are mostly black and shrink well without more effort.
+   */
+  private static byte[] png(BufferedImage image) throws IOException {
+    ByteArrayOutputStream out = new ByteArrayOutputStream(64 * 1024);
+    DataOutputStream data = new DataOutputStream(out);
+    ByteArrayOutputStream deflated = new ByteArrayOutputStream(64 * 1024);
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+
+    try (DeflaterOutputStream idat = new DeflaterOutputStream(deflated, deflater, 64 * 1024)) {
+      idat.write(rgb(image, true));
+    } finally {
+      deflater.end();
+    }
+
+    data.write(PNG_SIGNATURE);
+    data.writeInt(13);
+    chunk(data, "IHDR", ByteBuffer.allocate(13).putInt(image.getWidth()).putInt(image.getHeight())
+        .put((byte) 8).put((byte) 2).put((byte) 0).put((byte) 0).put((byte) 0).array());
+    data.writeInt(deflated.size());
+    chunk(data, "IDAT", deflated.toByteArray());
+    data.writeInt(0);
+    chunk(data, "IEND", new byte[0]);
+    return out.toByteArray();
+  }
+
+  /**
+   * Write the type, data and CRC of a PNG chunk, after its length.
+   */
+  private static void chunk(DataOutputStream out, String type, byte[] bytes) throws IOException {
+    CRC32 crc = new CRC32();
+
+    crc.update(type.getBytes(StandardCharsets.US_ASCII));
+    crc.update(bytes);
+    out.writeBytes(type);
+    out.write(bytes);
+    out.writeInt((int) crc.getValue());
+  }
+
+  /**
+   * Unpack the pixels of an image into red, green and blue bytes, row by
+   * row.
+   *
+   * @param filtered true to start each row with PNG's filter type none.
+   */
+  private static byte[] rgb(BufferedImage image, boolean filtered) {
+    int[] data = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    int width = image.getWidth(), p, j = 0;
+    byte[] bytes = new byte[(3 * width + (filtered ? 1 : 0)) * image.getHeight()];
+
+    for (int i = 0; i < data.length; i++) {
+      if (filtered && i % width == 0) bytes[j++] = 0;
+      p = data[i];
+      bytes[j++] = (byte) (p >> 16);
+      bytes[j++] = (byte) (p >> 8);
+      bytes[j++] = (byte) p;
+    }
+    return bytes;
+  }
+
+  public static void main(String[] args) throws IOException {
+    int width, height, threads;
+    boolean pipe;
+    File directory;
+    Replay replay;
+    GameWorld world;
+    ReplayPlayer player;
+    Exporter exporter;
+    long start, elapsed;
+
+    if (args.length < 2) {
+      System.err.println("Usage: Exporter replay-file directory|- [width] [threads]");
+      System.exit(1);
+    }
+    if (System.getProperty("java.awt.headless") == null) System.setProperty("java.awt.headless", "true");
+
+    replay = Replay.load(new File(args[0]));
+    pipe = args[1].equals("-");
+    width = args.length > 2 ? Integer.parseInt(args[2]) : WORLD_WIDTH;
+    height = width * WORLD_HEIGHT / WORLD_WIDTH;
+    threads = args.length > 3 ? Integer.parseInt(args[3]) : Runtime.getRuntime().availableProcessors();
+
+    directory = new File(args[1]);
+    if (!pipe) Files.createDirectories(directory.toPath());
+    exporter = pipe ? new Exporter(width, height, threads, new BufferedOutputStream(System.out, 1 << 16))
+        : new Exporter(width, height, threads, directory);
+
+    // The replay starts at its first keyframe, which is a frame too.
+    world = new GameWorld();
+    player = new ReplayPlayer(replay, world);
+    start = System.nanoTime();
+    exporter.export(world, player.getInput());
+    while (player.step()) exporter.export(world, player.getInput());
+    exporter.finish();
+    elapsed = System.nanoTime() - start;
+
+    // Standard output may be the frames, so report on standard error.
+    System.err.println("frames:       " + exporter.getWritten() + " of " + width + "x" + height
+        + (pipe ? " rgb24" : " png in " + directory));
+    System.err.println("frames/sec:   " + Math.round(exporter.getWritten() * 1e9 / elapsed));
+    System.err.println("x real time:  " + String.format("%.1f", exporter.getWritten() * 1e9 / elapsed / FPS));
+  }
+}
\ No newline at end of file
@@ -0,0 +1,145 @@
+package com.asteroid;
+
+/**
+ * Fast trigonometry for the per-vertex and per-tick hot paths.
+ * In table mode sine and cosine come from a lookup table with angles
+ * quantized to the nearest table step, and atan2 uses a polynomial
+ * approximation. Exact mode simply delegates to java.lang.Math.
+ *
+ * With a table of 2^bits entries, sin and cos are off by at most
+ * PI / 2^bits (about 0.0008 at the default 12 bits). atan2 is off by at most
+ * 0.00002 radians. Table mode is the default; start the game with
+ * -Dasteroid.exactMath=true to switch to exact mode.
+ */
+public final class FastMath {
+
+  public static final int DEFAULT_BITS = 12;
+
+  // Largest error of atan2() against Math.atan2(), in radians.
+  public static final double ATAN2_MAX_ERROR = 2e-5;
+
+  private static final double TWO_PI = 2 * Math.PI;
+
+  private static volatile boolean exact = Boolean.getBoolean("asteroid.exactMath");
+  private static volatile Table table = new Table(DEFAULT_BITS);
+
+  private FastMath() {}
+
+  /**
+   * Lookup table of one full period of the sine function. Kept in a single
+   * object so that changing the resolution swaps it in atomically.
+   */
+  private static final class Table {
+    final double[] sin;
+    final int mask;
+    final int quarter;
+    final double scale;
+
+    Table(int bits) {
+      int size = 1 << bits;
+
+      sin = new double[size];
+      mask = size - 1;
+      quarter = size / 4;
+      scale = size / TWO_PI;
+
+      for (int i = 0; i < size; i++) sin[i] = Math.sin(i / scale);
+    }
+  }
+
+  /**
+   * Returns whether calls are delegated to java.lang.Math.
+   *
+   * @return true in exact mode, false in table mode.
+   */
+  public static boolean isExact() {
+    return exact;
+  }
+
+  /**
+   * Switch between exact and table mode.
+   *
+   * @param isExact true to use java.lang.Math, false to use the tables.
+   */
+  public static void setExact(boolean isExact) {
+    exact = isExact;
+  }
+
+  /**
+   * Returns the size of the sine table as a power of two.
+   *
+   * @return number of bits of table resolution.
+   */
+  public static int getResolution() {
+    return Integer.numberOfTrailingZeros(table.sin.length);
+  }
+
+  /**
+   * Rebuild the sine table with 2^bits entries.
+   *
+   * @param bits table resolution, between 4 and 20.
+   */
+  public static void setResolution(int bits) {
+    if (bits < 4 || bits > 20)
+      throw new IllegalArgumentException("resolution out of range: " + bits);
+
+    table = new Table(bits);
+  }
+
+  /**
+   * Returns the largest error of sin() and cos() in table mode.
+   *
+   * @return error bound.
+   */
+  public static double getMaxError() {
+    return Math.PI / table.sin.length;
+  }
+
+  public static double sin(double angle) {
+    Table t;
+
+    if (exact) return Math.sin(angle);
+
+    t = table;
+    return t.sin[(int) (Math.round(angle * t.scale) & t.mask)];
+  }
+
+  public static double cos(double angle) {
+    Table t;
+
+    if (exact) return Math.cos(angle);
+
+    t = table;
+    return t.sin[(int) ((Math.round(angle * t.scale) + t.quarter) & t.mask)];
+  }
+
+  /**
+   * Returns the angle of the point (x, y) from the positive x-axis, like
+   * Math.atan2().
+   *
+   * @param y y-coordinate.
+   * @param x x-coordinate.
+   * @return angle in the range [-PI, PI].
+   */
+  public static double atan2(double y, double x) {
+    double ax, ay, z, zz, a;
+
+    if (exact) return Math.atan2(y, x);
+
+    ax = Math.abs(x);
+    ay = Math.abs(y);
+    if (ax == 0 && ay == 0) return 0;
+
+    // Approximate atan over [0, 1] and mirror into the right octant.
+    z = ax > ay ? ay / ax : ax / ay;
+    zz = z * z;
+    a = z * (0.9998660 + zz * (-0.3302995 + zz * (0.1801410
+        + zz * (-0.0851330 + zz * 0.0208351))));
+
+    if (ay > ax) a = Math.PI / 2 - a;
+    if (x < 0) a = Math.PI - a;
+    if (y < 0) a = -a;
+
+    return a;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,84 @@
+package com.asteroid;
+
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Hands frames from the thread that steps the world to the thread that
+ * draws them, through three frames that never block either side. The
+ * stepping thread captures into its back frame and publishes it, swapping
+ * it with the middle one; the drawing thread takes the middle one when a
+ * newer frame was published since it last looked, and otherwise keeps the
+ * frame it has. Neither side ever holds the other's frame, so a frame is
+ * never written while it is drawn, and the drawer always gets the latest
+ * frame that was captured whole.
+ *
+ * The middle frame's index and whether it is new share one atomic int, so
+ * each swap is a single getAndSet(). One thread may publish and one take at
+ * a time, though they may be the same thread.
+ */
+public class FrameExchange {
+
+  private static final int INDEX = 3;  // bits of the middle frame's index
+  private static final int FRESH = 4;  // set while the middle frame is unseen
+
+  private final RenderFrame[] frames = {new RenderFrame(), new RenderFrame(), new RenderFrame()};
+  private final AtomicInteger middle = new AtomicInteger(1);
+  private int back = 0;                // only touched by the publisher
+  private int front = 2;               // only touched by the taker
+  private long published;              // frames published
+  private long taken;                  // frames taken
+
+  /**
+   * Returns the frame to capture into before calling publish().
+   *
+   * @return back frame.
+   */
+  public RenderFrame getBack() {
+    return frames[back];
+  }
+
+  /**
+   * Make the back frame the latest, and get another one to capture into. A
+   * published frame that was never taken is captured over.
+   */
+  public void publish() {
+    back = middle.getAndSet(back | FRESH) & INDEX;
+    published++;
+  }
+
+  /**
+   * Returns the latest published frame. It stays unchanged until the next
+   * call.
+   *
+   * @return front frame, the same one as last time if nothing was published
+   *         since.
+   */
+  public RenderFrame take() {
+    if ((middle.get() & FRESH) != 0) {
+      front = middle.getAndSet(front) & INDEX;
+      taken++;
+    }
+    return frames[front];
+  }
+
+  /**
+   * Returns the number of frames published. Read it on the publishing
+   * thread.
+   *
+   * @return frames published.
+   */
+  public long getPublished() {
+    return published;
+  }
+
+  /**
+   * Returns the number of published frames that were taken, the others were
+   * captured over before the drawing thread got to them. Read it on the
+   * taking thread.
+   *
+   * @return frames taken.
+   */
+  public long getTaken() {
+    return taken;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,94 @@
+package com.asteroid;
+
+import java.util.Arrays;
+
+/**
+ * Times the frames of one way of drawing them, such as page flipping on a
+ * given Java2D pipeline. The last WINDOW frame times are kept to report the
+ * mean, 99th percentile and worst frame, so two ways can be compared by
+ * running the game once with each.
+ */
+public class FrameStats {
+
+  public static final int WINDOW = 256;   // frames the figures cover
+
+  private final String name;              // how the frames are drawn
+  private final long[] nanos = new long[WINDOW];
+  private final long[] sorted = new long[WINDOW];
+  private long count;                     // frames timed in all
+
+  /**
+   * Create an empty set of frame times.
+   *
+   * @param name how the frames are drawn, shown with the figures.
+   */
+  public FrameStats(String name) {
+    this.name = name;
+  }
+
+  public String getName() {
+    return name;
+  }
+
+  public long getCount() {
+    return count;
+  }
+
+  /**
+   * Add the time of one frame.
+   *
+   * @param frameNanos time the frame took to draw and show, in nanoseconds.
+   */
+  public void add(long frameNanos) {
+    nanos[(int) (count++ % WINDOW)] = frameNanos;
+  }
+
+  /**
+   * Returns the mean time of the last frames.
+   *
+   * @return milliseconds, 0 if no frame was timed.
+   */
+  public double getMeanMillis() {
+    int n = (int) Math.min(count, WINDOW);
+    long sum = 0;
+
+    for (int i = 0; i < n; i++) sum += nanos[i];
+
+    return n == 0 ? 0 : sum / 1e6 / n;
+  }
+
+  /**
+   * Returns the time that 99 in 100 of the last frames took at most.
+   *
+   * @return milliseconds, 0 if no frame was timed.
+   */
+  public double getPercentileMillis() {
+    int n = (int) Math.min(count, WINDOW);
+
+    if (n == 0) return 0;
+
+    System.arraycopy(nanos, 0, sorted, 0, n);
+    Arrays.sort(sorted, 0, n);
+    return sorted[Math.min(n - 1, n * 99 / 100)] / 1e6;
+  }
+
+  /**
+   * Returns the time of the slowest of the last frames.
+   *
+   * @return milliseconds, 0 if no frame was timed.
+   */
+  public double getMaxMillis() {
+    int n = (int) Math.min(count, WINDOW);
+    long max = 0;
+
+    for (int i = 0; i < n; i++) max = Math.max(max, nanos[i]);
+
+    return max / 1e6;
+  }
+
+  @Override
+  public String toString() {
+    return String.format("%s  frame %.2f ms  p99 %.2f ms  max %.2f ms",
+        name, getMeanMillis(), getPercentileMillis(), getMaxMillis());
+  }
+}
\ No newline at end of file
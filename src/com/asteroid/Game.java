@@ -1,7 +1,11 @@
 package com.asteroid;
 
+import java.io.File;
+import java.io.IOException;
+
 /**
  * Game object responsible for initiating the game.
+ * Given the path of a replay file, it plays the replay instead.
  */
 public class Game {
   private Screen screen;
@@ -10,8 +14,10 @@ public class Game {
     screen = new Screen();
   }
 
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
+    Replay replay = args.length > 0 ? Replay.load(new File(args[0])) : null;
+
     // start the game
-    new Game().screen.start();
+    new Game().screen.start(replay);
   }
 }
\ No newline at end of file
@@ -0,0 +1,119 @@
+package com.asteroid;
+
+/**
+ * Fixed timestep scheduler for the game loop.
+ * Elapsed real time is collected in an accumulator and handed out as whole
+ * simulation ticks, so the game runs at the same speed no matter how long a
+ * frame takes to render. The remainder is used to interpolate rendering
+ * between the last two ticks. When the loop falls far behind, at most
+ * maxCatchUp ticks are run before a frame is drawn and the rest of the
+ * backlog is dropped.
+ */
+public class GameClock {
+
+  private final long tickNanos;   // length of one simulation tick
+  private final int maxCatchUp;   // most ticks run before a frame is rendered
+
+  private long lastTime;          // time of the previous call to ticksDue()
+  private long accumulator;       // real time not yet consumed by ticks
+
+  // counters
+  private long ticksRun;          // simulation ticks handed out
+  private long ticksDropped;      // ticks discarded because the loop fell behind
+  private long framesRendered;    // frames drawn
+  private long framesSkipped;     // extra ticks run without a frame in between
+
+  /**
+   * Create a clock.
+   *
+   * @param tickNanos length of a simulation tick in nanoseconds.
+   * @param maxCatchUp maximum number of ticks to run before rendering.
+   */
+  public GameClock(long tickNanos, int maxCatchUp) {
+    this.tickNanos = tickNanos;
+    this.maxCatchUp = maxCatchUp;
+  }
+
+  /**
+   * Start measuring time from now with an empty accumulator.
+   *
+   * @param now current time in nanoseconds.
+   */
+  public void reset(long now) {
+    lastTime = now;
+    accumulator = 0;
+  }
+
+  /**
+   * Add the time elapsed since the previous call and return how many
+   * simulation ticks are due.
+   *
+   * @param now current time in nanoseconds.
+   * @return number of ticks to run before the next frame.
+   */
+  public int ticksDue(long now) {
+    int ticks;
+
+    accumulator += now - lastTime;
+    lastTime = now;
+
+    ticks = (int) Math.min(accumulator / tickNanos, maxCatchUp);
+    accumulator -= ticks * tickNanos;
+
+    // Too far behind, drop the backlog rather than spiral.
+    if (accumulator >= tickNanos) {
+      ticksDropped += accumulator / tickNanos;
+      accumulator %= tickNanos;
+    }
+
+    ticksRun += ticks;
+    if (ticks > 1) framesSkipped += ticks - 1;
+
+    return ticks;
+  }
+
+  /**
+   * Returns how far real time has moved past the last tick, as a fraction
+   * of a tick. Used to interpolate rendering between the last two states.
+   *
+   * @return value in the range [0, 1).
+   */
+  public double getAlpha() {
+    return (double) accumulator / tickNanos;
+  }
+
+  /**
+   * Returns the time left until the next tick is due.
+   *
+   * @param now current time in nanoseconds.
+   * @return nanoseconds until the next tick.
+   */
+  public long nanosUntilNextTick(long now) {
+    return Math.max(0, tickNanos - accumulator - (now - lastTime));
+  }
+
+  /**
+   * Count frames rendered since the last call.
+   *
+   * @param frames number of frames.
+   */
+  public void framesRendered(int frames) {
+    framesRendered += frames;
+  }
+
+  public long getTicksRun() {
+    return ticksRun;
+  }
+
+  public long getTicksDropped() {
+    return ticksDropped;
+  }
+
+  public long getFramesRendered() {
+    return framesRendered;
+  }
+
+  public long getFramesSkipped() {
+    return framesSkipped;
+  }
+}
\ No newline at end of file
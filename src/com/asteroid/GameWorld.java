@@ -0,0 +1,1191 @@
+package com.asteroid;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.SplittableRandom;
+
+import com.asteroid.objects.*;
+
+/**
+ * The game world holds every game object and all of the game rules.
+ * It does not depend on a window, so it can be stepped headless as fast as
+ * the machine allows. The Screen only renders it and feeds it input.
+ *
+ * All randomness comes from streams owned by the world and seeded by
+ * initGame(): one for spawning asteroids, the saucer and hyperspace jumps,
+ * one for explosion effects and one for the saucer's decisions. The same
+ * seed and the same input always play out the same game, and effects such
+ * as the detail setting cannot change where the next asteroid appears.
+ *
+ * writeState() captures everything a step depends on, random streams
+ * included, so a world put back with readState() continues exactly as the
+ * saved one would have. Only the detail setting and the sound listener are
+ * left out.
+ *
+ * Up to MAX_PLAYERS players can share the arena, each with a ship, bullets,
+ * score and ships of their own. Player 0 is the local player of a Screen,
+ * the getters for the ship and score are its, and only its thrusters make a
+ * sound. Players shoot asteroids, the saucer and its missile but not each
+ * other, and the game ends when every player is out of ships.
+ */
+public class GameWorld implements Constants {
+
+  // Layout of writeState(), to be raised whenever the layout changes.
+  public static final int STATE_VERSION = 2;
+
+  // game data
+  private int highScore;
+  private int newUFOScore;
+  private long tick;           // number of ticks stepped since creation
+
+  // random streams, split from the seed of the current game
+  private final RandomStream seeds;  // source of seeds for new games
+  private long seed;                 // seed of the current game
+  private RandomStream spawnRandom;
+  private RandomStream effectsRandom;
+  private RandomStream aiRandom;
+
+  // flags for game state and options
+  private boolean playing;
+  private boolean detail;
+
+  // players, the slots below playerCount have been used
+  private Player[] players = new Player[MAX_PLAYERS];
+  private int playerCount;
+
+  // game objects
+  private UFO ufo;
+  private SpriteStore asteroids = new SpriteStore(MAX_ROCKS, MAX_ROCK_SIDES, ROCK_POOL_LIMIT);
+  private ParticleSystem explosions = new ParticleSystem(MAX_SCRAP, SCRAP_POOL_LIMIT);
+
+  // broad phase for asteroid collisions and the ids it hands back
+  private SpatialGrid asteroidGrid = new SpatialGrid(2 * MAX_ROCK_SIZE);
+  private int[] candidates = new int[MAX_ROCKS];
+
+  private int stormSize = MAX_ROCKS;  // number of asteroids in each new storm
+
+  // flying saucer data
+  private int ufoPassesLeft;   // counter for number of flying saucer passes
+  private int ufoCounter;      // timer counter used to track each flying saucer pass
+
+  // missile data
+  private int missileCounter;  // counter for life of missile
+  private int missileTarget;   // player the missile is guided to
+
+  // asteroid data
+  private boolean[] asteroidIsSmall = new boolean[MAX_ROCKS];  // asteroid size flag
+  private int asteroidsCounter;    // break-time counter
+
+  private double asteroidsSpeed;   // asteroid speed
+
+  // flags for looping sounds
+  private boolean thrustersPlaying;
+  private boolean saucerPlaying;
+  private boolean missilePlaying;
+
+  private SoundListener sounds = SoundListener.NONE;
+
+  /**
+   * Create all game objects with an unpredictable seed. The world starts out
+   * idle, call initGame() to begin playing.
+   */
+  public GameWorld() {
+    this(new SplittableRandom().nextLong());
+  }
+
+  /**
+   * Create all game objects. Games started with initGame() take their seeds
+   * from the given one, so a whole run of games can be repeated.
+   *
+   * @param seed seed for the seeds of the games.
+   */
+  public GameWorld(long seed) {
+    seeds = new RandomStream(seed);
+    seedStreams(seeds.nextLong());
+
+    // create the local player and the shape for its ship sprite
+    players[0] = new Player(0);
+    players[0].joined = true;
+    playerCount = 1;
+
+    // create shape for the flying saucer
+    ufo = new UFO();
+
+    // asteroid sprites live in their store, explosion debris in its
+    // particle system
+
+    highScore = 0;
+    detail = true;
+  }
+
+  /**
+   * Sets the listener which receives sound cues from the world.
+   *
+   * @param sounds sound listener, or SoundListener.NONE to run silently.
+   */
+  public void setSoundListener(SoundListener sounds) {
+    this.sounds = sounds;
+  }
+
+  public SoundListener getSoundListener() {
+    return sounds;
+  }
+
+  public Ship getShip() {
+    return players[0].ship;
+  }
+
+  /**
+   * Returns a player slot.
+   *
+   * @param index slot index, below getPlayerCount().
+   * @return the player, which may not have joined.
+   */
+  public Player getPlayer(int index) {
+    return players[index];
+  }
+
+  /**
+   * Returns the number of player slots that have been used. Slots of players
+   * who left stay, and are handed to the next one to join.
+   *
+   * @return number of player slots.
+   */
+  public int getPlayerCount() {
+    return playerCount;
+  }
+
+  /**
+   * Add a player to the arena. During a game the new ship comes in as
+   * though from hyperspace, otherwise it waits for the next game.
+   *
+   * @return index of the new player, or -1 if MAX_PLAYERS have joined.
+   */
+  public int addPlayer() {
+    Player player = null;
+    int i;
+
+    for (i = 0; i < playerCount; i++)
+      if (!players[i].joined) {
+        player = players[i];
+        break;
+      }
+    if (player == null) {
+      if (playerCount == MAX_PLAYERS) return -1;
+      if (players[playerCount] == null) players[playerCount] = new Player(playerCount);
+      player = players[playerCount++];
+    }
+
+    player.joined = true;
+    resetPlayer(player);
+    if (playing) {
+      initShip(player);
+      player.hyperCounter = HYPER_COUNT;
+    }
+    return player.getIndex();
+  }
+
+  /**
+   * Take a player out of the arena, with its ship and bullets.
+   *
+   * @param index index of the player.
+   */
+  public void removePlayer(int index) {
+    Player player = players[index];
+
+    if (!player.joined) return;
+
+    player.joined = false;
+    player.ship.setActive(false);
+    player.ship.clearBullets();
+    player.shipsLeft = 0;
+    if (index == 0 && thrustersPlaying) {
+      sounds.stop(SoundEffect.THRUSTERS);
+      thrustersPlaying = false;
+    }
+  }
+
+  /**
+   * Returns whether every player has lost all ships.
+   */
+  private boolean isEveryPlayerOut() {
+    for (int i = 0; i < playerCount; i++)
+      if (players[i].joined && !players[i].isOut()) return false;
+    return true;
+  }
+
+  public UFO getUFO() {
+    return ufo;
+  }
+
+  public SpriteStore getAsteroids() {
+    return asteroids;
+  }
+
+  public ParticleSystem getExplosions() {
+    return explosions;
+  }
+
+  /**
+   * Returns the number of asteroids in each new storm.
+   *
+   * @return storm size.
+   */
+  public int getStormSize() {
+    return stormSize;
+  }
+
+  /**
+   * Sets the number of asteroids in each new storm. The asteroid store grows
+   * to hold them, up to ROCK_POOL_LIMIT.
+   *
+   * @param stormSize number of asteroids, MAX_ROCKS in the normal game.
+   */
+  public void setStormSize(int stormSize) {
+    this.stormSize = stormSize;
+  }
+
+  public int getScore() {
+    return players[0].score;
+  }
+
+  public int getHighScore() {
+    return highScore;
+  }
+
+  public int getShipsLeft() {
+    return players[0].shipsLeft;
+  }
+
+  public int getHyperCounter() {
+    return players[0].hyperCounter;
+  }
+
+  public int getMissileCounter() {
+    return missileCounter;
+  }
+
+  public long getTick() {
+    return tick;
+  }
+
+  public boolean isPlaying() {
+    return playing;
+  }
+
+  public boolean isDetail() {
+    return detail;
+  }
+
+  public void setDetail(boolean detail) {
+    this.detail = detail;
+  }
+
+  public boolean isThrustersPlaying() {
+    return thrustersPlaying;
+  }
+
+  public boolean isSaucerPlaying() {
+    return saucerPlaying;
+  }
+
+  public boolean isMissilePlaying() {
+    return missilePlaying;
+  }
+
+  /**
+   * Returns Asteroid's speed
+   *
+   * @return double - asteroid's speed
+   */
+  public double getAsteroidsSpeed() {
+    return asteroidsSpeed;
+  }
+
+  /**
+   * Returns the seed of the current game.
+   *
+   * @return seed given to, or picked by, the last initGame() call.
+   */
+  public long getSeed() {
+    return seed;
+  }
+
+  /**
+   * Initialize game data and sprites, with the next seed of this world.
+   */
+  public void initGame() {
+    initGame(seeds.nextLong());
+  }
+
+  /**
+   * Initialize game data and sprites. Starting from the same seed with the
+   * same input gives the same game.
+   *
+   * @param seed seed for the random streams of the game.
+   */
+  public void initGame(long seed) {
+    seedStreams(seed);
+    explosions.clear();
+
+    asteroidsSpeed = MIN_ROCK_SPEED;
+    newUFOScore = NEW_UFO_POINTS;
+    for (int i = 0; i < playerCount; i++)
+      if (players[i].joined) {
+        resetPlayer(players[i]);
+        initShip(players[i]);
+      }
+    stopUFO();
+    stopMissile();
+    initAsteroids();
+    playing = true;
+  }
+
+  /**
+   * Returns the number of bytes writeState() writes.
+   *
+   * @return state size in bytes.
+   */
+  public int getStateSize() {
+    int size = 2 * 4 + 8 + 2 * 4 + 8 + 4 * 16 + 1 + 6 * 4 + 8 + 3 + 4
+        + ufo.getStateSize()
+        + asteroids.getStateSize() + asteroids.getActiveCount()
+        + explosions.getStateSize();
+
+    for (int i = 0; i < playerCount; i++) size += players[i].getStateSize();
+
+    return size;
+  }
+
+  /**
+   * Write the whole state of the world. It starts with the size of the world,
+   * which is fixed but kept in the format of saved states.
+   *
+   * @param out buffer to write to, with getStateSize() bytes remaining.
+   */
+  public void writeState(ByteBuffer out) {
+    out.putInt(WORLD_WIDTH);
+    out.putInt(WORLD_HEIGHT);
+    out.putLong(tick);
+
+    out.putInt(highScore);
+    out.putInt(newUFOScore);
+
+    out.putLong(seed);
+    seeds.writeState(out);
+    spawnRandom.writeState(out);
+    effectsRandom.writeState(out);
+    aiRandom.writeState(out);
+
+    out.put((byte) (playing ? 1 : 0));
+    out.putInt(stormSize);
+    out.putInt(ufoPassesLeft);
+    out.putInt(ufoCounter);
+    out.putInt(missileCounter);
+    out.putInt(missileTarget);
+    out.putInt(asteroidsCounter);
+    out.putDouble(asteroidsSpeed);
+    out.put((byte) (thrustersPlaying ? 1 : 0));
+    out.put((byte) (saucerPlaying ? 1 : 0));
+    out.put((byte) (missilePlaying ? 1 : 0));
+
+    out.putInt(playerCount);
+    for (int i = 0; i < playerCount; i++) players[i].writeState(out);
+    ufo.writeState(out);
+    asteroids.writeState(out);
+    for (int k = 0; k < asteroids.getActiveCount(); k++)
+      out.put((byte) (asteroidIsSmall[asteroids.getActive(k)] ? 1 : 0));
+    explosions.writeState(out);
+  }
+
+  /**
+   * Restore a state written by writeState(). Looping sounds are not restarted, callers
+   * check isThrustersPlaying() and friends.
+   *
+   * @param in buffer to read from.
+   */
+  public void readState(ByteBuffer in) {
+    int i, n;
+
+    in.getInt();   // world size
+    in.getInt();
+    tick = in.getLong();
+
+    highScore = in.getInt();
+    newUFOScore = in.getInt();
+
+    seed = in.getLong();
+    seeds.readState(in);
+    spawnRandom.readState(in);
+    effectsRandom.readState(in);
+    aiRandom.readState(in);
+
+    playing = in.get() != 0;
+    stormSize = in.getInt();
+    ufoPassesLeft = in.getInt();
+    ufoCounter = in.getInt();
+    missileCounter = in.getInt();
+    missileTarget = in.getInt();
+    asteroidsCounter = in.getInt();
+    asteroidsSpeed = in.getDouble();
+    thrustersPlaying = in.get() != 0;
+    saucerPlaying = in.get() != 0;
+    missilePlaying = in.get() != 0;
+
+    n = in.getInt();
+    if (n < 1 || n > MAX_PLAYERS)
+      throw new IllegalArgumentException("bad player count in state: " + n);
+    for (i = 0; i < n; i++) {
+      if (players[i] == null) players[i] = new Player(i);
+      players[i].readState(in);
+    }
+    // Slots the saved world never used are emptied.
+    for (i = n; i < playerCount; i++) removePlayer(i);
+    playerCount = n;
+    ufo.readState(in);
+    asteroids.readState(in);
+    ensureAsteroidCapacity();
+    for (i = 0; i < asteroids.getActiveCount(); i++)
+      asteroidIsSmall[asteroids.getActive(i)] = in.get() != 0;
+    explosions.readState(in);
+  }
+
+  /**
+   * Split the random streams from a seed.
+   */
+  private void seedStreams(long seed) {
+    RandomStream root = new RandomStream(seed);
+
+    this.seed = seed;
+    spawnRandom = root.split();
+    effectsRandom = root.split();
+    aiRandom = root.split();
+  }
+
+  /**
+   * Stop every ship, flying saucer, guided missile and associated sounds.
+   */
+  public void endGame() {
+    playing = false;
+    for (int i = 0; i < playerCount; i++)
+      if (players[i].joined) stopShip(players[i]);
+    stopUFO();
+    stopMissile();
+  }
+
+  /**
+   * Advance the world by one tick using the given controls for player 0.
+   * A request to end the game or start a new one is handled before anything
+   * moves.
+   *
+   * @param input player controls for this tick.
+   */
+  public void step(InputState input) {
+    players[0].getInput().setBits(input.getBits());
+    step();
+  }
+
+  /**
+   * Advance the world by one tick using the controls set on each player.
+   * A request of any player to end the game or start a new one is handled
+   * before anything moves.
+   */
+  public void step() {
+    Player player;
+    int i, total;
+    boolean start = false, end = false;
+
+    for (i = 0; i < playerCount; i++)
+      if (players[i].joined) {
+        start |= players[i].getInput().isStart();
+        end |= players[i].getInput().isEnd();
+      }
+    if (end) endGame();
+    if (start && !playing) initGame();
+
+    for (i = 0; i < playerCount; i++)
+      if (players[i].joined) handleInput(players[i]);
+
+    // Move and process all sprites.
+    for (i = 0; i < playerCount; i++)
+      if (players[i].joined) updateShip(players[i]);
+    for (i = 0; i < playerCount; i++)
+      if (players[i].joined) players[i].ship.updateBullets();
+    updateUFO();
+    updateMissile();
+    updateAsteroids();
+    updateExplosions();
+
+    // Check the scores and advance high score, add new ships or start the
+    // flying saucer as necessary. The saucer comes by the whole team score.
+    total = 0;
+    for (i = 0; i < playerCount; i++) {
+      player = players[i];
+      if (!player.joined) continue;
+
+      if (player.score > highScore) highScore = player.score;
+      if (player.score > player.newShipScore) {
+        player.newShipScore += NEW_SHIP_POINTS;
+        player.shipsLeft++;
+      }
+      total += player.score;
+    }
+
+    if (playing && total > newUFOScore && !ufo.isActive()) {
+      newUFOScore += NEW_UFO_POINTS;
+      ufoPassesLeft = UFO_PASSES;
+      initUFO();
+    }
+
+    // If all asteroids have been destroyed create a new batch.
+    if (asteroids.getActiveCount() <= 0) {
+      if (--asteroidsCounter <= 0) initAsteroids();
+    }
+
+    tick++;
+  }
+
+  /**
+   * Apply the one-shot requests of a player's controls, and the thruster
+   * sound of player 0.
+   */
+  private void handleInput(Player player) {
+    InputState input = player.getInput();
+    Ship ship = player.ship;
+    Bullet bullet;
+
+    if (player.getIndex() == 0) {
+      if ((input.isUp() || input.isDown()) && ship.isActive() && !thrustersPlaying) {
+        sounds.loop(SoundEffect.THRUSTERS);
+        thrustersPlaying = true;
+      }
+
+      if (!input.isUp() && !input.isDown() && thrustersPlaying) {
+        sounds.stop(SoundEffect.THRUSTERS);
+        thrustersPlaying = false;
+      }
+    }
+
+    // Fire a bullet and start its counter.
+    if (input.isFire() && ship.isActive()) {
+      sounds.play(SoundEffect.FIRE);
+
+      bullet = ship.fireBullet();
+      bullet.setX(ship.getX());
+      bullet.setY(ship.getY());
+      bullet.setDeltaX(2 * MAX_ROCK_SPEED * -FastMath.sin(ship.getAngle()));
+      bullet.setDeltaY(2 * MAX_ROCK_SPEED *  FastMath.cos(ship.getAngle()));
+    }
+
+    // Warp ship into hyperspace by moving to a random location and starting
+    // counter.
+    if (input.isHyperspace() && ship.isActive() && player.hyperCounter <= 0) {
+      ship.setX(spawnRandom.nextDouble() * WORLD_WIDTH);
+      ship.setY(spawnRandom.nextDouble() * WORLD_HEIGHT);
+      player.hyperCounter = HYPER_COUNT;
+
+      sounds.play(SoundEffect.WARP);
+    }
+  }
+
+  /**
+   * Give a player a new game's score and ships.
+   */
+  private void resetPlayer(Player player) {
+    player.ship.setActive(false);
+    player.ship.clearBullets();
+    player.score = 0;
+    player.shipsLeft = MAX_SHIPS;
+    player.newShipScore = NEW_SHIP_POINTS;
+    player.shipCounter = 0;
+    player.hyperCounter = 0;
+  }
+
+  /**
+   * Initialize a player's Ship and corresponding sounds. Player 0 starts at
+   * the center of the screen, the others on a ring around it.
+   */
+  private void initShip(Player player) {
+    double a, r;
+
+    if (player.getIndex() == 0) player.ship.init();
+    else {
+      // Golden angle steps spread any number of players evenly.
+      a = player.getIndex() * Math.PI * (3 - Math.sqrt(5));
+      r = Math.min(WORLD_WIDTH, WORLD_HEIGHT) / 4.0;
+      player.ship.init(-r * Math.sin(a), r * Math.cos(a));
+    }
+
+    if (player.getIndex() == 0) {
+      sounds.stop(SoundEffect.THRUSTERS);
+      this.thrustersPlaying = false;
+    }
+    player.hyperCounter = 0;
+  }
+
+  /**
+   * Stops a player's Ship. If the Ship stops its sound will be stopped if
+   * playing.
+   */
+  private void stopShip(Player player) {
+    player.ship.setActive(false);
+    player.shipCounter = SCRAP_COUNT;
+
+    if (playing && player.shipsLeft > 0) player.shipsLeft--;
+
+    if (player.getIndex() == 0) {
+      sounds.stop(SoundEffect.THRUSTERS);
+      thrustersPlaying = false;
+    }
+  }
+
+  /**
+   * Update a player's Ship position on the screen.
+   */
+  private void updateShip(Player player) {
+    InputState input = player.getInput();
+    Ship ship = player.ship;
+    double dx, dy, speed;
+
+    if (!playing) return;
+
+    // rotate the ship if left or right arrow key is down
+    if (input.isLeft()) {
+      ship.setAngle(ship.getAngle() + SHIP_ANGLE_STEP);
+      if (ship.getAngle() > 2 * Math.PI)
+        ship.setAngle(ship.getAngle() - 2 * Math.PI);
+    }
+    if (input.isRight()) {
+      ship.setAngle(ship.getAngle() - SHIP_ANGLE_STEP);
+      if (ship.getAngle() < 0)
+        ship.setAngle(ship.getAngle() + 2 * Math.PI);
+    }
+
+    // fire thrusters if up or down arrow key is down
+    dx = SHIP_SPEED_STEP * -FastMath.sin(ship.getAngle());
+    dy = SHIP_SPEED_STEP *  FastMath.cos(ship.getAngle());
+
+    if (input.isUp()) {
+      ship.setDeltaX(ship.getDeltaX() + dx);
+      ship.setDeltaY(ship.getDeltaY() + dy);
+    }
+
+    if (input.isDown()) {
+      ship.setDeltaX(ship.getDeltaX() - dx);
+      ship.setDeltaY(ship.getDeltaY() - dy);
+    }
+
+    // don't let ship go past the speed limit
+    if (input.isUp() || input.isDown()) {
+      speed = Math.sqrt(ship.getDeltaX() * ship.getDeltaX() + ship.getDeltaY() * ship.getDeltaY());
+
+      if (speed > MAX_SHIP_SPEED) {
+        dx = MAX_SHIP_SPEED * -FastMath.sin(ship.getAngle());
+        dy = MAX_SHIP_SPEED *  FastMath.cos(ship.getAngle());
+        if (input.isUp())
+          ship.setDeltaX(dx);
+        else
+          ship.setDeltaX(-dx);
+        if (input.isUp())
+          ship.setDeltaY(dy);
+        else
+          ship.setDeltaY(-dy);
+      }
+    }
+
+    // move the ship if it's currently in hyperspace, advance the countdown
+    if (ship.isActive()) {
+      ship.advance();
+      ship.render();
+      if (player.hyperCounter > 0) player.hyperCounter--;
+
+      // update the thruster sprites to match the ship sprite
+      ship.getFwdThruster().follow(ship);
+      ship.getFwdThruster().render();
+
+      ship.getRevThruster().follow(ship);
+      ship.getRevThruster().render();
+    }
+
+    // ship is exploding, advance the countdown or create a new ship if it is
+    // done exploding. The new ship is added as though it were in hyperspace.
+    // (This gives the player time to move the ship if it is in imminent
+    // danger.) If that was the last ship of the last player, end the game.
+    else {
+      if (--player.shipCounter <= 0)
+        if (player.shipsLeft > 0) {
+          initShip(player);
+          player.hyperCounter = HYPER_COUNT;
+        } else if (isEveryPlayerOut()) endGame();
+    }
+  }
+
+  /**
+   * Initialize UFO and corresponding sound.
+   */
+  private void initUFO() {
+    ufo.init(spawnRandom);
+    saucerPlaying = true;
+
+    sounds.loop(SoundEffect.SAUCER);
+
+    ufoCounter = (int) Math.abs(WORLD_WIDTH / ufo.getDeltaX());
+  }
+
+  /**
+   * Stop UFO. If the UFO stops its sound will be stopped if playing.
+   */
+  private void stopUFO() {
+    ufo.setActive(false);
+    ufoCounter = 0;
+    ufoPassesLeft = 0;
+
+    sounds.stop(SoundEffect.SAUCER);
+    saucerPlaying = false;
+  }
+
+  /**
+   * Update UFO position on the screen.
+   */
+  private void updateUFO() {
+    Player player;
+    int i, j, d, target;
+
+    // move the flying saucer and check for collision with a bullet. Stop it
+    // when its counter has expired.
+    if (ufo.isActive()) {
+      if (--ufoCounter <= 0) {
+
+        if (--ufoPassesLeft > 0) initUFO();
+        else stopUFO();
+      }
+
+      if (ufo.isActive()) {
+        ufo.advance();
+        ufo.render();
+        for (j = 0; j < playerCount; j++) {
+          player = players[j];
+          for (i = 0; i < player.ship.getBulletCount(); i++)
+            if (ufo.isActive() && ufo.isSweptColliding(player.ship.getActiveBullet(i))) {
+              sounds.play(SoundEffect.CRASH);
+              explode(ufo);
+              stopUFO();
+              player.score += UFO_POINTS;
+            }
+        }
+
+        // on occasion, fire a missile at the nearest ship if the saucer is
+        // not too close to it.
+        target = -1;
+        d = Integer.MAX_VALUE;
+        for (j = 0; j < playerCount; j++) {
+          player = players[j];
+          if (!isTarget(player)) continue;
+
+          i = (int) Math.max(Math.abs(ufo.getX() - player.ship.getX()), Math.abs(ufo.getY() - player.ship.getY()));
+          if (i < d) {
+            d = i;
+            target = j;
+          }
+        }
+        if (target >= 0 &&
+            ufo.isActive() && !ufo.getMissile().isActive() &&
+            d > MAX_ROCK_SPEED * FPS / 2 &&
+            aiRandom.nextDouble() < MISSILE_PROBABILITY) {
+          missileTarget = target;
+          initMissile();
+        }
+      }
+    }
+  }
+
+  /**
+   * Returns whether a player's ship can be hit, being on the screen and not
+   * in hyperspace.
+   */
+  private boolean isTarget(Player player) {
+    return player.joined && player.ship.isActive() && player.hyperCounter <= 0;
+  }
+
+  /**
+   * Initialize UFO Missile and corresponding sound.
+   */
+  private void initMissile() {
+    ufo.getMissile().init();
+    ufo.getMissile().setX(ufo.getX());
+    ufo.getMissile().setY(ufo.getY());
+    ufo.getMissile().render();
+
+    missileCounter = MISSILE_COUNT;
+
+    sounds.loop(SoundEffect.MISSILE);
+
+    missilePlaying = true;
+  }
+
+  /**
+   * Stop UFO Missile. If the Missile stops its sound will be stopped if playing.
+   */
+  private void stopMissile() {
+    ufo.getMissile().setActive(false);
+
+    missileCounter = 0;
+    sounds.stop(SoundEffect.MISSILE);
+    missilePlaying = false;
+  }
+
+  /**
+   * Update UFO Missile position on the screen.
+   */
+  private void updateMissile() {
+    Player player;
+    int i, j;
+
+    // move the guided missile and check for collision with ship or bullet. Stop
+    // it when its counter has expired.
+    if (ufo.getMissile().isActive()) {
+      if (--missileCounter <= 0)
+        stopMissile();
+      else {
+        guideMissile();
+        ufo.getMissile().advance();
+        ufo.getMissile().render();
+
+        for (j = 0; j < playerCount; j++) {
+          player = players[j];
+          for (i = 0; i < player.ship.getBulletCount(); i++)
+            if (ufo.getMissile().isActive() && ufo.getMissile().isSweptColliding(player.ship.getActiveBullet(i))) {
+              sounds.play(SoundEffect.CRASH);
+
+              explode(ufo.getMissile());
+              stopMissile();
+              player.score += MISSILE_POINTS;
+            }
+        }
+
+        for (j = 0; j < playerCount; j++) {
+          player = players[j];
+          if (ufo.getMissile().isActive() && isTarget(player) &&
+              player.ship.isSweptColliding(ufo.getMissile())) {
+            sounds.play(SoundEffect.CRASH);
+
+            explode(player.ship);
+            stopShip(player);
+            stopUFO();
+            stopMissile();
+          }
+        }
+      }
+    }
+  }
+
+  /**
+   * Guide UFO Missile towards the Ship it was fired at.
+   * Missile's position is updated respective to the position of the Ship.
+   */
+  private void guideMissile() {
+    Ship ship = players[missileTarget].ship;
+    double dx, dy, angle;
+
+    if (!isTarget(players[missileTarget])) return;
+
+    // Find the angle needed to hit the ship.
+    dx = ship.getX() - ufo.getMissile().getX();
+    dy = ship.getY() - ufo.getMissile().getY();
+    angle = FastMath.atan2(-dy, dx);
+
+    // Adjust angle for screen coordinates.
+    ufo.getMissile().setAngle(angle - Math.PI / 2);
+
+    // Change the missile's angle so that it points toward the ship.
+    ufo.getMissile().setDeltaX(0.75 * MAX_ROCK_SPEED * -FastMath.sin(ufo.getMissile().getAngle()));
+    ufo.getMissile().setDeltaY(0.75 * MAX_ROCK_SPEED *  FastMath.cos(ufo.getMissile().getAngle()));
+  }
+
+  /**
+   * Initialize Asteroids and corresponding sound.
+   */
+  private void initAsteroids() {
+    int id;
+
+    asteroids.clear();
+    for (int i = 0; i < stormSize; i++) {
+      id = asteroids.acquire();
+      if (id < 0) break;
+
+      initAsteroid(id);
+      asteroidIsSmall[id] = false;
+    }
+
+    asteroidsCounter = STORM_PAUSE;
+
+    if (asteroidsSpeed < MAX_ROCK_SPEED) asteroidsSpeed += 0.5;
+  }
+
+  /**
+   * Asteroids appear at random positions on the edge of the screen having
+   * random motion and rotation angle.
+   */
+  private void initAsteroid(int n) {
+    double x, y, dx, dy;
+
+    ensureAsteroidCapacity();
+
+    // Create a jagged shape for the asteroid and give it a random rotation.
+    initAsteroidShape(n, MIN_ROCK_SIZE, MAX_ROCK_SIZE);
+    asteroids.setRotation(n, 0.0, spawnRandom.nextDouble() * 2 * MAX_ROCK_SPIN - MAX_ROCK_SPIN);
+
+    // Place the asteroid at one edge of the screen.
+    if (spawnRandom.nextDouble() < 0.5) {
+      x = -WORLD_WIDTH >> 1;
+      if (spawnRandom.nextDouble() < 0.5) x = WORLD_WIDTH >> 1;
+      y = spawnRandom.nextDouble() * WORLD_HEIGHT;
+    }
+    else {
+      x = spawnRandom.nextDouble() * WORLD_WIDTH;
+      y = -WORLD_HEIGHT >> 1;
+      if (spawnRandom.nextDouble() < 0.5) y = WORLD_HEIGHT >> 1;
+    }
+    asteroids.setPosition(n, x, y);
+
+    // Set a random motion for the asteroid.
+    dx = spawnRandom.nextDouble() * asteroidsSpeed;
+    if (spawnRandom.nextDouble() < 0.5) dx = -dx;
+
+    dy = spawnRandom.nextDouble() * asteroidsSpeed;
+    if (spawnRandom.nextDouble() < 0.5) dy = -dy;
+    asteroids.setDelta(n, dx, dy);
+
+    asteroids.render(n);
+  }
+
+  /**
+   * Create a jagged asteroid shape with a random number of sides, each
+   * vertex at a random radius between the given sizes.
+   */
+  private void initAsteroidShape(int n, int minSize, int maxSize) {
+    int j, s;
+    double theta, r;
+
+    asteroids.clearShape(n);
+    s = MIN_ROCK_SIDES + (int) (spawnRandom.nextDouble() * (MAX_ROCK_SIDES - MIN_ROCK_SIDES));
+    for (j = 0; j < s; j ++) {
+      theta = 2 * Math.PI / s * j;
+      r = minSize + (int) (spawnRandom.nextDouble() * (maxSize - minSize));
+      asteroids.addVertex(n, -Math.round(r * Math.sin(theta)), Math.round(r * Math.cos(theta)));
+    }
+  }
+
+  /**
+   * Update Asteroids position on the screen.
+   */
+  private void updateAsteroids() {
+    int i, j, k, n, p;
+    Player player;
+    Ship ship;
+    Bullet bullet;
+
+    // Move all active asteroids in one pass and index them in the grid, so
+    // only asteroids near a bullet or a ship get the exact polygon test.
+    asteroids.advanceAll();
+    asteroids.renderAll();
+    asteroidGrid.build(asteroids);
+    if (candidates.length < asteroids.getCapacity()) candidates = new int[asteroids.getCapacity()];
+
+    // If hit by bullet, kill asteroid and advance score. If asteroid is
+    // large, make some smaller ones to replace it. Bullets are tested along
+    // their whole path so they cannot skip over a small asteroid.
+    // Run backwards, removing a bullet moves the last one into its place.
+    for (p = 0; p < playerCount; p++) {
+      player = players[p];
+      ship = player.ship;
+      for (j = ship.getBulletCount() - 1; j >= 0; j--) {
+        bullet = ship.getActiveBullet(j);
+        n = querySwept(bullet);
+        for (k = 0; k < n && bullet.isActive(); k++) {
+          i = candidates[k];
+          if (asteroids.isActive(i) && asteroids.isSweptColliding(i, bullet)) {
+            ship.removeBullet(bullet);
+            hitAsteroid(i, player);
+          }
+        }
+      }
+    }
+
+    // If a ship is not in hyperspace, see if it is hit.
+    for (p = 0; p < playerCount; p++) {
+      player = players[p];
+      ship = player.ship;
+      if (!isTarget(player)) continue;
+
+      n = asteroidGrid.query(ship.getMinX(), ship.getMinY(),
+          ship.getMaxX(), ship.getMaxY(), candidates);
+      for (k = 0; k < n; k++) {
+        i = candidates[k];
+        if (asteroids.isActive(i) && asteroids.isColliding(i, ship)) {
+          sounds.play(SoundEffect.CRASH);
+
+          explode(ship);
+          stopShip(player);
+          stopUFO();
+          stopMissile();
+          break;
+        }
+      }
+    }
+  }
+
+  /**
+   * Find the asteroids a fast object may have touched during its last move.
+   * The bounds of the object are stretched back along its path and padded by
+   * the most an asteroid can move in a tick.
+   *
+   * @return number of candidate ids.
+   */
+  private int querySwept(AsteroidSprite sprite) {
+    int pad = (int) Math.ceil(MAX_ROCK_SPEED);
+    double mx = sprite.getMotionX();
+    double my = sprite.getMotionY();
+
+    return asteroidGrid.query(
+        sprite.getMinX() - (int) Math.ceil(Math.max(0, mx)) - pad,
+        sprite.getMinY() - (int) Math.ceil(Math.max(0, my)) - pad,
+        sprite.getMaxX() - (int) Math.floor(Math.min(0, mx)) + pad,
+        sprite.getMaxY() - (int) Math.floor(Math.min(0, my)) + pad,
+        candidates);
+  }
+
+  /**
+   * Kill an asteroid hit by a bullet and advance the score of the player who
+   * fired it. If asteroid is large, make some smaller ones to replace it.
+   */
+  private void hitAsteroid(int i, Player player) {
+    sounds.play(SoundEffect.EXPLOSION);
+
+    // Freed last, so none of the smaller ones is given its id while it is
+    // still read.
+    explode(asteroids, i);
+    if (!asteroidIsSmall[i]) {
+      player.score += BIG_POINTS;
+      initSmallAsteroids(i);
+    } else
+      player.score += SMALL_POINTS;
+    asteroids.release(i);
+  }
+
+  /**
+   * Grow the size flags of the asteroids along with their store.
+   */
+  private void ensureAsteroidCapacity() {
+    if (asteroidIsSmall.length < asteroids.getCapacity())
+      asteroidIsSmall = Arrays.copyOf(asteroidIsSmall, asteroids.getCapacity());
+  }
+
+  /**
+   * Create one or two smaller asteroids from a larger one using inactive
+   * asteroids. The new asteroids will be placed in the same position as the
+   * old one but will have a new, smaller shape and new, randomly generated
+   * movements
+   */
+  private void initSmallAsteroids(int n) {
+    int i, id;
+    double tempX, tempY;
+
+    tempX = asteroids.getX(n);
+    tempY = asteroids.getY(n);
+
+    for (i = 0; i < 2; i++) {
+      id = asteroids.acquire();
+      if (id < 0) break;
+
+      ensureAsteroidCapacity();
+
+      initAsteroidShape(id, MIN_ROCK_SIZE / 2, MAX_ROCK_SIZE / 2);
+      asteroids.setRotation(id, 0.0, spawnRandom.nextDouble() * 2 * MAX_ROCK_SPIN - MAX_ROCK_SPIN);
+      asteroids.setPosition(id, tempX, tempY);
+      asteroids.setDelta(id, spawnRandom.nextDouble() * 2 * asteroidsSpeed - asteroidsSpeed,
+          spawnRandom.nextDouble() * 2 * asteroidsSpeed - asteroidsSpeed);
+      asteroids.render(id);
+      asteroidIsSmall[id] = true;
+    }
+  }
+
+  /**
+   * Create particles for explosion animation. The each individual line segment
+   * of the given sprite is used to create a new particle that will move
+   * outward from the sprite's original position with a random rotation.
+   * Without detail only every other segment is used.
+   */
+  private void explode(AsteroidSprite s) {
+    int c, i, j;
+    int n;
+
+    s.render();
+    n = s.getShape().npoints;
+    c = 2;
+
+    if (detail || n < 6) c = 1;
+    for (i = 0; i < n; i += c) {
+      j = i + 1;
+
+      if (j >= n) j -= n;
+
+      addDebris(s.getShape().xpoints[i], s.getShape().ypoints[i],
+          s.getShape().xpoints[j], s.getShape().ypoints[j],
+          s.getX(), s.getY(), s.getAngle(), s.getDeltaX(), s.getDeltaY());
+    }
+  }
+
+  /**
+   * Create particles for explosion animation from a sprite held in a store.
+   */
+  private void explode(SpriteStore store, int id) {
+    int c, i, j;
+    int n;
+
+    store.render(id);
+    n = store.getVertexCount(id);
+    c = 2;
+
+    if (detail || n < 6) c = 1;
+    for (i = 0; i < n; i += c) {
+      j = i + 1;
+
+      if (j >= n) j -= n;
+
+      addDebris((int) store.getShapeX(id, i), (int) store.getShapeY(id, i),
+          (int) store.getShapeX(id, j), (int) store.getShapeY(id, j),
+          store.getX(id), store.getY(id), store.getAngle(id),
+          store.getDeltaX(id), store.getDeltaY(id));
+    }
+  }
+
+  /**
+   * Turn one line segment of an exploding sprite into a piece of debris.
+   */
+  private void addDebris(int x0, int y0, int x1, int y1,
+                         double x, double y, double angle, double deltaX, double deltaY) {
+    double cx, cy, cos, sin;
+
+    // The segment center, turned with the sprite.
+    cx = (x0 + x1) / 2.0;
+    cy = (y0 + y1) / 2.0;
+    cos = FastMath.cos(angle);
+    sin = FastMath.sin(angle);
+
+    // Debris is only for show, it is dropped if the particle system is full.
+    explosions.emit(x + cx * cos + cy * sin, y + cy * cos - cx * sin,
+        (effectsRandom.nextDouble() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED + deltaX) / 2,
+        (effectsRandom.nextDouble() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED + deltaY) / 2,
+        angle, 4 * (effectsRandom.nextDouble() * 2 * MAX_ROCK_SPIN - MAX_ROCK_SPIN),
+        (x1 - x0) / 2f, (y1 - y0) / 2f, SCRAP_COUNT);
+  }
+
+  /**
+   * Move any active explosion debris. Stop explosion when its counter has
+   * expired.
+   */
+  private void updateExplosions() {
+    explosions.update();
+  }
+}
\ No newline at end of file
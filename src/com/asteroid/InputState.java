@@ -0,0 +1,135 @@
+package com.asteroid;
+
+/**
+ * Player controls for a single tick of the game world.
+ * The cursor keys are held states, fire, hyperspace, start and end are
+ * one-shot requests which are cleared after the tick that consumed them.
+ *
+ * All controls pack into the bits of an int, which is how replays store
+ * them.
+ */
+public class InputState {
+
+  // bits of getBits()
+  public static final int LEFT       = 1;
+  public static final int RIGHT      = 1 << 1;
+  public static final int UP         = 1 << 2;
+  public static final int DOWN       = 1 << 3;
+  public static final int FIRE       = 1 << 4;
+  public static final int HYPERSPACE = 1 << 5;
+  public static final int START      = 1 << 6;
+  public static final int END        = 1 << 7;
+
+  // held keys
+  private boolean left;
+  private boolean right;
+  private boolean up;
+  private boolean down;
+
+  // one-shot requests
+  private boolean fire;
+  private boolean hyperspace;
+  private boolean start;       // start a game if none is being played
+  private boolean end;         // end the game being played
+
+  public boolean isLeft() {
+    return left;
+  }
+
+  public void setLeft(boolean left) {
+    this.left = left;
+  }
+
+  public boolean isRight() {
+    return right;
+  }
+
+  public void setRight(boolean right) {
+    this.right = right;
+  }
+
+  public boolean isUp() {
+    return up;
+  }
+
+  public void setUp(boolean up) {
+    this.up = up;
+  }
+
+  public boolean isDown() {
+    return down;
+  }
+
+  public void setDown(boolean down) {
+    this.down = down;
+  }
+
+  public boolean isFire() {
+    return fire;
+  }
+
+  public void setFire(boolean fire) {
+    this.fire = fire;
+  }
+
+  public boolean isHyperspace() {
+    return hyperspace;
+  }
+
+  public void setHyperspace(boolean hyperspace) {
+    this.hyperspace = hyperspace;
+  }
+
+  public boolean isStart() {
+    return start;
+  }
+
+  public void setStart(boolean start) {
+    this.start = start;
+  }
+
+  public boolean isEnd() {
+    return end;
+  }
+
+  public void setEnd(boolean end) {
+    this.end = end;
+  }
+
+  /**
+   * Returns every control as one bit of an int.
+   *
+   * @return LEFT, RIGHT, UP, DOWN, FIRE, HYPERSPACE, START and END or'ed
+   *         together.
+   */
+  public int getBits() {
+    return (left ? LEFT : 0) | (right ? RIGHT : 0) | (up ? UP : 0) | (down ? DOWN : 0)
+        | (fire ? FIRE : 0) | (hyperspace ? HYPERSPACE : 0) | (start ? START : 0) | (end ? END : 0);
+  }
+
+  /**
+   * Sets every control from the bits of an int.
+   *
+   * @param bits controls as returned by getBits().
+   */
+  public void setBits(int bits) {
+    left = (bits & LEFT) != 0;
+    right = (bits & RIGHT) != 0;
+    up = (bits & UP) != 0;
+    down = (bits & DOWN) != 0;
+    fire = (bits & FIRE) != 0;
+    hyperspace = (bits & HYPERSPACE) != 0;
+    start = (bits & START) != 0;
+    end = (bits & END) != 0;
+  }
+
+  /**
+   * Clear the one-shot requests once a tick has consumed them.
+   */
+  public void clearRequests() {
+    fire = false;
+    hyperspace = false;
+    start = false;
+    end = false;
+  }
+}
\ No newline at end of file
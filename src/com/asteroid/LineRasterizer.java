@@ -0,0 +1,76 @@
+package com.asteroid;
+
+import java.awt.image.BufferedImage;
+import java.awt.image.DataBufferInt;
+
+/**
+ * Draws one pixel wide lines straight into the pixels of an RGB image.
+ * Going through Graphics.drawLine() costs a few hundred nanoseconds per call,
+ * which adds up to most of a frame when tens of thousands of short debris
+ * segments are drawn. Plotting them with Bresenham's algorithm into the
+ * pixel array is an order of magnitude cheaper.
+ */
+public final class LineRasterizer {
+
+  private final int[] pixels;
+  private final int width;
+  private final int height;
+
+  /**
+   * Create a rasterizer for an image.
+   *
+   * @param image image of TYPE_INT_RGB or TYPE_INT_ARGB.
+   */
+  public LineRasterizer(BufferedImage image) {
+    this.pixels = ((DataBufferInt) image.getRaster().getDataBuffer()).getData();
+    this.width = image.getWidth();
+    this.height = image.getHeight();
+  }
+
+  /**
+   * Draw a batch of lines in one color. Pixels outside the image are skipped.
+   *
+   * @param rgb color of the lines.
+   * @param x0 x-coordinates of the start points.
+   * @param y0 y-coordinates of the start points.
+   * @param x1 x-coordinates of the end points.
+   * @param y1 y-coordinates of the end points.
+   * @param from index of the first line.
+   * @param to index past the last line.
+   */
+  public void drawLines(int rgb, int[] x0, int[] y0, int[] x1, int[] y1, int from, int to) {
+    for (int i = from; i < to; i++) drawLine(rgb, x0[i], y0[i], x1[i], y1[i]);
+  }
+
+  /**
+   * Draw a line. Pixels outside the image are skipped.
+   *
+   * @param rgb color of the line.
+   * @param x0 x-coordinate of the start point.
+   * @param y0 y-coordinate of the start point.
+   * @param x1 x-coordinate of the end point.
+   * @param y1 y-coordinate of the end point.
+   */
+  public void drawLine(int rgb, int x0, int y0, int x1, int y1) {
+    int dx = Math.abs(x1 - x0);
+    int dy = -Math.abs(y1 - y0);
+    int sx = x0 < x1 ? 1 : -1;
+    int sy = y0 < y1 ? 1 : -1;
+    int err = dx + dy, e2;
+
+    while (true) {
+      if (x0 >= 0 && x0 < width && y0 >= 0 && y0 < height) pixels[y0 * width + x0] = rgb;
+      if (x0 == x1 && y0 == y1) return;
+
+      e2 = 2 * err;
+      if (e2 >= dy) {
+        err += dy;
+        x0 += sx;
+      }
+      if (e2 <= dx) {
+        err += dx;
+        y0 += sy;
+      }
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,111 @@
+package com.asteroid;
+
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Splits loops over independent entities across a ForkJoinPool. A loop only
+ * goes parallel once it has at least threshold entities, below that the
+ * cost of forking is larger than the work, and runs on the calling thread.
+ *
+ * Tasks must only touch the entities in their own range, so the result is
+ * the same whichever way the range is split. Anything that depends on the
+ * order of entities stays sequential with the caller.
+ *
+ * The common pool is used by default. Start the game with
+ * -Dasteroid.parallelThreshold=n to change the threshold; a threshold of 0
+ * turns parallel loops off.
+ */
+public final class Parallel {
+
+  public static final int DEFAULT_THRESHOLD = 1024;
+
+  private static volatile ForkJoinPool pool = ForkJoinPool.commonPool();
+  private static volatile int threshold = Integer.getInteger("asteroid.parallelThreshold", DEFAULT_THRESHOLD);
+
+  private Parallel() {}
+
+  /**
+   * Work on a range of entity indexes.
+   */
+  public interface RangeTask {
+    /**
+     * @param from first index.
+     * @param to index past the last one.
+     */
+    void run(int from, int to);
+  }
+
+  public static ForkJoinPool getPool() {
+    return pool;
+  }
+
+  /**
+   * Sets the pool parallel loops run on.
+   *
+   * @param forkJoinPool pool to use.
+   */
+  public static void setPool(ForkJoinPool forkJoinPool) {
+    pool = forkJoinPool;
+  }
+
+  public static int getThreshold() {
+    return threshold;
+  }
+
+  /**
+   * Sets the number of entities a loop needs before it is split.
+   *
+   * @param entities threshold, or 0 to always run on the calling thread.
+   */
+  public static void setThreshold(int entities) {
+    threshold = entities;
+  }
+
+  /**
+   * Run a task over the indexes 0 to n - 1, split across the pool if n is
+   * at least the threshold.
+   *
+   * @param n number of indexes.
+   * @param task work on a range of indexes.
+   */
+  public static void forRange(int n, RangeTask task) {
+    ForkJoinPool p = pool;
+    int t = threshold;
+
+    if (t <= 0 || n < t || p.getParallelism() < 2) {
+      task.run(0, n);
+      return;
+    }
+
+    // A few pieces per worker so uneven pieces even out.
+    p.invoke(new RangeAction(task, 0, n, Math.max(t / 4, n / (p.getParallelism() * 4))));
+  }
+
+  private static final class RangeAction extends RecursiveAction {
+    private static final long serialVersionUID = 1L;
+
+    private final RangeTask task;
+    private final int from, to, grain;
+
+    RangeAction(RangeTask task, int from, int to, int grain) {
+      this.task = task;
+      this.from = from;
+      this.to = to;
+      this.grain = grain;
+    }
+
+    @Override
+    protected void compute() {
+      int mid;
+
+      if (to - from <= grain) {
+        task.run(from, to);
+        return;
+      }
+
+      mid = (from + to) >>> 1;
+      invokeAll(new RangeAction(task, from, mid, grain), new RangeAction(task, mid, to, grain));
+    }
+  }
+}
\ No newline at end of file
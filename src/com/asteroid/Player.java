@@ -0,0 +1,107 @@
+package com.asteroid;
+
+import java.nio.ByteBuffer;
+
+import com.asteroid.objects.Ship;
+
+/**
+ * One player of a game world: a ship with its bullets, the controls it is
+ * steered with, and the player's own score and ships. A world starts with
+ * player 0, the one a Screen shows and plays. More players join through
+ * GameWorld.addPlayer() and share the arena, its asteroids and its saucer.
+ *
+ * The world changes the fields directly while it steps, callers only read
+ * them and set the controls.
+ */
+public class Player {
+
+  private final int index;          // slot of the player in its world
+  final Ship ship = new Ship();
+  private final InputState input = new InputState();
+
+  boolean joined;                   // slot is taken by a player
+  int score;
+  int newShipScore;                 // score that earns the next ship
+  int shipsLeft;                    // ships left in game, including current one
+  int shipCounter;                  // timer counter for ship explosion
+  int hyperCounter;                 // timer counter for hyperspace
+
+  Player(int index) {
+    this.index = index;
+  }
+
+  public int getIndex() {
+    return index;
+  }
+
+  public Ship getShip() {
+    return ship;
+  }
+
+  /**
+   * Returns the controls the next step of the world uses for this player.
+   *
+   * @return controls of the player.
+   */
+  public InputState getInput() {
+    return input;
+  }
+
+  public boolean isJoined() {
+    return joined;
+  }
+
+  public int getScore() {
+    return score;
+  }
+
+  public int getShipsLeft() {
+    return shipsLeft;
+  }
+
+  public int getHyperCounter() {
+    return hyperCounter;
+  }
+
+  /**
+   * Returns whether the player has lost every ship of the current game.
+   *
+   * @return true if the player is out.
+   */
+  public boolean isOut() {
+    return !ship.isActive() && shipsLeft <= 0;
+  }
+
+  /**
+   * Returns the number of bytes writeState() writes.
+   *
+   * @return state size in bytes.
+   */
+  int getStateSize() {
+    return 1 + 5 * 4 + ship.getStateSize();
+  }
+
+  /**
+   * Write the player and its ship. The controls are not part of the state,
+   * they are given anew for every step.
+   */
+  void writeState(ByteBuffer out) {
+    out.put((byte) (joined ? 1 : 0));
+    out.putInt(score);
+    out.putInt(newShipScore);
+    out.putInt(shipsLeft);
+    out.putInt(shipCounter);
+    out.putInt(hyperCounter);
+    ship.writeState(out);
+  }
+
+  void readState(ByteBuffer in) {
+    joined = in.get() != 0;
+    score = in.getInt();
+    newShipScore = in.getInt();
+    shipsLeft = in.getInt();
+    shipCounter = in.getInt();
+    hyperCounter = in.getInt();
+    ship.readState(in);
+  }
+}
\ No newline at end of file
@@ -0,0 +1,95 @@
+package com.asteroid;
+
+import java.nio.ByteBuffer;
+
+/**
+ * A splittable random number generator whose state can be saved and
+ * restored. It is the SplitMix64 algorithm of java.util.SplittableRandom and
+ * gives exactly the same numbers for the same seed, but SplittableRandom
+ * keeps its two state words private, so a game using it could not be put
+ * back to the middle of a run.
+ */
+public final class RandomStream {
+
+  private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+  private static final double DOUBLE_UNIT = 0x1.0p-53;
+
+  private long seed;   // Advanced by gamma for every number drawn.
+  private long gamma;  // Odd step between seeds, fixed for the stream.
+
+  /**
+   * Create a stream, matching new SplittableRandom(seed).
+   *
+   * @param seed initial seed.
+   */
+  public RandomStream(long seed) {
+    this(seed, GOLDEN_GAMMA);
+  }
+
+  private RandomStream(long seed, long gamma) {
+    this.seed = seed;
+    this.gamma = gamma;
+  }
+
+  /**
+   * Returns a pseudorandom long value.
+   *
+   * @return next value of the stream.
+   */
+  public long nextLong() {
+    return mix64(seed += gamma);
+  }
+
+  /**
+   * Returns a pseudorandom double value between 0 (inclusive) and 1
+   * (exclusive).
+   *
+   * @return next value of the stream.
+   */
+  public double nextDouble() {
+    return (nextLong() >>> 11) * DOUBLE_UNIT;
+  }
+
+  /**
+   * Create a new stream that shares no numbers with this one, matching
+   * SplittableRandom.split(). This stream is advanced by two numbers.
+   *
+   * @return new stream.
+   */
+  public RandomStream split() {
+    return new RandomStream(nextLong(), mixGamma(seed += gamma));
+  }
+
+  /**
+   * Write the state of the stream, 16 bytes.
+   *
+   * @param out buffer to write to.
+   */
+  public void writeState(ByteBuffer out) {
+    out.putLong(seed);
+    out.putLong(gamma);
+  }
+
+  /**
+   * Restore a state written by writeState().
+   *
+   * @param in buffer to read from.
+   */
+  public void readState(ByteBuffer in) {
+    seed = in.getLong();
+    gamma = in.getLong();
+  }
+
+  private static long mix64(long z) {
+    z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+    z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+    return z ^ (z >>> 31);
+  }
+
+  private static long mixGamma(long z) {
+    z = (z ^ (z >>> 33)) * 0xff51afd7ed558ccdL;
+    z = (z ^ (z >>> 33)) * 0xc4ceb9fe1a85ec53L;
+    z = (z ^ (z >>> 33)) | 1L;
+    return Long.bitCount(z ^ (z >>> 1)) < 24 ? z ^ 0xaaaaaaaaaaaaaaaaL : z;
+  }
+}
\ No newline at end of file
@@ -0,0 +1,387 @@
+package com.asteroid;
+
+import java.awt.*;
+import java.util.Arrays;
+
+import com.asteroid.objects.*;
+
+/**
+ * Everything a Renderer needs to draw one frame, copied out of the game
+ * world by the thread that steps it: the sprites as screen polygons already
+ * interpolated between the last two ticks, the debris as line segments, and
+ * the numbers of the status display. Drawing from a frame instead of the
+ * world lets another thread draw while the world moves on.
+ *
+ * A frame keeps its arrays and polygons from one capture to the next and
+ * only grows them when the world has more to show, so capturing does not
+ * allocate once the game has warmed up. Frames are passed between threads
+ * by a FrameExchange, and nobody writes a frame while it is being drawn.
+ */
+public class RenderFrame implements Constants {
+
+  // kinds of polygon, in the order they are drawn
+  public static final int BULLET       = 0;
+  public static final int MISSILE      = 1;
+  public static final int ROCK         = 2;
+  public static final int UFO          = 3;
+  public static final int SHIP         = 4;
+  public static final int FWD_THRUSTER = 5;
+  public static final int REV_THRUSTER = 6;
+
+  // sprites
+  private Polygon[] polygons = new Polygon[0];
+  private int[] kinds = new int[0];
+  private int polygonCount;
+
+  // debris, batched by gray level as ParticleSystem.render() leaves it
+  private int[] x0 = new int[0], y0 = new int[0], x1 = new int[0], y1 = new int[0];
+  private int[] scrapStart = new int[SCRAP_LEVELS + 1];
+  private int debrisCount;
+
+  // world
+  private long tick;
+  private boolean detail;
+  private boolean playing;
+  private int score, shipsLeft, highScore;
+  private int missileCounter, hyperCounter;
+  private double shipDeltaX, shipDeltaY;   // zero while the ship is not active
+
+  // screen
+  private boolean paused;
+  private boolean sound = true;
+  private boolean loaded = true;
+  private int clipsLoaded, clipTotal;
+  private String lastClip;
+  private String status;
+
+  // counters of the stats display, shown when stats is set
+  private boolean stats;
+  private long ticksRun, framesRendered, framesSkipped, ticksDropped;
+  private int rockCount, rockCapacity, rockPeak;
+  private long rocksRefused;
+  private int debrisCapacity, debrisPeak;
+  private long debrisDropped;
+  private int bulletCount, bulletCapacity, bulletPeak;
+  private long bulletsRefused;
+
+  /**
+   * Copy what is to be drawn of a world.
+   *
+   * @param world world to draw.
+   * @param alpha interpolation factor between the last two ticks.
+   * @param controls controls of player 0, for the thruster flames.
+   */
+  public void capture(GameWorld world, double alpha, InputState controls) {
+    int i, n;
+    Ship ship = world.getShip();
+    UFO ufo = world.getUFO();
+    SpriteStore rocks = world.getAsteroids();
+    ParticleSystem debris = world.getExplosions();
+    Polygon p;
+
+    tick = world.getTick();
+    detail = world.isDetail();
+    playing = world.isPlaying();
+    score = world.getScore();
+    shipsLeft = world.getShipsLeft();
+    highScore = world.getHighScore();
+    missileCounter = world.getMissileCounter();
+    hyperCounter = world.getHyperCounter();
+    shipDeltaX = ship.isActive() ? ship.getDeltaX() : 0;
+    shipDeltaY = ship.isActive() ? ship.getDeltaY() : 0;
+
+    polygonCount = 0;
+    for (i = 0; i < ship.getBulletCount(); i++) add(BULLET, ship.getActiveBullet(i), alpha);
+    if (ufo.getMissile().isActive()) add(MISSILE, ufo.getMissile(), alpha);
+    for (i = 0; i < rocks.getActiveCount(); i++) {
+      p = next(ROCK);
+      n = rocks.renderInterpolated(rocks.getActive(i), alpha, p.xpoints, p.ypoints);
+      p.npoints = n;
+    }
+    if (ufo.isActive()) add(UFO, ufo, alpha);
+    if (ship.isActive()) {
+      add(SHIP, ship, alpha);
+      if (controls.isUp()) add(FWD_THRUSTER, ship.getFwdThruster(), alpha);
+      if (controls.isDown()) add(REV_THRUSTER, ship.getRevThruster(), alpha);
+    }
+
+    n = debris.render(alpha, SCRAP_COUNT, scrapStart);
+    if (x0.length < n) {
+      x0 = new int[debris.getX0().length];
+      y0 = new int[x0.length];
+      x1 = new int[x0.length];
+      y1 = new int[x0.length];
+    }
+    System.arraycopy(debris.getX0(), 0, x0, 0, n);
+    System.arraycopy(debris.getY0(), 0, y0, 0, n);
+    System.arraycopy(debris.getX1(), 0, x1, 0, n);
+    System.arraycopy(debris.getY1(), 0, y1, 0, n);
+    debrisCount = n;
+
+    rockCount = rocks.getPool().getActiveCount();
+    rockCapacity = rocks.getPool().getCapacity();
+    rockPeak = rocks.getPool().getPeak();
+    rocksRefused = rocks.getPool().getRefusedCount();
+    debrisCapacity = debris.getCapacity();
+    debrisPeak = debris.getPeak();
+    debrisDropped = debris.getDroppedCount();
+    bulletCount = ship.getBulletPool().getActiveCount();
+    bulletCapacity = ship.getBulletPool().getCapacity();
+    bulletPeak = ship.getBulletPool().getPeak();
+    bulletsRefused = ship.getBulletPool().getRefusedCount();
+    clipsLoaded = Sound.getClipsLoaded();
+    clipTotal = Sound.getClipTotal();
+    lastClip = Sound.getLastLoaded();
+  }
+
+  /**
+   * Copy the state of the screen that the status display shows.
+   *
+   * @param paused whether the game is paused.
+   * @param sound whether sound is on.
+   * @param loaded whether the sounds have loaded.
+   * @param status line shown at the top of the screen, or null for none.
+   * @param clock clock of the game loop, or null to hide the counters.
+   */
+  public void captureScreen(boolean paused, boolean sound, boolean loaded, String status, GameClock clock) {
+    this.paused = paused;
+    this.sound = sound;
+    this.loaded = loaded;
+    this.status = status;
+    stats = clock != null;
+    if (clock == null) return;
+
+    ticksRun = clock.getTicksRun();
+    framesRendered = clock.getFramesRendered();
+    framesSkipped = clock.getFramesSkipped();
+    ticksDropped = clock.getTicksDropped();
+  }
+
+  /**
+   * Add the interpolated sprite of an object.
+   */
+  private void add(int kind, AsteroidSprite sprite, double alpha) {
+    Polygon view, p;
+
+    sprite.renderInterpolated(alpha);
+    view = sprite.getView();
+    p = next(kind);
+    for (int i = 0; i < view.npoints; i++) p.addPoint(view.xpoints[i], view.ypoints[i]);
+  }
+
+  /**
+   * Returns the next polygon, emptied and with room for any sprite.
+   */
+  private Polygon next(int kind) {
+    int n = polygonCount;
+    Polygon p;
+
+    if (n == polygons.length) {
+      polygons = Arrays.copyOf(polygons, Math.max(64, 2 * n));
+      kinds = Arrays.copyOf(kinds, polygons.length);
+    }
+    if (polygons[n] == null) {
+      // The array constructor would trim the arrays to the points given.
+      polygons[n] = new Polygon();
+      polygons[n].xpoints = new int[MAX_ROCK_SIDES];
+      polygons[n].ypoints = new int[MAX_ROCK_SIDES];
+    }
+
+    p = polygons[n];
+    p.reset();
+    kinds[n] = kind;
+    polygonCount++;
+    return p;
+  }
+
+  public int getPolygonCount() {
+    return polygonCount;
+  }
+
+  /**
+   * Returns a sprite, in screen coordinates.
+   *
+   * @param index index below getPolygonCount().
+   * @return polygon of the sprite.
+   */
+  public Polygon getPolygon(int index) {
+    return polygons[index];
+  }
+
+  /**
+   * Returns what a sprite is.
+   *
+   * @param index index below getPolygonCount().
+   * @return BULLET, MISSILE, ROCK, UFO, SHIP, FWD_THRUSTER or REV_THRUSTER.
+   */
+  public int getKind(int index) {
+    return kinds[index];
+  }
+
+  public int getDebrisCount() {
+    return debrisCount;
+  }
+
+  public int[] getX0() {
+    return x0;
+  }
+
+  public int[] getY0() {
+    return y0;
+  }
+
+  public int[] getX1() {
+    return x1;
+  }
+
+  public int[] getY1() {
+    return y1;
+  }
+
+  /**
+   * Returns where each gray level of debris starts in the segment arrays,
+   * level SCRAP_LEVELS being the end of the last.
+   *
+   * @return start of each level.
+   */
+  public int[] getScrapStart() {
+    return scrapStart;
+  }
+
+  public long getTick() {
+    return tick;
+  }
+
+  public boolean isDetail() {
+    return detail;
+  }
+
+  public boolean isPlaying() {
+    return playing;
+  }
+
+  public int getScore() {
+    return score;
+  }
+
+  public int getShipsLeft() {
+    return shipsLeft;
+  }
+
+  public int getHighScore() {
+    return highScore;
+  }
+
+  public int getMissileCounter() {
+    return missileCounter;
+  }
+
+  public int getHyperCounter() {
+    return hyperCounter;
+  }
+
+  public double getShipDeltaX() {
+    return shipDeltaX;
+  }
+
+  public double getShipDeltaY() {
+    return shipDeltaY;
+  }
+
+  public boolean isPaused() {
+    return paused;
+  }
+
+  public boolean isSound() {
+    return sound;
+  }
+
+  public boolean isLoaded() {
+    return loaded;
+  }
+
+  public int getClipsLoaded() {
+    return clipsLoaded;
+  }
+
+  public int getClipTotal() {
+    return clipTotal;
+  }
+
+  /**
+   * Returns the sound clip done loading last and how long it took.
+   *
+   * @return name and milliseconds, or null before the first clip is done.
+   */
+  public String getLastClip() {
+    return lastClip;
+  }
+
+  public String getStatus() {
+    return status;
+  }
+
+  public boolean isStats() {
+    return stats;
+  }
+
+  public long getTicksRun() {
+    return ticksRun;
+  }
+
+  public long getFramesRendered() {
+    return framesRendered;
+  }
+
+  public long getFramesSkipped() {
+    return framesSkipped;
+  }
+
+  public long getTicksDropped() {
+    return ticksDropped;
+  }
+
+  public int getRockCount() {
+    return rockCount;
+  }
+
+  public int getRockCapacity() {
+    return rockCapacity;
+  }
+
+  public int getRockPeak() {
+    return rockPeak;
+  }
+
+  public long getRocksRefused() {
+    return rocksRefused;
+  }
+
+  public int getDebrisCapacity() {
+    return debrisCapacity;
+  }
+
+  public int getDebrisPeak() {
+    return debrisPeak;
+  }
+
+  public long getDebrisDropped() {
+    return debrisDropped;
+  }
+
+  public int getBulletCount() {
+    return bulletCount;
+  }
+
+  public int getBulletCapacity() {
+    return bulletCapacity;
+  }
+
+  public int getBulletPeak() {
+    return bulletPeak;
+  }
+
+  public long getBulletsRefused() {
+    return bulletsRefused;
+  }
+}
\ No newline at end of file
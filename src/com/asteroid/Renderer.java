@@ -0,0 +1,623 @@
+package com.asteroid;
+
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.util.Objects;
+import java.util.SplittableRandom;
+
+/**
+ * Draws a game world, its status display and messages, from a RenderFrame
+ * captured of them, so it never reads the world itself and may run on
+ * another thread than the one stepping it. The Screen uses one renderer for
+ * both ways it puts frames on the display: drawing into the back buffer of
+ * a BufferStrategy from the game loop, or into an off screen image that
+ * paint() copies to the window.
+ *
+ * Frames are drawn at any size, the world being scaled from its fixed
+ * WORLD_WIDTH by WORLD_HEIGHT to the width and height given, text and all.
+ * Nothing is scaled at full size.
+ *
+ * Debris goes straight into the pixels of the target image when a
+ * LineRasterizer for it is given, and through Graphics.drawLine() when not,
+ * as for a BufferStrategy whose buffers are not ours to touch.
+ *
+ * The stars come from a Starfield, a blit per layer from images made once
+ * for the screen size. With parallax its layers drift against the ship in
+ * render(), while renderDirty() keeps them in place, as a moving background
+ * would have every tile change.
+ *
+ * renderDirty() draws over the frame it drew before into the same image
+ * and only touches what changed: the tiles drawn on in the last frame are
+ * cleared back to the starfield, the sprites, debris and text are drawn
+ * again, and the tiles of both frames are returned for copying to the
+ * screen. Text counts as drawn on only when it changes.
+ */
+public class Renderer implements Constants {
+
+  private static final double FULL_REDRAW = 0.5;  // part of the frame past which all is redrawn
+  private static final int MAX_TEXTS = 16;        // lines of text on the screen at once
+  private static final Color CLEAR = new Color(0, true);
+
+  // every gray level, for the fades, so drawing a frame makes no colors
+  private static final Color[] GRAYS = new Color[256];
+
+  static {
+    for (int i = 0; i < GRAYS.length; i++) GRAYS[i] = new Color(i, i, i);
+  }
+
+  // background stars
+  private final Starfield starfield;
+
+  // frame being drawn, and the frame times shown with the counters
+  private RenderFrame frame;
+  private FrameStats frames;
+
+  // randomness for the starfield and flicker, kept apart from the streams
+  // of the game world so drawing never changes how a game plays out
+  private SplittableRandom random;
+
+  // debris is drawn in batches of the same gray level
+  private int[] scrapColors = new int[SCRAP_LEVELS];
+  private Color[] scrapPaints = new Color[SCRAP_LEVELS];
+
+  // scale from the world to the frame, and scratch arrays for the sprites
+  // and debris scaled to it
+  private double scaleX, scaleY;
+  private boolean scaled;
+  private int[] viewX = new int[MAX_ROCK_SIDES];
+  private int[] viewY = new int[MAX_ROCK_SIDES];
+  private int[] scrapX0 = new int[0], scrapY0 = new int[0], scrapX1 = new int[0], scrapY1 = new int[0];
+
+  // data for the screen font, sized and measured for the scale of the frame
+  private Font font;
+  private FontMetrics fm;
+  private int fontWidth;
+  private int fontHeight;
+
+  // text of this frame and the last one, laid out before anything is drawn
+  private String[] texts = new String[MAX_TEXTS];
+  private int[] textX = new int[MAX_TEXTS];
+  private int[] textY = new int[MAX_TEXTS];
+  private int[] textWidths = new int[MAX_TEXTS];
+  private int textCount;
+  private String[] lastTexts = new String[MAX_TEXTS];
+  private int[] lastTextX = new int[MAX_TEXTS];
+  private int[] lastTextY = new int[MAX_TEXTS];
+  private int[] lastTextWidths = new int[MAX_TEXTS];
+  private int lastTextCount;
+
+  // what the HUD lines show, and an image they are drawn into when that
+  // changes, so they are not built, measured and drawn every frame
+  private BufferedImage hud;
+  private int hudWidth, hudHeight;
+  private int hudScore = -1, hudShipsLeft, hudHighScore;
+  private boolean hudSound, hudPaused, hudPlaying, hudLoaded;
+  private String hudStatus, hudLastClip;
+  private boolean hudChanged;     // the lines were made again this frame
+  private int hudCount;           // HUD lines, the first of the text
+  private int lastHudCount;
+
+  // sound loading progress bar, shown while bar width is above 0
+  private int barX, barY, barWidth, barHeight;
+
+  // tiles drawn on in the last frame and this one, and those to copy
+  private boolean tracking;       // mark what is drawn
+  private boolean invalid = true; // next dirty frame is drawn whole
+  private boolean lastDetail;
+  private DirtyTiles previous = new DirtyTiles();
+  private DirtyTiles current = new DirtyTiles();
+  private DirtyTiles copy = new DirtyTiles();
+  private Graphics clearing;      // graphics clearRun() draws with
+  private int clearingWidth, clearingHeight;
+  private final DirtyTiles.RunVisitor clearRun = this::clearRun;
+
+  /**
+   * Create a renderer with a starry background.
+   */
+  public Renderer() {
+    this(new SplittableRandom().nextLong());
+  }
+
+  /**
+   * Create a renderer whose starfield and flicker follow a seed, so the
+   * same frames are drawn the same way every time.
+   *
+   * @param seed seed for the stars and the flicker.
+   */
+  public Renderer(long seed) {
+    int i, c;
+
+    random = new SplittableRandom(seed);
+
+    // the starry background is made when first drawn, at the size drawn
+    starfield = new Starfield(random.nextLong());
+
+    // gray levels for fading debris, from dim to white
+    for (i = 0; i < SCRAP_LEVELS; i++) {
+      c = 255 * (i + 1) / SCRAP_LEVELS;
+      scrapColors[i] = 0x010101 * c;
+      scrapPaints[i] = GRAYS[c];
+    }
+  }
+
+  public Starfield getStarfield() {
+    return starfield;
+  }
+
+  /**
+   * Sets the frame times shown with the counters of frames that have them.
+   * They are read while drawing, on the thread that draws.
+   *
+   * @param frames frame times, or null to leave them out.
+   */
+  public void setFrameStats(FrameStats frames) {
+    this.frames = frames;
+  }
+
+  /**
+   * Draw a frame.
+   *
+   * @param graphics graphics to draw with.
+   * @param pixels rasterizer for the image drawn into, or null to draw debris
+   *               through the graphics.
+   * @param width width of the area drawn.
+   * @param height height of the area drawn.
+   * @param frame what to draw.
+   */
+  public void render(Graphics graphics, LineRasterizer pixels, int width, int height, RenderFrame frame) {
+    this.frame = frame;
+    measure(graphics, width, height);
+    tracking = false;
+    invalid = true;
+    layoutText(width, height);
+
+    // Fill in background and stars, moved along with the ship.
+    if (frame.isDetail()) {
+      starfield.scroll(frame.getTick(), frame.getShipDeltaX(), frame.getShipDeltaY());
+      starfield.draw(graphics, width, height);
+    }
+    else {
+      graphics.setColor(Color.black);
+      graphics.fillRect(0, 0, width, height);
+    }
+
+    drawSprites(graphics, pixels);
+    drawText(graphics);
+    this.frame = null;
+  }
+
+  /**
+   * Draw a frame over the last one this method drew, redrawing only what
+   * changed. The image must be the same every frame and nobody else may
+   * draw into it, call invalidate() otherwise.
+   *
+   * @param graphics graphics of the image.
+   * @param pixels rasterizer for the image, or null to draw debris through
+   *               the graphics.
+   * @param width width of the image.
+   * @param height height of the image.
+   * @param frame what to draw.
+   * @return the tiles that changed, which need copying to the screen. They
+   *         stay valid until the next frame is drawn.
+   */
+  public DirtyTiles renderDirty(Graphics graphics, LineRasterizer pixels, int width, int height, RenderFrame frame) {
+    DirtyTiles swap;
+    boolean full;
+
+    this.frame = frame;
+    measure(graphics, width, height);
+    if (width != previous.getWidth() || height != previous.getHeight()) {
+      previous.reset(width, height);
+      current.reset(width, height);
+      copy.reset(width, height);
+      invalid = true;
+    }
+    current.clear();
+
+    // Text that changed is cleared where it was and drawn where it is.
+    tracking = true;
+    layoutText(width, height);
+
+    full = invalid || frame.isDetail() != lastDetail || previous.getCoverage() > FULL_REDRAW;
+    clearing = graphics;
+    clearingWidth = width;
+    clearingHeight = height;
+    if (full) clearRun(0, 0, width, height);
+    else previous.forEachRun(clearRun);
+    clearing = null;
+
+    drawSprites(graphics, pixels);
+    drawText(graphics);
+    tracking = false;
+    invalid = false;
+    lastDetail = frame.isDetail();
+    this.frame = null;
+
+    copy.clear();
+    if (full) copy.markAll();
+    else {
+      copy.add(previous);
+      copy.add(current);
+    }
+
+    swap = previous;
+    previous = current;
+    current = swap;
+
+    return copy;
+  }
+
+  /**
+   * Have the next call to renderDirty() draw the whole frame, because the
+   * image was drawn into or replaced.
+   */
+  public void invalidate() {
+    invalid = true;
+  }
+
+  /**
+   * Put back the background of a box, the stars with detail on.
+   */
+  private void clearRun(int x, int y, int width, int height) {
+    if (frame.isDetail()) {
+      starfield.drawStill(clearing, clearingWidth, clearingHeight, x, y, width, height);
+      return;
+    }
+    clearing.setColor(Color.black);
+    clearing.fillRect(x, y, width, height);
+  }
+
+  /**
+   * Scale the world and the font to a frame size, if not already scaled to
+   * it.
+   */
+  private void measure(Graphics graphics, int width, int height) {
+    double sx = (double) width / WORLD_WIDTH, sy = (double) height / WORLD_HEIGHT;
+
+    if (fm != null && sx == scaleX && sy == scaleY) return;
+
+    scaleX = sx;
+    scaleY = sy;
+    scaled = width != WORLD_WIDTH || height != WORLD_HEIGHT;
+    font = new Font(FONT_NAME, Font.BOLD, Math.max(1, (int) Math.round(FONT_SIZE * Math.min(sx, sy))));
+    fm = graphics.getFontMetrics(font);
+    fontWidth = fm.getMaxAdvance();
+    fontHeight = fm.getHeight();
+  }
+
+  /**
+   * Draw the ship, its bullets, the asteroids, the saucer and its missile
+   * and the debris.
+   */
+  private void drawSprites(Graphics graphics, LineRasterizer pixels) {
+    int i, n, c, kind;
+    Polygon p;
+    int[] xs, ys, x0, y0, x1, y1, scrapStart;
+    boolean detail = frame.isDetail(), flicker = false;
+    Color missile, ship;
+
+    // The missile's counter is used to quickly fade it to black when near
+    // expiration, the ship's to fade it to white on hyperspace.
+    missile = GRAYS[Math.min(frame.getMissileCounter() * 24, 255)];
+    ship = GRAYS[Math.max(0, 255 - (255 / HYPER_COUNT) * frame.getHyperCounter())];
+
+    // Sprites come in drawing order: bullets, missile, asteroids, saucer,
+    // ship and its thrusters.
+    for (i = 0; i < frame.getPolygonCount(); i++) {
+      p = frame.getPolygon(i);
+      kind = frame.getKind(i);
+      n = p.npoints;
+      xs = p.xpoints;
+      ys = p.ypoints;
+      if (scaled) {
+        xs = scale(p.xpoints, n, scaleX, viewX);
+        ys = scale(p.ypoints, n, scaleY, viewY);
+        viewX = xs;
+        viewY = ys;
+      }
+
+      switch (kind) {
+        case RenderFrame.BULLET:
+          graphics.setColor(Color.white);
+          graphics.drawPolygon(xs, ys, n);
+          break;
+
+        case RenderFrame.MISSILE:
+          graphics.setColor(missile);
+          graphics.drawPolygon(xs, ys, n);
+          graphics.drawLine(xs[n - 1], ys[n - 1], xs[0], ys[0]);
+          break;
+
+        case RenderFrame.ROCK:
+        case RenderFrame.UFO:
+          if (detail) {
+            graphics.setColor(Color.black);
+            graphics.fillPolygon(xs, ys, n);
+          }
+          graphics.setColor(Color.white);
+          graphics.drawPolygon(xs, ys, n);
+          graphics.drawLine(xs[n - 1], ys[n - 1], xs[0], ys[0]);
+          break;
+
+        case RenderFrame.SHIP:
+          if (detail && frame.getHyperCounter() == 0) {
+            graphics.setColor(Color.black);
+            graphics.fillPolygon(xs, ys, n);
+          }
+          graphics.setColor(ship);
+          graphics.drawPolygon(xs, ys, n);
+          graphics.drawLine(xs[n - 1], ys[n - 1], xs[0], ys[0]);
+
+          // Draw thruster exhaust if thrusters are on. Do it randomly to get
+          // a flicker effect.
+          flicker = !frame.isPaused() && detail && random.nextDouble() < 0.5;
+          break;
+
+        default:
+          if (!flicker) continue;
+          graphics.drawPolygon(xs, ys, n);
+          graphics.drawLine(xs[n - 1], ys[n - 1], xs[0], ys[0]);
+      }
+      mark(xs, ys, n);
+    }
+
+    // Draw any explosion debris, one batch per gray level so debris fades
+    // to black as it ages. Plotting debris straight into the pixels of the
+    // image is much cheaper than a drawLine() per piece, when we may.
+    n = frame.getDebrisCount();
+    x0 = frame.getX0();
+    y0 = frame.getY0();
+    x1 = frame.getX1();
+    y1 = frame.getY1();
+    if (scaled) {
+      x0 = scrapX0 = scale(x0, n, scaleX, scrapX0);
+      y0 = scrapY0 = scale(y0, n, scaleY, scrapY0);
+      x1 = scrapX1 = scale(x1, n, scaleX, scrapX1);
+      y1 = scrapY1 = scale(y1, n, scaleY, scrapY1);
+    }
+    scrapStart = frame.getScrapStart();
+    for (c = 0; c < SCRAP_LEVELS; c++) {
+      if (pixels != null) {
+        pixels.drawLines(scrapColors[c], x0, y0, x1, y1, scrapStart[c], scrapStart[c + 1]);
+        continue;
+      }
+      graphics.setColor(scrapPaints[c]);
+      for (i = scrapStart[c]; i < scrapStart[c + 1]; i++) graphics.drawLine(x0[i], y0[i], x1[i], y1[i]);
+    }
+    if (tracking)
+      for (i = 0; i < n; i++)
+        current.mark(Math.min(x0[i], x1[i]), Math.min(y0[i], y1[i]), Math.max(x0[i], x1[i]), Math.max(y0[i], y1[i]));
+  }
+
+  /**
+   * Scale world coordinates to the frame, into a scratch array grown to fit.
+   *
+   * @return the scratch array, or a larger one in its place.
+   */
+  private static int[] scale(int[] from, int n, double scale, int[] to) {
+    if (to.length < n) to = new int[Math.max(n, 2 * to.length)];
+    for (int i = 0; i < n; i++) to[i] = (int) Math.round(from[i] * scale);
+    return to;
+  }
+
+  /**
+   * Decide the status display and messages of this frame. The lines of the
+   * HUD are only made again when what they show changes, until then the
+   * last frame's are kept. While tracking, the lines that differ from the
+   * last frame are marked where they were and where they are.
+   */
+  private void layoutText(int width, int height) {
+    String[] swapTexts;
+    int[] swap;
+    int i, w;
+    String s;
+
+    // Keep the last frame's text to compare with.
+    swapTexts = lastTexts;
+    lastTexts = texts;
+    texts = swapTexts;
+    swap = lastTextX;
+    lastTextX = textX;
+    textX = swap;
+    swap = lastTextY;
+    lastTextY = textY;
+    textY = swap;
+    swap = lastTextWidths;
+    lastTextWidths = textWidths;
+    textWidths = swap;
+    lastTextCount = textCount;
+    lastHudCount = hudCount;
+    textCount = 0;
+
+    hudChanged = hudWidth != width || hudHeight != height || hudScore != frame.getScore()
+        || hudShipsLeft != frame.getShipsLeft() || hudHighScore != frame.getHighScore()
+        || hudSound != frame.isSound() || hudPaused != frame.isPaused() || hudPlaying != frame.isPlaying()
+        || hudLoaded != frame.isLoaded() || !Objects.equals(hudStatus, frame.getStatus())
+        || !Objects.equals(hudLastClip, frame.getLastClip());
+
+    if (!hudChanged) {
+      System.arraycopy(lastTexts, 0, texts, 0, hudCount);
+      System.arraycopy(lastTextX, 0, textX, 0, hudCount);
+      System.arraycopy(lastTextY, 0, textY, 0, hudCount);
+      System.arraycopy(lastTextWidths, 0, textWidths, 0, hudCount);
+      textCount = hudCount;
+    }
+    else {
+      hudWidth = width;
+      hudHeight = height;
+      hudScore = frame.getScore();
+      hudShipsLeft = frame.getShipsLeft();
+      hudHighScore = frame.getHighScore();
+      hudSound = frame.isSound();
+      hudPaused = frame.isPaused();
+      hudPlaying = frame.isPlaying();
+      hudLoaded = frame.isLoaded();
+      hudStatus = frame.getStatus();
+      hudLastClip = frame.getLastClip();
+      barWidth = 0;
+
+      // Display status and messages.
+      addText("Score: " + hudScore, fontWidth, fontHeight);
+      addText("Ships: " + hudShipsLeft, fontWidth, height - (fontHeight * 2));
+      s = "High: " + hudHighScore;
+      addText(s, width - ((fontWidth) + fm.stringWidth(s)), fontHeight);
+      if (!hudSound) {
+        s = "Mute";
+        addText(s, width - (fontWidth + fm.stringWidth(s)), height - (fontHeight * 2));
+      }
+
+      // Show the replay position, or that the game is being recorded.
+      if (hudStatus != null) addCentered(hudStatus, width, fontHeight);
+
+      if (!hudPlaying) {
+        addCentered(COPY_NAME, width, height / 2 - 2 * fontHeight);
+        addCentered(COPY_VERSION, width, height / 2 - fontHeight);
+        addCentered(COPY_INFO, width, height / 2 + fontHeight);
+        addCentered(COPY_LINK, width, height / 2 + 2 * fontHeight);
+        addCentered("Game Over", width, height / 4);
+        addCentered("'S' to Start", width, height / 4 + fontHeight);
+
+        // The game can start while the sounds load, each clip is heard once
+        // it is ready. Under the bar is how long the last one took.
+        if (!hudLoaded) {
+          s = "Loading sounds...";
+          barWidth = 4 * fontWidth + fm.stringWidth(s);
+          barHeight = fontHeight;
+          barX = (width - barWidth) / 2;
+          barY = 3 * height / 4 - fm.getMaxAscent();
+          addText(s, barX + 2 * fontWidth, barY + fm.getMaxAscent());
+          if (hudLastClip != null) addCentered(hudLastClip, width, 3 * height / 4 + 2 * fontHeight);
+        }
+      }
+      else if (hudPaused) addCentered("Game Paused", width, height / 4);
+      hudCount = textCount;
+    }
+
+    // The progress bar moves on its own.
+    if (barWidth > 0) mark(barX, barY, barX + barWidth, barY + barHeight);
+
+    // Show how many ticks were simulated against frames actually drawn. The
+    // counters change every frame and are drawn as they are.
+    if (frame.isStats()) {
+      addCentered("Ticks: " + frame.getTicksRun() + "  Frames: " + frame.getFramesRendered()
+          + "  Skipped: " + frame.getFramesSkipped() + "  Dropped: " + frame.getTicksDropped(),
+          width, height - (fontHeight * 2));
+      addCentered("Rocks: " + usage(frame.getRockCount(), frame.getRockCapacity(), frame.getRockPeak(), frame.getRocksRefused())
+          + "  Debris: " + usage(frame.getDebrisCount(), frame.getDebrisCapacity(), frame.getDebrisPeak(), frame.getDebrisDropped())
+          + "  Bullets: " + usage(frame.getBulletCount(), frame.getBulletCapacity(), frame.getBulletPeak(), frame.getBulletsRefused()),
+          width, height - (fontHeight * 3));
+      if (frames != null && frames.getCount() > 0) addCentered(frames.toString(), width, height - (fontHeight * 4));
+    }
+
+    if (!tracking) return;
+
+    for (i = 0; i < Math.max(textCount, lastTextCount); i++) {
+      if (i < textCount && i < lastTextCount && textX[i] == lastTextX[i] && textY[i] == lastTextY[i]
+          && texts[i].equals(lastTexts[i]))
+        continue;
+
+      if (i < lastTextCount) {
+        w = lastTextWidths[i];
+        previous.mark(lastTextX[i], lastTextY[i] - fm.getMaxAscent(), lastTextX[i] + w, lastTextY[i] + fm.getMaxDescent());
+      }
+      if (i < textCount)
+        mark(textX[i], textY[i] - fm.getMaxAscent(), textX[i] + textWidths[i], textY[i] + fm.getMaxDescent());
+    }
+  }
+
+  private void addText(String s, int x, int y) {
+    texts[textCount] = s;
+    textX[textCount] = x;
+    textY[textCount] = y;
+    textWidths[textCount] = fm.stringWidth(s);
+    textCount++;
+  }
+
+  private void addCentered(String s, int width, int y) {
+    addText(s, (width - fm.stringWidth(s)) / 2, y);
+  }
+
+  /**
+   * Draw the text laid out for this frame, and the progress bar. The HUD
+   * lines are copied from the HUD image, drawn again first if they changed.
+   */
+  private void drawText(Graphics graphics) {
+    int i, top, bottom;
+
+    if (barWidth > 0) {
+      graphics.setColor(Color.black);
+      graphics.fillRect(barX, barY, barWidth, barHeight);
+      graphics.setColor(Color.gray);
+      if (frame.getClipTotal() > 0)
+        graphics.fillRect(barX, barY, barWidth * frame.getClipsLoaded() / frame.getClipTotal(), barHeight);
+      graphics.setColor(Color.white);
+      graphics.drawRect(barX, barY, barWidth, barHeight);
+    }
+
+    if (hudChanged) drawHud(graphics);
+
+    for (i = 0; i < hudCount; i++) {
+      top = textY[i] - fm.getMaxAscent();
+      bottom = textY[i] + fm.getMaxDescent() + 1;
+      graphics.drawImage(hud, textX[i], top, textX[i] + textWidths[i] + 1, bottom,
+          textX[i], top, textX[i] + textWidths[i] + 1, bottom, null);
+    }
+
+    graphics.setFont(font);
+    graphics.setColor(Color.white);
+    for (i = hudCount; i < textCount; i++) graphics.drawString(texts[i], textX[i], textY[i]);
+  }
+
+  /**
+   * Draw the HUD lines into the HUD image, made for the size of the screen
+   * if it has none of that size.
+   */
+  private void drawHud(Graphics graphics) {
+    Graphics2D g;
+    int i;
+
+    if (hud == null || hud.getWidth() != hudWidth || hud.getHeight() != hudHeight) {
+      if (hud != null) hud.flush();
+      hud = ((Graphics2D) graphics).getDeviceConfiguration().createCompatibleImage(hudWidth, hudHeight,
+          Transparency.BITMASK);
+      lastHudCount = 0;
+    }
+
+    g = hud.createGraphics();
+    g.setBackground(CLEAR);
+    for (i = 0; i < lastHudCount; i++)
+      g.clearRect(lastTextX[i], lastTextY[i] - fm.getMaxAscent(), lastTextWidths[i] + 1,
+          fm.getMaxAscent() + fm.getMaxDescent() + 1);
+
+    g.setFont(font);
+    g.setColor(Color.white);
+    for (i = 0; i < hudCount; i++) g.drawString(texts[i], textX[i], textY[i]);
+    g.dispose();
+  }
+
+  /**
+   * Mark the tiles under a polygon as drawn on, while tracking.
+   */
+  private void mark(int[] xs, int[] ys, int n) {
+    int x0 = Integer.MAX_VALUE, y0 = Integer.MAX_VALUE, x1 = Integer.MIN_VALUE, y1 = Integer.MIN_VALUE;
+
+    if (!tracking) return;
+
+    for (int i = 0; i < n; i++) {
+      x0 = Math.min(x0, xs[i]);
+      y0 = Math.min(y0, ys[i]);
+      x1 = Math.max(x1, xs[i]);
+      y1 = Math.max(y1, ys[i]);
+    }
+    // A stroke covers the pixel right of and below its end points too.
+    current.mark(x0, y0, x1 + 1, y1 + 1);
+  }
+
+  private void mark(int x0, int y0, int x1, int y1) {
+    if (tracking) current.mark(x0, y0, x1 + 1, y1 + 1);
+  }
+
+  private static String usage(int active, int capacity, int peak, long refused) {
+    return active + "/" + capacity + " peak " + peak + (refused > 0 ? " refused " + refused : "");
+  }
+}
\ No newline at end of file
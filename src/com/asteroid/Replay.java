@@ -0,0 +1,340 @@
+package com.asteroid;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * A recorded game: the controls of every tick plus a full world state every
+ * KEYFRAME_INTERVAL ticks. Stepping a world from a keyframe with the recorded
+ * controls plays the game exactly as it was recorded, since the world is
+ * deterministic, so keyframes only serve to jump to any point quickly.
+ *
+ * The controls of a tick are an int of InputState bits and the DETAIL bit.
+ * They are stored run-length encoded: each run of ticks with the same bits
+ * is a single varint of (run - 1) shl 9 | bits, and a run never crosses a
+ * keyframe. Keyframes are the bytes of GameWorld.writeState(), deflated.
+ *
+ * A jump keyframe is also taken whenever the world did not simply step on
+ * from the last recorded tick, because it was restored from a Snapshot.
+ * Players restore jump keyframes as they pass them and play through the
+ * others.
+ *
+ * Call record() just before each step of the world to record a game, and
+ * use a ReplayPlayer to play it back. Only the controls of player 0 are
+ * recorded, so replays are of single player games.
+ */
+public class Replay implements Constants {
+
+  public static final int KEYFRAME_INTERVAL = 60 * FPS;  // ticks between keyframes
+  public static final int DETAIL = 1 << 8;               // detail setting, next to the InputState bits
+
+  private static final int MAGIC = 0x41535452;  // "ASTR"
+  private static final int VERSION = 3;
+  static final int BITS = 9;                     // bits of a tick, below the run length
+
+  // run-length encoded controls
+  private byte[] inputs = new byte[256];
+  private int inputLength;
+  private long length;           // number of ticks recorded
+  private int runBits = -1;      // bits of the run being recorded
+  private int runLength;         // ticks in it so far
+  private long nextWorldTick;    // world tick that continues the recording
+
+  // keyframes, in tick order
+  private long[] keyTicks = new long[16];
+  private int[] keyOffsets = new int[16];   // position in inputs of the next run
+  private int[] keySizes = new int[16];     // state size before deflating
+  private byte[][] keyStates = new byte[16][];
+  private boolean[] keyJumps = new boolean[16];  // world jumped to this keyframe
+  private int keyCount;
+
+  // scratch space for keyframes
+  private ByteBuffer state = ByteBuffer.allocate(4096);
+  private byte[] packed = new byte[4096];
+
+  /**
+   * Record one tick. Call with the controls the world is about to be
+   * stepped with.
+   *
+   * @param world world that is recorded.
+   * @param input controls for the next step.
+   */
+  public void record(GameWorld world, InputState input) {
+    int bits = input.getBits() | (world.isDetail() ? DETAIL : 0);
+    boolean jump = length > 0 && world.getTick() != nextWorldTick;
+
+    if (length % KEYFRAME_INTERVAL == 0 || jump) {
+      flush();
+      addKeyframe(world, jump);
+    }
+    nextWorldTick = world.getTick() + 1;
+
+    if (bits != runBits) {
+      flush();
+      runBits = bits;
+    }
+    runLength++;
+    length++;
+  }
+
+  /**
+   * Write out the run being recorded.
+   */
+  void flush() {
+    int v;
+
+    if (runLength == 0) return;
+
+    if (inputLength + 5 > inputs.length) inputs = Arrays.copyOf(inputs, inputs.length * 2);
+
+    v = (runLength - 1) << BITS | runBits;
+    while ((v & ~0x7f) != 0) {
+      inputs[inputLength++] = (byte) (v & 0x7f | 0x80);
+      v >>>= 7;
+    }
+    inputs[inputLength++] = (byte) v;
+
+    runLength = 0;
+    runBits = -1;
+  }
+
+  /**
+   * Save the world state as a keyframe for the tick about to be recorded.
+   */
+  private void addKeyframe(GameWorld world, boolean jump) {
+    Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+    int size = world.getStateSize(), n;
+
+    if (state.capacity() < size) state = ByteBuffer.allocate(Math.max(size, 2 * state.capacity()));
+    state.clear();
+    world.writeState(state);
+
+    deflater.setInput(state.array(), 0, size);
+    deflater.finish();
+    n = 0;
+    while (!deflater.finished()) {
+      if (n == packed.length) packed = Arrays.copyOf(packed, 2 * packed.length);
+      n += deflater.deflate(packed, n, packed.length - n);
+    }
+    deflater.end();
+
+    if (keyCount == keyTicks.length) {
+      keyTicks = Arrays.copyOf(keyTicks, 2 * keyCount);
+      keyOffsets = Arrays.copyOf(keyOffsets, 2 * keyCount);
+      keySizes = Arrays.copyOf(keySizes, 2 * keyCount);
+      keyStates = Arrays.copyOf(keyStates, 2 * keyCount);
+      keyJumps = Arrays.copyOf(keyJumps, 2 * keyCount);
+    }
+    keyTicks[keyCount] = length;
+    keyOffsets[keyCount] = inputLength;
+    keySizes[keyCount] = size;
+    keyStates[keyCount] = Arrays.copyOf(packed, n);
+    keyJumps[keyCount] = jump;
+    keyCount++;
+  }
+
+  /**
+   * Returns the number of recorded ticks.
+   *
+   * @return replay length in ticks.
+   */
+  public long getLength() {
+    return length;
+  }
+
+  public int getKeyframeCount() {
+    return keyCount;
+  }
+
+  public long getKeyframeTick(int index) {
+    return keyTicks[index];
+  }
+
+  /**
+   * Returns whether the world jumped to a keyframe rather than stepping to
+   * it, so a player has to restore it.
+   *
+   * @param index keyframe index.
+   * @return true for a jump keyframe.
+   */
+  public boolean isKeyframeJump(int index) {
+    return keyJumps[index];
+  }
+
+  int getKeyframeOffset(int index) {
+    return keyOffsets[index];
+  }
+
+  byte[] getInputs() {
+    return inputs;
+  }
+
+  int getInputLength() {
+    return inputLength;
+  }
+
+  /**
+   * Returns the index of the last keyframe at or before a tick.
+   *
+   * @param tick tick of the replay.
+   * @return keyframe index, or -1 if there is none.
+   */
+  public int findKeyframe(long tick) {
+    int index = Arrays.binarySearch(keyTicks, 0, keyCount, tick);
+
+    return index >= 0 ? index : -index - 2;
+  }
+
+  /**
+   * Inflate a keyframe into a buffer, ready for GameWorld.readState().
+   *
+   * @param index keyframe index.
+   * @param out buffer to fill, or null to get a new one.
+   * @return the buffer holding the state, flipped for reading.
+   */
+  public ByteBuffer readKeyframe(int index, ByteBuffer out) {
+    Inflater inflater = new Inflater();
+    int size = keySizes[index];
+
+    if (out == null || out.capacity() < size || !out.hasArray()) out = ByteBuffer.allocate(size);
+    out.clear();
+
+    inflater.setInput(keyStates[index]);
+    try {
+      while (out.position() < size && !inflater.finished())
+        out.position(out.position() + inflater.inflate(out.array(), out.position(), size - out.position()));
+    } catch (DataFormatException e) {
+      throw new IllegalStateException("corrupt keyframe " + index, e);
+    } finally {
+      inflater.end();
+    }
+
+    out.flip();
+    return out;
+  }
+
+  /**
+   * Returns the number of bytes write() writes, not counting the run being
+   * recorded.
+   *
+   * @return encoded size of the replay.
+   */
+  public long getEncodedSize() {
+    long size = 4 + 4 + 8 + 4 + inputLength + 4;
+
+    for (int i = 0; i < keyCount; i++) size += 8 + 4 * 3 + 1 + keyStates[i].length;
+
+    return size;
+  }
+
+  /**
+   * Returns the number of bytes the keyframes take up.
+   *
+   * @return deflated keyframe bytes.
+   */
+  public long getKeyframeBytes() {
+    long size = 0;
+
+    for (int i = 0; i < keyCount; i++) size += keyStates[i].length;
+
+    return size;
+  }
+
+  /**
+   * Write the replay to a stream. The run being recorded is written out
+   * first, recording can go on afterwards.
+   *
+   * @param stream stream to write to.
+   * @throws IOException if writing fails.
+   */
+  public void write(OutputStream stream) throws IOException {
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(stream));
+
+    flush();
+    out.writeInt(MAGIC);
+    out.writeInt(VERSION);
+    out.writeLong(length);
+    out.writeInt(inputLength);
+    out.write(inputs, 0, inputLength);
+    out.writeInt(keyCount);
+    for (int i = 0; i < keyCount; i++) {
+      out.writeLong(keyTicks[i]);
+      out.writeInt(keyOffsets[i]);
+      out.writeInt(keySizes[i]);
+      out.writeBoolean(keyJumps[i]);
+      out.writeInt(keyStates[i].length);
+      out.write(keyStates[i]);
+    }
+    out.flush();
+  }
+
+  /**
+   * Read a replay written by write().
+   *
+   * @param stream stream to read from.
+   * @return the replay.
+   * @throws IOException if reading fails or the stream is not a replay.
+   */
+  public static Replay read(InputStream stream) throws IOException {
+    DataInputStream in = new DataInputStream(new BufferedInputStream(stream));
+    Replay replay = new Replay();
+    int n;
+
+    if (in.readInt() != MAGIC) throw new IOException("not a replay");
+    n = in.readInt();
+    if (n != VERSION) throw new IOException("unsupported replay version " + n);
+
+    replay.length = in.readLong();
+    replay.inputLength = in.readInt();
+    replay.inputs = new byte[Math.max(256, replay.inputLength)];
+    in.readFully(replay.inputs, 0, replay.inputLength);
+
+    replay.keyCount = in.readInt();
+    replay.keyTicks = new long[Math.max(16, replay.keyCount)];
+    replay.keyOffsets = new int[replay.keyTicks.length];
+    replay.keySizes = new int[replay.keyTicks.length];
+    replay.keyStates = new byte[replay.keyTicks.length][];
+    replay.keyJumps = new boolean[replay.keyTicks.length];
+    for (int i = 0; i < replay.keyCount; i++) {
+      replay.keyTicks[i] = in.readLong();
+      replay.keyOffsets[i] = in.readInt();
+      replay.keySizes[i] = in.readInt();
+      replay.keyJumps[i] = in.readBoolean();
+      replay.keyStates[i] = new byte[in.readInt()];
+      in.readFully(replay.keyStates[i]);
+    }
+
+    if (replay.keyCount == 0 || replay.keyTicks[0] != 0) throw new IOException("replay has no first keyframe");
+
+    return replay;
+  }
+
+  /**
+   * Save the replay to a file.
+   *
+   * @param file file to write.
+   * @throws IOException if writing fails.
+   */
+  public void save(File file) throws IOException {
+    try (OutputStream out = new FileOutputStream(file)) {
+      write(out);
+    }
+  }
+
+  /**
+   * Load a replay from a file.
+   *
+   * @param file file to read.
+   * @return the replay.
+   * @throws IOException if reading fails or the file is not a replay.
+   */
+  public static Replay load(File file) throws IOException {
+    try (InputStream in = new FileInputStream(file)) {
+      return read(in);
+    }
+  }
+}
\ No newline at end of file
@@ -0,0 +1,144 @@
+package com.asteroid;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Plays a Replay back into a game world. The world is put back to the first
+ * keyframe and then stepped with the recorded controls, one tick per call
+ * to step(), so the same player serves headless playback at full speed and
+ * a screen playing at normal speed.
+ *
+ * seek() jumps to any tick by restoring the last keyframe before it and
+ * stepping forward from there, which is at most KEYFRAME_INTERVAL ticks.
+ * Jump keyframes are restored whenever playback reaches them.
+ */
+public class ReplayPlayer {
+
+  private final Replay replay;
+  private final GameWorld world;
+  private final InputState input = new InputState();
+  private ByteBuffer state;      // inflated keyframe, reused between seeks
+
+  private long tick;             // ticks of the replay played so far
+  private int nextKey;           // first keyframe after the current tick
+  private int position;          // position in the inputs of the next run
+  private int runBits;           // bits of the run being played
+  private int runLeft;           // ticks left in it
+
+  /**
+   * Create a player and put the world at the start of the replay.
+   *
+   * @param replay replay to play.
+   * @param world world to play it into.
+   */
+  public ReplayPlayer(Replay replay, GameWorld world) {
+    this.replay = replay;
+    this.world = world;
+
+    replay.flush();
+    restore(0);
+  }
+
+  public GameWorld getWorld() {
+    return world;
+  }
+
+  /**
+   * Returns the controls of the tick played last.
+   *
+   * @return recorded controls.
+   */
+  public InputState getInput() {
+    return input;
+  }
+
+  /**
+   * Returns the number of ticks played since the start of the replay.
+   *
+   * @return current tick.
+   */
+  public long getTick() {
+    return tick;
+  }
+
+  public long getLength() {
+    return replay.getLength();
+  }
+
+  public boolean isFinished() {
+    return tick >= replay.getLength();
+  }
+
+  /**
+   * Put the world at a tick of the replay.
+   *
+   * @param target tick to go to, clamped to the length of the replay.
+   */
+  public void seek(long target) {
+    int key;
+
+    target = Math.max(0, Math.min(target, replay.getLength()));
+
+    // Playing forward within the current keyframe interval is cheaper than
+    // restoring a keyframe.
+    key = replay.findKeyframe(target);
+    if (target < tick || replay.getKeyframeTick(key) > tick) restore(key);
+
+    while (tick < target) step();
+  }
+
+  /**
+   * Put the world at a keyframe.
+   */
+  private void restore(int key) {
+    state = replay.readKeyframe(key, state);
+    world.readState(state);
+    tick = replay.getKeyframeTick(key);
+    position = replay.getKeyframeOffset(key);
+    runLeft = 0;
+    nextKey = key + 1;
+  }
+
+  /**
+   * Step the world with the controls of the next recorded tick.
+   *
+   * @return false if the replay has ended and nothing was done.
+   */
+  public boolean step() {
+    if (isFinished()) return false;
+
+    // At a keyframe jump the recorded world was restored, by a quick load,
+    // instead of stepped, so it is restored here too.
+    if (nextKey < replay.getKeyframeCount() && replay.getKeyframeTick(nextKey) == tick) {
+      if (replay.isKeyframeJump(nextKey)) restore(nextKey);
+      else nextKey++;
+    }
+
+    if (runLeft == 0) readRun();
+
+    input.setBits(runBits);
+    world.setDetail((runBits & Replay.DETAIL) != 0);
+    world.step(input);
+
+    runLeft--;
+    tick++;
+    return true;
+  }
+
+  /**
+   * Decode the varint of the next run.
+   */
+  private void readRun() {
+    byte[] inputs = replay.getInputs();
+    int v = 0, shift = 0, b;
+
+    do {
+      b = inputs[position++];
+      v |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    runBits = v & ((1 << Replay.BITS) - 1);
+    runLeft = (v >>> Replay.BITS) + 1;
+  }
+}
\ No newline at end of file
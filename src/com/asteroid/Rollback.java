@@ -0,0 +1,181 @@
+package com.asteroid;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Steps a game world while keeping the state and the controls of its last
+ * ticks, so that controls which arrive late, as they do from a network, can
+ * still be applied at the tick they were meant for. The world is rewound to
+ * that tick and stepped forward again to the present, which works because a
+ * step is a function of nothing but the state and the controls.
+ *
+ * The states are kept in a ring of direct buffers that is allocated up
+ * front and only grows when the world does, so stepping and rewinding do
+ * not allocate. Sound cues are held back while ticks are stepped again,
+ * callers check isThrustersPlaying() and friends afterwards, as after
+ * restoring a Snapshot.
+ *
+ * Only step() moves the world on. After anything else changes it, such as
+ * a player joining or a snapshot being restored, call reset() so the world
+ * is not rewound past the change.
+ */
+public class Rollback implements Constants {
+
+  private final GameWorld world;
+  private final int length;             // ticks kept
+  private final ByteBuffer[] states;    // state before each tick, by tick modulo length
+  private final int[] inputs;           // InputState bits of every player slot, by tick modulo length
+  private final boolean[] details;      // detail setting of each tick
+  private final int[] present = new int[MAX_PLAYERS];  // controls set for the next tick
+  private long first;                   // oldest tick kept
+  private long dirty = Long.MAX_VALUE;  // oldest tick whose controls changed
+
+  /**
+   * Keep the given number of ticks of a world, starting at its current
+   * tick.
+   *
+   * @param world world to step.
+   * @param length number of ticks that can be rewound.
+   */
+  public Rollback(GameWorld world, int length) {
+    int capacity = Math.max(4096, 2 * world.getStateSize());
+
+    if (length < 1) throw new IllegalArgumentException("length must be at least 1: " + length);
+
+    this.world = world;
+    this.length = length;
+    states = new ByteBuffer[length];
+    for (int i = 0; i < length; i++) states[i] = ByteBuffer.allocateDirect(capacity);
+    inputs = new int[length * MAX_PLAYERS];
+    details = new boolean[length];
+    first = world.getTick();
+  }
+
+  public GameWorld getWorld() {
+    return world;
+  }
+
+  public int getLength() {
+    return length;
+  }
+
+  /**
+   * Returns the oldest tick that controls can still be changed for.
+   *
+   * @return oldest tick kept.
+   */
+  public long getOldestTick() {
+    return first;
+  }
+
+  /**
+   * Forget the kept ticks, the world can be rewound no further than its
+   * current tick.
+   */
+  public void reset() {
+    first = world.getTick();
+    dirty = Long.MAX_VALUE;
+  }
+
+  /**
+   * Save the state and the controls set on each player, then step the
+   * world. Controls changed by correct() are applied first.
+   */
+  public void step() {
+    long tick;
+    int slot;
+
+    resimulate();
+
+    tick = world.getTick();
+    slot = (int) (tick % length);
+    save(slot);
+    for (int i = 0; i < world.getPlayerCount(); i++)
+      inputs[slot * MAX_PLAYERS + i] = world.getPlayer(i).getInput().getBits();
+    details[slot] = world.isDetail();
+
+    world.step();
+    first = Math.max(first, tick + 1 - length);
+  }
+
+  /**
+   * Write the state of the world into a slot of the ring.
+   */
+  private void save(int slot) {
+    ByteBuffer state = states[slot];
+    int size = world.getStateSize();
+
+    if (state.capacity() < size) state = states[slot] = ByteBuffer.allocateDirect(Math.max(size, 2 * state.capacity()));
+
+    state.clear();
+    world.writeState(state);
+    state.flip();
+  }
+
+  /**
+   * Change the controls a player had at a past tick. The ticks after it are
+   * stepped again with the next call to step() or resimulate().
+   *
+   * @param tick tick the controls were meant for.
+   * @param player index of the player.
+   * @param bits InputState bits.
+   * @return false if the tick is no longer kept, or not yet stepped.
+   */
+  public boolean correct(long tick, int player, int bits) {
+    int index;
+
+    if (tick < first || tick >= world.getTick()) return false;
+
+    index = (int) (tick % length) * MAX_PLAYERS + player;
+    if (inputs[index] != bits) {
+      inputs[index] = bits;
+      dirty = Math.min(dirty, tick);
+    }
+    return true;
+  }
+
+  /**
+   * Rewind the world to the oldest tick with changed controls and step it
+   * back to the present with the kept controls.
+   *
+   * @return number of ticks stepped again, 0 if nothing changed.
+   */
+  public int resimulate() {
+    SoundListener sounds;
+    long end = world.getTick(), tick;
+    int slot, i, n;
+    boolean detail;
+    ByteBuffer state;
+
+    if (dirty == Long.MAX_VALUE) return 0;
+
+    sounds = world.getSoundListener();
+    detail = world.isDetail();
+    n = world.getPlayerCount();
+    for (i = 0; i < n; i++) present[i] = world.getPlayer(i).getInput().getBits();
+
+    world.setSoundListener(SoundListener.NONE);
+    state = states[(int) (dirty % length)];
+    world.readState(state);
+    state.position(0);
+
+    for (tick = dirty; tick < end; tick++) {
+      slot = (int) (tick % length);
+      // The kept states after the changed tick are out of date.
+      if (tick > dirty) save(slot);
+
+      for (i = 0; i < world.getPlayerCount(); i++)
+        world.getPlayer(i).getInput().setBits(inputs[slot * MAX_PLAYERS + i]);
+      world.setDetail(details[slot]);
+      world.step();
+    }
+
+    for (i = 0; i < world.getPlayerCount(); i++) world.getPlayer(i).getInput().setBits(i < n ? present[i] : 0);
+    world.setDetail(detail);
+    world.setSoundListener(sounds);
+
+    n = (int) (end - dirty);
+    dirty = Long.MAX_VALUE;
+    return n;
+  }
+}
\ No newline at end of file
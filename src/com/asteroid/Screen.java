@@ -3,10 +3,26 @@ package com.asteroid;
 import javax.sound.sampled.Clip;
 import javax.swing.*;
 import java.awt.*;
+import java.awt.image.BufferStrategy;
+import java.awt.image.BufferedImage;
 import java.awt.event.ComponentAdapter;
 import java.awt.event.ComponentEvent;
 import java.awt.event.KeyEvent;
 import java.awt.event.KeyListener;
+import java.awt.event.WindowAdapter;
+import java.awt.event.WindowEvent;
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import com.asteroid.objects.*;
 
@@ -15,131 +31,174 @@ import com.asteroid.objects.*;
  * Ship, Asteroids, UFO, explosions etc.
  *
  */
-public class Screen extends JPanel implements Runnable, KeyListener, Constants {
-
-  // background stars
-  private int numStars;
-  private Star[] stars;
-
-  // game data
-  private int score;
-  private int highScore;
-  private int newShipScore;
-  private int newUFOScore;
-
-  // flags for game state and options
-  private boolean isLoaded;
-  private boolean paused;
-  private boolean playing;
-  private boolean sound;
-  private boolean detail;
-
-  // key flags
-  private boolean left = false;
-  private boolean right = false;
-  private boolean up = false;
-  private boolean down = false;
-
-  // game objects
-  private Ship ship;
-  private UFO ufo;
-  private Asteroid[] asteroids = new Asteroid[MAX_ROCKS];
-  private Explosion[] explosions = new Explosion[MAX_SCRAP];
-
-  private int shipsLeft;       // number of ships left in game, including current one
-  // ship data
-  private int shipCounter;     // timer counter for ship explosion
-  private int hyperCounter;    // timer counter for hyperspace
-
-  // bullet data
-  private int bulletIndex;     // index to next available bullet
-  private long bulletTime;     // time value used to keep firing rate constant
-
-  // flying saucer data
-  private int ufoPassesLeft;   // counter for number of flying saucer passes
-  private int ufoCounter;      // timer counter used to track each flying saucer pass
-
-  // missile data
-  private int missileCounter;  // counter for life of missile
-
-  // asteroid data
-  private boolean[] asteroidIsSmall = new boolean[MAX_ROCKS];  // asteroid size flag
-  private int asteroidsCounter;    // break-time counter
-
-  private double asteroidsSpeed;   // asteroid speed
-  private int asteroidsLeft;       // number of active asteroids
-
-  // explosion data
-  private int[] explosionCounter = new int[MAX_SCRAP];  // time counters for explosions
-  private int explosionIndex;
-
-  // flags for looping sounds
-  private boolean thrustersPlaying;
-  private boolean saucerPlaying;
-  private boolean missilePlaying;
+public class Screen extends JPanel implements Runnable, KeyListener, SoundListener, Constants {
+
+  // flags for game state and options. Pause and sound are switched by the
+  // game loop, on request of the keys, as they start and stop clips of
+  // what the world has playing.
+  private volatile boolean isLoaded;   // every sound clip is done loading
+  private volatile boolean paused;
+  private volatile boolean sound;
+  private volatile boolean showStats;
+  private volatile boolean detailRequested;
+  private volatile boolean pauseRequested;
+  private volatile boolean soundRequested;
+
+  // the simulated game and the controls fed into it. The keys set and clear
+  // bits on the event thread; once per tick the loop copies them into its
+  // own input and takes the requests, in one atomic update, so the tick
+  // recorded is the tick played and no request is lost between them.
+  private static final int REQUESTS = InputState.FIRE | InputState.HYPERSPACE | InputState.START | InputState.END;
+  private GameWorld world;
+  private final AtomicInteger keys = new AtomicInteger();
+  private final InputState input = new InputState();
+
+  // a replay played instead of the keyboard, or a recording of the keyboard
+  // game. Seeking and recording are requested by keys and carried out
+  // between ticks by the game loop.
+  private Replay replay;
+  private ReplayPlayer player;
+  private volatile long seekTarget = -1;
+  private Replay recording;
+  private volatile boolean recordRequested;
+  private String status;               // replay position or recording line
+  private long statusSeconds = -1;     // seconds the status line shows
+
+  // quick save and the crash recovery copy of the game, saved to files in
+  // the working directory. The recovery file is written every RECOVERY_SAVE
+  // ticks while a game is played and removed when it ends or the window is
+  // closed, so one left behind means the last run did not end cleanly.
+  // The loop captures the recovery copy into one of two snapshots in turn
+  // and a writer thread saves it, so a slow disk does not hold up ticks.
+  private static final Path QUICK_SAVE_FILE = Paths.get("asteroids-quick.snapshot");
+  private static final Path RECOVERY_FILE = Paths.get("asteroids-recovery.snapshot");
+  private Snapshot quickSave = new Snapshot();
+  private final Snapshot[] recoveries = {new Snapshot(), new Snapshot()};
+  private final Future<?>[] recoveryWrites = new Future<?>[recoveries.length];
+  private int recoveryNext;            // snapshot the next save captures into
+  private long recoveryTick = -1;
+  private final ExecutorService recoveryWriter = Executors.newSingleThreadExecutor(task -> {
+    Thread thread = new Thread(task, "Recovery writer");
+    thread.setDaemon(true);
+    return thread;
+  });
+  private volatile boolean saveRequested;
+  private volatile boolean loadRequested;
+
+  // fixed timestep clock
+  private GameClock clock = new GameClock(DELAY * 1000000L, MAX_CATCH_UP);
+
+  // Frames are drawn by the game loop into the buffers of a canvas and
+  // flipped to the screen. Add -Dasteroid.passiveRendering=true, or lack a
+  // buffer strategy, to have the loop ask for repaint() instead and paint()
+  // draw into an off screen image that it copies to the window. With
+  // -Dasteroid.dirtyRectangles=true the loop keeps the off screen image and
+  // redraws and copies to the canvas only the parts that changed. With
+  // -Dasteroid.parallax=true the stars drift in layers against the ship,
+  // except with dirty rectangles, where they hold still.
+  //
+  // The world keeps its size whatever the window's. It is drawn scaled to the
+  // largest box of its shape that fits the window, centered between black
+  // bars. With -Dasteroid.renderScale=0.5 it is drawn at half the size of
+  // that box, into the off screen image, and stretched over it, which takes
+  // a quarter of the pixels on slow machines.
+  //
+  // The loop captures what each frame shows into a RenderFrame and hands it
+  // over through the exchange, and only that frame is drawn, so paint() on
+  // the event thread never reads the world the loop is stepping.
+  private Renderer renderer;
+  private FrameExchange exchange = new FrameExchange();
+  private volatile boolean active = !Boolean.getBoolean("asteroid.passiveRendering");
+  private boolean dirtyRectangles = Boolean.getBoolean("asteroid.dirtyRectangles");
+  private Canvas canvas;
+  private BufferStrategy strategy;
+  private FrameStats frames;
+  private volatile boolean exposed;   // the canvas needs the whole image
+  private Graphics canvasGraphics;    // graphics copyRun() draws with
+  private final DirtyTiles.RunVisitor copyRun = this::copyRun;
+  private final double renderScale = Math.max(0.1, Math.min(1,
+      Double.parseDouble(System.getProperty("asteroid.renderScale", "1"))));
+  private Rectangle view = new Rectangle();   // where the world goes in the window
+  private int renderWidth, renderHeight;      // size the world is drawn at
 
   // off screen image
-  private Dimension offDimension;
-  private Image offImage;
+  private BufferedImage offImage;
   private Graphics offGraphics;
+  private LineRasterizer offPixels;
 
-  // data for the screen font
-  private Font font = new Font(FONT_NAME, Font.BOLD, FONT_SIZE);
-  private FontMetrics fm = getFontMetrics(font);
-  private int fontWidth = fm.getMaxAdvance();
-  private int fontHeight = fm.getHeight();
+  // effects whose clips finished loading since the loop last looked, as
+  // bits by ordinal, frames shown since the loop last counted them, which
+  // paint() shows on the event thread, and whether the first was shown yet
+  private final AtomicInteger clipsReady = new AtomicInteger();
+  private final AtomicInteger framesShown = new AtomicInteger();
+  private boolean firstShown;
 
   // thread control variables
-  private Thread loadThread;
   private Thread loopThread;
 
-  /**
-   * Returns Asteroid's speed
-   *
-   * @return double - asteroid's speed
-   */
-  public double getAsteroidsSpeed() {
-    return asteroidsSpeed;
-  }
-
   /**
    * Start the screen by initializing the window width, height
    * and the frame. When resized, repaint the screen.
+   *
+   * @param replay replay to play at normal speed, or null to play the game.
    */
-  void start() {
+  void start(Replay replay) {
     Screen screen = new Screen();
+    screen.replay = replay;
     screen.setBounds(0, 0, 1200, 800);
     screen.init();
 
+    // draw on a canvas inside the screen, which takes the keys from it
+    if (screen.active) {
+      screen.canvas = new Canvas() {
+        public void paint(Graphics graphics) {
+          screen.exposed = true;
+        }
+
+        public void update(Graphics graphics) {
+          paint(graphics);
+        }
+      };
+      screen.canvas.setIgnoreRepaint(!screen.dirtyRectangles);
+      screen.canvas.setBounds(0, 0, 1200, 800);
+      screen.canvas.addKeyListener(screen);
+      screen.setLayout(null);
+      screen.add(screen.canvas);
+    }
+
     JFrame mainFrame= new JFrame("Asteroids Game");
     mainFrame.setDefaultCloseOperation(JFrame.EXIT_ON_CLOSE);
     mainFrame.add(screen);
-    mainFrame.setSize(1200, 800);
+    mainFrame.setSize(WORLD_WIDTH, WORLD_HEIGHT);
     mainFrame.setLayout(null);
     mainFrame.setVisible(true);
+    if (screen.canvas != null) screen.canvas.requestFocus();
 
-    // add resize listener
+    // add resize listener, the world keeps its size and is scaled to fit
     mainFrame.addComponentListener(new ComponentAdapter() {
       public void componentResized(ComponentEvent e) {
         screen.setBounds(0, 0, e.getComponent().getWidth(), e.getComponent().getHeight());
         screen.setSize(e.getComponent().getWidth(), e.getComponent().getHeight());
-        AsteroidSprite.setWidth(e.getComponent().getWidth());
-        AsteroidSprite.setHeight(e.getComponent().getHeight());
-
+        if (screen.canvas != null) screen.canvas.setSize(e.getComponent().getWidth(), e.getComponent().getHeight());
         screen.repaint();
       }
     });
 
+    // a closed window is a clean exit, which needs no recovery
+    mainFrame.addWindowListener(new WindowAdapter() {
+      public void windowClosing(WindowEvent e) {
+        screen.closeRecovery();
+        System.out.println(screen.frames);
+      }
+    });
+
     screen.startThread();
   }
 
   /**
-   * Create all game objects, initialize game data and state variables.
+   * Create the game world, initialize game data and state variables.
    */
   private void init() {
-    Dimension dimension = getSize();
-    int i;
-
     // display copyright information
     System.out.println(COPY_TEXT);
 
@@ -147,542 +206,250 @@ public class Screen extends JPanel implements Runnable, KeyListener, Constants {
     addKeyListener(this);
     setFocusable(true);
 
-    // save the screen size
-    AsteroidSprite.setWidth(dimension.width);
-    AsteroidSprite.setHeight(dimension.height);
-
-    // generate the starry background
-    numStars = AsteroidSprite.getWidth() * AsteroidSprite.getHeight() / 5000;
-    stars = new Star[numStars];
-    for (i = 0; i < numStars; i++) { // create star objects
-      stars[i] = new Star((int) (Math.random() * AsteroidSprite.getWidth()),
-        (int) (Math.random() * AsteroidSprite.getHeight()));
-    }
-
-    // create shape for the ship sprite
-    ship = new Ship();
-
-    bulletIndex = 0;
-
-    // create shape for the flying saucer
-    ufo = new UFO();
-
-    // create asteroid sprites
-    for (i = 0; i < MAX_ROCKS; i++) asteroids[i] = new Asteroid();
-
-    // Create explosion sprites
-    for (i = 0; i < MAX_SCRAP; i++) {
-      explosions[i] = new Explosion();
-      explosionCounter[i] = 0;
-    }
-    explosionIndex = 0;
+    // create the game world and route its sound cues through this screen. A
+    // replay puts the world at its start.
+    world = new GameWorld();
+    world.setSoundListener(this);
+    if (replay != null) player = new ReplayPlayer(replay, world);
+    renderer = new Renderer();
+    renderer.getStarfield().setParallax(Boolean.getBoolean("asteroid.parallax"));
+    frames = new FrameStats((!active ? "off screen image" : dirtyRectangles ? "dirty rectangles" : "buffer strategy")
+        + " on " + pipeline());
+    renderer.setFrameStats(frames);
 
     // initialize game data and put us in 'game over' mode
-    highScore = 0;
     sound = true;
-    detail = true;
-    initGame();
-    endGame();
-  }
-
-  /**
-   * Initialize game data and sprites.
-   */
-  private void initGame() {
-    score = 0;
-    shipsLeft = MAX_SHIPS;
-    asteroidsSpeed = MIN_ROCK_SPEED;
-    newShipScore = NEW_SHIP_POINTS;
-    newUFOScore = NEW_UFO_POINTS;
-    initShip();
-    stopUFO();
-    stopMissile();
-    initAsteroids();
-    playing = true;
-    paused = false;
-    bulletTime = System.currentTimeMillis();
-  }
-
-  /**
-   * Initialize Ship and corresponding sounds.
-   */
-  private void initShip() {
-    ship.init();
+    if (player == null) {
+      world.initGame();
+      world.endGame();
+      recover();
+    }
 
-    if (this.isLoaded) Sound.getThrustersSound().stop();
-    this.thrustersPlaying = false;
-    this.hyperCounter = 0;
+    // have a frame to paint before the loop runs
+    publish(1.0);
   }
 
   /**
-   * Stops Ship. If the Ship stops its sound will be stopped if playing.
+   * Continue the game of a run that did not end cleanly, paused.
    */
-  private void stopShip() {
-    ship.setActive(false);
-    this.shipCounter = SCRAP_COUNT;
-
-    if (playing && this.shipsLeft > 0) this.shipsLeft--;
-    if (this.isLoaded) Sound.getThrustersSound().stop();
-
-    thrustersPlaying = false;
+  private void recover() {
+    if (!Files.exists(RECOVERY_FILE)) return;
+
+    try {
+      recoveries[0].load(RECOVERY_FILE);
+      recoveries[0].restore(world);
+      paused = true;
+      System.out.println("Recovered the game from " + RECOVERY_FILE);
+    } catch (IOException e) {
+      System.out.println("Cannot recover the game: " + e.getMessage());
+      deleteRecovery();
+    }
   }
 
   /**
-   * Update Ship's position on the screen.
+   * Save the game for crash recovery every RECOVERY_SAVE ticks while it is
+   * played, and remove the recovery file once it is over. The game is
+   * captured here and written on the writer thread. A snapshot still being
+   * written is not captured into again, the save waits for a later tick.
    */
-  private void updateShip() {
-    double dx, dy, speed;
-
-    if (!playing) return;
-
-    // rotate the ship if left or right arrow key is down
-    if (left) {
-      ship.setAngle(ship.getAngle() + SHIP_ANGLE_STEP);
-      if (ship.getAngle() > 2 * Math.PI)
-        ship.setAngle(ship.getAngle() - 2 * Math.PI);
-    }
-    if (right) {
-      ship.setAngle(ship.getAngle() - SHIP_ANGLE_STEP);
-      if (ship.getAngle() < 0)
-        ship.setAngle(ship.getAngle() + 2 * Math.PI);
-    }
-
-    // fire thrusters if up or down arrow key is down
-    dx = SHIP_SPEED_STEP * -Math.sin(ship.getAngle());
-    dy = SHIP_SPEED_STEP *  Math.cos(ship.getAngle());
-
-    if (up) {
-      ship.setDeltaX(ship.getDeltaX() + dx);
-      ship.setDeltaY(ship.getDeltaY() + dy);
-    }
+  private void saveRecovery() {
+    Snapshot snapshot;
 
-    if (down) {
-      ship.setDeltaX(ship.getDeltaX() - dx);
-      ship.setDeltaY(ship.getDeltaY() - dy);
+    if (!world.isPlaying()) {
+      if (recoveryTick >= 0) deleteRecovery();
+      return;
     }
+    if (recoveryTick >= 0 && world.getTick() - recoveryTick < RECOVERY_SAVE) return;
+    if (recoveryWrites[recoveryNext] != null && !recoveryWrites[recoveryNext].isDone()) return;
 
-    // don't let ship go past the speed limit
-    if (up || down) {
-      speed = Math.sqrt(ship.getDeltaX() * ship.getDeltaX() + ship.getDeltaY() * ship.getDeltaY());
-
-      if (speed > MAX_SHIP_SPEED) {
-        dx = MAX_SHIP_SPEED * -Math.sin(ship.getAngle());
-        dy = MAX_SHIP_SPEED *  Math.cos(ship.getAngle());
-        if (up)
-          ship.setDeltaX(dx);
-        else
-          ship.setDeltaX(-dx);
-        if (up)
-          ship.setDeltaY(dy);
-        else
-          ship.setDeltaY(-dy);
+    snapshot = recoveries[recoveryNext];
+    snapshot.capture(world);
+    recoveryTick = world.getTick();
+    recoveryWrites[recoveryNext] = writeRecovery(() -> {
+      try {
+        snapshot.save(RECOVERY_FILE);
+      } catch (IOException e) {
+        e.printStackTrace();
       }
-    }
-
-    // move the ship if it's currently in hyperspace, advance the countdown
-    if (ship.isActive()) {
-      ship.advance();
-      ship.render();
-      if (hyperCounter > 0) hyperCounter--;
-
-      // update the thruster sprites to match the ship sprite
-      ship.getFwdThruster().setX(ship.getX());
-      ship.getFwdThruster().setY(ship.getY());
-      ship.getFwdThruster().setAngle(ship.getAngle());
-      ship.getFwdThruster().render();
-
-      ship.getRevThruster().setX(ship.getX());
-      ship.getRevThruster().setY(ship.getY());
-      ship.getRevThruster().setAngle(ship.getAngle());
-      ship.getRevThruster().render();
-    }
-
-    // ship is exploding, advance the countdown or create a new ship if it is
-    // done exploding. The new ship is added as though it were in hyperspace.
-    // (This gives the player time to move the ship if it is in imminent
-    // danger.) If that was the last ship, end the game.
-    else {
-      if (--shipCounter <= 0)
-        if (shipsLeft > 0) {
-          initShip();
-          hyperCounter = HYPER_COUNT;
-        } else endGame();
-    }
+    });
+    recoveryNext = (recoveryNext + 1) % recoveries.length;
   }
 
-//  /**
-//   * Update Ship Bullets.
-//   * Move any active bullets. Stop it when its counter has expired.
-//   */
-//  private void updateBullets() {
-//    for (int i = 0; i < MAX_SHOTS; i++) {
-//      if (ship.getBullet(i).isActive()) {
-//        if (!ship.getBullet(i).advance()) ship.getBullet(i).render();
-//        else ship.getBullet(i).setActive(false);
-//      }
-//    }
-//  }
-
-  /**
-   * Initialize UFO and corresponding sound.
-   */
-  private void initUFO() {
-    ufo.init();
-    saucerPlaying = true;
-
-    if (sound) {
-      Sound.getSaucerSound().setFramePosition(0);
-      Sound.getSaucerSound().start();
-      Sound.getSaucerSound().loop(Clip.LOOP_CONTINUOUSLY);
-    }
-
-    ufoCounter = (int) Math.abs(AsteroidSprite.getWidth() / ufo.getDeltaX());
+  private void deleteRecovery() {
+    recoveryTick = -1;
+    writeRecovery(() -> {
+      try {
+        Files.deleteIfExists(RECOVERY_FILE);
+      } catch (IOException e) {
+        e.printStackTrace();
+      }
+    });
   }
 
   /**
-   * Stop UFO. If the UFO stops its sound will be stopped if playing.
+   * Remove the recovery file on a clean exit, once the saves queued before
+   * are written, and write nothing more.
    */
-  private void stopUFO() {
-    ufo.setActive(false);
-    ufoCounter = 0;
-    ufoPassesLeft = 0;
-
-    if (isLoaded) Sound.getSaucerSound().stop();
-    saucerPlaying = false;
+  private void closeRecovery() {
+    deleteRecovery();
+    recoveryWriter.shutdown();
+    try {
+      recoveryWriter.awaitTermination(1, TimeUnit.SECONDS);
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+    }
   }
 
   /**
-   * Update UFO position on the screen.
+   * Queue a file operation on the recovery writer, after those before it.
+   *
+   * @param task operation to run.
+   * @return its future, or null once the writer is closed.
    */
-  private void updateUFO() {
-    int i, d;
-
-    // move the flying saucer and check for collision with a bullet. Stop it
-    // when its counter has expired.
-    if (ufo.isActive()) {
-      if (--ufoCounter <= 0) {
-
-        if (--ufoPassesLeft > 0) initUFO();
-        else stopUFO();
-      }
-
-      if (ufo.isActive()) {
-        ufo.advance();
-        ufo.render();
-        for (i = 0; i < MAX_SHOTS; i++)
-          if (ship.getBullet(i).isActive() && ufo.isColliding(ship.getBullet(i))) {
-            if (sound) {
-              Sound.getCrashSound().setFramePosition(0);
-              Sound.getCrashSound().start();
-            }
-            explode(ufo);
-            stopUFO();
-            score += UFO_POINTS;
-          }
-
-        // on occasion, fire a missile at the ship if the saucer is not too
-        // close to it.
-        d = (int) Math.max(Math.abs(ufo.getX() - ship.getX()), Math.abs(ufo.getY() - ship.getY()));
-        if (ship.isActive() && hyperCounter <= 0 &&
-            ufo.isActive() && !ufo.getMissile().isActive() &&
-            d > MAX_ROCK_SPEED * FPS / 2 &&
-            Math.random() < MISSILE_PROBABILITY)
-          initMissile();
-      }
+  private Future<?> writeRecovery(Runnable task) {
+    try {
+      return recoveryWriter.submit(task);
+    } catch (RejectedExecutionException e) {
+      return null;
     }
   }
 
   /**
-   * Initialize UFO Missile and corresponding sound.
+   * Save the game in memory and to the quick save file.
    */
-  private void initMissile() {
-    ufo.getMissile().init();
-    ufo.getMissile().setX(ufo.getX());
-    ufo.getMissile().setY(ufo.getY());
-    ufo.getMissile().render();
-
-    missileCounter = MISSILE_COUNT;
-
-    if (sound) {
-      Sound.getMissileSound().start();
-      Sound.getMissileSound().loop(Clip.LOOP_CONTINUOUSLY);
+  private void quickSave() {
+    quickSave.capture(world);
+    try {
+      quickSave.save(QUICK_SAVE_FILE);
+    } catch (IOException e) {
+      e.printStackTrace();
     }
-
-    missilePlaying = true;
   }
 
   /**
-   * Stop UFO Missile. If the Missile stops its sound will be stopped if playing.
+   * Put the game back to the quick save, reading the file if nothing was
+   * saved in this run.
    */
-  private void stopMissile() {
-    ufo.getMissile().setActive(false);
+  private void quickLoad() {
+    try {
+      if (quickSave.isEmpty()) quickSave.load(QUICK_SAVE_FILE);
+    } catch (IOException e) {
+      System.out.println("No quick save: " + e.getMessage());
+      return;
+    }
 
-    missileCounter = 0;
-    if (isLoaded) Sound.getMissileSound().stop();
-    missilePlaying = false;
+    for (SoundEffect effect : SoundEffect.values()) stop(effect);
+    quickSave.restore(world);
+    if (!paused) resumeLoops();
   }
 
   /**
-   * Update UFO Missile position on the screen.
+   * Play a sound effect once, if sound is on.
+   *
+   * @param effect sound effect to play.
    */
-  private void updateMissile() {
-    int i;
-
-    // move the guided missile and check for collision with ship or bullet. Stop
-    // it when its counter has expired.
-    if (ufo.getMissile().isActive()) {
-      if (--missileCounter <= 0)
-        stopMissile();
-      else {
-        guideMissile();
-        ufo.getMissile().advance();
-        ufo.getMissile().render();
-
-        for (i = 0; i < MAX_SHOTS; i++)
-          if (ship.getBullet(i).isActive() && ufo.getMissile().isColliding(ship.getBullet(i))) {
-            if (sound) {
-              Sound.getCrashSound().setFramePosition(0);
-              Sound.getCrashSound().start();
-            }
-
-            explode(ufo.getMissile());
-            stopMissile();
-            score += MISSILE_POINTS;
-          }
-
-        if (ufo.getMissile().isActive() && ship.isActive() &&
-            hyperCounter <= 0 && ship.isColliding(ufo.getMissile())) {
-          if (sound) {
-            Sound.getCrashSound().setFramePosition(0);
-            Sound.getCrashSound().start();
-          }
+  @Override
+  public void play(SoundEffect effect) {
+    Clip clip = Sound.getClip(effect);
 
-          explode(ship);
-          stopShip();
-          stopUFO();
-          stopMissile();
-        }
-      }
+    if (sound && clip != null) {
+      clip.setFramePosition(0);
+      clip.start();
     }
   }
 
   /**
-   * Guide UFO Missile towards the Ship.
-   * Missile's position is updated respective to the position of the Ship.
+   * Start looping a sound effect, if sound is on.
+   *
+   * @param effect sound effect to loop.
    */
-  private void guideMissile() {
-    double dx, dy, angle;
-
-    if (!ship.isActive() || hyperCounter > 0) return;
-
-    // Find the angle needed to hit the ship.
-    dx = ship.getX() - ufo.getMissile().getX();
-    dy = ship.getY() - ufo.getMissile().getY();
-    if (dx == 0) {
-      if (dy < 0)
-        angle = -Math.PI / 2;
-      else
-        angle = Math.PI / 2;
-    }
-    else {
-      angle = Math.atan(Math.abs(dy / dx));
-      if (dy > 0)
-        angle = -angle;
-      if (dx < 0)
-        angle = Math.PI - angle;
-    }
-
-    // Adjust angle for screen coordinates.
-    ufo.getMissile().setAngle(angle - Math.PI / 2);
+  @Override
+  public void loop(SoundEffect effect) {
+    Clip clip = Sound.getClip(effect);
 
-    // Change the missile's angle so that it points toward the ship.
-    ufo.getMissile().setDeltaX(0.75 * MAX_ROCK_SPEED * -Math.sin(ufo.getMissile().getAngle()));
-    ufo.getMissile().setDeltaY(0.75 * MAX_ROCK_SPEED *  Math.cos(ufo.getMissile().getAngle()));
+    if (sound && clip != null && !paused) {
+      clip.setFramePosition(0);
+      clip.start();
+      clip.loop(Clip.LOOP_CONTINUOUSLY);
+    }
   }
 
   /**
-   * Initialize Asteroids and corresponding sound.
+   * Stop a sound effect.
+   *
+   * @param effect sound effect to stop.
    */
-  private void initAsteroids() {
-    for (int i = 0; i < MAX_ROCKS; i++) {
-      asteroids[i].init(this);
-      asteroidIsSmall[i] = false;
-    }
-
-    asteroidsCounter = STORM_PAUSE;
-    asteroidsLeft = MAX_ROCKS;
+  @Override
+  public void stop(SoundEffect effect) {
+    Clip clip = Sound.getClip(effect);
 
-    if (asteroidsSpeed < MAX_ROCK_SPEED) asteroidsSpeed += 0.5;
+    if (clip != null) clip.stop();
   }
 
   /**
-   * Update Asteroids position on the screen.
+   * Toggle pause mode and start or stop any active looping sound clips.
    */
-  private void updateAsteroids() {
-    int i, j;
-
-    // Move any active asteroids and check for collisions.
-    for (i = 0; i < MAX_ROCKS; i++) {
-      if (asteroids[i].isActive()) {
-        asteroids[i].advance();
-        asteroids[i].render();
-
-        // If hit by bullet, kill asteroid and advance score. If asteroid is
-        // large, make some smaller ones to replace it.
-        for (j = 0; j < MAX_SHOTS; j++)
-          if (ship.getBullet(j).isActive() && asteroids[i].isActive() && asteroids[i].isColliding(ship.getBullet(j))) {
-            asteroidsLeft--;
-            asteroids[i].setActive(false);
-            ship.getBullet(j).setActive(false);
-            if (sound) {
-              Sound.getExplosionSound().setFramePosition(0);
-              Sound.getExplosionSound().start();
-            }
-
-            explode(asteroids[i]);
-            if (!asteroidIsSmall[i]) {
-              score += BIG_POINTS;
-              initSmallAsteroids(i);
-            } else
-              score += SMALL_POINTS;
-          }
+  private void togglePause() {
+    paused = !paused;
 
-        // If the ship is not in hyperspace, see if it is hit.
-        if (ship.isActive() && hyperCounter <= 0 &&
-            asteroids[i].isActive() && asteroids[i].isColliding(ship)) {
-          if (sound) {
-            Sound.getCrashSound().setFramePosition(0);
-            Sound.getCrashSound().start();
-          }
-
-          explode(ship);
-          stopShip();
-          stopUFO();
-          stopMissile();
-        }
-      }
+    if (!paused) {
+      resumeLoops();
+    }
+    else {
+      if (world.isMissilePlaying()) stop(SoundEffect.MISSILE);
+      if (world.isSaucerPlaying()) stop(SoundEffect.SAUCER);
+      if (world.isThrustersPlaying()) stop(SoundEffect.THRUSTERS);
     }
   }
 
   /**
-   * Create one or two smaller asteroids from a larger one using inactive
-   * asteroids. The new asteroids will be placed in the same position as the
-   * old one but will have a new, smaller shape and new, randomly generated
-   * movements
+   * Toggle sound on or off and stop any looping sound clips.
    */
-  private void initSmallAsteroids(int n) {
-    int count;
-    int i, j;
-    int s;
-    double tempX, tempY;
-    double theta, r;
-    int x, y;
-
-    count = 0;
-    i = 0;
-    tempX = asteroids[n].getX();
-    tempY = asteroids[n].getY();
+  private void toggleSound() {
+    if (sound) {
+      for (SoundEffect effect : SoundEffect.values()) stop(effect);
+    }
 
-    do {
-      if (!asteroids[i].isActive()) {
-        asteroids[i].setShape(new Polygon());
-        s = MIN_ROCK_SIDES + (int) (Math.random() * (MAX_ROCK_SIDES - MIN_ROCK_SIDES));
-        for (j = 0; j < s; j ++) {
-          theta = 2 * Math.PI / s * j;
-          r = (MIN_ROCK_SIZE + (int) (Math.random() * (MAX_ROCK_SIZE - MIN_ROCK_SIZE))) >> 1;
-          x = (int) -Math.round(r * Math.sin(theta));
-          y = (int)  Math.round(r * Math.cos(theta));
-          asteroids[i].getShape().addPoint(x, y);
-        }
-        asteroids[i].setActive(true);
-        asteroids[i].setAngle(0.0);
-        asteroids[i].setDeltaAngle(Math.random() * 2 * MAX_ROCK_SPIN - MAX_ROCK_SPIN);
-        asteroids[i].setX(tempX);
-        asteroids[i].setY(tempY);
-        asteroids[i].setDeltaX(Math.random() * 2 * asteroidsSpeed - asteroidsSpeed);
-        asteroids[i].setDeltaY(Math.random() * 2 * asteroidsSpeed - asteroidsSpeed);
-        asteroids[i].render();
-        asteroidIsSmall[i] = true;
-        count++;
-        asteroidsLeft++;
-      }
+    sound = !sound;
 
-      i++;
-    } while (i < MAX_ROCKS && count < 2);
+    if (sound) resumeLoops();
   }
 
   /**
-   * Create sprites for explosion animation. The each individual line segment
-   * of the given sprite is used to create a new sprite that will move
-   * outward from the sprite's original position with a random rotation.
+   * Restart the looping sound clips that the game world has playing.
    */
-  private void explode(AsteroidSprite s) {
-    int c, i, j;
-    int cx, cy;
-
-    s.render();
-    c = 2;
-
-    if (detail || s.getSprite().npoints < 6) c = 1;
-    for (i = 0; i < s.getSprite().npoints; i += c) {
-      explosionIndex++;
-
-      if (explosionIndex >= MAX_SCRAP) explosionIndex = 0;
-
-      explosions[explosionIndex].setActive(true);
-      explosions[explosionIndex].setShape(new Polygon());
-      j = i + 1;
-
-      if (j >= s.getSprite().npoints) j -= s.getSprite().npoints;
-
-      cx = (s.getShape().xpoints[i] + s.getShape().xpoints[j]) / 2;
-      cy = (s.getShape().ypoints[i] + s.getShape().ypoints[j]) / 2;
-      explosions[explosionIndex].getShape().addPoint(
-          s.getShape().xpoints[i] - cx,
-          s.getShape().ypoints[i] - cy);
-      explosions[explosionIndex].getShape().addPoint(
-          s.getShape().xpoints[j] - cx,
-          s.getShape().ypoints[j] - cy);
-      explosions[explosionIndex].setX(s.getX() + cx);
-      explosions[explosionIndex].setY(s.getY() + cy);
-      explosions[explosionIndex].setAngle(s.getAngle());
-      explosions[explosionIndex].setDeltaAngle(4 * (Math.random() * 2 * MAX_ROCK_SPIN - MAX_ROCK_SPIN));
-      explosions[explosionIndex].setDeltaX((Math.random() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED + s.getDeltaX()) / 2);
-      explosions[explosionIndex].setDeltaY((Math.random() * 2 * MAX_ROCK_SPEED - MAX_ROCK_SPEED + s.getDeltaY()) / 2);
-      explosionCounter[explosionIndex] = SCRAP_COUNT;
-    }
+  private void resumeLoops() {
+    if (world.isMissilePlaying()) loop(SoundEffect.MISSILE);
+    if (world.isSaucerPlaying()) loop(SoundEffect.SAUCER);
+    if (world.isThrustersPlaying()) loop(SoundEffect.THRUSTERS);
   }
 
   /**
-   * Move any active explosion debris. Stop explosion when its counter has
-   * expired.
+   * Start the looping clips that became ready while the game world had
+   * them playing. Ran by the game loop, which owns the world.
    */
-  private void updateExplosions() {
-    for (int i = 0; i < MAX_SCRAP; i++) {
-      if (explosions[i].isActive()) {
-        explosions[i].advance();
-        explosions[i].render();
+  private void attachClips() {
+    int ready = clipsReady.getAndSet(0);
 
-        if (--explosionCounter[i] < 0) explosions[i].setActive(false);
-      }
-    }
-  }
+    if (ready == 0 || paused) return;
 
-  /**
-   * Stop ship, flying saucer, guided missile and associated sounds.
-   */
-  private void endGame() {
-    playing = false;
-    stopShip();
-    stopUFO();
-    stopMissile();
+    if ((ready & 1 << SoundEffect.MISSILE.ordinal()) != 0 && world.isMissilePlaying()) loop(SoundEffect.MISSILE);
+    if ((ready & 1 << SoundEffect.SAUCER.ordinal()) != 0 && world.isSaucerPlaying()) loop(SoundEffect.SAUCER);
+    if ((ready & 1 << SoundEffect.THRUSTERS.ordinal()) != 0 && world.isThrustersPlaying())
+      loop(SoundEffect.THRUSTERS);
   }
 
   /**
-   * Load Sounds.
+   * Note a clip done loading, on the thread that loaded it, and report the
+   * load times once all are done.
    */
-  private void loadSounds() {
-    Sound.loadSounds(this);
+  private void clipLoaded(SoundEffect effect) {
+    clipsReady.getAndUpdate(bits -> bits | 1 << effect.ordinal());
+    if (Sound.getClipsLoaded() < Sound.getClipTotal()) return;
+
+    isLoaded = true;
+    System.out.println("Sounds loaded " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after launch: "
+        + Sound.getLoadTimes());
   }
 
   /**
@@ -692,11 +459,7 @@ public class Screen extends JPanel implements Runnable, KeyListener, Constants {
     if (loopThread == null) {
       loopThread = new Thread(this);
       loopThread.start();
-    }
-
-    if (!isLoaded && loadThread == null) {
-      loadThread = new Thread(this);
-      loadThread.start();
+      Sound.loadSounds(this::clipLoaded);
     }
   }
 
@@ -705,68 +468,111 @@ public class Screen extends JPanel implements Runnable, KeyListener, Constants {
    */
   @Override
   public void run() {
-    long startTime;
+    int ticks;
 
-    // Lower this thread's priority and get the current time.
+    // Lower this thread's priority.
     Thread.currentThread().setPriority(Thread.MIN_PRIORITY);
-    startTime = System.currentTimeMillis();
 
-    // Run thread for loading sounds.
-    if (!isLoaded && Thread.currentThread() == loadThread) {
-      loadSounds();
-      isLoaded = true;
+    // game loop: run as many fixed ticks as real time asks for, then render
+    // once, interpolating between the last two ticks.
+    clock.reset(System.nanoTime());
+    while (Thread.currentThread() == loopThread) {
+      if (pauseRequested) {
+        pauseRequested = false;
+        togglePause();
+      }
+
+      if (soundRequested) {
+        soundRequested = false;
+        toggleSound();
+      }
 
-      try {
-        loadThread.join();
-      } catch (InterruptedException e) {
-        e.printStackTrace();
+      // A pause holds the clock, so its ticks are neither run nor counted.
+      if (paused) {
+        clock.reset(System.nanoTime());
+        ticks = 0;
+      } else ticks = clock.ticksDue(System.nanoTime());
+
+      if (recordRequested) {
+        recordRequested = false;
+        toggleRecording();
       }
-    }
 
-    // game loop
-    while (Thread.currentThread() == loopThread) {
-      if (!paused) {
+      if (saveRequested) {
+        saveRequested = false;
+        quickSave();
+      }
 
-        // Move and process all sprites.
-        updateShip();
-        ship.updateBullets();
-        updateUFO();
-        updateMissile();
-        updateAsteroids();
-        updateExplosions();
-
-        // Check the score and advance high score, add a new ship or start the
-        // flying saucer as necessary.
-        if (score > highScore) highScore = score;
-        if (score > newShipScore) {
-          newShipScore += NEW_SHIP_POINTS;
-          shipsLeft++;
-        }
+      if (loadRequested) {
+        loadRequested = false;
+        quickLoad();
+      }
 
-        if (playing && score > newUFOScore && !ufo.isActive()) {
-          newUFOScore += NEW_UFO_POINTS;
-          ufoPassesLeft = UFO_PASSES;
-          initUFO();
-        }
+      if (detailRequested) {
+        detailRequested = false;
+        world.setDetail(!world.isDetail());
+      }
 
-        // If all asteroids have been destroyed create a new batch.
-        if (asteroidsLeft <= 0) {
-          if (--asteroidsCounter <= 0) initAsteroids();
+      attachClips();
+
+      if (player != null && seekTarget >= 0) {
+        for (SoundEffect effect : SoundEffect.values()) stop(effect);
+        player.seek(seekTarget);
+        seekTarget = -1;
+        if (!paused) resumeLoops();
+      }
+
+      if (!paused) {
+        // Move and process all sprites.
+        while (ticks-- > 0) {
+          if (player != null) player.step();
+          else {
+            input.setBits(keys.getAndUpdate(bits -> bits & ~REQUESTS));
+            if (recording != null) recording.record(world, input);
+            world.step(input);
+          }
         }
+
+        if (player == null) saveRecovery();
       }
 
-      // Update the screen and set the timer for the next loop.
-      repaint();
+      // Update the screen and wait for the next tick.
+      clock.framesRendered(framesShown.getAndSet(0));
+      publish(paused ? 1.0 : clock.getAlpha());
+      if (active && dirtyRectangles) presentDirty();
+      else if (active) present();
+      else repaint();
 
       try {
-        startTime += DELAY;
-        Thread.sleep(Math.max(0, startTime - System.currentTimeMillis()));
+        Thread.sleep(clock.nanosUntilNextTick(System.nanoTime()) / 1000000L);
       } catch (InterruptedException e) {
         break;
       }
     }
   }
 
+  /**
+   * Start recording the game, or stop and save the recording to a file in
+   * the working directory.
+   */
+  private void toggleRecording() {
+    File file;
+
+    if (recording == null) {
+      recording = new Replay();
+      return;
+    }
+
+    file = new File("asteroids-" + System.currentTimeMillis() + ".replay");
+    try {
+      recording.save(file);
+      System.out.println("Replay saved to " + file);
+    } catch (IOException e) {
+      e.printStackTrace();
+    }
+    recording = null;
+  }
+
   /**
    * Listen for key presses.
    */
@@ -774,131 +580,50 @@ public class Screen extends JPanel implements Runnable, KeyListener, Constants {
   public void keyPressed(KeyEvent event) {
     char c;
 
-    // Check if any cursor keys have been pressed and set flags.
-    if (event.getKeyCode() == KeyEvent.VK_LEFT) left = true;
-    if (event.getKeyCode() == KeyEvent.VK_RIGHT) right = true;
-    if (event.getKeyCode() == KeyEvent.VK_UP) up = true;
-    if (event.getKeyCode() == KeyEvent.VK_DOWN) down = true;
-
-    if ((up || down) && ship.isActive() && !thrustersPlaying) {
-      if (sound && !paused) {
-        Sound.getThrustersSound().setFramePosition(0);
-        Sound.getThrustersSound().start();
-        Sound.getThrustersSound().loop(Clip.LOOP_CONTINUOUSLY);
-      }
-
-      thrustersPlaying = true;
+    // In a replay the left and right keys seek instead.
+    if (player != null) {
+      if (event.getKeyCode() == KeyEvent.VK_LEFT) seekTarget = Math.max(0, player.getTick() - REPLAY_SEEK);
+      if (event.getKeyCode() == KeyEvent.VK_RIGHT) seekTarget = player.getTick() + REPLAY_SEEK;
     }
 
-    // SpaceBar: fire a bullet and start its counter.
-    if (event.getKeyChar() == ' ' && ship.isActive()) {
-      if (sound & !paused) {
-        Sound.getFireSound().setFramePosition(0);
-        Sound.getFireSound().start();
-      }
-
-      bulletTime = System.currentTimeMillis();
-      bulletIndex++;
+    // Check if any cursor keys have been pressed and set flags.
+    if (event.getKeyCode() == KeyEvent.VK_LEFT) press(InputState.LEFT);
+    if (event.getKeyCode() == KeyEvent.VK_RIGHT) press(InputState.RIGHT);
+    if (event.getKeyCode() == KeyEvent.VK_UP) press(InputState.UP);
+    if (event.getKeyCode() == KeyEvent.VK_DOWN) press(InputState.DOWN);
 
-      if (bulletIndex >= MAX_SHOTS) bulletIndex = 0;
-
-      ship.getBullet(bulletIndex).setActive(true);
-      ship.getBullet(bulletIndex).setX(ship.getX());
-      ship.getBullet(bulletIndex).setY(ship.getY());
-      ship.getBullet(bulletIndex).setDeltaX(2 * MAX_ROCK_SPEED * -Math.sin(ship.getAngle()));
-      ship.getBullet(bulletIndex).setDeltaY(2 * MAX_ROCK_SPEED *  Math.cos(ship.getAngle()));
-    }
+    // SpaceBar: fire a bullet on the next tick.
+    if (event.getKeyChar() == ' ' && !paused) press(InputState.FIRE);
 
     // Allow upper or lower case characters for remaining keys.
     c = Character.toLowerCase(event.getKeyChar());
 
-    // 'H' key: warp ship into hyperspace by moving to a random location and
-    // starting counter.
-    if (c == 'h' && ship.isActive() && hyperCounter <= 0) {
-      ship.setX(Math.random() * AsteroidSprite.getWidth());
-      ship.setY(Math.random() * AsteroidSprite.getHeight());
-      hyperCounter = HYPER_COUNT;
-
-      if (sound & !paused) Sound.getWarpSound().setFramePosition(0);
-      Sound.getWarpSound().start();
-    }
-
-    // 'P' key: toggle pause mode and start or stop any active looping sound
-    // clips.
-    if (c == 'p') {
-      if (paused) {
-        if (sound && missilePlaying) {
-          Sound.getMissileSound().setFramePosition(0);
-          Sound.getMissileSound().start();
-          Sound.getMissileSound().loop(Clip.LOOP_CONTINUOUSLY);
-        }
-
-        if (sound && saucerPlaying) {
-          Sound.getSaucerSound().setFramePosition(0);
-          Sound.getSaucerSound().start();
-          Sound.getSaucerSound().loop(Clip.LOOP_CONTINUOUSLY);
-        }
-
-        if (sound && thrustersPlaying) {
-          Sound.getThrustersSound().setFramePosition(0);
-          Sound.getThrustersSound().start();
-          Sound.getThrustersSound().loop(Clip.LOOP_CONTINUOUSLY);
-        }
-      }
-      else {
-
-        if (missilePlaying)
-          Sound.getMissileSound().stop();
-        if (saucerPlaying)
-          Sound.getSaucerSound().stop();
-        if (thrustersPlaying)
-          Sound.getThrustersSound().stop();
-      }
+    // 'H' key: warp ship into hyperspace on the next tick.
+    if (c == 'h' && !paused) press(InputState.HYPERSPACE);
 
-      paused = !paused;
-    }
+    // 'P' key: toggle pause mode.
+    if (c == 'p') pauseRequested = true;
 
-    // 'M' key: toggle sound on or off and stop any looping sound clips.
-    if (c == 'm' && isLoaded) {
-      if (sound) {
-        Sound.getCrashSound().stop();
-        Sound.getExplosionSound().stop();
-        Sound.getFireSound().stop();
-        Sound.getMissileSound().stop();
-        Sound.getSaucerSound().stop();
-        Sound.getThrustersSound().stop();
-        Sound.getWarpSound().stop();
-      }
-      else {
-        if (missilePlaying && !paused) {
-          Sound.getMissileSound().setFramePosition(0);
-          Sound.getMissileSound().start();
-          Sound.getMissileSound().loop(Clip.LOOP_CONTINUOUSLY);
-        }
+    // 'M' key: toggle sound on or off.
+    if (c == 'm') soundRequested = true;
 
-        if (saucerPlaying && !paused) {
-          Sound.getSaucerSound().setFramePosition(0);
-          Sound.getSaucerSound().start();
-          Sound.getSaucerSound().loop(Clip.LOOP_CONTINUOUSLY);
-        }
+    // 'F' key: toggle the tick and frame counters.
+    if (c == 'f') showStats = !showStats;
 
-        if (thrustersPlaying && !paused) {
-          Sound.getThrustersSound().setFramePosition(0);
-          Sound.getThrustersSound().start();
-          Sound.getThrustersSound().loop(Clip.LOOP_CONTINUOUSLY);
-        }
-      }
+    // 'D' key: toggle graphics detail on or off.
+    if (c == 'd') detailRequested = true;
 
-      sound = !sound;
-    }
+    // 'S' key: start the game on the next tick, if not already in progress.
+    if (c == 's') press(InputState.START);
 
-    // 'D' key: toggle graphics detail on or off.
-    if (c == 'd') detail = !detail;
+    if (c == 'x') press(InputState.END);
 
-    // 'S' key: start the game, if not already in progress.
-    if (c == 's' && isLoaded && !playing) initGame();
+    // 'R' key: start recording a replay, or stop and save it.
+    if (c == 'r' && player == null) recordRequested = true;
 
-    if (c == 'x' && isLoaded) endGame();
+    // F5 and F9 keys: quick save and quick load.
+    if (event.getKeyCode() == KeyEvent.VK_F5 && player == null) saveRequested = true;
+    if (event.getKeyCode() == KeyEvent.VK_F9 && player == null) loadRequested = true;
 
     // 'HOME' key: jump to web site (undocumented).
     // Applets are no longer supported in modern browsers.
@@ -915,181 +640,269 @@ public class Screen extends JPanel implements Runnable, KeyListener, Constants {
   @Override
   public void keyReleased(KeyEvent event) {
     // Check if any cursor keys where released and set flags.
-    if (event.getKeyCode() == KeyEvent.VK_LEFT) left = false;
-    if (event.getKeyCode() == KeyEvent.VK_RIGHT) right = false;
-    if (event.getKeyCode() == KeyEvent.VK_UP) up = false;
-    if (event.getKeyCode() == KeyEvent.VK_DOWN) down = false;
-
-    if (!up && !down && thrustersPlaying) {
-      Sound.getThrustersSound().stop();
-      thrustersPlaying = false;
-    }
+    if (event.getKeyCode() == KeyEvent.VK_LEFT) release(InputState.LEFT);
+    if (event.getKeyCode() == KeyEvent.VK_RIGHT) release(InputState.RIGHT);
+    if (event.getKeyCode() == KeyEvent.VK_UP) release(InputState.UP);
+    if (event.getKeyCode() == KeyEvent.VK_DOWN) release(InputState.DOWN);
+  }
+
+  /**
+   * Hold a key, or request something of the next tick.
+   *
+   * @param bit InputState bit of the control.
+   */
+  private void press(int bit) {
+    keys.getAndUpdate(bits -> bits | bit);
+  }
+
+  /**
+   * Let go of a held key.
+   *
+   * @param bit InputState bit of the control.
+   */
+  private void release(int bit) {
+    keys.getAndUpdate(bits -> bits & ~bit);
   }
 
   @Override
   public void keyTyped(KeyEvent event) {}
 
   /**
-   * Paint all graphics(objects) onto the screen.
+   * Draw a frame into the back buffer of the canvas and show it, or into the
+   * off screen image and stretch that into the back buffer when drawing at
+   * a lower resolution. If the canvas cannot have a buffer strategy, fall
+   * back to repaint().
    */
-  public void paint(Graphics graphics) {
-    Dimension d = getSize();
-    int i;
-    int c;
-    String s;
-    int w, h;
-    int x, y;
-
-    // Create the off screen graphics context, if no good one exists.
-    if (offGraphics == null || d.width != offDimension.width || d.height != offDimension.height) {
-      offDimension = d;
-      offImage = createImage(d.width, d.height);
-      offGraphics = offImage.getGraphics();
-    }
+  private void present() {
+    long start = System.nanoTime();
+    Graphics graphics, viewGraphics;
+    RenderFrame frame;
+    boolean stretch;
 
-    // Fill in background and stars.
-    offGraphics.setColor(Color.black);
-    offGraphics.fillRect(0, 0, d.width, d.height);
-    if (detail) {
-      offGraphics.setColor(Color.white);
-      for (i = 0; i < numStars; i++)
-        offGraphics.drawLine(stars[i].x, stars[i].y, stars[i].x, stars[i].y);
-    }
+    if (!canvas.isDisplayable() || canvas.getWidth() <= 0 || canvas.getHeight() <= 0) return;
 
-    // Draw bullets
-    offGraphics.setColor(Color.white);
-    for (i = 0; i < MAX_SHOTS; i++)
-      if (ship.getBullet(i).isActive())
-        offGraphics.drawPolygon(ship.getBullet(i).getSprite());
-
-    // Draw the guided missile, counter is used to quickly fade color to black
-    // when near expiration.
-    c = Math.min(missileCounter * 24, 255);
-    offGraphics.setColor(new Color(c, c, c));
-    if (ufo.getMissile().isActive()) {
-      offGraphics.drawPolygon(ufo.getMissile().getSprite());
-      offGraphics.drawLine(ufo.getMissile().getSprite().xpoints[ufo.getMissile().getSprite().npoints - 1],
-          ufo.getMissile().getSprite().ypoints[ufo.getMissile().getSprite().npoints - 1],
-          ufo.getMissile().getSprite().xpoints[0], ufo.getMissile().getSprite().ypoints[0]);
+    if (strategy == null) {
+      try {
+        canvas.createBufferStrategy(2);
+        strategy = canvas.getBufferStrategy();
+      } catch (RuntimeException e) {
+        System.out.println("No buffer strategy, painting instead: " + e);
+        SwingUtilities.invokeLater(() -> {
+          remove(canvas);
+          requestFocus();
+        });
+        frames = new FrameStats("off screen image on " + pipeline());
+        renderer.setFrameStats(frames);
+        active = false;
+        return;
+      }
+      frames = new FrameStats((strategy.getCapabilities().isPageFlipping() ? "page flipping" : "buffer strategy")
+          + " on " + pipeline());
+      renderer.setFrameStats(frames);
     }
 
-    // Draw the asteroids.
-    for (i = 0; i < MAX_ROCKS; i++)
-      if (asteroids[i].isActive()) {
-        if (detail) {
-          offGraphics.setColor(Color.black);
-          offGraphics.fillPolygon(asteroids[i].getSprite());
+    fit(canvas.getWidth(), canvas.getHeight());
+    stretch = renderWidth != view.width || renderHeight != view.height;
+    frame = exchange.take();
+    if (stretch) {
+      createOffImage(renderWidth, renderHeight);
+      renderer.render(offGraphics, offPixels, renderWidth, renderHeight, frame);
+    }
+    do {
+      do {
+        graphics = strategy.getDrawGraphics();
+        try {
+          drawBars(graphics, canvas.getWidth(), canvas.getHeight());
+          if (stretch) graphics.drawImage(offImage, view.x, view.y, view.width, view.height, null);
+          else {
+            viewGraphics = graphics.create(view.x, view.y, view.width, view.height);
+            renderer.render(viewGraphics, null, view.width, view.height, frame);
+            viewGraphics.dispose();
+          }
+        } finally {
+          graphics.dispose();
         }
-        offGraphics.setColor(Color.white);
-        offGraphics.drawPolygon(asteroids[i].getSprite());
-        offGraphics.drawLine(asteroids[i].getSprite().xpoints[asteroids[i].getSprite().npoints - 1],
-            asteroids[i].getSprite().ypoints[asteroids[i].getSprite().npoints - 1],
-            asteroids[i].getSprite().xpoints[0], asteroids[i].getSprite().ypoints[0]);
-      }
+      } while (strategy.contentsRestored());
+      strategy.show();
+    } while (strategy.contentsLost());
+    Toolkit.getDefaultToolkit().sync();
 
-    // Draw the flying saucer.
-    if (ufo.isActive()) {
-      if (detail) {
-        offGraphics.setColor(Color.black);
-        offGraphics.fillPolygon(ufo.getSprite());
-      }
-      offGraphics.setColor(Color.white);
-      offGraphics.drawPolygon(ufo.getSprite());
-      offGraphics.drawLine(ufo.getSprite().xpoints[ufo.getSprite().npoints - 1],
-          ufo.getSprite().ypoints[ufo.getSprite().npoints - 1],
-          ufo.getSprite().xpoints[0], ufo.getSprite().ypoints[0]);
-    }
+    frameShown(start);
+  }
 
-    // Draw the ship, counter is used to fade color to white on hyperspace.
-    c = 255 - (255 / HYPER_COUNT) * hyperCounter;
-    if (ship.isActive()) {
-      if (detail && hyperCounter == 0) {
-        offGraphics.setColor(Color.black);
-        offGraphics.fillPolygon(ship.getSprite());
-      }
-      offGraphics.setColor(new Color(c, c, c));
-      offGraphics.drawPolygon(ship.getSprite());
-
-      offGraphics.drawLine(ship.getSprite().xpoints[ship.getSprite().npoints - 1],
-          ship.getSprite().ypoints[ship.getSprite().npoints - 1],
-          ship.getSprite().xpoints[0], ship.getSprite().ypoints[0]);
-
-      // Draw thruster exhaust if thrusters are on. Do it randomly to get a
-      // flicker effect.
-      if (!paused && detail && Math.random() < 0.5) {
-        if (up) {
-          offGraphics.drawPolygon(ship.getFwdThruster().getSprite());
-          offGraphics.drawLine(ship.getFwdThruster().getSprite().xpoints[ship.getFwdThruster().getSprite().npoints - 1],
-              ship.getFwdThruster().getSprite().ypoints[ship.getFwdThruster().getSprite().npoints - 1],
-              ship.getFwdThruster().getSprite().xpoints[0], ship.getFwdThruster().getSprite().ypoints[0]);
-        }
-        if (down) {
-          offGraphics.drawPolygon(ship.getRevThruster().getSprite());
-          offGraphics.drawLine(ship.getRevThruster().getSprite().xpoints[ship.getRevThruster().getSprite().npoints - 1],
-              ship.getRevThruster().getSprite().ypoints[ship.getRevThruster().getSprite().npoints - 1],
-              ship.getRevThruster().getSprite().xpoints[0], ship.getRevThruster().getSprite().ypoints[0]);
-        }
-      }
-    }
+  /**
+   * Redraw what changed in the off screen image and copy only that to the
+   * canvas, or all of it if the canvas was uncovered or resized.
+   */
+  private void presentDirty() {
+    long start = System.nanoTime();
+    Dimension d = canvas.getSize();
+    DirtyTiles tiles;
 
-    // Draw any explosion debris, counters are used to fade color to black.
-    for (i = 0; i < MAX_SCRAP; i++)
-      if (explosions[i].isActive()) {
-        c = (255 / SCRAP_COUNT) * explosionCounter [i];
-        offGraphics.setColor(new Color(c, c, c));
-        offGraphics.drawPolygon(explosions[i].getSprite());
-      }
+    if (!canvas.isDisplayable() || d.width <= 0 || d.height <= 0) return;
 
-    // Display status and messages.
-    offGraphics.setFont(font);
-    offGraphics.setColor(Color.white);
-    offGraphics.drawString("Score: " + score, fontWidth, fontHeight);
-    offGraphics.drawString("Ships: " + shipsLeft, fontWidth, d.height - (fontHeight * 2));
-    s = "High: " + highScore;
-    offGraphics.drawString(s, d.width - ((fontWidth) + fm.stringWidth(s)), fontHeight);
-    if (!sound) {
-      s = "Mute";
-      offGraphics.drawString(s, d.width - (fontWidth + fm.stringWidth(s)), d.height - (fontHeight * 2));
-    }
+    if (fit(d.width, d.height)) exposed = true;
+    if (createOffImage(renderWidth, renderHeight)) renderer.invalidate();
 
-    if (!playing) {
-      s = COPY_NAME;
-      offGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 2 - 2 * fontHeight);
-      s = COPY_VERSION;
-      offGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 2 - fontHeight);
-      s = COPY_INFO;
-      offGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 2 + fontHeight);
-      s = COPY_LINK;
-      offGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 2 + 2 * fontHeight);
-      if (!isLoaded) {
-        s = "Loading sounds...";
-        w = 4 * fontWidth + fm.stringWidth(s);
-        h = fontHeight;
-        x = (d.width - w) / 2;
-        y = 3 * d.height / 4 - fm.getMaxAscent();
-        offGraphics.setColor(Color.black);
-        offGraphics.fillRect(x, y, w, h);
-        offGraphics.setColor(Color.gray);
-        if (Sound.getClipTotal() > 0)
-          offGraphics.fillRect(x, y, w * Sound.getClipsLoaded() / Sound.getClipTotal(), h);
-        offGraphics.setColor(Color.white);
-        offGraphics.drawRect(x, y, w, h);
-        offGraphics.drawString(s, x + 2 * fontWidth, y + fm.getMaxAscent());
-      }
-      else {
-        s = "Game Over";
-        offGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 4);
-        s = "'S' to Start";
-        offGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 4 + fontHeight);
+    tiles = renderer.renderDirty(offGraphics, offPixels, renderWidth, renderHeight, exchange.take());
+
+    canvasGraphics = canvas.getGraphics();
+    try {
+      if (exposed) {
+        exposed = false;
+        drawBars(canvasGraphics, d.width, d.height);
+        canvasGraphics.drawImage(offImage, view.x, view.y, view.width, view.height, null);
       }
+      else tiles.forEachRun(copyRun);
+    } finally {
+      canvasGraphics.dispose();
+      canvasGraphics = null;
     }
-    else if (paused) {
-      s = "Game Paused";
-      offGraphics.drawString(s, (d.width - fm.stringWidth(s)) / 2, d.height / 4);
-    }
+    Toolkit.getDefaultToolkit().sync();
+
+    frameShown(start);
+  }
+
+  /**
+   * Count a frame shown, and report how long after launch the first one was.
+   *
+   * @param start System.nanoTime() when drawing the frame began.
+   */
+  private void frameShown(long start) {
+    framesShown.incrementAndGet();
+    frames.add(System.nanoTime() - start);
+    if (firstShown) return;
+
+    firstShown = true;
+    System.out.println("First frame " + ManagementFactory.getRuntimeMXBean().getUptime() + " ms after launch, "
+        + Sound.getClipsLoaded() + " of " + Sound.getClipTotal() + " sounds loaded");
+  }
+
+  /**
+   * Copy a run of the off screen image to where it shows on the canvas.
+   */
+  private void copyRun(int x, int y, int width, int height) {
+    canvasGraphics.drawImage(offImage, view.x + x * view.width / renderWidth, view.y + y * view.height / renderHeight,
+        view.x + (x + width) * view.width / renderWidth, view.y + (y + height) * view.height / renderHeight,
+        x, y, x + width, y + height, null);
+  }
+
+  /**
+   * Fit the world into a window, keeping its shape.
+   *
+   * @param width width of the window.
+   * @param height height of the window.
+   * @return true if where it goes changed.
+   */
+  private boolean fit(int width, int height) {
+    double k = Math.min((double) width / WORLD_WIDTH, (double) height / WORLD_HEIGHT);
+    int w = Math.max(1, (int) Math.round(WORLD_WIDTH * k));
+    int h = Math.max(1, (int) Math.round(WORLD_HEIGHT * k));
+
+    if (w == view.width && h == view.height && (width - w) / 2 == view.x && (height - h) / 2 == view.y) return false;
+
+    view.setBounds((width - w) / 2, (height - h) / 2, w, h);
+    renderWidth = Math.max(1, (int) Math.round(w * renderScale));
+    renderHeight = Math.max(1, (int) Math.round(h * renderScale));
+    return true;
+  }
+
+  /**
+   * Fill the parts of a window around the world with black.
+   */
+  private void drawBars(Graphics graphics, int width, int height) {
+    graphics.setColor(Color.black);
+    graphics.fillRect(0, 0, width, view.y);
+    graphics.fillRect(0, view.y + view.height, width, height - view.y - view.height);
+    graphics.fillRect(0, view.y, view.x, view.height);
+    graphics.fillRect(view.x + view.width, view.y, width - view.x - view.width, view.height);
+  }
+
+  /**
+   * Create the off screen graphics context, if no good one exists.
+   *
+   * @param width width of the image.
+   * @param height height of the image.
+   * @return true if a new one was created.
+   */
+  private boolean createOffImage(int width, int height) {
+    if (offGraphics != null && width == offImage.getWidth() && height == offImage.getHeight()) return false;
+
+    offImage = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    offGraphics = offImage.getGraphics();
+    offPixels = new LineRasterizer(offImage);
+    return true;
+  }
+
+  /**
+   * Paint all graphics(objects) onto the screen.
+   */
+  public void paint(Graphics graphics) {
+    Dimension d = getSize();
+    long start = System.nanoTime();
+
+    // The loop draws on the canvas itself, and takes the frames.
+    if (active) return;
+
+    fit(d.width, d.height);
+    createOffImage(renderWidth, renderHeight);
+    renderer.render(offGraphics, offPixels, renderWidth, renderHeight, exchange.take());
+
+    // Copy the off screen buffer to the screen, stretched if drawn smaller.
+    drawBars(graphics, d.width, d.height);
+    graphics.drawImage(offImage, view.x, view.y, view.width, view.height, this);
+    frameShown(start);
+  }
+
+  /**
+   * Capture the world and the state of the screen that the status display
+   * shows, and make it the frame drawn next.
+   *
+   * @param alpha interpolation factor between the last two ticks.
+   */
+  private void publish(double alpha) {
+    RenderFrame frame = exchange.getBack();
+    long seconds = player != null ? player.getTick() / FPS : recording != null ? recording.getLength() / FPS : -1;
+
+    // Show the replay position, or that the game is being recorded. The line
+    // is made again only when the time it shows does change.
+    if (seconds != statusSeconds) {
+      statusSeconds = seconds;
+      if (player != null) status = "Replay " + time(player.getTick()) + " / " + time(player.getLength());
+      else if (recording != null) status = "Recording " + time(recording.getLength());
+      else status = null;
+    }
+
+    frame.capture(world, alpha, controls());
+    frame.captureScreen(paused, sound, isLoaded, status, showStats ? clock : null);
+    exchange.publish();
+  }
+
+  /**
+   * Returns the controls the ship is flown with, for the thruster flames.
+   */
+  private InputState controls() {
+    return player != null ? player.getInput() : input;
+  }
+
+  /**
+   * Returns the name of the Java2D pipeline drawing to the screen, such as
+   * XRGraphicsConfig for XRender.
+   */
+  private static String pipeline() {
+    if (GraphicsEnvironment.isHeadless()) return "headless";
+
+    return GraphicsEnvironment.getLocalGraphicsEnvironment().getDefaultScreenDevice()
+        .getDefaultConfiguration().getClass().getSimpleName();
+  }
+
+  /**
+   * Format a number of ticks as minutes and seconds.
+   */
+  private static String time(long ticks) {
+    long seconds = ticks / FPS;
 
-    // Copy the off screen buffer to the screen.
-    graphics.drawImage(offImage, 0, 0, this);
+    return seconds / 60 + ":" + (seconds % 60 < 10 ? "0" : "") + seconds % 60;
   }
 
   /**
@@ -0,0 +1,68 @@
+package com.asteroid;
+
+import com.asteroid.objects.EntityPool;
+import com.asteroid.objects.ParticleSystem;
+
+/**
+ * Headless batch simulation of the game world.
+ * Steps the world as fast as possible with a simple scripted pilot, restarts
+ * the game whenever it ends and reports how many ticks per second were run.
+ *
+ * Usage: Simulator [ticks] [rocks] [seed]
+ */
+public class Simulator implements Constants {
+
+  public static void main(String[] args) {
+    long ticks = args.length > 0 ? Long.parseLong(args[0]) : 1000000;
+    int rocks = args.length > 1 ? Integer.parseInt(args[1]) : MAX_ROCKS;
+    long seed = args.length > 2 ? Long.parseLong(args[2]) : 1;
+    GameWorld world;
+    ParticleSystem debris;
+    InputState input = new InputState();
+    long startTime, elapsed;
+    int games = 1;
+
+    world = new GameWorld(seed);
+    world.setStormSize(rocks);
+    world.initGame();
+
+    startTime = System.nanoTime();
+    for (long t = 0; t < ticks; t++) {
+      // Keep turning and thrusting in bursts, firing every few ticks.
+      input.setLeft(t % 200 < 120);
+      input.setUp(t % 90 < 30);
+      input.setFire(t % 7 == 0);
+      input.setHyperspace(t % 1500 == 0);
+
+      world.step(input);
+      input.clearRequests();
+
+      if (!world.isPlaying()) {
+        world.initGame();
+        games++;
+      }
+    }
+    elapsed = System.nanoTime() - startTime;
+
+    System.out.println("ticks:        " + ticks);
+    System.out.println("games:        " + games);
+    System.out.println("high score:   " + world.getHighScore());
+    System.out.println("ticks/sec:    " + Math.round(ticks * 1e9 / elapsed));
+    System.out.println("x real time:  " + Math.round(ticks * 1e9 / elapsed / FPS));
+    report("rocks", world.getAsteroids().getPool());
+    debris = world.getExplosions();
+    report("debris", debris.getPeak(), debris.getCapacity(), debris.getGrowCount(), debris.getDroppedCount());
+  }
+
+  /**
+   * Print the usage metrics of an entity pool.
+   */
+  private static void report(String name, EntityPool pool) {
+    report(name, pool.getPeak(), pool.getCapacity(), pool.getGrowCount(), pool.getRefusedCount());
+  }
+
+  private static void report(String name, int peak, int capacity, int grown, long refused) {
+    System.out.println(name + " pool:" + "            ".substring(name.length() + 5)
+        + "peak " + peak + " of " + capacity + ", grown " + grown + "x, refused " + refused);
+  }
+}
\ No newline at end of file
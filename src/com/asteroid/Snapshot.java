@@ -0,0 +1,187 @@
+package com.asteroid;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.util.zip.CRC32;
+
+/**
+ * A saved game world, held in a direct ByteBuffer that is reused for every
+ * capture. Capturing and restoring do not allocate once the buffer is large
+ * enough, and take microseconds, so snapshots serve quick saves, crash
+ * recovery and benchmarks that start several runs from the same mid-game
+ * state.
+ *
+ * The buffer holds a header of the MAGIC number, the GameWorld.STATE_VERSION
+ * the state was written with, the length of the state and its CRC-32,
+ * followed by the bytes of GameWorld.writeState(). Snapshots of another
+ * state version are refused rather than misread.
+ */
+public class Snapshot {
+
+  public static final int MAGIC = 0x41534e50;  // "ASNP"
+  public static final int HEADER_SIZE = 16;
+
+  private ByteBuffer buffer;
+  private final CRC32 crc = new CRC32();
+
+  /**
+   * Create an empty snapshot with room for a typical game.
+   */
+  public Snapshot() {
+    this(64 * 1024);
+  }
+
+  /**
+   * Create an empty snapshot.
+   *
+   * @param capacity bytes to reserve, the buffer grows if a world needs more.
+   */
+  public Snapshot(int capacity) {
+    buffer = ByteBuffer.allocateDirect(capacity);
+    buffer.limit(0);
+  }
+
+  public boolean isEmpty() {
+    return buffer.limit() == 0;
+  }
+
+  /**
+   * Returns the number of bytes in the snapshot, header included.
+   *
+   * @return snapshot size, 0 if empty.
+   */
+  public int getSize() {
+    return buffer.limit();
+  }
+
+  /**
+   * Returns the world tick the snapshot was captured at.
+   *
+   * @return tick, read from the state.
+   */
+  public long getTick() {
+    if (isEmpty()) throw new IllegalStateException("empty snapshot");
+
+    // The tick follows the world size at the start of the state.
+    return buffer.getLong(HEADER_SIZE + 8);
+  }
+
+  /**
+   * Replace the snapshot with the current state of a world.
+   *
+   * @param world world to capture.
+   */
+  public void capture(GameWorld world) {
+    int size = world.getStateSize();
+
+    if (buffer.capacity() < HEADER_SIZE + size)
+      buffer = ByteBuffer.allocateDirect(Math.max(HEADER_SIZE + size, 2 * buffer.capacity()));
+
+    buffer.clear();
+    buffer.position(HEADER_SIZE);
+    world.writeState(buffer);
+    buffer.flip();
+
+    buffer.putInt(0, MAGIC);
+    buffer.putInt(4, GameWorld.STATE_VERSION);
+    buffer.putInt(8, size);
+    buffer.putInt(12, checksum());
+  }
+
+  /**
+   * Put a world back to the captured state.
+   *
+   * @param world world to restore, it need not be the captured one.
+   */
+  public void restore(GameWorld world) {
+    if (isEmpty()) throw new IllegalStateException("empty snapshot");
+
+    buffer.position(HEADER_SIZE);
+    world.readState(buffer);
+    buffer.position(0);
+  }
+
+  /**
+   * Write the snapshot to a file. It is written next to the file first and
+   * then moved in place, so a crash while saving leaves the old file.
+   *
+   * @param file file to write.
+   * @throws IOException if writing fails.
+   */
+  public void save(Path file) throws IOException {
+    Path temp = file.resolveSibling(file.getFileName() + ".tmp");
+
+    if (isEmpty()) throw new IllegalStateException("empty snapshot");
+
+    try (FileChannel channel = FileChannel.open(temp, StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      buffer.position(0);
+      while (buffer.hasRemaining()) channel.write(buffer);
+      buffer.position(0);
+      channel.force(false);
+    }
+    try {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    } catch (AtomicMoveNotSupportedException e) {
+      Files.move(temp, file, StandardCopyOption.REPLACE_EXISTING);
+    }
+  }
+
+  /**
+   * Replace the snapshot with one read from a file, checking its header and
+   * checksum. If that fails the snapshot is left empty.
+   *
+   * @param file file to read.
+   * @throws IOException if reading fails or the file is not a valid snapshot
+   *                     of this state version.
+   */
+  public void load(Path file) throws IOException {
+    long length;
+    int size;
+
+    try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+      length = channel.size();
+      if (length < HEADER_SIZE || length > Integer.MAX_VALUE) throw new IOException("not a snapshot: " + file);
+
+      if (buffer.capacity() < length) buffer = ByteBuffer.allocateDirect((int) length);
+      buffer.clear();
+      buffer.limit((int) length);
+      while (buffer.hasRemaining())
+        if (channel.read(buffer) < 0) break;
+      buffer.flip();
+
+      size = buffer.limit() < HEADER_SIZE ? -1 : buffer.getInt(8);
+      if (buffer.limit() < HEADER_SIZE || buffer.getInt(0) != MAGIC || size != buffer.limit() - HEADER_SIZE)
+        throw new IOException("not a snapshot: " + file);
+      if (buffer.getInt(4) != GameWorld.STATE_VERSION)
+        throw new IOException("snapshot of state version " + buffer.getInt(4) + ", expected "
+            + GameWorld.STATE_VERSION + ": " + file);
+      if (buffer.getInt(12) != checksum())
+        throw new IOException("snapshot is corrupt: " + file);
+    } catch (IOException e) {
+      buffer.limit(0);
+      throw e;
+    }
+  }
+
+  /**
+   * Returns the CRC-32 of the state bytes.
+   */
+  private int checksum() {
+    int limit = buffer.limit();
+
+    crc.reset();
+    buffer.position(HEADER_SIZE);
+    crc.update(buffer);
+    buffer.position(0);
+    buffer.limit(limit);
+
+    return (int) crc.getValue();
+  }
+}
\ No newline at end of file
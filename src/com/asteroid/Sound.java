@@ -1,149 +1,146 @@
 package com.asteroid;
 
+import javax.sound.sampled.AudioInputStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Clip;
-import java.awt.*;
 import java.io.File;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.function.Consumer;
 
 /**
  * Sound object is responsible for starting and stopping sounds for different
  * objects in this Game.
+ *
+ * The clips are loaded in the background, several at once, and each one can
+ * be played as soon as it is ready, so the game never waits for them. Until
+ * then getClip() returns null and the effect is silent.
  */
 abstract class Sound implements Constants {
 
-  // Sound clips.
-  private static Clip crashSound;
-  private static Clip explosionSound;
-  private static Clip fireSound;
-  private static Clip missileSound;
-  private static Clip saucerSound;
-  private static Clip thrustersSound;
-  private static Clip warpSound;
-
-  // Counter and total used to track the loading of the sound clips.
-  private static int clipTotal   = 0;
-  private static int clipsLoaded = 0;
-
-  static Clip getCrashSound() {
-    return crashSound;
-  }
-
-  static Clip getExplosionSound() {
-    return explosionSound;
-  }
-
-  static Clip getFireSound() {
-    return fireSound;
-  }
+  private static final SoundEffect[] EFFECTS = SoundEffect.values();
 
-  static Clip getMissileSound() {
-    return missileSound;
-  }
+  // Sound clips by effect, null until loaded or if they could not be.
+  private static final AtomicReferenceArray<Clip> clips = new AtomicReferenceArray<>(EFFECTS.length);
 
-  static Clip getSaucerSound() {
-    return saucerSound;
-  }
+  // Counter and total used to track the loading of the sound clips, and how
+  // long each took.
+  private static final int clipTotal = EFFECTS.length;
+  private static final AtomicInteger clipsLoaded = new AtomicInteger();
+  private static final AtomicLongArray loadNanos = new AtomicLongArray(EFFECTS.length);
+  private static volatile String lastLoaded;   // clip loaded last and its time
 
-  static Clip getThrustersSound() {
-    return thrustersSound;
-  }
-
-  static Clip getWarpSound() {
-    return warpSound;
+  /**
+   * Returns the clip which plays the given sound effect.
+   *
+   * @param effect sound effect.
+   * @return sound clip, or null if it is not loaded.
+   */
+  static Clip getClip(SoundEffect effect) {
+    return clips.get(effect.ordinal());
   }
 
   static int getClipTotal() {
     return clipTotal;
   }
 
+  /**
+   * Returns the number of clips done loading, including any that failed.
+   *
+   * @return clips done.
+   */
   static int getClipsLoaded() {
-    return clipsLoaded;
+    return clipsLoaded.get();
   }
 
   /**
-   * Load all the sounds from individual sound files which are stored in 'sounds'
-   * directory in the project root.
+   * Returns the clip done loading last and how long it took, as it is shown
+   * under the progress bar.
    *
-   * @param component displayable component(Screen).
+   * @return name and milliseconds, or null before the first clip is done.
    */
-  static void loadSounds(Component component) {
-    // Load all sound clips by playing and immediately stopping them. Update
-    // counter and total for display.
-    try {
-      crashSound = AudioSystem.getClip();
-      crashSound.open(AudioSystem.getAudioInputStream(new File("sounds/crash.wav")));
-      clipTotal++;
+  static String getLastLoaded() {
+    return lastLoaded;
+  }
 
-      explosionSound = AudioSystem.getClip();
-      explosionSound.open(AudioSystem.getAudioInputStream(new File("sounds/explosion.wav")));
-      clipTotal++;
+  /**
+   * Returns how long the clip of an effect took to load.
+   *
+   * @param effect sound effect.
+   * @return nanoseconds, or 0 if it is not done.
+   */
+  static long getLoadNanos(SoundEffect effect) {
+    return loadNanos.get(effect.ordinal());
+  }
 
-      fireSound = AudioSystem.getClip();
-      fireSound.open(AudioSystem.getAudioInputStream(new File("sounds/fire.wav")));
-      clipTotal++;
+  /**
+   * Returns how long every clip done so far took to load.
+   *
+   * @return names and milliseconds.
+   */
+  static String getLoadTimes() {
+    StringBuilder s = new StringBuilder();
 
-      missileSound = AudioSystem.getClip();
-      missileSound.open(AudioSystem.getAudioInputStream(new File("sounds/missile.wav")));
-      clipTotal++;
+    for (SoundEffect effect : EFFECTS) {
+      if (getLoadNanos(effect) == 0) continue;
+      if (s.length() > 0) s.append(", ");
+      s.append(name(effect)).append(' ').append(getLoadNanos(effect) / 1000000).append(" ms");
+    }
+    return s.toString();
+  }
 
-      saucerSound = AudioSystem.getClip();
-      saucerSound.open(AudioSystem.getAudioInputStream(new File("sounds/saucer.wav")));
-      clipTotal++;
+  /**
+   * Start loading all the sounds from individual sound files which are
+   * stored in 'sounds' directory in the project root, on a few background
+   * threads. Returns at once.
+   *
+   * @param listener told of each effect whose clip is done loading, on the
+   *                 thread that loaded it.
+   */
+  static void loadSounds(Consumer<SoundEffect> listener) {
+    int threads = Math.min(EFFECTS.length, Math.max(2, Runtime.getRuntime().availableProcessors()));
+    ExecutorService loaders = Executors.newFixedThreadPool(threads, task -> {
+      Thread thread = new Thread(task, "Sound loader");
+      thread.setDaemon(true);
+      return thread;
+    });
+
+    for (SoundEffect effect : EFFECTS) loaders.execute(() -> load(effect, listener));
+    loaders.shutdown();
+  }
 
-      thrustersSound = AudioSystem.getClip();
-      thrustersSound.open(AudioSystem.getAudioInputStream(new File("sounds/thrusters.wav")));
-      clipTotal++;
+  /**
+   * Load the clip of one effect and count it done, whether it loaded or not.
+   */
+  private static void load(SoundEffect effect, Consumer<SoundEffect> listener) {
+    long start = System.nanoTime(), time;
+    Clip clip;
 
-      warpSound = AudioSystem.getClip();
-      warpSound.open(AudioSystem.getAudioInputStream(new File("sounds/warp.wav")));
-      clipTotal++;
+    try {
+      clip = AudioSystem.getClip();
+      try (AudioInputStream stream = AudioSystem.getAudioInputStream(new File("sounds/" + name(effect) + ".wav"))) {
+        clip.open(stream);
+      }
+
+      // Playing and stopping the clip readies its line for the first play.
+      clip.start();
+      clip.stop();
+      clips.set(effect.ordinal(), clip);
     } catch (Exception e) {
-      e.printStackTrace();
+      System.out.println("Cannot load sound " + name(effect) + ": " + e);
     }
 
-    try {
-      stopSound(component, crashSound, explosionSound, fireSound);
-      stopSound(component, missileSound, saucerSound, thrustersSound);
-      warpSound.start();
-      warpSound.stop();
-      clipsLoaded++;
-      component.repaint();
-      Thread.sleep(DELAY);
-    } catch (InterruptedException e) {
-      e.printStackTrace();
-    }
+    time = Math.max(1, System.nanoTime() - start);
+    loadNanos.set(effect.ordinal(), time);
+    lastLoaded = name(effect) + " " + time / 1000000 + " ms";
+    clipsLoaded.incrementAndGet();
+    listener.accept(effect);
   }
 
-  /**
-   * Stop all the sound.
-   *
-   * @param component displayable component(Screen).
-   * @param crashSound sound when object crashes.
-   * @param explosionSound sound when an object if explodes.
-   * @param fireSound sound when an object is fired.
-   * @throws InterruptedException Thrown when a thread is waiting, sleeping,
-   *                              or otherwise occupied, and the thread is interrupted,
-   *                              either before or during the activity.
-   */
-  private static void stopSound(Component component, Clip crashSound, Clip explosionSound, Clip fireSound)
-      throws InterruptedException
-  {
-    crashSound.start();
-    crashSound.stop();
-    clipsLoaded++;
-    component.repaint();
-    Thread.sleep(DELAY);
-
-    explosionSound.start();
-    explosionSound.stop();
-    clipsLoaded++;
-    component.repaint();
-    Thread.sleep(DELAY);
-
-    fireSound.start();
-    fireSound.stop();
-    clipsLoaded++;
-    component.repaint();
-    Thread.sleep(DELAY);
+  private static String name(SoundEffect effect) {
+    return effect.name().toLowerCase();
   }
 }
\ No newline at end of file
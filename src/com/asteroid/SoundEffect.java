@@ -0,0 +1,15 @@
+package com.asteroid;
+
+/**
+ * Sound effects the game world can ask to be played. Each effect maps to one
+ * of the clips loaded by {@link Sound}.
+ */
+public enum SoundEffect {
+  CRASH,
+  EXPLOSION,
+  FIRE,
+  MISSILE,
+  SAUCER,
+  THRUSTERS,
+  WARP
+}
\ No newline at end of file
@@ -0,0 +1,36 @@
+package com.asteroid;
+
+/**
+ * Receives sound cues from the game world. The world itself never touches
+ * audio, so a headless simulation can simply use {@link #NONE}.
+ */
+public interface SoundListener {
+
+  // Listener that ignores every cue.
+  SoundListener NONE = new SoundListener() {
+    public void play(SoundEffect effect) {}
+    public void loop(SoundEffect effect) {}
+    public void stop(SoundEffect effect) {}
+  };
+
+  /**
+   * Play a sound effect once from the beginning.
+   *
+   * @param effect sound effect to play.
+   */
+  void play(SoundEffect effect);
+
+  /**
+   * Start looping a sound effect until it is stopped.
+   *
+   * @param effect sound effect to loop.
+   */
+  void loop(SoundEffect effect);
+
+  /**
+   * Stop a sound effect if it is playing.
+   *
+   * @param effect sound effect to stop.
+   */
+  void stop(SoundEffect effect);
+}
\ No newline at end of file
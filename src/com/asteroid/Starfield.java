@@ -0,0 +1,170 @@
+package com.asteroid;
+
+import java.awt.*;
+import java.util.SplittableRandom;
+
+/**
+ * The starry background, drawn once into cached images that are only made
+ * again when the screen size changes. A frame then costs one blit per layer
+ * however many stars there are, and the images are made compatible with
+ * the screen so Java2D can keep them in video memory.
+ *
+ * The stars normally sit in one layer that does not move. With parallax
+ * they are split over LAYERS layers, dim and far to bright and near, which
+ * drift against the ship's motion, the nearer the faster. A layer wraps
+ * around the screen, so it may take up to four blits of its parts.
+ *
+ * Stars are placed in the world and scaled to the screen, so there are as
+ * many at any size and the same ones at the same places, only drawn
+ * smaller or larger.
+ */
+public class Starfield implements Constants {
+
+  public static final int LAYERS = 3;
+  private static final double[] SPEEDS = {0.05, 0.15, 0.3};   // part of the ship's speed
+  private static final int[] COLORS = {0x606060, 0xa0a0a0, 0xffffff};
+
+  private final long seed;
+  private boolean parallax;
+
+  // layers for the current size, layer 0 is opaque
+  private int width, height;
+  private Image[] layers = new Image[LAYERS];
+  private int layerCount;
+
+  // how far each layer has drifted in world units, and the tick it was moved
+  // to
+  private double[] offsetX = new double[LAYERS];
+  private double[] offsetY = new double[LAYERS];
+  private long tick = -1;
+
+  /**
+   * Create a starfield.
+   *
+   * @param seed seed the stars are placed by.
+   */
+  public Starfield(long seed) {
+    this.seed = seed;
+  }
+
+  public boolean isParallax() {
+    return parallax;
+  }
+
+  /**
+   * Sets whether the stars are in layers drifting against the ship.
+   *
+   * @param parallax true for drifting layers, false for one still layer.
+   */
+  public void setParallax(boolean parallax) {
+    if (parallax == this.parallax) return;
+
+    this.parallax = parallax;
+    width = height = 0;
+  }
+
+  /**
+   * Drift the layers against a ship for the ticks since the last call.
+   *
+   * @param now current tick of the world.
+   * @param deltaX ship movement along x per tick.
+   * @param deltaY ship movement along y per tick.
+   */
+  public void scroll(long now, double deltaX, double deltaY) {
+    long ticks = tick < 0 || now < tick ? 0 : now - tick;
+
+    tick = now;
+    if (!parallax || ticks == 0) return;
+
+    for (int i = 0; i < LAYERS; i++) {
+      offsetX[i] -= deltaX * SPEEDS[i] * ticks;
+      offsetY[i] -= deltaY * SPEEDS[i] * ticks;
+    }
+  }
+
+  /**
+   * Draw the whole background, with the layers where they have drifted to.
+   *
+   * @param graphics graphics to draw with.
+   * @param width width of the screen.
+   * @param height height of the screen.
+   */
+  public void draw(Graphics graphics, int width, int height) {
+    int x, y;
+
+    prepare(graphics, width, height);
+
+    for (int i = 0; i < layerCount; i++) {
+      x = Math.floorMod((int) Math.round(offsetX[i] * width / WORLD_WIDTH), width);
+      y = Math.floorMod((int) Math.round(offsetY[i] * height / WORLD_HEIGHT), height);
+
+      // The layer wraps, its far parts come in at the near edges.
+      drawPart(graphics, layers[i], x, y, 0, 0, width - x, height - y);
+      if (x > 0) drawPart(graphics, layers[i], 0, y, width - x, 0, x, height - y);
+      if (y > 0) drawPart(graphics, layers[i], x, 0, 0, height - y, width - x, y);
+      if (x > 0 && y > 0) drawPart(graphics, layers[i], 0, 0, width - x, height - y, x, y);
+    }
+  }
+
+  /**
+   * Draw part of the background with the layers in their starting place,
+   * for redrawing bits of a frame whose background does not move.
+   *
+   * @param graphics graphics to draw with.
+   * @param width width of the screen.
+   * @param height height of the screen.
+   * @param x left edge of the part.
+   * @param y top edge of the part.
+   * @param w width of the part.
+   * @param h height of the part.
+   */
+  public void drawStill(Graphics graphics, int width, int height, int x, int y, int w, int h) {
+    prepare(graphics, width, height);
+
+    for (int i = 0; i < layerCount; i++) drawPart(graphics, layers[i], x, y, x, y, w, h);
+  }
+
+  /**
+   * Copy a box of a layer to the same size box of the screen.
+   */
+  private static void drawPart(Graphics graphics, Image layer, int x, int y, int sx, int sy, int w, int h) {
+    graphics.drawImage(layer, x, y, x + w, y + h, sx, sy, sx + w, sy + h, null);
+  }
+
+  /**
+   * Make the layers for a screen size, unless they were made for it.
+   */
+  private void prepare(Graphics graphics, int width, int height) {
+    GraphicsConfiguration config;
+    SplittableRandom random;
+    int stars = WORLD_WIDTH * WORLD_HEIGHT / 5000, n;
+    Graphics g;
+
+    if (width == this.width && height == this.height) return;
+
+    config = ((Graphics2D) graphics).getDeviceConfiguration();
+    random = new SplittableRandom(seed);
+    this.width = width;
+    this.height = height;
+    layerCount = parallax ? LAYERS : 1;
+
+    for (int i = 0; i < layerCount; i++) {
+      if (layers[i] != null) layers[i].flush();
+      layers[i] = config.createCompatibleImage(width, height, i == 0 ? Transparency.OPAQUE : Transparency.BITMASK);
+
+      g = layers[i].getGraphics();
+      if (i == 0) {
+        g.setColor(Color.black);
+        g.fillRect(0, 0, width, height);
+      }
+
+      // Without parallax all the stars are white, as they always were.
+      g.setColor(new Color(parallax ? COLORS[i] : 0xffffff));
+      n = parallax ? stars / LAYERS : stars;
+      for (int k = 0; k < n; k++)
+        g.fillRect(random.nextInt(WORLD_WIDTH) * width / WORLD_WIDTH, random.nextInt(WORLD_HEIGHT) * height / WORLD_HEIGHT,
+            1, 1);
+      g.dispose();
+    }
+  }
+}
\ No newline at end of file
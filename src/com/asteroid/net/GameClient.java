@@ -0,0 +1,174 @@
+package com.asteroid.net;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.SocketChannel;
+
+/**
+ * A connection to a GameServer. The client keeps the WorldFrame the server
+ * has sent so far up to date and sends the player's controls. Reading never
+ * blocks, so one thread can drive many clients, as the load test does.
+ */
+public class GameClient implements Closeable {
+
+  private final SocketChannel channel;
+  private ByteBuffer in = ByteBuffer.allocate(16 * 1024);  // grows to the largest frame
+  private final ByteBuffer out = ByteBuffer.allocate(1);
+  private final WorldFrame frame = new WorldFrame();
+  private boolean welcomed;         // the server has sent the player index
+  private int player = -1;          // player index, -1 for a spectator
+
+  // counters
+  private long frames;
+  private long bytesReceived;
+
+  /**
+   * Connect to a server.
+   *
+   * @param address address of the server.
+   * @throws IOException if the connection fails.
+   */
+  public GameClient(InetSocketAddress address) throws IOException {
+    this(address, 0);
+  }
+
+  /**
+   * Connect to a server with a receive buffer of the given size, small
+   * buffers let a load test see how the server treats a slow client.
+   *
+   * @param address address of the server.
+   * @param receiveBuffer socket receive buffer size, 0 for the default.
+   * @throws IOException if the connection fails.
+   */
+  public GameClient(InetSocketAddress address, int receiveBuffer) throws IOException {
+    channel = SocketChannel.open();
+    if (receiveBuffer > 0) channel.setOption(StandardSocketOptions.SO_RCVBUF, receiveBuffer);
+    channel.connect(address);
+    channel.configureBlocking(false);
+    channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+  }
+
+  /**
+   * Returns the player index the server gave this client.
+   *
+   * @return player index, -1 for a spectator or until the server has sent it.
+   */
+  public int getPlayer() {
+    return player;
+  }
+
+  /**
+   * Returns whether the server took this client as a spectator, which sees
+   * the world but does not play.
+   *
+   * @return true for a spectator.
+   */
+  public boolean isSpectator() {
+    return welcomed && player < 0;
+  }
+
+  /**
+   * Returns the world as of the last frame received.
+   *
+   * @return current frame.
+   */
+  public WorldFrame getFrame() {
+    return frame;
+  }
+
+  public long getFrameCount() {
+    return frames;
+  }
+
+  public long getBytesReceived() {
+    return bytesReceived;
+  }
+
+  /**
+   * Read what has arrived and apply every complete frame.
+   *
+   * @return number of frames applied.
+   * @throws IOException if reading fails or the server closed the
+   *                     connection.
+   */
+  public int receive() throws IOException {
+    int n, start, length, count = 0;
+
+    // A frame larger than the buffer is kept whole in a larger one.
+    if (!in.hasRemaining()) in = ByteBuffer.allocate(2 * in.capacity()).put(in.flip());
+    n = channel.read(in);
+    if (n < 0) throw new EOFException("server closed the connection");
+    bytesReceived += n;
+
+    in.flip();
+    while (in.hasRemaining()) {
+      start = in.position();
+      length = readVarInt();
+      if (length < 0) break;
+
+      if (!welcomed) {
+        player = length - 1;
+        welcomed = true;
+        continue;
+      }
+
+      if (in.remaining() < length) {
+        in.position(start);
+        break;
+      }
+      n = in.limit();
+      in.limit(in.position() + length);
+      frame.decode(in);
+      in.limit(n);
+      count++;
+    }
+    in.compact();
+
+    frames += count;
+    return count;
+  }
+
+  /**
+   * Read a varint that may not have arrived in whole.
+   *
+   * @return value, or -1 with the position unchanged if it is incomplete.
+   */
+  private int readVarInt() {
+    int start = in.position(), v = 0, shift = 0, b;
+
+    do {
+      if (!in.hasRemaining()) {
+        in.position(start);
+        return -1;
+      }
+      b = in.get();
+      v |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return v;
+  }
+
+  /**
+   * Send the controls for the next tick. If the socket is full they are
+   * dropped, the held keys go out again with the next tick.
+   *
+   * @param bits InputState bits.
+   * @throws IOException if writing fails.
+   */
+  public void send(int bits) throws IOException {
+    out.clear();
+    out.put((byte) bits);
+    out.flip();
+    channel.write(out);
+  }
+
+  @Override
+  public void close() throws IOException {
+    channel.close();
+  }
+}
\ No newline at end of file
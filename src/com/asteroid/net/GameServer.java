@@ -0,0 +1,556 @@
+package com.asteroid.net;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.*;
+import java.util.Arrays;
+import java.util.Iterator;
+
+import com.asteroid.Constants;
+import com.asteroid.GameClock;
+import com.asteroid.GameWorld;
+import com.asteroid.InputState;
+
+/**
+ * Headless authoritative server for a multiplayer arena. Every client that
+ * connects over TCP becomes a player of one GameWorld, which only the server
+ * steps. Clients that connect to the spectator address instead only watch.
+ * A single thread runs a non-blocking selector loop: it accepts clients,
+ * collects the players' controls, steps the world and sends the new frame.
+ *
+ * A player sends one byte of InputState bits per tick. The held keys are
+ * taken from the last byte that arrived, fire, hyperspace and start from any
+ * byte since the previous tick, so a request is not lost when two bytes
+ * arrive together. Players cannot end the game, spectators send nothing.
+ *
+ * The server first sends a client its player index plus one as a varint, 0
+ * for a spectator, then one message per tick: a varint length followed by a
+ * WorldFrame. Each tick is encoded once, as the difference to the previous
+ * frame, into a ring of messages shared by every connection. A connection
+ * only keeps its place in the ring, and each tick the messages it has not
+ * had yet go out in one gathering write, straight from the shared buffers.
+ *
+ * A client that needs a whole frame, being new or dropped, waits for the
+ * next tick, when a full frame is encoded once for all of them and put in
+ * the ring as a keyframe, which clients that are in step skip. A client more
+ * than MAX_LAG messages behind is dropped to the next keyframe. One that is
+ * inside a message, as a slow reader with full socket buffers nearly always
+ * is, first gets the rest of that message from a copy of its own, and skips
+ * every delta up to the keyframe. Only a client that takes no bytes at all
+ * for STALL messages is disconnected.
+ */
+public class GameServer implements Constants, Closeable {
+
+  public static final int DEFAULT_PORT = 7474;       // spectators on the next port
+  public static final int MAX_FRAME_SIZE = 1 << 17;  // largest encoded frame
+  private static final int RING_SIZE = 512;          // messages kept for slow clients, some 10 seconds
+  private static final int MAX_LAG = FPS;            // messages a client may fall behind
+  private static final int STALL = RING_SIZE;        // messages a client may take nothing for
+  private static final int MAX_GATHER = 16;          // most messages in one write
+  private static final int SPECTATOR_BUFFER = 8192;  // socket send buffer of a spectator
+  private static final int HELD = InputState.LEFT | InputState.RIGHT | InputState.UP | InputState.DOWN;
+  private static final int REQUESTS = InputState.FIRE | InputState.HYPERSPACE | InputState.START;
+
+  private final GameWorld world;
+  private final Selector selector;
+  private final ServerSocketChannel server;
+  private final ServerSocketChannel spectatorServer;   // null without spectators
+  private final Connection[] players = new Connection[MAX_PLAYERS];  // by player index
+  private Connection[] connections = new Connection[MAX_PLAYERS];    // packed, players and spectators
+  private int connectionCount;
+  private int playerCount;
+
+  // frame sent last and the one being built, swapped every tick
+  private WorldFrame frame = new WorldFrame();
+  private WorldFrame sent = new WorldFrame();
+  private final ByteBuffer scratch = ByteBuffer.allocate(MAX_FRAME_SIZE);
+
+  // messages by sequence number modulo RING_SIZE, each flipped for reading
+  private final ByteBuffer[] ring = new ByteBuffer[RING_SIZE];
+  private final boolean[] keyframes = new boolean[RING_SIZE];
+  private long ringEnd;                        // sequence number of the next message
+
+  // buffers of one gathering write
+  private final ByteBuffer[] gather = new ByteBuffer[MAX_GATHER + 2];
+  private final long[] gatherSequence = new long[MAX_GATHER + 2];
+
+  // counters
+  private long bytesSent;
+  private long fullFrames;      // keyframes encoded
+  private long drops;           // clients dropped to a keyframe
+  private long stalls;          // clients disconnected for not reading
+
+  /**
+   * Open a server for players only.
+   *
+   * @param world world to serve.
+   * @param address address to listen on, port 0 picks a free port.
+   * @throws IOException if the address cannot be bound.
+   */
+  public GameServer(GameWorld world, InetSocketAddress address) throws IOException {
+    this(world, address, null);
+  }
+
+  /**
+   * Open a server. Player 0 of the world is taken out, the first player to
+   * connect takes its place.
+   *
+   * @param world world to serve.
+   * @param address address players connect to, port 0 picks a free port.
+   * @param spectatorAddress address spectators connect to, or null.
+   * @throws IOException if an address cannot be bound.
+   */
+  public GameServer(GameWorld world, InetSocketAddress address, InetSocketAddress spectatorAddress)
+      throws IOException {
+    this.world = world;
+    world.removePlayer(0);
+
+    for (int i = 0; i < RING_SIZE; i++) ring[i] = ByteBuffer.allocateDirect(4096);
+
+    selector = Selector.open();
+    server = open(address, MAX_PLAYERS);
+    spectatorServer = spectatorAddress == null ? null : open(spectatorAddress, 1024);
+  }
+
+  private ServerSocketChannel open(InetSocketAddress address, int backlog) throws IOException {
+    ServerSocketChannel channel = ServerSocketChannel.open();
+
+    channel.configureBlocking(false);
+    channel.bind(address, backlog);
+    channel.register(selector, SelectionKey.OP_ACCEPT);
+
+    return channel;
+  }
+
+  public GameWorld getWorld() {
+    return world;
+  }
+
+  /**
+   * Returns the port players connect to.
+   *
+   * @return local port.
+   * @throws IOException if the server is closed.
+   */
+  public int getPort() throws IOException {
+    return ((InetSocketAddress) server.getLocalAddress()).getPort();
+  }
+
+  /**
+   * Returns the port spectators connect to.
+   *
+   * @return local port, or -1 without spectators.
+   * @throws IOException if the server is closed.
+   */
+  public int getSpectatorPort() throws IOException {
+    return spectatorServer == null ? -1 : ((InetSocketAddress) spectatorServer.getLocalAddress()).getPort();
+  }
+
+  public int getClientCount() {
+    return playerCount;
+  }
+
+  public int getSpectatorCount() {
+    return connectionCount - playerCount;
+  }
+
+  /**
+   * Returns the frame sent to the clients last.
+   *
+   * @return last frame.
+   */
+  public WorldFrame getFrame() {
+    return sent;
+  }
+
+  public long getBytesSent() {
+    return bytesSent;
+  }
+
+  public long getFullFrames() {
+    return fullFrames;
+  }
+
+  public long getDrops() {
+    return drops;
+  }
+
+  public long getStalls() {
+    return stalls;
+  }
+
+  /**
+   * Serve at FPS ticks per second until the server is closed. Between ticks
+   * the thread waits in the selector for clients.
+   *
+   * @throws IOException if the selector fails.
+   */
+  public void run() throws IOException {
+    GameClock clock = new GameClock(1000000000L / FPS, MAX_CATCH_UP);
+    int ticks;
+
+    clock.reset(System.nanoTime());
+    while (server.isOpen()) {
+      poll(Math.max(1, clock.nanosUntilNextTick(System.nanoTime()) / 1000000));
+      ticks = clock.ticksDue(System.nanoTime());
+      for (int i = 0; i < ticks; i++) step();
+    }
+  }
+
+  /**
+   * Handle whatever the clients sent and run one tick, without waiting.
+   *
+   * @throws IOException if the selector fails.
+   */
+  public void tick() throws IOException {
+    poll(0);
+    step();
+  }
+
+  /**
+   * Accept clients, read their controls and write what is queued.
+   */
+  private void poll(long timeout) throws IOException {
+    Iterator<SelectionKey> keys;
+    SelectionKey key;
+    Connection connection;
+
+    if (timeout > 0) selector.select(timeout);
+    else selector.selectNow();
+
+    keys = selector.selectedKeys().iterator();
+    while (keys.hasNext()) {
+      key = keys.next();
+      keys.remove();
+
+      if (!key.isValid()) continue;
+      if (key.isAcceptable()) {
+        accept((ServerSocketChannel) key.channel());
+        continue;
+      }
+
+      connection = (Connection) key.attachment();
+      try {
+        if (key.isReadable()) connection.read();
+        if (key.isValid() && key.isWritable()) flush(connection);
+      } catch (IOException e) {
+        disconnect(connection);
+      }
+    }
+  }
+
+  private void accept(ServerSocketChannel from) throws IOException {
+    SocketChannel channel;
+    Connection connection;
+    int index = -1;
+
+    while ((channel = from.accept()) != null) {
+      if (from == server) {
+        index = world.addPlayer();
+        if (index < 0) {
+          // The arena is full.
+          channel.close();
+          continue;
+        }
+      }
+
+      channel.configureBlocking(false);
+      channel.setOption(StandardSocketOptions.TCP_NODELAY, true);
+      // What a slow spectator has not read waits in the ring, not the kernel.
+      if (index < 0) channel.setOption(StandardSocketOptions.SO_SNDBUF, SPECTATOR_BUFFER);
+      connection = new Connection(channel, index);
+      connection.progress = ringEnd;
+      connection.key = channel.register(selector, SelectionKey.OP_READ, connection);
+
+      if (connectionCount == connections.length) connections = Arrays.copyOf(connections, 2 * connectionCount);
+      connections[connectionCount++] = connection;
+      if (index >= 0) {
+        players[index] = connection;
+        playerCount++;
+      }
+    }
+  }
+
+  private void disconnect(Connection connection) {
+    int i;
+
+    connection.key.cancel();
+    try {
+      connection.channel.close();
+    } catch (IOException e) {
+      // closing anyway
+    }
+
+    for (i = 0; i < connectionCount; i++)
+      if (connections[i] == connection) {
+        connections[i] = connections[--connectionCount];
+        connections[connectionCount] = null;
+        break;
+      }
+
+    if (connection.player < 0) return;
+
+    players[connection.player] = null;
+    playerCount--;
+    world.removePlayer(connection.player);
+    if (playerCount == 0) world.endGame();
+  }
+
+  /**
+   * Step the world with the players' controls and send the new frame.
+   */
+  private void step() {
+    WorldFrame swap;
+    Connection connection;
+    InputState input;
+    long keyframe = -1;
+    int i;
+
+    for (i = 0; i < MAX_PLAYERS; i++) {
+      connection = players[i];
+      if (connection == null) continue;
+
+      input = world.getPlayer(i).getInput();
+      input.setBits(connection.held | connection.requests);
+      connection.requests = 0;
+    }
+    world.step();
+    frame.capture(world);
+
+    // Drop clients that fell behind before the ring moves on, and cut off
+    // those that stopped reading. Run backwards, a disconnected client is
+    // replaced by the last one.
+    for (i = connectionCount - 1; i >= 0; i--) {
+      connection = connections[i];
+      if (ringEnd - connection.progress >= STALL) {
+        disconnect(connection);
+        stalls++;
+        continue;
+      }
+      if (connection.next < 0 || ringEnd - connection.next <= MAX_LAG) continue;
+
+      // A client inside a message finishes it before the keyframe.
+      if (connection.offset > 0) connection.keepRest(ring[(int) (connection.next % RING_SIZE)]);
+      connection.next = -1;
+      drops++;
+    }
+
+    scratch.clear();
+    frame.encodeDelta(sent, scratch);
+    append(false);
+
+    for (i = 0; i < connectionCount; i++) {
+      connection = connections[i];
+      if (connection.next >= 0) continue;
+
+      if (keyframe < 0) {
+        scratch.clear();
+        frame.encodeFull(scratch);
+        keyframe = append(true);
+        fullFrames++;
+      }
+      connection.next = keyframe;
+      connection.offset = 0;
+    }
+
+    swap = sent;
+    sent = frame;
+    frame = swap;
+
+    for (i = connectionCount - 1; i >= 0; i--) {
+      connection = connections[i];
+      try {
+        flush(connection);
+      } catch (IOException e) {
+        disconnect(connection);
+      }
+    }
+  }
+
+  /**
+   * Put the frame in the scratch buffer into the ring as the next message.
+   *
+   * @return sequence number of the message.
+   */
+  private long append(boolean keyframe) {
+    int slot = (int) (ringEnd % RING_SIZE);
+    ByteBuffer message = ring[slot];
+
+    scratch.flip();
+    if (message.capacity() < 5 + scratch.remaining())
+      message = ring[slot] = ByteBuffer.allocateDirect(Math.max(5 + scratch.remaining(), 2 * message.capacity()));
+
+    message.clear();
+    WorldFrame.putVarInt(message, scratch.remaining());
+    message.put(scratch);
+    message.flip();
+    keyframes[slot] = keyframe;
+
+    return ringEnd++;
+  }
+
+  /**
+   * Write as much of what a client has not had yet as the socket takes, in
+   * one gathering write.
+   */
+  private void flush(Connection connection) throws IOException {
+    ByteBuffer message;
+    long s, written;
+    int i, first, n = 0;
+
+    if (connection.hello.hasRemaining()) gather[n++] = connection.hello;
+    if (connection.rest.hasRemaining()) gather[n++] = connection.rest;
+    first = n;
+
+    // The message the client is in, then the deltas after it.
+    if (connection.next >= 0)
+      for (s = connection.next; s < ringEnd && n <= MAX_GATHER; s++) {
+        if (s != connection.next && keyframes[(int) (s % RING_SIZE)]) continue;
+
+        message = ring[(int) (s % RING_SIZE)];
+        if (s == connection.next) message.position(connection.offset);
+        gatherSequence[n] = s;
+        gather[n++] = message;
+      }
+
+    if (n == 0) {
+      connection.progress = ringEnd;
+      connection.setWaiting(false);
+      return;
+    }
+
+    try {
+      written = connection.channel.write(gather, 0, n);
+      bytesSent += written;
+      if (written > 0) connection.progress = ringEnd;
+
+      // Move the client past the messages it has had. A client in step
+      // skips the keyframes that follow them.
+      for (i = first; i < n; i++) {
+        message = gather[i];
+        if (message.hasRemaining()) {
+          connection.next = gatherSequence[i];
+          connection.offset = message.position();
+          break;
+        }
+
+        connection.next = gatherSequence[i] + 1;
+        connection.offset = 0;
+        while (connection.next < ringEnd && keyframes[(int) (connection.next % RING_SIZE)]) connection.next++;
+      }
+    } finally {
+      // Put the shared buffers back for the next client.
+      for (i = first; i < n; i++) gather[i].position(0);
+      Arrays.fill(gather, 0, n, null);
+    }
+
+    connection.setWaiting(connection.hello.hasRemaining() || connection.rest.hasRemaining()
+        || (connection.next >= 0 && connection.next < ringEnd));
+  }
+
+  /**
+   * Close every client connection and stop listening.
+   */
+  @Override
+  public void close() throws IOException {
+    for (int i = 0; i < connectionCount; i++) connections[i].channel.close();
+    server.close();
+    if (spectatorServer != null) spectatorServer.close();
+    selector.close();
+  }
+
+  /**
+   * Run a server on the given port, or DEFAULT_PORT, with spectators on the
+   * port after it.
+   *
+   * Usage: GameServer [port] [seed]
+   *
+   * @param args command line arguments.
+   * @throws IOException if the server cannot be started.
+   */
+  public static void main(String[] args) throws IOException {
+    int port = args.length > 0 ? Integer.parseInt(args[0]) : DEFAULT_PORT;
+    GameWorld world = args.length > 1 ? new GameWorld(Long.parseLong(args[1])) : new GameWorld();
+
+    try (GameServer server = new GameServer(world, new InetSocketAddress(port), new InetSocketAddress(port + 1))) {
+      System.out.println("serving players on port " + server.getPort()
+          + ", spectators on port " + server.getSpectatorPort());
+      server.run();
+    }
+  }
+
+  /**
+   * A connected client.
+   */
+  private static final class Connection {
+
+    final SocketChannel channel;
+    final int player;               // player index of the client, -1 for a spectator
+    SelectionKey key;
+    final ByteBuffer in = ByteBuffer.allocate(256);
+    final ByteBuffer hello = ByteBuffer.allocate(5);
+    ByteBuffer rest = ByteBuffer.allocate(0);  // rest of a message cut short by a drop
+    long next = -1;                 // sequence number of the next message, -1 for a keyframe
+    int offset;                     // bytes of it already written
+    long progress;                  // end of the ring when the client last took bytes or had none due
+    boolean waiting;                // waiting for the socket to take more
+    int held;                       // held keys of the last byte read
+    int requests;                   // requests since the last tick
+
+    Connection(SocketChannel channel, int player) {
+      this.channel = channel;
+      this.player = player;
+
+      WorldFrame.putVarInt(hello, player + 1);
+      hello.flip();
+    }
+
+    /**
+     * Copy what is left of the message the client is in, to be written
+     * before anything else, as the ring will move on without it.
+     *
+     * @param message message of the ring at position 0, which is kept.
+     */
+    void keepRest(ByteBuffer message) {
+      int n = message.limit() - offset;
+
+      if (rest.capacity() < n) rest = ByteBuffer.allocate(n);
+      rest.clear();
+      message.position(offset);
+      rest.put(message);
+      rest.flip();
+      message.position(0);
+      offset = 0;
+    }
+
+    void read() throws IOException {
+      int b;
+
+      in.clear();
+      if (channel.read(in) < 0) throw new EOFException("client closed the connection");
+      in.flip();
+
+      // Spectators have no say.
+      while (in.hasRemaining() && player >= 0) {
+        b = in.get();
+        held = b & HELD;
+        requests |= b & REQUESTS;
+      }
+    }
+
+    /**
+     * Ask the selector to report when the socket takes more, only while
+     * something is left.
+     */
+    void setWaiting(boolean waiting) {
+      if (waiting == this.waiting) return;
+
+      key.interestOps(waiting ? SelectionKey.OP_READ | SelectionKey.OP_WRITE : SelectionKey.OP_READ);
+      this.waiting = waiting;
+    }
+  }
+}
\ No newline at end of file
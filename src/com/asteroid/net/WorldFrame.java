@@ -0,0 +1,526 @@
+package com.asteroid.net;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.asteroid.Constants;
+import com.asteroid.GameWorld;
+import com.asteroid.Player;
+import com.asteroid.objects.*;
+
+/**
+ * What a client sees of a game world at one tick: the players, bullets,
+ * saucer, missile and asteroids, quantized to POSITION_SCALE steps per pixel
+ * and ANGLE_STEPS steps per turn. Debris is left out, clients make their own
+ * from what disappears.
+ *
+ * A frame is sent as the difference to the frame before it. Each entity that
+ * changed is written as its slot, a mask of the fields that changed and the
+ * changes as zigzag varints, so an asteroid drifting by a few pixels takes
+ * five bytes. An asteroid's shape is only sent when it appears. A full frame
+ * is the difference to an empty one and tells the receiver to start over.
+ *
+ * Entities are kept in tables of fixed slots: players by player index,
+ * bullets by player index times MAX_SHOTS plus bullet index, the saucer in
+ * slot UFO and its missile in slot MISSILE, asteroids by their id in the
+ * sprite store. Empty slots are all zero, on both ends.
+ */
+public class WorldFrame implements Constants {
+
+  public static final int POSITION_SCALE = 4;   // quantization steps per pixel
+  public static final int ANGLE_STEPS = 1024;   // quantization steps per turn
+
+  // slots of the saucer table
+  public static final int UFO = 0;
+  public static final int MISSILE = 1;
+
+  // player flags
+  public static final int SHIP       = 1;       // ship is on the screen
+  public static final int THRUST     = 1 << 1;  // forward thrusters firing
+  public static final int REVERSE    = 1 << 2;  // reverse thrusters firing
+  public static final int HYPERSPACE = 1 << 3;  // ship is in hyperspace
+
+  // frame flags
+  private static final int FULL    = 1;
+  private static final int PLAYING = 1 << 1;
+  private static final int SIZE    = 1 << 2;
+
+  // entity field mask
+  private static final int REMOVED = 1;
+  private static final int X       = 1 << 1;
+  private static final int Y       = 1 << 2;
+  private static final int ANGLE   = 1 << 3;
+  private static final int FLAGS   = 1 << 4;
+  private static final int SCORE   = 1 << 5;
+  private static final int SHIPS   = 1 << 6;
+  private static final int SHAPE   = 1 << 7;
+
+  private static final WorldFrame EMPTY = new WorldFrame();
+
+  private long tick;
+  private boolean playing;
+  private int width, height;
+
+  private final Table players = new Table(MAX_PLAYERS, 0);
+  private final Table bullets = new Table(MAX_PLAYERS * MAX_SHOTS, 0);
+  private final Table saucer = new Table(2, 0);
+  private final Table rocks = new Table(ROCK_POOL_LIMIT, MAX_ROCK_SIDES);
+
+  public long getTick() {
+    return tick;
+  }
+
+  public boolean isPlaying() {
+    return playing;
+  }
+
+  public int getWidth() {
+    return width;
+  }
+
+  public int getHeight() {
+    return height;
+  }
+
+  /**
+   * Returns the players. Positions and angles are those of their ships, the
+   * flags are SHIP, THRUST, REVERSE and HYPERSPACE.
+   *
+   * @return player table.
+   */
+  public Table getPlayers() {
+    return players;
+  }
+
+  public Table getBullets() {
+    return bullets;
+  }
+
+  public Table getSaucer() {
+    return saucer;
+  }
+
+  public Table getRocks() {
+    return rocks;
+  }
+
+  /**
+   * Empty the frame.
+   */
+  public void clear() {
+    tick = 0;
+    playing = false;
+    width = 0;
+    height = 0;
+    players.clear();
+    bullets.clear();
+    saucer.clear();
+    rocks.clear();
+  }
+
+  /**
+   * Replace the frame with the current state of a world.
+   *
+   * @param world world to capture.
+   */
+  public void capture(GameWorld world) {
+    SpriteStore store = world.getAsteroids();
+    UFO ufo = world.getUFO();
+    Player player;
+    Ship ship;
+    Bullet bullet;
+    int i, k, id;
+
+    clear();
+    tick = world.getTick();
+    playing = world.isPlaying();
+    width = WORLD_WIDTH;
+    height = WORLD_HEIGHT;
+
+    for (i = 0; i < world.getPlayerCount(); i++) {
+      player = world.getPlayer(i);
+      if (!player.isJoined()) continue;
+
+      ship = player.getShip();
+      players.set(i, ship.getX(), ship.getY(), ship.getAngle());
+      players.flags[i] = (ship.isActive() ? SHIP : 0)
+          | (player.getInput().isUp() ? THRUST : 0)
+          | (player.getInput().isDown() ? REVERSE : 0)
+          | (player.getHyperCounter() > 0 ? HYPERSPACE : 0);
+      players.score[i] = player.getScore();
+      players.ships[i] = player.getShipsLeft();
+
+      for (k = 0; k < MAX_SHOTS; k++) {
+        bullet = ship.getBullet(k);
+        if (bullet.isActive()) bullets.set(i * MAX_SHOTS + k, bullet.getX(), bullet.getY(), 0.0);
+      }
+    }
+
+    if (ufo.isActive()) saucer.set(UFO, ufo.getX(), ufo.getY(), ufo.getAngle());
+    if (ufo.getMissile().isActive())
+      saucer.set(MISSILE, ufo.getMissile().getX(), ufo.getMissile().getY(), ufo.getMissile().getAngle());
+
+    for (k = 0; k < store.getActiveCount(); k++) {
+      id = store.getActive(k);
+      rocks.set(id, store.getX(id), store.getY(id), store.getAngle(id));
+      rocks.setShape(id, store);
+    }
+  }
+
+  /**
+   * Write the difference from an earlier frame.
+   *
+   * @param base frame the receiver holds.
+   * @param out buffer to write to.
+   */
+  public void encodeDelta(WorldFrame base, ByteBuffer out) {
+    encode(base, 0, out);
+  }
+
+  /**
+   * Write the whole frame, for a receiver that holds nothing yet.
+   *
+   * @param out buffer to write to.
+   */
+  public void encodeFull(ByteBuffer out) {
+    encode(EMPTY, FULL, out);
+  }
+
+  private void encode(WorldFrame base, int flags, ByteBuffer out) {
+    if (playing) flags |= PLAYING;
+    if (width != base.width || height != base.height) flags |= SIZE;
+
+    out.put((byte) flags);
+    putVarLong(out, tick - base.tick);
+    if ((flags & SIZE) != 0) {
+      putVarInt(out, width);
+      putVarInt(out, height);
+    }
+
+    players.encode(base.players, out);
+    bullets.encode(base.bullets, out);
+    saucer.encode(base.saucer, out);
+    rocks.encode(base.rocks, out);
+  }
+
+  /**
+   * Apply a frame written by encodeDelta() or encodeFull().
+   *
+   * @param in buffer holding one encoded frame.
+   * @throws IllegalArgumentException if the frame names a slot that does
+   *                                  not exist.
+   */
+  public void decode(ByteBuffer in) {
+    int flags = in.get() & 0xff;
+
+    if ((flags & FULL) != 0) clear();
+
+    tick += getVarLong(in);
+    playing = (flags & PLAYING) != 0;
+    if ((flags & SIZE) != 0) {
+      width = getVarInt(in);
+      height = getVarInt(in);
+    }
+
+    players.decode(in);
+    bullets.decode(in);
+    saucer.decode(in);
+    rocks.decode(in);
+  }
+
+  /**
+   * Returns whether two frames hold the same world.
+   *
+   * @param other frame to compare with.
+   * @return true if they are the same.
+   */
+  public boolean matches(WorldFrame other) {
+    return tick == other.tick && playing == other.playing
+        && width == other.width && height == other.height
+        && players.matches(other.players) && bullets.matches(other.bullets)
+        && saucer.matches(other.saucer) && rocks.matches(other.rocks);
+  }
+
+  static int position(double v) {
+    return (int) Math.round(v * POSITION_SCALE);
+  }
+
+  static int angle(double a) {
+    return (int) Math.round(a * ANGLE_STEPS / (2 * Math.PI)) & (ANGLE_STEPS - 1);
+  }
+
+  static void putVarInt(ByteBuffer out, int v) {
+    while ((v & ~0x7f) != 0) {
+      out.put((byte) (v & 0x7f | 0x80));
+      v >>>= 7;
+    }
+    out.put((byte) v);
+  }
+
+  static int getVarInt(ByteBuffer in) {
+    int v = 0, shift = 0, b;
+
+    do {
+      b = in.get();
+      v |= (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return v;
+  }
+
+  private static void putVarLong(ByteBuffer out, long v) {
+    while ((v & ~0x7fL) != 0) {
+      out.put((byte) (v & 0x7f | 0x80));
+      v >>>= 7;
+    }
+    out.put((byte) v);
+  }
+
+  private static long getVarLong(ByteBuffer in) {
+    long v = 0;
+    int shift = 0, b;
+
+    do {
+      b = in.get();
+      v |= (long) (b & 0x7f) << shift;
+      shift += 7;
+    } while ((b & 0x80) != 0);
+
+    return v;
+  }
+
+  private static int zigzag(int v) {
+    return (v << 1) ^ (v >> 31);
+  }
+
+  private static int unzigzag(int v) {
+    return (v >>> 1) ^ -(v & 1);
+  }
+
+  /**
+   * One kind of entity, in fixed slots.
+   */
+  public static final class Table {
+
+    private final int capacity;
+    private final int maxVertices;   // room for the shape of each slot
+
+    private final boolean[] active;
+    private final int[] x, y;        // position, POSITION_SCALE steps per pixel
+    private final int[] angle;       // angle, ANGLE_STEPS steps per turn
+    private final int[] flags;
+    private final int[] score, ships;
+    private final int[] vertexCount;
+    private final byte[] shape;      // x, y pairs of maxVertices per slot
+
+    Table(int capacity, int maxVertices) {
+      this.capacity = capacity;
+      this.maxVertices = maxVertices;
+      active = new boolean[capacity];
+      x = new int[capacity];
+      y = new int[capacity];
+      angle = new int[capacity];
+      flags = new int[capacity];
+      score = new int[capacity];
+      ships = new int[capacity];
+      vertexCount = new int[capacity];
+      shape = new byte[capacity * maxVertices * 2];
+    }
+
+    public int getCapacity() {
+      return capacity;
+    }
+
+    public boolean isActive(int slot) {
+      return active[slot];
+    }
+
+    public int getX(int slot) {
+      return x[slot];
+    }
+
+    public int getY(int slot) {
+      return y[slot];
+    }
+
+    public int getAngle(int slot) {
+      return angle[slot];
+    }
+
+    public int getFlags(int slot) {
+      return flags[slot];
+    }
+
+    public int getScore(int slot) {
+      return score[slot];
+    }
+
+    public int getShips(int slot) {
+      return ships[slot];
+    }
+
+    public int getVertexCount(int slot) {
+      return vertexCount[slot];
+    }
+
+    public int getShapeX(int slot, int vertex) {
+      return shape[(slot * maxVertices + vertex) * 2];
+    }
+
+    public int getShapeY(int slot, int vertex) {
+      return shape[(slot * maxVertices + vertex) * 2 + 1];
+    }
+
+    /**
+     * Returns the number of slots in use.
+     *
+     * @return active entity count.
+     */
+    public int getActiveCount() {
+      int n = 0;
+
+      for (int i = 0; i < capacity; i++)
+        if (active[i]) n++;
+
+      return n;
+    }
+
+    void clear() {
+      Arrays.fill(active, false);
+      Arrays.fill(x, 0);
+      Arrays.fill(y, 0);
+      Arrays.fill(angle, 0);
+      Arrays.fill(flags, 0);
+      Arrays.fill(score, 0);
+      Arrays.fill(ships, 0);
+      Arrays.fill(vertexCount, 0);
+    }
+
+    private void clear(int i) {
+      active[i] = false;
+      x[i] = 0;
+      y[i] = 0;
+      angle[i] = 0;
+      flags[i] = 0;
+      score[i] = 0;
+      ships[i] = 0;
+      vertexCount[i] = 0;
+    }
+
+    void set(int i, double x, double y, double angle) {
+      this.active[i] = true;
+      this.x[i] = position(x);
+      this.y[i] = position(y);
+      this.angle[i] = angle(angle);
+    }
+
+    void setShape(int i, SpriteStore store) {
+      int n = Math.min(store.getVertexCount(i), maxVertices);
+
+      vertexCount[i] = n;
+      for (int j = 0; j < n; j++) {
+        shape[(i * maxVertices + j) * 2] = (byte) store.getShapeX(i, j);
+        shape[(i * maxVertices + j) * 2 + 1] = (byte) store.getShapeY(i, j);
+      }
+    }
+
+    private boolean sameShape(int i, Table other) {
+      int from = i * maxVertices * 2;
+
+      return vertexCount[i] == other.vertexCount[i]
+          && Arrays.equals(shape, from, from + 2 * vertexCount[i], other.shape, from, from + 2 * vertexCount[i]);
+    }
+
+    /**
+     * Write the slots that differ from the base table, ending with a zero.
+     */
+    void encode(Table base, ByteBuffer out) {
+      int i, mask, d, last = -1;
+
+      for (i = 0; i < capacity; i++) {
+        if (!active[i]) {
+          if (base.active[i]) {
+            putVarInt(out, i - last);
+            out.put((byte) REMOVED);
+            last = i;
+          }
+          continue;
+        }
+
+        mask = 0;
+        if (x[i] != base.x[i]) mask |= X;
+        if (y[i] != base.y[i]) mask |= Y;
+        if (angle[i] != base.angle[i]) mask |= ANGLE;
+        if (flags[i] != base.flags[i]) mask |= FLAGS;
+        if (score[i] != base.score[i]) mask |= SCORE;
+        if (ships[i] != base.ships[i]) mask |= SHIPS;
+        if (maxVertices > 0 && !sameShape(i, base)) mask |= SHAPE;
+        if (mask == 0 && base.active[i]) continue;
+
+        putVarInt(out, i - last);
+        out.put((byte) mask);
+        last = i;
+
+        if ((mask & X) != 0) putVarInt(out, zigzag(x[i] - base.x[i]));
+        if ((mask & Y) != 0) putVarInt(out, zigzag(y[i] - base.y[i]));
+        if ((mask & ANGLE) != 0) {
+          // The shorter way round, so a turn past zero stays small.
+          d = (angle[i] - base.angle[i]) & (ANGLE_STEPS - 1);
+          if (d >= ANGLE_STEPS / 2) d -= ANGLE_STEPS;
+          putVarInt(out, zigzag(d));
+        }
+        if ((mask & FLAGS) != 0) out.put((byte) flags[i]);
+        if ((mask & SCORE) != 0) putVarInt(out, zigzag(score[i] - base.score[i]));
+        if ((mask & SHIPS) != 0) putVarInt(out, zigzag(ships[i] - base.ships[i]));
+        if ((mask & SHAPE) != 0) {
+          out.put((byte) vertexCount[i]);
+          out.put(shape, i * maxVertices * 2, vertexCount[i] * 2);
+        }
+      }
+      putVarInt(out, 0);
+    }
+
+    /**
+     * Apply slots written by encode().
+     */
+    void decode(ByteBuffer in) {
+      int i = -1, skip, mask, n;
+
+      while ((skip = getVarInt(in)) != 0) {
+        i += skip;
+        if (i < 0 || i >= capacity) throw new IllegalArgumentException("bad entity slot in frame: " + i);
+
+        mask = in.get() & 0xff;
+        if ((mask & REMOVED) != 0) {
+          clear(i);
+          continue;
+        }
+
+        active[i] = true;
+        if ((mask & X) != 0) x[i] += unzigzag(getVarInt(in));
+        if ((mask & Y) != 0) y[i] += unzigzag(getVarInt(in));
+        if ((mask & ANGLE) != 0) angle[i] = (angle[i] + unzigzag(getVarInt(in))) & (ANGLE_STEPS - 1);
+        if ((mask & FLAGS) != 0) flags[i] = in.get() & 0xff;
+        if ((mask & SCORE) != 0) score[i] += unzigzag(getVarInt(in));
+        if ((mask & SHIPS) != 0) ships[i] += unzigzag(getVarInt(in));
+        if ((mask & SHAPE) != 0) {
+          n = in.get() & 0xff;
+          if (n > maxVertices) throw new IllegalArgumentException("bad vertex count in frame: " + n);
+          vertexCount[i] = n;
+          in.get(shape, i * maxVertices * 2, n * 2);
+        }
+      }
+    }
+
+    boolean matches(Table other) {
+      for (int i = 0; i < capacity; i++)
+        if (active[i] != other.active[i] || x[i] != other.x[i] || y[i] != other.y[i]
+            || angle[i] != other.angle[i] || flags[i] != other.flags[i]
+            || score[i] != other.score[i] || ships[i] != other.ships[i]
+            || (maxVertices > 0 && !sameShape(i, other)))
+          return false;
+      return true;
+    }
+  }
+}
\ No newline at end of file
@@ -1,17 +1,17 @@
 package com.asteroid.objects;
 
 import java.awt.*;
+import java.nio.ByteBuffer;
+
+import com.asteroid.Constants;
+import com.asteroid.FastMath;
 
 /**
  * An AsteroidSprite represents abstract behavior of different types of objects
  * in the game. Each of these objects have associated data such as shape, angle,
  * deltaAngle, x and y position and sprite. And state such as isActive.
  */
-public abstract class AsteroidSprite {
-
- // Dimensions of the graphics area
- private static int width;
- private static int height;
+public abstract class AsteroidSprite implements Constants {
 
  private Polygon shape;          // Base sprite shape, centered at the origin (0,0).
  private boolean isActive;       // Active flag.
@@ -20,6 +20,20 @@ public abstract class AsteroidSprite {
  private double x, y;            // Current position on screen.
  private double deltaX, deltaY;  // Amount to change the screen position.
  private Polygon sprite;         // Final location and shape of sprite after
+ private double prevX, prevY;    // Position and angle before the last advance,
+ private double prevAngle;       // used to interpolate rendering.
+ private Polygon view;           // Sprite interpolated between the last two ticks.
+ private int minX, minY;         // Bounds of the final sprite.
+ private int maxX, maxY;
+ private CollisionShape hull;    // Collision geometry of the base shape.
+ private Polygon hullShape;      // Shape the hull was built from.
+ private int hullPoints;
+
+ // State the sprite was last rendered from, so unchanged sprites are skipped.
+ private boolean rendered;
+ private double renderedX, renderedY, renderedAngle;
+ private Polygon renderedShape;
+ private int renderedPoints;
 
  AsteroidSprite() {
   this.shape = new Polygon();
@@ -31,41 +45,8 @@ public abstract class AsteroidSprite {
   this.deltaX = 0.0;
   this.deltaY = 0.0;
   this.sprite = new Polygon();
- }
-
-  /**
-   * Returns the current width of the screen.
-   * @return width.
-   */
- public static int getWidth() {
-  return width;
- }
-
-  /**
-   * Sets the current width of the screen.
-   *
-   * @param w width of the screen.
-   */
- public static void setWidth(int w) {
-  width = w;
- }
-
-  /**
-   * Returns the current height of the screen.
-   *
-   * @return height.
-   */
- public static int getHeight() {
-  return height;
- }
-
-  /**
-   * Sets the current height of the screen.
-   *
-   * @param h height of the screen.
-   */
- public static void setHeight(int h) {
-  height = h;
+  this.view = new Polygon();
+  this.hull = new CollisionShape();
  }
 
   /**
@@ -215,8 +196,137 @@ public abstract class AsteroidSprite {
   return sprite;
  }
 
+ /**
+   * Returns the sprite interpolated between the last two ticks, as filled
+   * in by renderInterpolated().
+   *
+   * @return interpolated sprite.
+   */
+ public Polygon getView() {
+  return view;
+ }
+
+  /**
+   * Returns the left edge of the bounds of the final sprite.
+   *
+   * @return smallest x-coordinate.
+   */
+ public int getMinX() {
+  return minX;
+ }
+
+  /**
+   * Returns the top edge of the bounds of the final sprite.
+   *
+   * @return smallest y-coordinate.
+   */
+ public int getMinY() {
+  return minY;
+ }
+
+  /**
+   * Returns the right edge of the bounds of the final sprite.
+   *
+   * @return largest x-coordinate.
+   */
+ public int getMaxX() {
+  return maxX;
+ }
+
+  /**
+   * Returns the bottom edge of the bounds of the final sprite.
+   *
+   * @return largest y-coordinate.
+   */
+ public int getMaxY() {
+  return maxY;
+ }
+
+  /**
+   * Returns how far the object moved along x in the last advance, not
+   * counting a wrap at the screen edge.
+   *
+   * @return change in x-position.
+   */
+ public double getMotionX() {
+  return this.x - this.prevX;
+ }
+
+  /**
+   * Returns how far the object moved along y in the last advance, not
+   * counting a wrap at the screen edge.
+   *
+   * @return change in y-position.
+   */
+ public double getMotionY() {
+  return this.y - this.prevY;
+ }
+
  public void init() {}
 
+  /**
+   * Returns the number of bytes writeState() writes.
+   *
+   * @return state size in bytes.
+   */
+ public int getStateSize() {
+  return 1 + 9 * 8;
+ }
+
+  /**
+   * Write the motion state of this object: active flag, position, angle,
+   * their deltas and the state before the last advance. The shape is not
+   * written, it is the same for every object of a kind.
+   *
+   * @param out buffer to write to.
+   */
+ public void writeState(ByteBuffer out) {
+  out.put((byte) (this.isActive ? 1 : 0));
+  out.putDouble(this.x);
+  out.putDouble(this.y);
+  out.putDouble(this.angle);
+  out.putDouble(this.deltaX);
+  out.putDouble(this.deltaY);
+  out.putDouble(this.deltaAngle);
+  out.putDouble(this.prevX);
+  out.putDouble(this.prevY);
+  out.putDouble(this.prevAngle);
+ }
+
+  /**
+   * Restore a state written by writeState() and render the object there.
+   *
+   * @param in buffer to read from.
+   */
+ public void readState(ByteBuffer in) {
+  this.isActive = in.get() != 0;
+  this.x = in.getDouble();
+  this.y = in.getDouble();
+  this.angle = in.getDouble();
+  this.deltaX = in.getDouble();
+  this.deltaY = in.getDouble();
+  this.deltaAngle = in.getDouble();
+  this.prevX = in.getDouble();
+  this.prevY = in.getDouble();
+  this.prevAngle = in.getDouble();
+  render();
+ }
+
+  /**
+   * Place this object at the same position and angle as another object,
+   * including its previous position so both interpolate the same way.
+   *
+   * @param asteroidSprite object to follow.
+   */
+ public void follow(AsteroidSprite asteroidSprite) {
+  this.x = asteroidSprite.x;
+  this.y = asteroidSprite.y;
+  this.angle = asteroidSprite.angle;
+  this.prevX = asteroidSprite.prevX;
+  this.prevY = asteroidSprite.prevY;
+  this.prevAngle = asteroidSprite.prevAngle;
+ }
+
   /**
    * Control method on how each game object should move on the screen.
    * If the object goes off the screen, it gets wrapped on the opposite side
@@ -227,6 +337,10 @@ public abstract class AsteroidSprite {
  public boolean advance() {
   boolean wrapped;
 
+  this.prevX = this.x;
+  this.prevY = this.y;
+  this.prevAngle = this.angle;
+
   this.angle += this.deltaAngle;
 
   if (this.angle < 0) this.angle += 2 * Math.PI;
@@ -235,23 +349,27 @@ public abstract class AsteroidSprite {
   wrapped = false;
   this.x += this.deltaX;
 
-  if (this.x < (double) -width / 2) {
-   this.x += width;
+  if (this.x < (double) -WORLD_WIDTH / 2) {
+   this.x += WORLD_WIDTH;
+   this.prevX += WORLD_WIDTH;
    wrapped = true;
   }
-  if (this.x > (double) width / 2) {
-   this.x -= width;
+  if (this.x > (double) WORLD_WIDTH / 2) {
+   this.x -= WORLD_WIDTH;
+   this.prevX -= WORLD_WIDTH;
    wrapped = true;
   }
 
   this.y -= this.deltaY;
-  if (this.y < (double) -height / 2) {
-   this.y += height;
+  if (this.y < (double) -WORLD_HEIGHT / 2) {
+   this.y += WORLD_HEIGHT;
+   this.prevY += WORLD_HEIGHT;
    wrapped = true;
   }
 
-  if (this.y > (double) height / 2) {
-   this.y -= height;
+  if (this.y > (double) WORLD_HEIGHT / 2) {
+   this.y -= WORLD_HEIGHT;
+   this.prevY -= WORLD_HEIGHT;
    wrapped = true;
   }
 
@@ -261,40 +379,121 @@ public abstract class AsteroidSprite {
   /**
    * Render(draw) an object on the screen.
    * An object has sprites which can be adjusted to give
-   * whatever shape to an object.
+   * whatever shape to an object. The sprite polygon and its vertex arrays
+   * are reused, and nothing is done if the object has not moved, turned or
+   * changed shape since the last call.
    */
  public void render() {
-  int i;
+  int n = this.shape.npoints;
 
-  this.sprite = new Polygon();
-  for (i = 0; i < this.shape.npoints; i++) {
-   this.sprite.addPoint(
-     (int) Math.round(this.shape.xpoints[i] * Math.cos(this.angle) + this.shape.ypoints[i] * Math.sin(this.angle)) + (int) Math.round(this.x) + width / 2,
-       (int) Math.round(this.shape.ypoints[i] * Math.cos(this.angle) - this.shape.xpoints[i] * Math.sin(this.angle)) + (int) Math.round(this.y) + height / 2);
+  if (rendered && this.x == renderedX && this.y == renderedY && this.angle == renderedAngle
+      && this.shape == renderedShape && n == renderedPoints)
+   return;
+
+  transform(this.sprite, this.x, this.y, this.angle);
+
+  minX = minY = Integer.MAX_VALUE;
+  maxX = maxY = Integer.MIN_VALUE;
+  for (int i = 0; i < n; i++) {
+   minX = Math.min(minX, this.sprite.xpoints[i]);
+   maxX = Math.max(maxX, this.sprite.xpoints[i]);
+   minY = Math.min(minY, this.sprite.ypoints[i]);
+   maxY = Math.max(maxY, this.sprite.ypoints[i]);
   }
+
+  rendered = true;
+  renderedX = this.x;
+  renderedY = this.y;
+  renderedAngle = this.angle;
+  renderedShape = this.shape;
+  renderedPoints = n;
  }
 
   /**
-   * Check whether an object is colliding with this object when
-   * on the screen.
+   * Render the object into its view at a point between the previous and the
+   * current tick. An alpha of 0 draws the previous state, 1 the current one.
    *
-   * @param asteroidSprite sprite(another object).
-   * @return boolean.
+   * @param alpha fraction of a tick since the current state was computed.
    */
- public boolean isColliding(AsteroidSprite asteroidSprite) {
+ public void renderInterpolated(double alpha) {
+  double a, ix, iy, da;
+
+  da = this.angle - this.prevAngle;
+  if (da > Math.PI) da -= 2 * Math.PI;
+  if (da < -Math.PI) da += 2 * Math.PI;
+
+  a = this.prevAngle + da * alpha;
+  ix = this.prevX + (this.x - this.prevX) * alpha;
+  iy = this.prevY + (this.y - this.prevY) * alpha;
+
+  transform(this.view, ix, iy, a);
+ }
+
+  /**
+   * Rotate and move the base shape into the given polygon, reusing its
+   * vertex arrays. Sine and cosine are computed once for all vertices.
+   */
+ private void transform(Polygon target, double px, double py, double a) {
   int i;
+  int n = this.shape.npoints;
+  double cos = FastMath.cos(a);
+  double sin = FastMath.sin(a);
+  int ox = (int) Math.round(px) + WORLD_WIDTH / 2;
+  int oy = (int) Math.round(py) + WORLD_HEIGHT / 2;
+
+  if (target.xpoints.length < n) {
+   target.xpoints = new int[n];
+   target.ypoints = new int[n];
+  }
 
-  for (i = 0; i < asteroidSprite.sprite.npoints; i++) {
-   if (this.sprite.contains(asteroidSprite.sprite.xpoints[i], asteroidSprite.sprite.ypoints[i])) {
-    return true;
-   }
+  for (i = 0; i < n; i++) {
+   target.xpoints[i] = (int) Math.round(this.shape.xpoints[i] * cos + this.shape.ypoints[i] * sin) + ox;
+   target.ypoints[i] = (int) Math.round(this.shape.ypoints[i] * cos - this.shape.xpoints[i] * sin) + oy;
   }
 
-  for (i = 0; i < this.sprite.npoints; i++) {
-   if (asteroidSprite.sprite.contains(this.sprite.xpoints[i], this.sprite.ypoints[i]))
-    return true;
+  target.npoints = n;
+  target.invalidate();
+ }
+
+  /**
+   * Returns the collision geometry of the base shape, rebuilding it if the
+   * shape has been replaced or has gained vertices since the last call.
+   *
+   * @return collision shape.
+   */
+ public CollisionShape getHull() {
+  if (this.shape != hullShape || this.shape.npoints != hullPoints) {
+   hull.set(this.shape);
+   hullShape = this.shape;
+   hullPoints = this.shape.npoints;
   }
+  return hull;
+ }
+
+  /**
+   * Check whether an object is colliding with this object when
+   * on the screen. Objects whose bounding circles do not touch are rejected
+   * first, the rest get a separating axis test on their convex pieces.
+   *
+   * @param asteroidSprite sprite(another object).
+   * @return boolean.
+   */
+ public boolean isColliding(AsteroidSprite asteroidSprite) {
+  return getHull().intersects(this.x, this.y, this.angle,
+    asteroidSprite.getHull(), asteroidSprite.x, asteroidSprite.y, asteroidSprite.angle);
+ }
 
-  return false;
+  /**
+   * Check whether a fast object, such as a bullet or a missile, hit this
+   * object anywhere along its last move rather than only where it ended up,
+   * so it cannot pass through this object between two ticks.
+   *
+   * @param asteroidSprite moving object.
+   * @return boolean.
+   */
+ public boolean isSweptColliding(AsteroidSprite asteroidSprite) {
+  return getHull().intersects(this.x, this.y, this.angle,
+    asteroidSprite.getHull(), asteroidSprite.x, asteroidSprite.y, asteroidSprite.angle,
+    asteroidSprite.getMotionX() - this.getMotionX(), asteroidSprite.getMotionY() - this.getMotionY());
  }
 }
\ No newline at end of file
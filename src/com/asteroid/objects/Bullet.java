@@ -5,6 +5,9 @@ package com.asteroid.objects;
  */
 public class Bullet extends AsteroidSprite {
 
+  int id;      // Slot in the bullet pool of the ship.
+  long shot;   // Number of the shot that fired this bullet.
+
   Bullet() {
     this.getShape().addPoint(1, 1);
     this.getShape().addPoint(1, -1);
@@ -0,0 +1,348 @@
+package com.asteroid.objects;
+
+import java.awt.*;
+
+import com.asteroid.FastMath;
+
+/**
+ * Collision geometry of a sprite shape, kept in floating point model space.
+ * The shape carries its bounding radius and a decomposition into convex
+ * pieces (triangles from ear clipping), so two shapes are tested with a cheap
+ * circle reject followed by a separating axis test between their pieces.
+ * Shapes that are not simple polygons fall back to their convex hull.
+ *
+ * Vertex and triangle arrays are reused, so setting a new shape only
+ * allocates when it has more vertices than any shape before it.
+ */
+public class CollisionShape {
+
+  private float[] vx = new float[16];     // Model space vertices.
+  private float[] vy = new float[16];
+  private int count;                      // Number of vertices.
+  private int[] triangles = new int[42];  // Vertex indices, 3 per piece.
+  private int triangleCount;
+  private float[] box = new float[56];    // Bounds of each piece, 4 per piece.
+  private float radius;                   // Largest distance from the origin.
+
+  // scratch used while decomposing
+  private int[] remaining = new int[16];
+
+  public int getVertexCount() {
+    return count;
+  }
+
+  public int getTriangleCount() {
+    return triangleCount;
+  }
+
+  public float getRadius() {
+    return radius;
+  }
+
+  /**
+   * Set the shape from a polygon centered at the origin.
+   *
+   * @param polygon base shape of a sprite.
+   */
+  public void set(Polygon polygon) {
+    ensureCapacity(polygon.npoints);
+    for (int i = 0; i < polygon.npoints; i++) {
+      vx[i] = polygon.xpoints[i];
+      vy[i] = polygon.ypoints[i];
+    }
+    count = polygon.npoints;
+    build();
+  }
+
+  /**
+   * Set the shape from packed x, y pairs.
+   *
+   * @param vertices packed vertex buffer.
+   * @param offset index of the first x-coordinate.
+   * @param n number of vertices.
+   */
+  public void set(float[] vertices, int offset, int n) {
+    ensureCapacity(n);
+    for (int i = 0; i < n; i++) {
+      vx[i] = vertices[offset + i * 2];
+      vy[i] = vertices[offset + i * 2 + 1];
+    }
+    count = n;
+    build();
+  }
+
+  private void ensureCapacity(int n) {
+    if (vx.length >= n) return;
+
+    vx = new float[n];
+    vy = new float[n];
+    remaining = new int[n];
+    triangles = new int[Math.max(3, (n - 2) * 3)];
+    box = new float[Math.max(4, (n - 2) * 4)];
+  }
+
+  /**
+   * Work out the bounding radius and the convex pieces of the shape.
+   */
+  private void build() {
+    float r = 0;
+
+    for (int i = 0; i < count; i++)
+      r = Math.max(r, vx[i] * vx[i] + vy[i] * vy[i]);
+    radius = (float) Math.sqrt(r);
+
+    triangleCount = 0;
+    if (count < 3) return;
+    if (!triangulate()) convexHull();
+
+    for (int t = 0; t < triangleCount; t++) {
+      int a = triangles[t * 3], b = triangles[t * 3 + 1], c = triangles[t * 3 + 2];
+      box[t * 4] = Math.min(vx[a], Math.min(vx[b], vx[c]));
+      box[t * 4 + 1] = Math.min(vy[a], Math.min(vy[b], vy[c]));
+      box[t * 4 + 2] = Math.max(vx[a], Math.max(vx[b], vx[c]));
+      box[t * 4 + 3] = Math.max(vy[a], Math.max(vy[b], vy[c]));
+    }
+  }
+
+  /**
+   * Split the polygon into triangles by ear clipping.
+   *
+   * @return false if the polygon is not simple and no ear could be found.
+   */
+  private boolean triangulate() {
+    int n = count;
+    int i, prev, next, guard;
+    float sign = signedArea() >= 0 ? 1 : -1;
+
+    for (i = 0; i < n; i++) remaining[i] = i;
+
+    i = 0;
+    guard = 0;
+    while (n > 3) {
+      prev = remaining[(i + n - 1) % n];
+      next = remaining[(i + 1) % n];
+
+      if (isEar(prev, remaining[i], next, n, sign)) {
+        addTriangle(prev, remaining[i], next);
+        System.arraycopy(remaining, i + 1, remaining, i, n - i - 1);
+        n--;
+        guard = 0;
+        if (i >= n) i = 0;
+      }
+      else {
+        i = (i + 1) % n;
+        if (++guard > n) {
+          triangleCount = 0;
+          return false;
+        }
+      }
+    }
+
+    addTriangle(remaining[0], remaining[1], remaining[2]);
+    return true;
+  }
+
+  private boolean isEar(int a, int b, int c, int n, float sign) {
+    float cross = cross(a, b, c) * sign;
+
+    if (cross <= 0) return false;
+
+    // No other remaining vertex may lie inside the ear.
+    for (int k = 0; k < n; k++) {
+      int p = remaining[k];
+      if (p == a || p == b || p == c) continue;
+      if (cross(a, b, p) * sign >= 0 && cross(b, c, p) * sign >= 0 && cross(c, a, p) * sign >= 0)
+        return false;
+    }
+
+    return true;
+  }
+
+  /**
+   * Replace the pieces with the convex hull of all vertices, fanned into
+   * triangles. Used for shapes whose outline crosses itself.
+   */
+  private void convexHull() {
+    int i, k, h, start, best;
+
+    // Gift wrapping, starting from the lowest, leftmost vertex.
+    start = 0;
+    for (i = 1; i < count; i++)
+      if (vx[i] < vx[start] || (vx[i] == vx[start] && vy[i] < vy[start])) start = i;
+
+    h = 0;
+    k = start;
+    do {
+      remaining[h++] = k;
+      best = (k + 1) % count;
+      for (i = 0; i < count; i++)
+        if (cross(k, best, i) < 0) best = i;
+      k = best;
+    } while (k != start && h < count);
+
+    triangleCount = 0;
+    for (i = 1; i + 1 < h; i++) addTriangle(remaining[0], remaining[i], remaining[i + 1]);
+  }
+
+  private void addTriangle(int a, int b, int c) {
+    triangles[triangleCount * 3] = a;
+    triangles[triangleCount * 3 + 1] = b;
+    triangles[triangleCount * 3 + 2] = c;
+    triangleCount++;
+  }
+
+  private float signedArea() {
+    float area = 0;
+
+    for (int i = 0, j = count - 1; i < count; j = i++)
+      area += vx[j] * vy[i] - vx[i] * vy[j];
+
+    return area;
+  }
+
+  private float cross(int a, int b, int c) {
+    return (vx[b] - vx[a]) * (vy[c] - vy[a]) - (vy[b] - vy[a]) * (vx[c] - vx[a]);
+  }
+
+  /**
+   * Check whether this shape, placed at one pose, overlaps another shape at
+   * another pose. Positions are the sprite x, y values and angles follow the
+   * rotation used by AsteroidSprite.render().
+   *
+   * @param x x-position of this shape.
+   * @param y y-position of this shape.
+   * @param angle angle of this shape.
+   * @param other the other shape.
+   * @param ox x-position of the other shape.
+   * @param oy y-position of the other shape.
+   * @param oAngle angle of the other shape.
+   * @return boolean.
+   */
+  public boolean intersects(double x, double y, double angle,
+                            CollisionShape other, double ox, double oy, double oAngle) {
+    return intersects(x, y, angle, other, ox, oy, oAngle, 0, 0);
+  }
+
+  /**
+   * Check whether another shape touches this one at any point of its last
+   * move. The other shape slides in a straight line from (ox - mx, oy - my)
+   * to (ox, oy) while this shape stays put, so the motion must be given
+   * relative to this shape. Each convex piece of the other shape sweeps out
+   * a convex area, which gets the same separating axis test as a resting
+   * piece plus one more axis across the direction of motion. Both shapes
+   * keep their final angles for the whole move.
+   *
+   * @param x x-position of this shape.
+   * @param y y-position of this shape.
+   * @param angle angle of this shape.
+   * @param other the other shape.
+   * @param ox final x-position of the other shape.
+   * @param oy final y-position of the other shape.
+   * @param oAngle angle of the other shape.
+   * @param mx x-distance the other shape moved relative to this one.
+   * @param my y-distance the other shape moved relative to this one.
+   * @return boolean.
+   */
+  public boolean intersects(double x, double y, double angle,
+                            CollisionShape other, double ox, double oy, double oAngle,
+                            double mx, double my) {
+    double dx = ox - x;
+    double dy = oy - y;
+    double reach = radius + other.radius;
+    double cos, sin, tx, ty, t, lengthSq;
+    float rc, rs, sx, sy;
+    float bx0, by0, bx1, by1, bx2, by2;
+    float minX, minY, maxX, maxY;
+    int i, j, a, b, c;
+
+    // Bounding circles, using the point of the move closest to this shape.
+    lengthSq = mx * mx + my * my;
+    if (lengthSq > 0) {
+      t = Math.max(0, Math.min(1, (dx * mx + dy * my) / lengthSq));
+      if ((dx - t * mx) * (dx - t * mx) + (dy - t * my) * (dy - t * my) > reach * reach) return false;
+    }
+    else if (dx * dx + dy * dy > reach * reach) return false;
+    if (triangleCount == 0 || other.triangleCount == 0) return false;
+
+    // Work in the model space of this shape: the other shape is turned by
+    // the difference of the angles and moved by the offset rotated back.
+    cos = FastMath.cos(angle);
+    sin = FastMath.sin(angle);
+    tx = dx * cos - dy * sin;
+    ty = dx * sin + dy * cos;
+    sx = (float) (mx * cos - my * sin);
+    sy = (float) (mx * sin + my * cos);
+    rc = (float) FastMath.cos(oAngle - angle);
+    rs = (float) FastMath.sin(oAngle - angle);
+
+    for (j = 0; j < other.triangleCount; j++) {
+      a = other.triangles[j * 3];
+      b = other.triangles[j * 3 + 1];
+      c = other.triangles[j * 3 + 2];
+      bx0 = other.vx[a] * rc + other.vy[a] * rs + (float) tx;
+      by0 = other.vy[a] * rc - other.vx[a] * rs + (float) ty;
+      bx1 = other.vx[b] * rc + other.vy[b] * rs + (float) tx;
+      by1 = other.vy[b] * rc - other.vx[b] * rs + (float) ty;
+      bx2 = other.vx[c] * rc + other.vy[c] * rs + (float) tx;
+      by2 = other.vy[c] * rc - other.vx[c] * rs + (float) ty;
+      minX = Math.min(bx0, Math.min(bx1, bx2)) - Math.max(0, sx);
+      minY = Math.min(by0, Math.min(by1, by2)) - Math.max(0, sy);
+      maxX = Math.max(bx0, Math.max(bx1, bx2)) - Math.min(0, sx);
+      maxY = Math.max(by0, Math.max(by1, by2)) - Math.min(0, sy);
+
+      for (i = 0; i < triangleCount; i++) {
+        // Pieces whose bounds are apart cannot overlap.
+        if (maxX < box[i * 4] || box[i * 4 + 2] < minX
+            || maxY < box[i * 4 + 1] || box[i * 4 + 3] < minY)
+          continue;
+
+        a = triangles[i * 3];
+        b = triangles[i * 3 + 1];
+        c = triangles[i * 3 + 2];
+        if (trianglesOverlap(vx[a], vy[a], vx[b], vy[b], vx[c], vy[c],
+            bx0, by0, bx1, by1, bx2, by2, sx, sy))
+          return true;
+      }
+    }
+
+    return false;
+  }
+
+  /**
+   * Separating axis test between a triangle and a second triangle swept
+   * back along (sx, sy): they overlap unless the normal of one of the six
+   * edges, or the normal of the sweep, separates them.
+   */
+  private static boolean trianglesOverlap(float ax0, float ay0, float ax1, float ay1, float ax2, float ay2,
+                                          float bx0, float by0, float bx1, float by1, float bx2, float by2,
+                                          float sx, float sy) {
+    return !separates(ay1 - ay0, ax0 - ax1, ax0, ay0, ax1, ay1, ax2, ay2, bx0, by0, bx1, by1, bx2, by2, sx, sy)
+        && !separates(ay2 - ay1, ax1 - ax2, ax0, ay0, ax1, ay1, ax2, ay2, bx0, by0, bx1, by1, bx2, by2, sx, sy)
+        && !separates(ay0 - ay2, ax2 - ax0, ax0, ay0, ax1, ay1, ax2, ay2, bx0, by0, bx1, by1, bx2, by2, sx, sy)
+        && !separates(by1 - by0, bx0 - bx1, ax0, ay0, ax1, ay1, ax2, ay2, bx0, by0, bx1, by1, bx2, by2, sx, sy)
+        && !separates(by2 - by1, bx1 - bx2, ax0, ay0, ax1, ay1, ax2, ay2, bx0, by0, bx1, by1, bx2, by2, sx, sy)
+        && !separates(by0 - by2, bx2 - bx0, ax0, ay0, ax1, ay1, ax2, ay2, bx0, by0, bx1, by1, bx2, by2, sx, sy)
+        && (sx == 0 && sy == 0
+            || !separates(sy, -sx, ax0, ay0, ax1, ay1, ax2, ay2, bx0, by0, bx1, by1, bx2, by2, sx, sy));
+  }
+
+  /**
+   * Check whether the projections of two triangles onto an axis are apart.
+   * The projection of the second triangle is stretched back by the sweep.
+   */
+  private static boolean separates(float nx, float ny,
+                                   float ax0, float ay0, float ax1, float ay1, float ax2, float ay2,
+                                   float bx0, float by0, float bx1, float by1, float bx2, float by2,
+                                   float sx, float sy) {
+    float a0 = ax0 * nx + ay0 * ny;
+    float a1 = ax1 * nx + ay1 * ny;
+    float a2 = ax2 * nx + ay2 * ny;
+    float b0 = bx0 * nx + by0 * ny;
+    float b1 = bx1 * nx + by1 * ny;
+    float b2 = bx2 * nx + by2 * ny;
+    float shift = sx * nx + sy * ny;
+
+    return Math.max(a0, Math.max(a1, a2)) < Math.min(b0, Math.min(b1, b2)) - Math.max(0, shift)
+        || Math.max(b0, Math.max(b1, b2)) - Math.min(0, shift) < Math.min(a0, Math.min(a1, a2));
+  }
+}
\ No newline at end of file
@@ -0,0 +1,219 @@
+package com.asteroid.objects;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Hands out entity ids from a free list and keeps the ids in use in a dense
+ * list, so acquiring and releasing an id are O(1) and update loops only visit
+ * live entities.
+ *
+ * The pool starts with a given capacity and doubles whenever it runs out of
+ * free ids, up to a maximum capacity. Owners of per-id data grow their own
+ * arrays when getCapacity() goes up. Once the maximum is reached acquire()
+ * refuses further ids, which is counted as pool pressure.
+ *
+ * Free ids are reused last in, first out and a fresh pool hands out ids in
+ * ascending order, so the same calls always give the same ids. The order of
+ * both lists is part of the saved state for that reason.
+ */
+public class EntityPool {
+
+  private final int maxCapacity;  // Capacity the pool never grows past.
+  private int capacity;           // Number of ids currently available.
+
+  private int[] free;             // Stack of unused ids.
+  private int freeCount;
+  private int[] dense;            // Ids in use, in no particular order.
+  private int[] slot;             // Index of each id in dense, -1 if unused.
+  private int activeCount;
+
+  // pool pressure metrics
+  private int peak;               // Most ids in use at once.
+  private int growCount;          // Number of times the pool has grown.
+  private long refusedCount;      // Calls to acquire() that found no free id.
+
+  /**
+   * Create a pool.
+   *
+   * @param capacity number of ids to start with.
+   * @param maxCapacity largest number of ids, equal to capacity for a pool
+   *                    that never grows.
+   */
+  public EntityPool(int capacity, int maxCapacity) {
+    if (capacity < 1 || maxCapacity < capacity)
+      throw new IllegalArgumentException("bad pool capacity: " + capacity + ", " + maxCapacity);
+
+    this.maxCapacity = maxCapacity;
+    this.free = new int[0];
+    this.dense = new int[0];
+    this.slot = new int[0];
+    resize(capacity);
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getMaxCapacity() {
+    return maxCapacity;
+  }
+
+  public int getActiveCount() {
+    return activeCount;
+  }
+
+  /**
+   * Returns an id in use, for iterating over the live entities. Releasing an
+   * id moves the last id of the dense list into its place, so loops that
+   * release ids should run backwards.
+   *
+   * @param index position in the dense list, below getActiveCount().
+   * @return entity id.
+   */
+  public int getActive(int index) {
+    return dense[index];
+  }
+
+  public boolean isActive(int id) {
+    return slot[id] >= 0;
+  }
+
+  public int getPeak() {
+    return peak;
+  }
+
+  public int getGrowCount() {
+    return growCount;
+  }
+
+  public long getRefusedCount() {
+    return refusedCount;
+  }
+
+  /**
+   * Take an unused id, growing the pool if none is left.
+   *
+   * @return the id, or -1 if the pool is full at its maximum capacity.
+   */
+  public int acquire() {
+    int id;
+
+    if (freeCount == 0) {
+      if (capacity >= maxCapacity) {
+        refusedCount++;
+        return -1;
+      }
+      resize((int) Math.min(maxCapacity, 2L * capacity));
+      growCount++;
+    }
+
+    id = free[--freeCount];
+    slot[id] = activeCount;
+    dense[activeCount++] = id;
+    if (activeCount > peak) peak = activeCount;
+
+    return id;
+  }
+
+  /**
+   * Return an id to the pool. Releasing an unused id does nothing.
+   *
+   * @param id entity id.
+   */
+  public void release(int id) {
+    int index = slot[id];
+    int last;
+
+    if (index < 0) return;
+
+    last = dense[--activeCount];
+    dense[index] = last;
+    slot[last] = index;
+    slot[id] = -1;
+    free[freeCount++] = id;
+  }
+
+  /**
+   * Release every id. Afterwards ids are handed out in ascending order again.
+   */
+  public void clear() {
+    activeCount = 0;
+    freeCount = 0;
+    Arrays.fill(slot, -1);
+    for (int id = capacity - 1; id >= 0; id--) free[freeCount++] = id;
+  }
+
+  /**
+   * Returns the number of bytes writeState() writes.
+   *
+   * @return state size in bytes.
+   */
+  public int getStateSize() {
+    return 12 + 4 * (freeCount + activeCount);
+  }
+
+  /**
+   * Write the capacity, the free list and the list of ids in use. The usage
+   * metrics are not part of the state.
+   *
+   * @param out buffer to write to.
+   */
+  public void writeState(ByteBuffer out) {
+    out.putInt(capacity);
+    out.putInt(freeCount);
+    for (int k = 0; k < freeCount; k++) out.putInt(free[k]);
+    out.putInt(activeCount);
+    for (int k = 0; k < activeCount; k++) out.putInt(dense[k]);
+  }
+
+  /**
+   * Restore a state written by writeState(). The pool takes the saved
+   * capacity, so ids are handed out exactly as they were when it was saved.
+   *
+   * @param in buffer to read from.
+   */
+  public void readState(ByteBuffer in) {
+    int n = in.getInt();
+
+    if (n < 1 || n > maxCapacity)
+      throw new IllegalArgumentException("bad pool capacity in state: " + n);
+
+    if (n != capacity) {
+      free = Arrays.copyOf(free, n);
+      dense = Arrays.copyOf(dense, n);
+      slot = Arrays.copyOf(slot, n);
+      capacity = n;
+    }
+
+    Arrays.fill(slot, -1);
+    freeCount = in.getInt();
+    for (int k = 0; k < freeCount; k++) free[k] = in.getInt();
+    activeCount = in.getInt();
+    for (int k = 0; k < activeCount; k++) {
+      dense[k] = in.getInt();
+      slot[dense[k]] = k;
+    }
+    if (activeCount > peak) peak = activeCount;
+  }
+
+  /**
+   * Make room for more ids. The new ids go under the existing free ones so
+   * they are handed out in ascending order once the old ones are used up.
+   */
+  private void resize(int newCapacity) {
+    int added = newCapacity - capacity;
+
+    free = Arrays.copyOf(free, newCapacity);
+    dense = Arrays.copyOf(dense, newCapacity);
+    slot = Arrays.copyOf(slot, newCapacity);
+
+    System.arraycopy(free, 0, free, added, freeCount);
+    for (int k = 0; k < added; k++) {
+      free[k] = newCapacity - 1 - k;
+      slot[capacity + k] = -1;
+    }
+    freeCount += added;
+    capacity = newCapacity;
+  }
+}
\ No newline at end of file
@@ -1,7 +0,0 @@
-package com.asteroid.objects;
-
-/**
- * Explosion object.
- * This object comes into play when an Asteroid is hit by a bullet from a Ship.
- */
-public class Explosion extends AsteroidSprite {}
\ No newline at end of file
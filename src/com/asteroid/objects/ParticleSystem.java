@@ -0,0 +1,400 @@
+package com.asteroid.objects;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.asteroid.Constants;
+import com.asteroid.FastMath;
+import com.asteroid.Parallel;
+
+/**
+ * Explosion debris, kept as a struct of float arrays. Each particle is a
+ * short spinning line segment that drifts, wraps at the screen edges and
+ * fades out over its lifetime.
+ *
+ * Particles are anonymous, so the arrays are kept packed: a dead particle is
+ * replaced by the last one and every loop walks indexes 0 to count - 1. The
+ * arrays double when full, up to a maximum capacity; particles emitted past
+ * that are dropped and counted.
+ *
+ * Updating moves every particle on its own and then removes the dead ones
+ * in index order, so the move can be split across threads with Parallel
+ * and still leave the arrays exactly as a single thread would.
+ *
+ * For drawing, render() turns every particle into screen coordinates grouped
+ * by fade level, so a renderer sets each color once and draws the whole
+ * group.
+ */
+public class ParticleSystem {
+
+  private final int maxCapacity;   // Capacity the arrays never grow past.
+  private int capacity;
+  private int count;               // Number of live particles.
+
+  private float[] x, y;            // Center of the segment.
+  private float[] deltaX, deltaY;  // Amount to change the position.
+  private float[] angle;           // Current angle of rotation.
+  private float[] deltaAngle;      // Amount to change the angle.
+  private float[] prevX, prevY;    // State before the last update,
+  private float[] prevAngle;       // for interpolation.
+  private float[] halfX, halfY;    // Half of the segment, unrotated.
+  private int[] life;              // Ticks left to live.
+
+  // render output, packed by fade level
+  private int[] x0 = new int[0], y0 = new int[0], x1 = new int[0], y1 = new int[0];
+  private int[] level = new int[0];
+
+  private final Parallel.RangeTask moveRange = this::moveRange;
+
+  // usage metrics
+  private int peak;
+  private int growCount;
+  private long droppedCount;
+
+  /**
+   * Create a particle system.
+   *
+   * @param capacity number of particles to make room for up front.
+   * @param maxCapacity most particles that can be alive at once.
+   */
+  public ParticleSystem(int capacity, int maxCapacity) {
+    if (capacity < 1 || maxCapacity < capacity)
+      throw new IllegalArgumentException("bad particle capacity: " + capacity + ", " + maxCapacity);
+
+    this.maxCapacity = maxCapacity;
+    x = new float[0];
+    y = new float[0];
+    deltaX = new float[0];
+    deltaY = new float[0];
+    angle = new float[0];
+    deltaAngle = new float[0];
+    prevX = new float[0];
+    prevY = new float[0];
+    prevAngle = new float[0];
+    halfX = new float[0];
+    halfY = new float[0];
+    life = new int[0];
+    resize(capacity);
+  }
+
+  private void resize(int n) {
+    x = Arrays.copyOf(x, n);
+    y = Arrays.copyOf(y, n);
+    deltaX = Arrays.copyOf(deltaX, n);
+    deltaY = Arrays.copyOf(deltaY, n);
+    angle = Arrays.copyOf(angle, n);
+    deltaAngle = Arrays.copyOf(deltaAngle, n);
+    prevX = Arrays.copyOf(prevX, n);
+    prevY = Arrays.copyOf(prevY, n);
+    prevAngle = Arrays.copyOf(prevAngle, n);
+    halfX = Arrays.copyOf(halfX, n);
+    halfY = Arrays.copyOf(halfY, n);
+    life = Arrays.copyOf(life, n);
+    capacity = n;
+  }
+
+  public int getCount() {
+    return count;
+  }
+
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getMaxCapacity() {
+    return maxCapacity;
+  }
+
+  public int getPeak() {
+    return peak;
+  }
+
+  public int getGrowCount() {
+    return growCount;
+  }
+
+  public long getDroppedCount() {
+    return droppedCount;
+  }
+
+  public float getX(int index) {
+    return x[index];
+  }
+
+  public float getY(int index) {
+    return y[index];
+  }
+
+  public int getLife(int index) {
+    return life[index];
+  }
+
+  /**
+   * Add a particle.
+   *
+   * @param x x-position of the segment center.
+   * @param y y-position of the segment center.
+   * @param deltaX amount to change the x-position each tick.
+   * @param deltaY amount to change the y-position each tick.
+   * @param angle starting angle.
+   * @param deltaAngle amount to change the angle each tick.
+   * @param halfX x-coordinate of one end of the segment, relative to its center.
+   * @param halfY y-coordinate of one end of the segment, relative to its center.
+   * @param ticks number of ticks the particle lives.
+   * @return false if the particle was dropped because the system is full.
+   */
+  public boolean emit(double x, double y, double deltaX, double deltaY,
+                      double angle, double deltaAngle, float halfX, float halfY, int ticks) {
+    int i = count;
+
+    if (i == capacity) {
+      if (capacity >= maxCapacity) {
+        droppedCount++;
+        return false;
+      }
+      resize((int) Math.min(maxCapacity, 2L * capacity));
+      growCount++;
+    }
+
+    this.x[i] = this.prevX[i] = (float) x;
+    this.y[i] = this.prevY[i] = (float) y;
+    this.deltaX[i] = (float) deltaX;
+    this.deltaY[i] = (float) deltaY;
+    this.angle[i] = this.prevAngle[i] = (float) angle;
+    this.deltaAngle[i] = (float) deltaAngle;
+    this.halfX[i] = halfX;
+    this.halfY[i] = halfY;
+    this.life[i] = ticks;
+
+    count = i + 1;
+    if (count > peak) peak = count;
+
+    return true;
+  }
+
+  /**
+   * Remove every particle.
+   */
+  public void clear() {
+    count = 0;
+  }
+
+  /**
+   * Returns the number of bytes writeState() writes.
+   *
+   * @return state size in bytes.
+   */
+  public int getStateSize() {
+    return 4 + count * (11 * 4 + 4);
+  }
+
+  /**
+   * Write every live particle, in index order.
+   *
+   * @param out buffer to write to.
+   */
+  public void writeState(ByteBuffer out) {
+    out.putInt(count);
+    for (int i = 0; i < count; i++) {
+      out.putFloat(x[i]);
+      out.putFloat(y[i]);
+      out.putFloat(angle[i]);
+      out.putFloat(deltaX[i]);
+      out.putFloat(deltaY[i]);
+      out.putFloat(deltaAngle[i]);
+      out.putFloat(prevX[i]);
+      out.putFloat(prevY[i]);
+      out.putFloat(prevAngle[i]);
+      out.putFloat(halfX[i]);
+      out.putFloat(halfY[i]);
+      out.putInt(life[i]);
+    }
+  }
+
+  /**
+   * Restore a state written by writeState(), growing the arrays if needed.
+   *
+   * @param in buffer to read from.
+   */
+  public void readState(ByteBuffer in) {
+    int n = in.getInt();
+
+    if (n < 0 || n > maxCapacity)
+      throw new IllegalArgumentException("bad particle count in state: " + n);
+
+    if (n > capacity) {
+      resize(Math.max(n, (int) Math.min(maxCapacity, 2L * capacity)));
+      growCount++;
+    }
+
+    for (int i = 0; i < n; i++) {
+      x[i] = in.getFloat();
+      y[i] = in.getFloat();
+      angle[i] = in.getFloat();
+      deltaX[i] = in.getFloat();
+      deltaY[i] = in.getFloat();
+      deltaAngle[i] = in.getFloat();
+      prevX[i] = in.getFloat();
+      prevY[i] = in.getFloat();
+      prevAngle[i] = in.getFloat();
+      halfX[i] = in.getFloat();
+      halfY[i] = in.getFloat();
+      life[i] = in.getInt();
+    }
+
+    count = n;
+    if (count > peak) peak = count;
+  }
+
+  /**
+   * Move every particle one tick, wrapping at the screen edges, and remove
+   * the ones whose lifetime has run out.
+   */
+  public void update() {
+    int i = 0;
+
+    Parallel.forRange(count, moveRange);
+
+    while (i < count) {
+      if (life[i] < 0) remove(i);
+      else i++;
+    }
+  }
+
+  private void moveRange(int from, int to) {
+    float width = Constants.WORLD_WIDTH;
+    float height = Constants.WORLD_HEIGHT;
+    float twoPi = (float) (2 * Math.PI);
+
+    for (int i = from; i < to; i++) {
+      life[i]--;
+
+      prevX[i] = x[i];
+      prevY[i] = y[i];
+      prevAngle[i] = angle[i];
+
+      angle[i] += deltaAngle[i];
+      if (angle[i] < 0) angle[i] += twoPi;
+      if (angle[i] > twoPi) angle[i] -= twoPi;
+
+      x[i] += deltaX[i];
+      if (x[i] < -width / 2) {
+        x[i] += width;
+        prevX[i] += width;
+      }
+      if (x[i] > width / 2) {
+        x[i] -= width;
+        prevX[i] -= width;
+      }
+
+      y[i] -= deltaY[i];
+      if (y[i] < -height / 2) {
+        y[i] += height;
+        prevY[i] += height;
+      }
+      if (y[i] > height / 2) {
+        y[i] -= height;
+        prevY[i] -= height;
+      }
+    }
+  }
+
+  /**
+   * Move the last particle into the place of a removed one.
+   */
+  private void remove(int i) {
+    int last = --count;
+
+    x[i] = x[last];
+    y[i] = y[last];
+    deltaX[i] = deltaX[last];
+    deltaY[i] = deltaY[last];
+    angle[i] = angle[last];
+    deltaAngle[i] = deltaAngle[last];
+    prevX[i] = prevX[last];
+    prevY[i] = prevY[last];
+    prevAngle[i] = prevAngle[last];
+    halfX[i] = halfX[last];
+    halfY[i] = halfY[last];
+    life[i] = life[last];
+  }
+
+  /**
+   * Transform every particle to screen coordinates between the previous and
+   * the current tick, grouped by fade level. The segments of level k are at
+   * indexes levelStart[k] to levelStart[k + 1] - 1 of the arrays returned by
+   * getX0() and friends. Level 0 is the dimmest.
+   *
+   * @param alpha fraction of a tick since the current state was computed.
+   * @param maxLife lifetime that maps to the brightest level.
+   * @param levelStart receives the first index of each level, must hold
+   *                   one more entry than the number of levels.
+   * @return number of segments written.
+   */
+  public int render(double alpha, int maxLife, int[] levelStart) {
+    int levels = levelStart.length - 1;
+    int ox = Constants.WORLD_WIDTH / 2;
+    int oy = Constants.WORLD_HEIGHT / 2;
+    int i, k, n = count;
+    float a = (float) alpha, da, ia, cx, cy, cos, sin, ex, ey;
+
+    if (x0.length < capacity) {
+      x0 = new int[capacity];
+      y0 = new int[capacity];
+      x1 = new int[capacity];
+      y1 = new int[capacity];
+      level = new int[capacity];
+    }
+
+    // Count the particles of each level, then turn counts into offsets.
+    Arrays.fill(levelStart, 0);
+    for (i = 0; i < n; i++) {
+      k = Math.max(0, Math.min(levels - 1, life[i] * levels / (maxLife + 1)));
+      level[i] = k;
+      levelStart[k + 1]++;
+    }
+    for (k = 0; k < levels; k++) levelStart[k + 1] += levelStart[k];
+
+    for (i = 0; i < n; i++) {
+      da = angle[i] - prevAngle[i];
+      if (da > Math.PI) da -= 2 * Math.PI;
+      if (da < -Math.PI) da += 2 * Math.PI;
+
+      ia = prevAngle[i] + da * a;
+      cx = prevX[i] + (x[i] - prevX[i]) * a + ox;
+      cy = prevY[i] + (y[i] - prevY[i]) * a + oy;
+      cos = (float) FastMath.cos(ia);
+      sin = (float) FastMath.sin(ia);
+      ex = halfX[i] * cos + halfY[i] * sin;
+      ey = halfY[i] * cos - halfX[i] * sin;
+
+      // levelStart[k] is used as the write position of level k and ends up
+      // at the start of level k + 1, it is shifted back below.
+      k = levelStart[level[i]]++;
+      x0[k] = Math.round(cx - ex);
+      y0[k] = Math.round(cy - ey);
+      x1[k] = Math.round(cx + ex);
+      y1[k] = Math.round(cy + ey);
+    }
+    for (k = levels; k > 0; k--) levelStart[k] = levelStart[k - 1];
+    levelStart[0] = 0;
+
+    return n;
+  }
+
+  public int[] getX0() {
+    return x0;
+  }
+
+  public int[] getY0() {
+    return y0;
+  }
+
+  public int[] getX1() {
+    return x1;
+  }
+
+  public int[] getY1() {
+    return y1;
+  }
+}
\ No newline at end of file
@@ -1,5 +1,7 @@
 package com.asteroid.objects;
 
+import java.nio.ByteBuffer;
+
 import com.asteroid.Constants;
 
 /**
@@ -10,6 +12,8 @@ import com.asteroid.Constants;
 public class Ship extends AsteroidSprite implements Constants {
   // local variables
   private Bullet[] bullets;
+  private EntityPool bulletPool;
+  private long shots;
   private Thruster fwdThruster;
   private Thruster revThruster;
 
@@ -19,8 +23,12 @@ public class Ship extends AsteroidSprite implements Constants {
     this.getShape().addPoint(-7, 10);
 
     // create bullets
+    bulletPool = new EntityPool(MAX_SHOTS, MAX_SHOTS);
     bullets = new Bullet[MAX_SHOTS];
-    for (int i = 0; i < MAX_SHOTS; i++) bullets[i] = new Bullet();
+    for (int i = 0; i < MAX_SHOTS; i++) {
+      bullets[i] = new Bullet();
+      bullets[i].id = i;
+    }
 
     // create shapes for the forward thrusters
     fwdThruster = new Thruster();
@@ -51,6 +59,76 @@ public class Ship extends AsteroidSprite implements Constants {
     return bullets[index];
   }
 
+  /**
+   * Returns the number of bullets currently on the screen.
+   *
+   * @return active bullet count.
+   */
+  public int getBulletCount() {
+    return bulletPool.getActiveCount();
+  }
+
+  /**
+   * Returns a bullet currently on the screen.
+   *
+   * @param index position in the list of active bullets, below
+   *              getBulletCount().
+   * @return a bullet object.
+   */
+  public Bullet getActiveBullet(int index) {
+    return bullets[bulletPool.getActive(index)];
+  }
+
+  /**
+   * Returns the pool the bullet slots come from, for its usage metrics.
+   *
+   * @return bullet pool.
+   */
+  public EntityPool getBulletPool() {
+    return bulletPool;
+  }
+
+  /**
+   * Take a bullet for a new shot. When all MAX_SHOTS bullets are on the
+   * screen the oldest one is fired again.
+   *
+   * @return an active bullet object.
+   */
+  public Bullet fireBullet() {
+    int id = bulletPool.acquire();
+    Bullet bullet;
+
+    if (id < 0) {
+      id = bulletPool.getActive(0);
+      for (int k = 1; k < bulletPool.getActiveCount(); k++)
+        if (bullets[bulletPool.getActive(k)].shot < bullets[id].shot) id = bulletPool.getActive(k);
+    }
+
+    bullet = bullets[id];
+    bullet.shot = ++shots;
+    bullet.setActive(true);
+
+    return bullet;
+  }
+
+  /**
+   * Take every bullet off the screen.
+   */
+  public void clearBullets() {
+    for (Bullet bullet : bullets) bullet.setActive(false);
+    bulletPool.clear();
+  }
+
+  /**
+   * Take a bullet off the screen.
+   *
+   * @param bullet bullet object of this ship.
+   */
+  public void removeBullet(Bullet bullet) {
+    bullet.setActive(false);
+    bulletPool.release(bullet.id);
+  }
+
   /**
    * Returns forward thruster of the Ship.
    *
@@ -69,20 +147,86 @@ public class Ship extends AsteroidSprite implements Constants {
     return revThruster;
   }
 
+  @Override
+  public int getStateSize() {
+    int size = super.getStateSize() + 8 + bulletPool.getStateSize();
+
+    for (int k = 0; k < bulletPool.getActiveCount(); k++)
+      size += 8 + bullets[bulletPool.getActive(k)].getStateSize();
+
+    return size;
+  }
+
+  /**
+   * Write the ship, the bullet pool and every bullet on the screen.
+   *
+   * @param out buffer to write to.
+   */
+  @Override
+  public void writeState(ByteBuffer out) {
+    Bullet bullet;
+
+    super.writeState(out);
+    out.putLong(shots);
+    bulletPool.writeState(out);
+    for (int k = 0; k < bulletPool.getActiveCount(); k++) {
+      bullet = bullets[bulletPool.getActive(k)];
+      out.putLong(bullet.shot);
+      bullet.writeState(out);
+    }
+  }
+
+  /**
+   * Restore a state written by writeState(). The thrusters are moved back
+   * to the ship.
+   *
+   * @param in buffer to read from.
+   */
+  @Override
+  public void readState(ByteBuffer in) {
+    Bullet bullet;
+
+    super.readState(in);
+    shots = in.getLong();
+    for (Bullet b : bullets) b.setActive(false);
+    bulletPool.readState(in);
+    for (int k = 0; k < bulletPool.getActiveCount(); k++) {
+      bullet = bullets[bulletPool.getActive(k)];
+      bullet.shot = in.getLong();
+      bullet.readState(in);
+    }
+
+    fwdThruster.follow(this);
+    fwdThruster.render();
+    revThruster.follow(this);
+    revThruster.render();
+  }
+
   @Override
   public void init() {
     // Reset the ship sprite at the center of the screen.
+    init(0.0, 0.0);
+  }
+
+  /**
+   * Reset the ship, at rest and facing up, at a given position.
+   *
+   * @param x x-position relative to the center of the screen.
+   * @param y y-position relative to the center of the screen.
+   */
+  public void init(double x, double y) {
     this.setActive(true);
+    this.setX(x);
+    this.setY(y);
+    this.setAngle(0.0);
+    this.setDeltaX(0.0);
+    this.setDeltaY(0.0);
     this.render();
 
     // Initialize thruster sprites.
-    fwdThruster.setX(this.getX());
-    fwdThruster.setY(this.getY());
-    fwdThruster.setAngle(this.getAngle());
+    fwdThruster.follow(this);
     fwdThruster.render();
-    revThruster.setX(this.getX());
-    revThruster.setY(this.getY());
-    revThruster.setAngle(this.getAngle());
+    revThruster.follow(this);
     revThruster.render();
   }
 
@@ -94,11 +238,13 @@ public class Ship extends AsteroidSprite implements Constants {
    * MAX_SHOTS, the un-active or the newly fired bullet gets removed from the screen.
    */
   public void updateBullets() {
-    for (int i = 0; i < MAX_SHOTS; i++) {
-      if (bullets[i].isActive()) {
-        if (!bullets[i].advance()) bullets[i].render();
-        else bullets[i].setActive(false);
-      }
+    Bullet bullet;
+
+    // Run backwards, removing a bullet moves the last one into its place.
+    for (int k = bulletPool.getActiveCount() - 1; k >= 0; k--) {
+      bullet = bullets[bulletPool.getActive(k)];
+      if (!bullet.advance()) bullet.render();
+      else removeBullet(bullet);
     }
   }
 }
\ No newline at end of file
@@ -0,0 +1,163 @@
+package com.asteroid.objects;
+
+import java.util.Arrays;
+
+import com.asteroid.Constants;
+
+/**
+ * Uniform grid over the world used as the broad phase for collision tests.
+ * The grid wraps at the world edges the same way sprites do in advance(), so
+ * a sprite hanging over one edge is also found in the cells on the opposite
+ * side. Only sprites sharing a cell with the query box are handed on to the
+ * exact polygon test.
+ *
+ * The grid is rebuilt from a SpriteStore every tick with a counting sort:
+ * one pass counts the ids per cell, a prefix sum turns the counts into
+ * offsets and a second pass fills the packed id list.
+ */
+public class SpatialGrid {
+
+  private final int cols, rows;
+  private final double cellWidth, cellHeight;
+
+  private final int[] cellStart;         // Offset of each cell in cellItems.
+  private final int[] cellFill;          // Write position while building.
+  private int[] cellItems = new int[0];  // Sprite ids, packed by cell.
+
+  private int[] stamp = new int[0];      // Last query that reported each id.
+  private int queryCount;
+
+  /**
+   * Create a grid.
+   *
+   * @param cellSize preferred edge length of a cell, in pixels. Cells are
+   *                 stretched slightly so a whole number fits the world.
+   */
+  public SpatialGrid(int cellSize) {
+    cols = Math.max(1, Math.round((float) Constants.WORLD_WIDTH / cellSize));
+    rows = Math.max(1, Math.round((float) Constants.WORLD_HEIGHT / cellSize));
+    cellWidth = Constants.WORLD_WIDTH / (double) cols;
+    cellHeight = Constants.WORLD_HEIGHT / (double) rows;
+    cellStart = new int[cols * rows + 1];
+    cellFill = new int[cols * rows];
+  }
+
+  /**
+   * Rebuild the grid from the active sprites of a store, using the bounds
+   * of their final sprites.
+   *
+   * @param store sprites to index.
+   */
+  public void build(SpriteStore store) {
+    int k, id, total, c, r, cell;
+    int col0, col1, row0, row1;
+
+    if (stamp.length < store.getCapacity()) stamp = new int[store.getCapacity()];
+    Arrays.fill(cellStart, 0);
+
+    // Count the ids falling into each cell.
+    for (k = 0; k < store.getActiveCount(); k++) {
+      id = store.getActive(k);
+      col0 = firstCol(store.getMinX(id));
+      col1 = lastCol(col0, store.getMaxX(id));
+      row0 = firstRow(store.getMinY(id));
+      row1 = lastRow(row0, store.getMaxY(id));
+
+      for (r = row0; r <= row1; r++)
+        for (c = col0; c <= col1; c++)
+          cellStart[cellIndex(c, r) + 1]++;
+    }
+
+    // Turn the counts into offsets.
+    for (cell = 0; cell < cols * rows; cell++) {
+      cellStart[cell + 1] += cellStart[cell];
+      cellFill[cell] = cellStart[cell];
+    }
+
+    total = cellStart[cols * rows];
+    if (cellItems.length < total) cellItems = new int[Math.max(total, cellItems.length * 2)];
+
+    // Place each id into its cells.
+    for (k = 0; k < store.getActiveCount(); k++) {
+      id = store.getActive(k);
+      col0 = firstCol(store.getMinX(id));
+      col1 = lastCol(col0, store.getMaxX(id));
+      row0 = firstRow(store.getMinY(id));
+      row1 = lastRow(row0, store.getMaxY(id));
+
+      for (r = row0; r <= row1; r++)
+        for (c = col0; c <= col1; c++) {
+          cell = cellIndex(c, r);
+          cellItems[cellFill[cell]++] = id;
+        }
+    }
+  }
+
+  /**
+   * Find every indexed sprite sharing a cell with a box on the screen. Each
+   * id is reported once, in ascending order.
+   *
+   * @param minX left edge of the box.
+   * @param minY top edge of the box.
+   * @param maxX right edge of the box.
+   * @param maxY bottom edge of the box.
+   * @param out receives the ids, must hold the capacity of the store.
+   * @return number of ids written to out.
+   */
+  public int query(int minX, int minY, int maxX, int maxY, int[] out) {
+    int col0, col1, row0, row1, c, r, cell, k, id;
+    int n = 0;
+
+    if (cols == 0) return 0;
+
+    if (++queryCount == Integer.MAX_VALUE) {
+      Arrays.fill(stamp, 0);
+      queryCount = 1;
+    }
+    col0 = firstCol(minX);
+    col1 = lastCol(col0, maxX);
+    row0 = firstRow(minY);
+    row1 = lastRow(row0, maxY);
+
+    for (r = row0; r <= row1; r++)
+      for (c = col0; c <= col1; c++) {
+        cell = cellIndex(c, r);
+        for (k = cellStart[cell]; k < cellStart[cell + 1]; k++) {
+          id = cellItems[k];
+          if (stamp[id] != queryCount) {
+            stamp[id] = queryCount;
+            out[n++] = id;
+          }
+        }
+      }
+
+    // Keep results in id order so collisions resolve the same way as a
+    // plain loop over the store.
+    Arrays.sort(out, 0, n);
+
+    return n;
+  }
+
+  private int firstCol(int x) {
+    return (int) Math.floor(x / cellWidth);
+  }
+
+  private int lastCol(int first, int x) {
+    return Math.min((int) Math.floor(x / cellWidth), first + cols - 1);
+  }
+
+  private int firstRow(int y) {
+    return (int) Math.floor(y / cellHeight);
+  }
+
+  private int lastRow(int first, int y) {
+    return Math.min((int) Math.floor(y / cellHeight), first + rows - 1);
+  }
+
+  /**
+   * Returns the index of a cell, wrapping columns and rows around the edges.
+   */
+  private int cellIndex(int col, int row) {
+    return Math.floorMod(row, rows) * cols + Math.floorMod(col, cols);
+  }
+}
\ No newline at end of file
@@ -0,0 +1,580 @@
+package com.asteroid.objects;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import com.asteroid.Constants;
+import com.asteroid.FastMath;
+import com.asteroid.Parallel;
+
+/**
+ * A SpriteStore keeps many simple sprites of the same kind, such as asteroids
+ * or explosion debris, as a struct of arrays. Every attribute is a primitive
+ * column indexed by sprite id and all shapes live in one packed vertex buffer,
+ * so moving and transforming the whole set walks contiguous memory instead of
+ * a heap object per sprite.
+ *
+ * Sprite ids come from an EntityPool. The columns grow along with the pool
+ * and the bulk operations only visit the sprites in use. Each sprite is
+ * moved and transformed on its own, so large stores split advanceAll() and
+ * renderAll() across threads with Parallel.
+ */
+public class SpriteStore {
+
+  private final EntityPool pool;   // Ids in use and free.
+  private final int stride;        // Vertices reserved per slot.
+  private int capacity;            // Number of sprite slots in the columns.
+
+  private double[] x, y;             // Current position on screen.
+  private double[] deltaX, deltaY;   // Amount to change the position.
+  private double[] angle;            // Current angle of rotation.
+  private double[] deltaAngle;       // Amount to change the rotation angle.
+  private double[] prevX, prevY;     // Position and angle before the
+  private double[] prevAngle;        // last advance, for interpolation.
+
+  private int[] vertexCount;   // Number of vertices in each shape.
+  private float[] shape;       // Base shapes, centered at the origin.
+  private int[] minX, minY;    // Bounds of each final sprite, in
+                               // screen coordinates.
+  private int[] maxX, maxY;
+  private CollisionShape[] hulls;  // Collision geometry of each shape.
+  private boolean[] hullDirty;     // Shape changed since the hull was built.
+
+  private final Parallel.RangeTask advanceRange = this::advanceRange;
+  private final Parallel.RangeTask renderRange = this::renderRange;
+
+  /**
+   * Create a store with a fixed number of slots.
+   *
+   * @param capacity number of sprites the store can hold.
+   * @param stride most vertices a single sprite shape can have.
+   */
+  public SpriteStore(int capacity, int stride) {
+    this(capacity, stride, capacity);
+  }
+
+  /**
+   * Create a store that grows when it runs out of slots.
+   *
+   * @param capacity number of sprite slots to start with.
+   * @param stride most vertices a single sprite shape can have.
+   * @param maxCapacity most sprites the store can ever hold.
+   */
+  public SpriteStore(int capacity, int stride, int maxCapacity) {
+    this.pool = new EntityPool(capacity, maxCapacity);
+    this.stride = stride;
+
+    x = new double[0];
+    y = new double[0];
+    deltaX = new double[0];
+    deltaY = new double[0];
+    angle = new double[0];
+    deltaAngle = new double[0];
+    prevX = new double[0];
+    prevY = new double[0];
+    prevAngle = new double[0];
+
+    vertexCount = new int[0];
+    shape = new float[0];
+    minX = new int[0];
+    minY = new int[0];
+    maxX = new int[0];
+    maxY = new int[0];
+    hulls = new CollisionShape[0];
+    hullDirty = new boolean[0];
+    grow();
+  }
+
+  /**
+   * Bring the columns up to the capacity of the pool.
+   */
+  private void grow() {
+    int n = pool.getCapacity();
+
+    x = Arrays.copyOf(x, n);
+    y = Arrays.copyOf(y, n);
+    deltaX = Arrays.copyOf(deltaX, n);
+    deltaY = Arrays.copyOf(deltaY, n);
+    angle = Arrays.copyOf(angle, n);
+    deltaAngle = Arrays.copyOf(deltaAngle, n);
+    prevX = Arrays.copyOf(prevX, n);
+    prevY = Arrays.copyOf(prevY, n);
+    prevAngle = Arrays.copyOf(prevAngle, n);
+
+    vertexCount = Arrays.copyOf(vertexCount, n);
+    shape = Arrays.copyOf(shape, n * stride * 2);
+    minX = Arrays.copyOf(minX, n);
+    minY = Arrays.copyOf(minY, n);
+    maxX = Arrays.copyOf(maxX, n);
+    maxY = Arrays.copyOf(maxY, n);
+    hulls = Arrays.copyOf(hulls, n);
+    hullDirty = Arrays.copyOf(hullDirty, n);
+    for (int i = capacity; i < n; i++) hulls[i] = new CollisionShape();
+
+    capacity = n;
+  }
+
+  /**
+   * Returns the number of sprite slots. Ids are always below this value,
+   * which can go up whenever acquire() is called.
+   *
+   * @return current capacity.
+   */
+  public int getCapacity() {
+    return capacity;
+  }
+
+  public int getStride() {
+    return stride;
+  }
+
+  /**
+   * Returns the pool the sprite ids come from, for its usage metrics.
+   *
+   * @return id pool.
+   */
+  public EntityPool getPool() {
+    return pool;
+  }
+
+  public boolean isActive(int id) {
+    return pool.isActive(id);
+  }
+
+  public int getActiveCount() {
+    return pool.getActiveCount();
+  }
+
+  /**
+   * Returns an active sprite id. See EntityPool.getActive().
+   *
+   * @param index position in the list of active sprites.
+   * @return sprite id.
+   */
+  public int getActive(int index) {
+    return pool.getActive(index);
+  }
+
+  /**
+   * Take a free sprite slot, growing the store if needed. The slot keeps
+   * whatever the sprite before it left behind, so callers set its shape,
+   * position, rotation and motion.
+   *
+   * @return sprite id, or -1 if the store is full.
+   */
+  public int acquire() {
+    int id = pool.acquire();
+
+    if (pool.getCapacity() > capacity) grow();
+
+    return id;
+  }
+
+  /**
+   * Free a sprite slot.
+   *
+   * @param id sprite id.
+   */
+  public void release(int id) {
+    pool.release(id);
+  }
+
+  /**
+   * Free every sprite slot.
+   */
+  public void clear() {
+    pool.clear();
+  }
+
+  /**
+   * Returns the number of bytes writeState() writes.
+   *
+   * @return state size in bytes.
+   */
+  public int getStateSize() {
+    int size = pool.getStateSize();
+
+    for (int k = 0; k < pool.getActiveCount(); k++)
+      size += 9 * 8 + 4 + 8 * vertexCount[pool.getActive(k)];
+
+    return size;
+  }
+
+  /**
+   * Write the id pool and the motion and shape of every active sprite.
+   *
+   * @param out buffer to write to.
+   */
+  public void writeState(ByteBuffer out) {
+    int id, base;
+
+    pool.writeState(out);
+    for (int k = 0; k < pool.getActiveCount(); k++) {
+      id = pool.getActive(k);
+      out.putDouble(x[id]);
+      out.putDouble(y[id]);
+      out.putDouble(angle[id]);
+      out.putDouble(deltaX[id]);
+      out.putDouble(deltaY[id]);
+      out.putDouble(deltaAngle[id]);
+      out.putDouble(prevX[id]);
+      out.putDouble(prevY[id]);
+      out.putDouble(prevAngle[id]);
+
+      base = id * stride * 2;
+      out.putInt(vertexCount[id]);
+      for (int v = 0; v < 2 * vertexCount[id]; v++) out.putFloat(shape[base + v]);
+    }
+  }
+
+  /**
+   * Restore a state written by writeState() and render every active sprite.
+   * Collision geometry is only rebuilt for shapes that differ from the ones
+   * in place, so restoring the same state again is cheap.
+   *
+   * @param in buffer to read from.
+   */
+  public void readState(ByteBuffer in) {
+    int id, base, n;
+    float v;
+
+    pool.readState(in);
+    if (pool.getCapacity() > capacity) grow();
+
+    for (int k = 0; k < pool.getActiveCount(); k++) {
+      id = pool.getActive(k);
+      x[id] = in.getDouble();
+      y[id] = in.getDouble();
+      angle[id] = in.getDouble();
+      deltaX[id] = in.getDouble();
+      deltaY[id] = in.getDouble();
+      deltaAngle[id] = in.getDouble();
+      prevX[id] = in.getDouble();
+      prevY[id] = in.getDouble();
+      prevAngle[id] = in.getDouble();
+
+      n = in.getInt();
+      if (n < 0 || n > stride) throw new IllegalArgumentException("bad vertex count in state: " + n);
+      base = id * stride * 2;
+      if (vertexCount[id] != n) {
+        vertexCount[id] = n;
+        hullDirty[id] = true;
+      }
+      for (int j = 0; j < 2 * n; j++) {
+        v = in.getFloat();
+        if (shape[base + j] != v) {
+          shape[base + j] = v;
+          hullDirty[id] = true;
+        }
+      }
+
+      render(id);
+    }
+  }
+
+  public double getX(int id) {
+    return x[id];
+  }
+
+  public double getY(int id) {
+    return y[id];
+  }
+
+  public double getDeltaX(int id) {
+    return deltaX[id];
+  }
+
+  public double getDeltaY(int id) {
+    return deltaY[id];
+  }
+
+  public double getAngle(int id) {
+    return angle[id];
+  }
+
+  public double getDeltaAngle(int id) {
+    return deltaAngle[id];
+  }
+
+  /**
+   * Sets the position of a sprite. The previous position is moved along so
+   * a freshly placed sprite does not interpolate from its old spot.
+   *
+   * @param id sprite id.
+   * @param x x-position.
+   * @param y y-position.
+   */
+  public void setPosition(int id, double x, double y) {
+    this.x[id] = this.prevX[id] = x;
+    this.y[id] = this.prevY[id] = y;
+  }
+
+  /**
+   * Sets the motion of a sprite.
+   *
+   * @param id sprite id.
+   * @param deltaX amount to change the x-position each tick.
+   * @param deltaY amount to change the y-position each tick.
+   */
+  public void setDelta(int id, double deltaX, double deltaY) {
+    this.deltaX[id] = deltaX;
+    this.deltaY[id] = deltaY;
+  }
+
+  /**
+   * Sets the rotation of a sprite.
+   *
+   * @param id sprite id.
+   * @param angle current angle.
+   * @param deltaAngle amount to change the angle each tick.
+   */
+  public void setRotation(int id, double angle, double deltaAngle) {
+    this.angle[id] = this.prevAngle[id] = angle;
+    this.deltaAngle[id] = deltaAngle;
+  }
+
+  /**
+   * Returns the number of vertices in the shape of a sprite.
+   *
+   * @param id sprite id.
+   * @return vertex count.
+   */
+  public int getVertexCount(int id) {
+    return vertexCount[id];
+  }
+
+  public int getMinX(int id) {
+    return minX[id];
+  }
+
+  public int getMinY(int id) {
+    return minY[id];
+  }
+
+  public int getMaxX(int id) {
+    return maxX[id];
+  }
+
+  public int getMaxY(int id) {
+    return maxY[id];
+  }
+
+  public float getShapeX(int id, int vertex) {
+    return shape[(id * stride + vertex) * 2];
+  }
+
+  public float getShapeY(int id, int vertex) {
+    return shape[(id * stride + vertex) * 2 + 1];
+  }
+
+  /**
+   * Remove every vertex from the shape of a sprite.
+   *
+   * @param id sprite id.
+   */
+  public void clearShape(int id) {
+    vertexCount[id] = 0;
+    hullDirty[id] = true;
+  }
+
+  /**
+   * Add a vertex to the shape of a sprite. Vertices past the stride of the
+   * store are ignored.
+   *
+   * @param id sprite id.
+   * @param vx x-coordinate relative to the sprite center.
+   * @param vy y-coordinate relative to the sprite center.
+   */
+  public void addVertex(int id, float vx, float vy) {
+    int n = vertexCount[id];
+
+    if (n >= stride) return;
+
+    shape[(id * stride + n) * 2] = vx;
+    shape[(id * stride + n) * 2 + 1] = vy;
+    vertexCount[id] = n + 1;
+    hullDirty[id] = true;
+  }
+
+  /**
+   * Move every active sprite one tick, wrapping at the screen edges.
+   */
+  public void advanceAll() {
+    Parallel.forRange(pool.getActiveCount(), advanceRange);
+  }
+
+  private void advanceRange(int from, int to) {
+    for (int k = from; k < to; k++) advance(pool.getActive(k));
+  }
+
+  /**
+   * Move a sprite one tick, wrapping at the screen edges.
+   *
+   * @param id sprite id.
+   */
+  public void advance(int id) {
+    int width = Constants.WORLD_WIDTH;
+    int height = Constants.WORLD_HEIGHT;
+    double twoPi = 2 * Math.PI;
+
+    prevX[id] = x[id];
+    prevY[id] = y[id];
+    prevAngle[id] = angle[id];
+
+    angle[id] += deltaAngle[id];
+    if (angle[id] < 0) angle[id] += twoPi;
+    if (angle[id] > twoPi) angle[id] -= twoPi;
+
+    x[id] += deltaX[id];
+    if (x[id] < (double) -width / 2) {
+      x[id] += width;
+      prevX[id] += width;
+    }
+    if (x[id] > (double) width / 2) {
+      x[id] -= width;
+      prevX[id] -= width;
+    }
+
+    y[id] -= deltaY[id];
+    if (y[id] < (double) -height / 2) {
+      y[id] += height;
+      prevY[id] += height;
+    }
+    if (y[id] > (double) height / 2) {
+      y[id] -= height;
+      prevY[id] -= height;
+    }
+  }
+
+  /**
+   * Transform the shape of every active sprite to screen coordinates.
+   */
+  public void renderAll() {
+    Parallel.forRange(pool.getActiveCount(), renderRange);
+  }
+
+  private void renderRange(int from, int to) {
+    for (int k = from; k < to; k++) render(pool.getActive(k));
+  }
+
+  /**
+   * Transform the shape of a sprite to screen coordinates and record the
+   * bounds of the result. A changed shape also gets its collision geometry
+   * rebuilt here, so collision tests only ever read it.
+   *
+   * @param id sprite id.
+   */
+  public void render(int id) {
+    int n = vertexCount[id];
+    int base = id * stride;
+    int ox = (int) Math.round(x[id]) + Constants.WORLD_WIDTH / 2;
+    int oy = (int) Math.round(y[id]) + Constants.WORLD_HEIGHT / 2;
+    double cos = FastMath.cos(angle[id]);
+    double sin = FastMath.sin(angle[id]);
+    int lowX = Integer.MAX_VALUE, lowY = Integer.MAX_VALUE;
+    int highX = Integer.MIN_VALUE, highY = Integer.MIN_VALUE;
+    int px, py;
+    float sx, sy;
+
+    for (int k = 0; k < n; k++) {
+      sx = shape[(base + k) * 2];
+      sy = shape[(base + k) * 2 + 1];
+      px = (int) Math.round(sx * cos + sy * sin) + ox;
+      py = (int) Math.round(sy * cos - sx * sin) + oy;
+
+      if (px < lowX) lowX = px;
+      if (px > highX) highX = px;
+      if (py < lowY) lowY = py;
+      if (py > highY) highY = py;
+    }
+
+    minX[id] = lowX;
+    minY[id] = lowY;
+    maxX[id] = highX;
+    maxY[id] = highY;
+
+    if (hullDirty[id]) getHull(id);
+  }
+
+  /**
+   * Transform the shape of a sprite to screen coordinates at a point between
+   * the previous and the current tick, for drawing.
+   *
+   * @param id sprite id.
+   * @param alpha fraction of a tick since the current state was computed.
+   * @param xs receives the x-coordinates.
+   * @param ys receives the y-coordinates.
+   * @return number of vertices written.
+   */
+  public int renderInterpolated(int id, double alpha, int[] xs, int[] ys) {
+    int n = vertexCount[id];
+    int base = id * stride;
+    double a, da, ix, iy, cos, sin;
+    int ox, oy;
+    float sx, sy;
+
+    da = angle[id] - prevAngle[id];
+    if (da > Math.PI) da -= 2 * Math.PI;
+    if (da < -Math.PI) da += 2 * Math.PI;
+
+    a = prevAngle[id] + da * alpha;
+    ix = prevX[id] + (x[id] - prevX[id]) * alpha;
+    iy = prevY[id] + (y[id] - prevY[id]) * alpha;
+    ox = (int) Math.round(ix) + Constants.WORLD_WIDTH / 2;
+    oy = (int) Math.round(iy) + Constants.WORLD_HEIGHT / 2;
+    cos = FastMath.cos(a);
+    sin = FastMath.sin(a);
+
+    for (int k = 0; k < n; k++) {
+      sx = shape[(base + k) * 2];
+      sy = shape[(base + k) * 2 + 1];
+      xs[k] = (int) Math.round(sx * cos + sy * sin) + ox;
+      ys[k] = (int) Math.round(sy * cos - sx * sin) + oy;
+    }
+
+    return n;
+  }
+
+  /**
+   * Check whether an object is colliding with a sprite of this store.
+   * Objects whose bounding circles do not touch are rejected first, the rest
+   * get a separating axis test on their convex pieces.
+   *
+   * @param id sprite id.
+   * @param asteroidSprite sprite(another object).
+   * @return boolean.
+   */
+  public boolean isColliding(int id, AsteroidSprite asteroidSprite) {
+    return getHull(id).intersects(x[id], y[id], angle[id],
+        asteroidSprite.getHull(), asteroidSprite.getX(), asteroidSprite.getY(), asteroidSprite.getAngle());
+  }
+
+  /**
+   * Check whether a fast object, such as a bullet, hit a sprite of this
+   * store anywhere along its last move rather than only where it ended up.
+   *
+   * @param id sprite id.
+   * @param asteroidSprite moving object.
+   * @return boolean.
+   */
+  public boolean isSweptColliding(int id, AsteroidSprite asteroidSprite) {
+    return getHull(id).intersects(x[id], y[id], angle[id],
+        asteroidSprite.getHull(), asteroidSprite.getX(), asteroidSprite.getY(), asteroidSprite.getAngle(),
+        asteroidSprite.getMotionX() - (x[id] - prevX[id]), asteroidSprite.getMotionY() - (y[id] - prevY[id]));
+  }
+
+  /**
+   * Returns the collision geometry of a sprite, rebuilding it if its shape
+   * has changed.
+   *
+   * @param id sprite id.
+   * @return collision shape.
+   */
+  public CollisionShape getHull(int id) {
+    if (hullDirty[id]) {
+      hulls[id].set(shape, id * stride * 2, vertexCount[id]);
+      hullDirty[id] = false;
+    }
+    return hulls[id];
+  }
+}
\ No newline at end of file
@@ -1,14 +0,0 @@
-package com.asteroid.objects;
-
-import java.awt.*;
-
-/**
- * Star object that appears on the screen at random positions.
- */
-public class Star extends Point {
-
-  public Star(int x, int y) {
-    super.x = x;
-    super.y = y;
-  }
-}
\ No newline at end of file
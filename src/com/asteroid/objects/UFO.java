@@ -1,6 +1,9 @@
 package com.asteroid.objects;
 
+import java.nio.ByteBuffer;
+
 import com.asteroid.Constants;
+import com.asteroid.RandomStream;
 
 /**
  * UFO object.
@@ -33,22 +36,54 @@ public class UFO extends AsteroidSprite implements Constants {
     return missile;
   }
 
-  public void init() {
+  @Override
+  public int getStateSize() {
+    return super.getStateSize() + missile.getStateSize();
+  }
+
+  /**
+   * Write the saucer and its missile.
+   *
+   * @param out buffer to write to.
+   */
+  @Override
+  public void writeState(ByteBuffer out) {
+    super.writeState(out);
+    missile.writeState(out);
+  }
+
+  /**
+   * Restore a state written by writeState().
+   *
+   * @param in buffer to read from.
+   */
+  @Override
+  public void readState(ByteBuffer in) {
+    super.readState(in);
+    missile.readState(in);
+  }
+
+  /**
+   * Start a pass of the flying saucer from a random edge of the screen.
+   *
+   * @param random stream to draw the start position and motion from.
+   */
+  public void init(RandomStream random) {
     double angle, speed;
 
     // Randomly set flying saucer at left or right edge of the screen.
     this.setActive(true);
-    this.setX(-AsteroidSprite.getWidth() >> 1);
-    this.setY(Math.random() * 2 * AsteroidSprite.getHeight() - AsteroidSprite.getWidth());
+    this.setX(-WORLD_WIDTH >> 1);
+    this.setY(random.nextDouble() * 2 * WORLD_HEIGHT - WORLD_WIDTH);
 
-    angle = Math.random() * Math.PI / 4 - Math.PI / 2;
-    speed = MAX_ROCK_SPEED / 2 + Math.random() * (MAX_ROCK_SPEED / 2);
+    angle = random.nextDouble() * Math.PI / 4 - Math.PI / 2;
+    speed = MAX_ROCK_SPEED / 2 + random.nextDouble() * (MAX_ROCK_SPEED / 2);
 
     this.setDeltaX(speed * -Math.sin(angle));
     this.setDeltaY(speed *  Math.cos(angle));
 
-    if (Math.random() < 0.5) {
-      this.setX(AsteroidSprite.getWidth() >> 1);
+    if (random.nextDouble() < 0.5) {
+      this.setX(WORLD_WIDTH >> 1);
       this.setDeltaX(-this.getDeltaX());
     }
 